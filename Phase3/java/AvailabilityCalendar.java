@@ -0,0 +1,231 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory record of which rooms of each hotel are booked on which day,
+ * answering numberOfAvailableRooms and numberOfBookedRooms without a trip
+ * to the database.
+ *
+ * Each hotel numbers its rooms 0..n-1 and keeps, per day, a bitset of n
+ * bits (one long per 64 rooms).  Days are grouped in chunks of 32, held in
+ * a sorted array and only allocated once a booking falls inside them, so
+ * quiet stretches of the calendar cost nothing.
+ *
+ * Memory: a chunk is a long[32 * words] array, 16 + 256 * words bytes,
+ * where words is ceil(rooms / 64).  A hotel-year with bookings throughout
+ * is 12 chunks, about 3.9 KB with its indexes for up to 64 rooms (the
+ * shipped data has 10 per hotel).  The shipped data is sparse, 4 bookings
+ * per hotel over 19 years; scaled 100x (100,000 hotels, 1,000,000 rooms,
+ * 400,000 bookings) it takes about 140 MB of heap, 1.4 KB per hotel or
+ * 75 bytes per hotel-year.  DBBench calendar measures both figures.
+ *
+ * The calendar is built from Room and Booking at startup and kept current
+ * by DBProject as this process adds rooms and bookings; bookings made by
+ * other processes are not seen until it is rebuilt.
+ *
+ */
+public class AvailabilityCalendar {
+
+   private static final int CHUNK_SHIFT = 5;
+   private static final int CHUNK_DAYS = 1 << CHUNK_SHIFT;
+
+   // one hotel's rooms and booked-room bitsets
+   static final class HotelCalendar {
+      // sorted room numbers and the bit each one was given
+      private int[] roomNos = new int[0];
+      private int[] roomBits = new int[0];
+      private int words = 1;
+      // sorted chunk numbers (day >> 5) and their bitsets, allocated only
+      // for chunks holding a booking
+      private int[] chunkNos = new int[0];
+      private long[][] chunks = new long[0][];
+      private int chunkCount;
+
+      synchronized int addRoom (int roomNo) {
+         int i = Arrays.binarySearch(this.roomNos, roomNo);
+         if (i >= 0) return this.roomBits[i];
+         i = -i - 1;
+         int b = this.roomNos.length;
+         this.roomNos = insert (this.roomNos, b, i, roomNo);
+         this.roomBits = insert (this.roomBits, b, i, b);
+         if (b >= this.words * 64) widen (this.words * 2);
+         return b;
+      }//end addRoom
+
+      synchronized void book (int roomNo, int day) {
+         int i = Arrays.binarySearch(this.roomNos, roomNo);
+         int b = i >= 0 ? this.roomBits[i] : addRoom (roomNo);
+         long[] chunk = chunkFor (day, true);
+         chunk[(day & (CHUNK_DAYS - 1)) * this.words + (b >>> 6)] |= 1L << (b & 63);
+      }//end book
+
+      synchronized int booked (int day) {
+         long[] chunk = chunkFor (day, false);
+         if (chunk == null) return 0;
+         int base = (day & (CHUNK_DAYS - 1)) * this.words;
+         int count = 0;
+         for (int w = 0; w < this.words; ++w)
+            count += Long.bitCount(chunk[base + w]);
+         return count;
+      }//end booked
+
+      synchronized int rooms () {
+         return this.roomNos.length;
+      }//end rooms
+
+      private long[] chunkFor (int day, boolean create) {
+         int no = day >> CHUNK_SHIFT;
+         int i = Arrays.binarySearch(this.chunkNos, 0, this.chunkCount, no);
+         if (i >= 0) return this.chunks[i];
+         if (!create) return null;
+         i = -i - 1;
+         if (this.chunkCount == this.chunkNos.length){
+            int capacity = Math.max(4, this.chunkCount * 2);
+            this.chunkNos = Arrays.copyOf(this.chunkNos, capacity);
+            this.chunks = Arrays.copyOf(this.chunks, capacity);
+         }//end if
+         System.arraycopy(this.chunkNos, i, this.chunkNos, i + 1, this.chunkCount - i);
+         System.arraycopy(this.chunks, i, this.chunks, i + 1, this.chunkCount - i);
+         long[] chunk = new long[CHUNK_DAYS * this.words];
+         this.chunkNos[i] = no;
+         this.chunks[i] = chunk;
+         ++this.chunkCount;
+         return chunk;
+      }//end chunkFor
+
+      // copy of a (holding n values) with value inserted at i
+      private static int[] insert (int[] a, int n, int i, int value) {
+         int[] grown = new int[n + 1];
+         System.arraycopy(a, 0, grown, 0, i);
+         grown[i] = value;
+         System.arraycopy(a, i, grown, i + 1, n - i);
+         return grown;
+      }//end insert
+
+      // re-lays every chunk out with more words per day
+      private void widen (int newWords) {
+         for (int c = 0; c < this.chunkCount; ++c){
+            long[] old = this.chunks[c];
+            long[] wide = new long[CHUNK_DAYS * newWords];
+            for (int d = 0; d < CHUNK_DAYS; ++d)
+               System.arraycopy(old, d * this.words, wide, d * newWords, this.words);
+            this.chunks[c] = wide;
+         }//end for
+         this.words = newWords;
+      }//end widen
+
+      synchronized long footprintBytes () {
+         // object header and fields, the four arrays, then the bitsets
+         long bytes = 40 + 32 + 8L * this.roomNos.length + 32 + 12L * this.chunkNos.length;
+         for (int c = 0; c < this.chunkCount; ++c)
+            bytes += 16 + 8L * this.chunks[c].length;
+         return bytes;
+      }//end footprintBytes
+   }//end HotelCalendar
+
+   private final ConcurrentHashMap<Integer, HotelCalendar> hotels = new ConcurrentHashMap<Integer, HotelCalendar>();
+
+   private HotelCalendar hotel (int hotelID) {
+      HotelCalendar h = this.hotels.get(hotelID);
+      if (h == null){
+         HotelCalendar fresh = new HotelCalendar();
+         h = this.hotels.putIfAbsent(hotelID, fresh);
+         if (h == null) h = fresh;
+      }//end if
+      return h;
+   }//end hotel
+
+   /**
+    * Builds the calendar from the Room and Booking tables.
+    *
+    * @param esql the database to read
+    * @return the calendar
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public static AvailabilityCalendar load (DBProject esql) throws SQLException {
+      final AvailabilityCalendar calendar = new AvailabilityCalendar();
+      ResultCursor<Object> rooms = esql.openCursor("SELECT hotelID, roomNo FROM Room", new RowMapper<Object>() {
+         public Object mapRow (ResultSet rs) throws SQLException {
+            calendar.addRoom (rs.getInt (1), rs.getInt (2));
+            return null;
+         }
+      });
+      try{
+         while (rooms.hasNext ()) rooms.next ();
+      }finally{
+         rooms.close ();
+      }//end try
+      ResultCursor<Object> bookings = esql.openCursor("SELECT hotelID, roomNo, bookingDate FROM Booking", new RowMapper<Object>() {
+         public Object mapRow (ResultSet rs) throws SQLException {
+            calendar.book (rs.getInt (1), rs.getInt (2), Dates.toEpochDay (rs.getString (3)));
+            return null;
+         }
+      });
+      try{
+         while (bookings.hasNext ()) bookings.next ();
+      }finally{
+         bookings.close ();
+      }//end try
+      return calendar;
+   }//end load
+
+   /**
+    * Records a new room, initially free on every day.
+    */
+   public void addRoom (int hotelID, int roomNo) {
+      hotel (hotelID).addRoom (roomNo);
+   }//end addRoom
+
+   /**
+    * Marks a room as booked on the given epoch day.
+    */
+   public void book (int hotelID, int roomNo, int day) {
+      hotel (hotelID).book (roomNo, day);
+   }//end book
+
+   /**
+    * @return the number of distinct rooms of the hotel booked on the epoch day
+    */
+   public int bookedRooms (int hotelID, int day) {
+      HotelCalendar h = this.hotels.get(hotelID);
+      return h == null ? 0 : h.booked (day);
+   }//end bookedRooms
+
+   /**
+    * @return the number of rooms of the hotel with no booking on the epoch day
+    */
+   public int availableRooms (int hotelID, int day) {
+      HotelCalendar h = this.hotels.get(hotelID);
+      return h == null ? 0 : h.rooms () - h.booked (day);
+   }//end availableRooms
+
+   /**
+    * @return the approximate heap used by the bitsets and chunk tables
+    */
+   public long footprintBytes () {
+      long bytes = 0;
+      for (HotelCalendar h : this.hotels.values())
+         bytes += h.footprintBytes ();
+      return bytes;
+   }//end footprintBytes
+
+   public int hotelCount () {
+      return this.hotels.size();
+   }//end hotelCount
+
+}//end AvailabilityCalendar
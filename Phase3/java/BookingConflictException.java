@@ -0,0 +1,70 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+
+/**
+ * Thrown by Operations.bookRoom when the room is already booked on that
+ * day, by this process or another: the insert broke the unique constraint
+ * of migration 003.  Nothing was written.
+ *
+ */
+public class BookingConflictException extends SQLException {
+
+   private static final long serialVersionUID = 1L;
+
+   // the constraint added by sql/migrations/003_booking_unique_slot.sql
+   static final String CONSTRAINT = "booking_room_date_unique";
+
+   private final int hotelID;
+   private final int roomNo;
+   private final String bookingDate;
+
+   public BookingConflictException (int hotelID, int roomNo, String bookingDate, SQLException cause) {
+      super("Room " + roomNo + " of hotel " + hotelID + " is already booked on " + bookingDate,
+            cause.getSQLState(), cause);
+      this.hotelID = hotelID;
+      this.roomNo = roomNo;
+      this.bookingDate = bookingDate;
+   }//end BookingConflictException
+
+   public int getHotelID () {
+      return this.hotelID;
+   }//end getHotelID
+
+   public int getRoomNo () {
+      return this.roomNo;
+   }//end getRoomNo
+
+   public String getBookingDate () {
+      return this.bookingDate;
+   }//end getBookingDate
+
+   /*
+    * Whether e is a unique violation (SQLSTATE 23505).  The pg73 driver
+    * leaves the SQLSTATE out, so the server's message is checked as well.
+    */
+   static boolean isUniqueViolation (SQLException e) {
+      String message = e.getMessage();
+      return "23505".equals(e.getSQLState()) || (message != null && message.contains("duplicate key"));
+   }//end isUniqueViolation
+
+   /*
+    * Whether e is the unique violation of the room and day constraint.
+    */
+   static boolean isSlotTaken (SQLException e) {
+      String message = e.getMessage();
+      return isUniqueViolation (e) && message != null && message.contains(CONSTRAINT);
+   }//end isSlotTaken
+
+}//end BookingConflictException
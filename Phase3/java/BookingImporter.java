@@ -0,0 +1,248 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads bookings in bulk from a file laid out like data/booking.csv
+ * (bID,customer,hotelID,roomNo,bookingDate,noOfPeople,price).
+ *
+ * Rows are sent with JDBC batching, one transaction per batch.  When a
+ * batch fails (typically a row breaking bookingRoomConstraint,
+ * bookingCustomerConstraint or booking_room_date_unique) the batch is rolled back and its rows are
+ * retried one at a time, so only the offending rows end up in the reject
+ * file, each followed by the reason it was refused.  Any other failure,
+ * such as a lost connection or a statement timeout, stops the import.
+ *
+ * The bundled pg73 driver has no client-side COPY support, so batching is
+ * the fastest load path available to it.
+ *
+ */
+public class BookingImporter {
+
+   public static final int DEFAULT_BATCH_SIZE = Integer.getInteger("import.batch", 1000);
+
+   private final DBProject esql;
+   private final int batchSize;
+
+   /**
+    * Totals of one import run.
+    */
+   public static class Result {
+      public long loaded;
+      public long rejected;
+      public long batches;
+      public long elapsedMillis;
+
+      public long rowsPerSecond () {
+         return this.elapsedMillis == 0 ? this.loaded : this.loaded * 1000 / this.elapsedMillis;
+      }//end rowsPerSecond
+
+      public String toString () {
+         return "loaded=" + this.loaded + " rejected=" + this.rejected + " batches=" + this.batches +
+                " seconds=" + (this.elapsedMillis / 1000.0) + " rows/s=" + rowsPerSecond ();
+      }//end toString
+   }//end Result
+
+   // one parsed line of the input file
+   private static class Row {
+      final String line;
+      final Object[] params;
+
+      Row (String line, Object[] params) {
+         this.line = line;
+         this.params = params;
+      }
+   }//end Row
+
+   public BookingImporter (DBProject esql, int batchSize) {
+      if (batchSize < 1)
+         throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+      this.esql = esql;
+      this.batchSize = batchSize;
+   }//end BookingImporter
+
+   /**
+    * Imports every line of input, writing refused lines to rejects.
+    *
+    * @param input the booking file to load
+    * @param rejects where refused lines are written, with their reason
+    * @return the totals of the run
+    * @throws java.io.IOException when either file cannot be read or written
+    * @throws java.sql.SQLException when the database fails for a reason
+    *         other than a bad row
+    */
+   public Result importFile (File input, File rejects) throws IOException, SQLException {
+      Result result = new Result();
+      long start = System.currentTimeMillis();
+      BufferedReader reader = new BufferedReader(new FileReader(input));
+      BufferedWriter rejectWriter = new BufferedWriter(new FileWriter(rejects));
+      try{
+         List<Row> batch = new ArrayList<Row>(this.batchSize);
+         String line;
+         while ((line = reader.readLine()) != null){
+            if (line.trim().length() == 0) continue;
+            Row row;
+            try{
+               row = parse (line);
+            }catch (RuntimeException e){
+               reject (rejectWriter, line, "unparsable row: " + e.getMessage(), result);
+               continue;
+            }//end try
+            batch.add(row);
+            if (batch.size() == this.batchSize){
+               flush (batch, rejectWriter, result);
+               batch.clear();
+            }//end if
+         }//end while
+         if (!batch.isEmpty())
+            flush (batch, rejectWriter, result);
+      }finally{
+         reader.close();
+         rejectWriter.close();
+      }//end try
+
+      advanceSequence ();
+
+      result.elapsedMillis = System.currentTimeMillis() - start;
+      return result;
+   }//end importFile
+
+   /*
+    * Keeps the booking id sequence ahead of the ids that came from the
+    * file.  It is only moved forward, with nextval: setval could hand out
+    * again a block that a running program leased from it (IdAllocator) and
+    * is still using.  The last block drawn here is skipped.
+    */
+   private void advanceSequence () throws SQLException {
+      Long max = this.esql.queryForObject("SELECT MAX(bID) FROM Booking", RowMapper.LONG);
+      if (max == null) return;
+      while (true){
+         // the next block starts at last_value, or after it once drawn
+         long last = this.esql.queryForObject("SELECT last_value FROM booking_bid_seq", RowMapper.LONG);
+         if (last > max) return;
+         long draws = (max - last) / IdAllocator.BLOCK_SIZE + 1;
+         this.esql.queryForObject("SELECT MAX(nextval('booking_bid_seq')) FROM generate_series(1, ?)", RowMapper.LONG, draws);
+      }//end while
+   }//end advanceSequence
+
+   /*
+    * Whether e refused the row itself (a constraint or a bad value), so
+    * the row is rejected; any other failure stops the import.  The pg73
+    * driver reports no SQLSTATE, so its messages are matched too.
+    */
+   static boolean isRowError (SQLException e) {
+      String state = e.getSQLState();
+      if (state != null && state.length() == 5) return state.startsWith("23") || state.startsWith("22");
+      String message = e.getMessage();
+      if (message == null) return false;
+      for (String known : ROW_ERRORS)
+         if (message.contains(known)) return true;
+      return false;
+   }//end isRowError
+
+   // the messages of constraint (class 23) and data (class 22) errors
+   private static final String[] ROW_ERRORS = {
+      "duplicate key", "violates", "null value in column", "invalid input syntax", "out of range",
+      "numeric field overflow", "value too long", "invalid input value"};
+
+   private static Row parse (String line) {
+      String[] f = line.split(",", -1);
+      if (f.length != 7)
+         throw new IllegalArgumentException("expected 7 fields, found " + f.length);
+      return new Row(line, new Object[] {
+         Long.valueOf(f[0].trim()),
+         Integer.valueOf(f[1].trim()),
+         Integer.valueOf(f[2].trim()),
+         Integer.valueOf(f[3].trim()),
+         f[4].trim(),
+         Integer.valueOf(f[5].trim()),
+         new java.math.BigDecimal(f[6].trim())});
+   }//end parse
+
+   /*
+    * Sends one batch in its own transaction.  On failure the batch is
+    * rolled back and replayed row by row to separate good rows from bad.
+    */
+   private void flush (List<Row> batch, BufferedWriter rejectWriter, Result result) throws IOException, SQLException {
+      ConnectionPool.PooledConnection pc = this.esql.getPool().borrow ();
+      Connection conn = pc.getConnection ();
+      try{
+         PreparedStatement stmt = pc.prepare (DBProject.SQL_ADD_BOOKING);
+         boolean committed = false;
+         conn.setAutoCommit (false);
+         try{
+            for (Row row : batch){
+               DBProject.bind (stmt, row.params);
+               stmt.addBatch ();
+            }//end for
+            stmt.executeBatch ();
+            conn.commit ();
+            committed = true;
+         }catch (SQLException e){
+            stmt.clearBatch ();
+            conn.rollback ();
+         }finally{
+            conn.setAutoCommit (true);
+         }//end try
+         ++result.batches;
+
+         if (committed){
+            result.loaded += batch.size();
+            for (Row row : batch)
+               added (row);
+            return;
+         }//end if
+
+         for (Row row : batch){
+            try{
+               DBProject.bind (stmt, row.params);
+               stmt.executeUpdate ();
+               ++result.loaded;
+               added (row);
+            }catch (SQLException e){
+               if (!isRowError (e)) throw e;
+               reject (rejectWriter, row.line, e.getMessage(), result);
+            }//end try
+         }//end for
+      }finally{
+         this.esql.getPool().release (pc);
+      }//end try
+   }//end flush
+
+   // tells DBProject's in-memory state about a committed row
+   private void added (Row row) {
+      this.esql.bookingAdded (((Long) row.params[0]).longValue(), ((Integer) row.params[2]).intValue(),
+                              ((Integer) row.params[3]).intValue(), ((Integer) row.params[1]).intValue(),
+                              (String) row.params[4], (Integer) row.params[5], (java.math.BigDecimal) row.params[6]);
+   }//end added
+
+   private static void reject (BufferedWriter rejectWriter, String line, String reason, Result result) throws IOException {
+      rejectWriter.write(line);
+      rejectWriter.write("\t# ");
+      rejectWriter.write(reason == null ? "" : reason.replace('\n', ' '));
+      rejectWriter.newLine();
+      ++result.rejected;
+   }//end reject
+
+}//end BookingImporter
@@ -0,0 +1,932 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Copy of Booking as memory-mapped column files, for scans over many
+ * bookings: the date range reports (topKHighestRoomPriceForADateRange,
+ * totalCostForCustomer, the week listing) and filters, sums and group-bys
+ * that no index answers.
+ *
+ * Each column is a file of fixed width values in the machine's byte order,
+ * in -Dsnapshot.dir (default booking-snapshot): bid as a long, then
+ * customer, hotel, room, day (epoch day), people (noOfPeople, -1 for NULL)
+ * and price (cents) as ints, 32 bytes a booking.  snapshot.properties
+ * holds the number of rows and the point refresh resumes from and is
+ * written last, so a snapshot whose build was cut short is built again.
+ * The files are mapped: the snapshot sits in the page cache, not the heap,
+ * and is reopened at start without reading Booking.
+ *
+ * The build writes the rows in bookingDate order, and every BLOCK rows
+ * keep their lowest and highest day, so a date range scan skips the
+ * blocks outside it.  A scan splits the blocks over a fork-join pool of
+ * -Dsnapshot.threads workers (default the processors).  Each worker copies
+ * the columns it needs out of a block into int arrays and runs a plain
+ * loop over them, without branches where it can, which the JIT turns into
+ * vector instructions.
+ *
+ * Bookings made through this program are appended as they are made.  The
+ * others are read by refresh from BookingLog (migration 005), which the
+ * booking_log trigger on Booking fills with each new bID and the id of the
+ * transaction inserting it.  The snapshot adds that trigger when it is
+ * built, and a snapshot reopened without it is built again, as bookings
+ * may have gone unlogged.  bIDs are no guide, since every process draws them from
+ * IdAllocator blocks of its own.  Refresh fetches the bookings logged by
+ * transactions from its mark on, then moves the mark to the oldest
+ * transaction that was running when it started; the bookings logged from
+ * the mark on that the snapshot already holds are remembered so they are
+ * not added twice.  It runs at open and before a scan when the last one is
+ * older than -Dsnapshot.refresh seconds (default 60), and deletes the log
+ * rows older than -Dsnapshot.keepDays days (default 7); a snapshot last
+ * refreshed before that is built again.  Bookings deleted or changed in
+ * Booking show after a rebuild:
+ *
+ *    java BookingSnapshot <dbname> <port> <user> [-build | -refresh | -drop]
+ *
+ * -drop deletes the snapshot files, drops the trigger and empties the log,
+ * once no process runs with -Dsnapshot=on any more.
+ *
+ */
+public class BookingSnapshot implements Closeable {
+
+   public static final File DEFAULT_DIR = new File(System.getProperty("snapshot.dir", "booking-snapshot"));
+   static final long REFRESH_MILLIS = Long.getLong("snapshot.refresh", 60) * 1000;
+   static final int KEEP_DAYS = Integer.getInteger("snapshot.keepDays", 7);
+
+   // rows per block: the unit of a scan task and of the day ranges
+   static final int BLOCK = 1 << 16;
+
+   // the columns, by file name, and their widths in bytes
+   static final String[] COLUMNS = {"bid", "customer", "hotel", "room", "day", "people", "price"};
+   static final int BID = 0, CUSTOMER = 1, HOTEL = 2, ROOM = 3, DAY = 4, PEOPLE = 5, PRICE = 6;
+   private static final int[] WIDTH = {8, 4, 4, 4, 4, 4, 4};
+
+   // the most rows one mapping of the bid column can hold
+   static final int MAX_ROWS = Integer.MAX_VALUE / 8;
+
+   // group-bys with more distinct keys than this total into a map
+   static final int MAX_DENSE_GROUPS = 1 << 20;
+
+   static final String META = "snapshot.properties";
+
+   static final String SQL_COLUMNS =
+      "SELECT b.bID, b.customer, b.hotelID, b.roomNo, b.bookingDate - DATE '1970-01-01', b.noOfPeople, b.price, l.txid ";
+
+   // every booking, with the transaction that logged it from mark ? on
+   static final String SQL_BOOKINGS = SQL_COLUMNS +
+      "FROM Booking b LEFT JOIN (SELECT bID, MAX(txid) AS txid FROM BookingLog WHERE txid >= ? GROUP BY bID) l " +
+      "ON l.bID = b.bID ORDER BY b.bookingDate, b.hotelID, b.roomNo";
+
+   // the bookings logged from mark ? on
+   static final String SQL_LOGGED = SQL_COLUMNS +
+      "FROM BookingLog l JOIN Booking b ON b.bID = l.bID WHERE l.txid >= ? ORDER BY l.txid";
+
+   // every transaction below it has finished
+   static final String SQL_MARK = "SELECT txid_snapshot_xmin(txid_current_snapshot())";
+
+   static final String SQL_LOGGING =
+      "SELECT COUNT(*) FROM pg_trigger WHERE tgrelid = CAST('booking' AS regclass) AND tgname = 'booking_log'";
+   static final String SQL_LOG_ON =
+      "CREATE TRIGGER booking_log AFTER INSERT ON Booking FOR EACH ROW EXECUTE PROCEDURE booking_log()";
+
+   static final String SQL_PRUNE =
+      "DELETE FROM BookingLog WHERE logged < now() - " + KEEP_DAYS + " * INTERVAL '1 day'";
+
+   private static final ForkJoinPool POOL =
+      new ForkJoinPool(Math.max(1, Integer.getInteger("snapshot.threads", Runtime.getRuntime().availableProcessors())));
+
+   // each worker's copy of the columns of the block it scans
+   private static final ThreadLocal<int[][]> SCRATCH = new ThreadLocal<int[][]>() {
+      protected int[][] initialValue () {
+         return new int[COLUMNS.length][];
+      }
+   };
+
+   private final DBProject esql;
+   private final File dir;
+   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+   private final RandomAccessFile[] files = new RandomAccessFile[COLUMNS.length];
+   private final MappedByteBuffer[] maps = new MappedByteBuffer[COLUMNS.length];
+   private LongBuffer bids;
+   private final IntBuffer[] ints = new IntBuffer[COLUMNS.length];
+   private int capacity = 0;
+   private int rows = 0;
+
+   // lowest and highest day of each block
+   private int[] blockMin = new int[0];
+   private int[] blockMax = new int[0];
+
+   // lowest and highest value of each int column, to size group-bys
+   private final int[] columnMin = new int[COLUMNS.length];
+   private final int[] columnMax = new int[COLUMNS.length];
+
+   // the transaction refresh reads the log from, and the bookings logged
+   // from it on that the snapshot holds, by bID, with the transaction that
+   // logged them (Long.MAX_VALUE for those appended before refresh sees them)
+   private long mark = 0;
+   private final Map<Long, Long> recent = new HashMap<Long, Long>();
+   private volatile long refreshedAt = 0;
+
+   private BookingSnapshot (DBProject esql, File dir) {
+      this.esql = esql;
+      this.dir = dir;
+      Arrays.fill(this.columnMin, Integer.MAX_VALUE);
+      Arrays.fill(this.columnMax, Integer.MIN_VALUE);
+   }//end BookingSnapshot
+
+   /**
+    * Opens the snapshot in dir, building it when there is none or it is
+    * unusable, and refreshes it.
+    *
+    * @param esql the database holding Booking
+    * @param dir the folder of the column files
+    * @return the open snapshot, to be closed
+    * @throws java.sql.SQLException when Booking cannot be read
+    * @throws java.io.IOException when the files cannot be read or written
+    */
+   public static BookingSnapshot open (DBProject esql, File dir) throws SQLException, IOException {
+      BookingSnapshot snapshot = new BookingSnapshot(esql, dir);
+      try{
+         if (snapshot.readMeta () && snapshot.startLogging ()) snapshot.refresh ();
+         else snapshot.build ();
+         return snapshot;
+      }catch (SQLException | IOException | RuntimeException e){
+         snapshot.close (false);
+         throw e;
+      }//end try
+   }//end open
+
+   /**
+    * Builds the snapshot in dir from Booking, replacing any there.
+    *
+    * @param esql the database holding Booking
+    * @param dir the folder of the column files
+    * @return the open snapshot, to be closed
+    * @throws java.sql.SQLException when Booking cannot be read
+    * @throws java.io.IOException when the files cannot be written
+    */
+   public static BookingSnapshot build (DBProject esql, File dir) throws SQLException, IOException {
+      BookingSnapshot snapshot = new BookingSnapshot(esql, dir);
+      try{
+         snapshot.build ();
+         return snapshot;
+      }catch (SQLException | IOException | RuntimeException e){
+         snapshot.close (false);
+         throw e;
+      }//end try
+   }//end build
+
+   private void build () throws SQLException, IOException {
+      this.lock.writeLock().lock();
+      try{
+         if (!this.dir.isDirectory() && !this.dir.mkdirs())
+            throw new IOException("Cannot create " + this.dir);
+         // without its properties an interrupted build is not reopened
+         Files.deleteIfExists(new File(this.dir, META).toPath());
+         // the trigger first: it waits for the inserts in progress, so
+         // every booking after it is logged and every one before is read
+         startLogging ();
+         long count = this.esql.queryForObject("SELECT COUNT(*) FROM Booking", RowMapper.LONG);
+         this.rows = 0;
+         this.recent.clear();
+         map ((int) Math.min(MAX_ROWS, Math.max(BLOCK, count + count / 4)), true);
+         long next = this.esql.queryForObject(SQL_MARK, RowMapper.LONG);
+         read (SQL_BOOKINGS, next);
+         this.mark = next;
+         this.refreshedAt = System.currentTimeMillis();
+         writeMeta ();
+      }finally{
+         this.lock.writeLock().unlock();
+      }//end try
+   }//end build
+
+   /*
+    * Adds the booking_log trigger when it is missing.  Returns whether it
+    * was there already, that is whether every booking since it was added
+    * has been logged.
+    */
+   private boolean startLogging () throws SQLException {
+      if (this.esql.queryForObject(SQL_LOGGING, RowMapper.LONG) > 0) return true;
+      try{
+         this.esql.executeUpdate (SQL_LOG_ON);
+      }catch (SQLException e){
+         // another process may have added it first
+         if (this.esql.queryForObject(SQL_LOGGING, RowMapper.LONG) == 0) throw e;
+      }//end try
+      return false;
+   }//end startLogging
+
+   /**
+    * Deletes the snapshot in dir, drops the booking_log trigger and
+    * empties BookingLog.  Run it only once no process uses a snapshot.
+    *
+    * @param esql the database holding Booking
+    * @param dir the folder of the column files
+    * @throws java.sql.SQLException when the trigger cannot be dropped
+    * @throws java.io.IOException when the files cannot be deleted
+    */
+   public static void drop (DBProject esql, File dir) throws SQLException, IOException {
+      new BookingSnapshot(esql, dir).delete ();
+      esql.executeUpdate ("DROP TRIGGER IF EXISTS booking_log ON Booking");
+      esql.executeUpdate ("TRUNCATE BookingLog");
+   }//end drop
+
+   /**
+    * Adds the bookings logged since the last refresh, and deletes the log
+    * rows older than -Dsnapshot.keepDays.
+    *
+    * @return the number of rows added
+    * @throws java.sql.SQLException when Booking cannot be read
+    * @throws java.io.IOException when the files cannot grow or the
+    *         properties cannot be written
+    */
+   public int refresh () throws SQLException, IOException {
+      int added;
+      this.lock.writeLock().lock();
+      try{
+         int before = this.rows;
+         // read first: the bookings of the transactions below it are all
+         // visible to the query that follows
+         long next = this.esql.queryForObject(SQL_MARK, RowMapper.LONG);
+         read (SQL_LOGGED, this.mark);
+         // the next refresh reads from next on, so the older ones cannot
+         // come again
+         for (Iterator<Long> i = this.recent.values().iterator(); i.hasNext(); )
+            if (i.next().longValue() < next) i.remove();
+         this.mark = next;
+         this.refreshedAt = System.currentTimeMillis();
+         writeMeta ();
+         added = this.rows - before;
+      }finally{
+         this.lock.writeLock().unlock();
+      }//end try
+      this.esql.executeUpdate (SQL_PRUNE);
+      return added;
+   }//end refresh
+
+   // appends the rows of SQL_BOOKINGS or SQL_LOGGED
+   private void read (String sql, Object... params) throws SQLException, IOException {
+      final IOException[] failure = {null};
+      ResultCursor<Object> bookings = this.esql.openCursor(sql, new RowMapper<Object>() {
+         public Object mapRow (ResultSet rs) throws SQLException {
+            long bID = rs.getLong (1);
+            long txid = rs.getLong (8);
+            // a booking the snapshot already holds
+            if (!rs.wasNull () && recent.put(bID, txid) != null) return null;
+            int people = rs.getInt (6);
+            if (rs.wasNull ()) people = -1;
+            try{
+               put (bID, rs.getInt (2), rs.getInt (3), rs.getInt (4), rs.getInt (5), people,
+                    TopKPriceIndex.cents (rs.getBigDecimal (7)));
+            }catch (IOException e){
+               failure[0] = e;
+               throw new SQLException("Cannot grow the booking snapshot: " + e.getMessage());
+            }//end try
+            return null;
+         }
+      }, params);
+      try{
+         while (bookings.hasNext ()) bookings.next ();
+      }catch (SQLException e){
+         if (failure[0] != null) throw failure[0];
+         throw e;
+      }finally{
+         bookings.close ();
+      }//end try
+   }//end read
+
+   /**
+    * Appends a booking made through this program.  A snapshot that cannot
+    * grow throws, and should be dropped.
+    */
+   public void add (long bID, int customerID, int hotelID, int roomNo, int day, int noOfPeople, int priceCents) throws IOException {
+      this.lock.writeLock().lock();
+      try{
+         // a refresh since the booking was made may have read it already
+         if (this.recent.containsKey(bID)) return;
+         put (bID, customerID, hotelID, roomNo, day, noOfPeople, priceCents);
+         this.recent.put(bID, Long.MAX_VALUE);
+      }finally{
+         this.lock.writeLock().unlock();
+      }//end try
+   }//end add
+
+   // writes row number rows; the caller holds the write lock
+   private void put (long bID, int customerID, int hotelID, int roomNo, int day, int noOfPeople, int priceCents) throws IOException {
+      if (this.rows == this.capacity){
+         if (this.capacity == MAX_ROWS)
+            throw new IOException("The booking snapshot holds its maximum of " + MAX_ROWS + " rows");
+         map ((int) Math.min(MAX_ROWS, 2L * this.capacity), false);
+      }//end if
+      int at = this.rows;
+      this.bids.put(at, bID);
+      this.ints[CUSTOMER].put(at, customerID);
+      this.ints[HOTEL].put(at, hotelID);
+      this.ints[ROOM].put(at, roomNo);
+      this.ints[DAY].put(at, day);
+      this.ints[PEOPLE].put(at, noOfPeople);
+      this.ints[PRICE].put(at, priceCents);
+      note (at, day);
+      this.columnMin[CUSTOMER] = Math.min(this.columnMin[CUSTOMER], customerID);
+      this.columnMax[CUSTOMER] = Math.max(this.columnMax[CUSTOMER], customerID);
+      this.columnMin[HOTEL] = Math.min(this.columnMin[HOTEL], hotelID);
+      this.columnMax[HOTEL] = Math.max(this.columnMax[HOTEL], hotelID);
+      this.rows = at + 1;
+   }//end put
+
+   // widens the day range of the block of row at
+   private void note (int at, int day) {
+      int b = at / BLOCK;
+      if (b >= this.blockMin.length){
+         int n = Math.max(b + 1, this.blockMin.length * 2);
+         int old = this.blockMin.length;
+         this.blockMin = Arrays.copyOf(this.blockMin, n);
+         this.blockMax = Arrays.copyOf(this.blockMax, n);
+         Arrays.fill(this.blockMin, old, n, Integer.MAX_VALUE);
+         Arrays.fill(this.blockMax, old, n, Integer.MIN_VALUE);
+      }//end if
+      if (day < this.blockMin[b]) this.blockMin[b] = day;
+      if (day > this.blockMax[b]) this.blockMax[b] = day;
+   }//end note
+
+   /*
+    * Maps every column file for capacity rows, creating or truncating the
+    * files when fresh.  The previous mappings stay valid until collected.
+    */
+   private void map (int capacity, boolean fresh) throws IOException {
+      for (int c = 0; c < COLUMNS.length; ++c){
+         if (this.files[c] == null)
+            this.files[c] = new RandomAccessFile(new File(this.dir, COLUMNS[c]), "rw");
+         long bytes = (long) capacity * WIDTH[c];
+         if (fresh || this.files[c].length() < bytes) this.files[c].setLength(bytes);
+         MappedByteBuffer map = this.files[c].getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+         map.order(ByteOrder.nativeOrder());
+         this.maps[c] = map;
+         if (c == BID) this.bids = map.asLongBuffer();
+         else this.ints[c] = map.asIntBuffer();
+      }//end for
+      this.capacity = capacity;
+   }//end map
+
+   /*
+    * Maps the files of the rows snapshot.properties records, or returns
+    * false when they are missing or do not match it.
+    */
+   private boolean readMeta () throws IOException {
+      File file = new File(this.dir, META);
+      if (!file.isFile()) return false;
+      Properties meta = new Properties();
+      InputStream in = new FileInputStream(file);
+      try{
+         meta.load(in);
+      }finally{
+         in.close();
+      }//end try
+      int rows;
+      try{
+         if (!ByteOrder.nativeOrder().toString().equals(meta.getProperty("order"))) return false;
+         rows = Integer.parseInt(meta.getProperty("rows"));
+         this.mark = Long.parseLong(meta.getProperty("mark"));
+         // the log it would resume from may be gone
+         long refreshed = Long.parseLong(meta.getProperty("refreshed"));
+         if (System.currentTimeMillis() - refreshed > KEEP_DAYS * 86400000L) return false;
+         for (String entry : meta.getProperty("recent", "").split(",")){
+            if (entry.length() == 0) continue;
+            int colon = entry.indexOf(':');
+            this.recent.put(Long.valueOf(entry.substring(0, colon)), Long.valueOf(entry.substring(colon + 1)));
+         }//end for
+      }catch (NumberFormatException | NullPointerException | IndexOutOfBoundsException e){
+         return false;
+      }//end try
+      long capacity = Long.MAX_VALUE;
+      for (int c = 0; c < COLUMNS.length; ++c){
+         File column = new File(this.dir, COLUMNS[c]);
+         if (!column.isFile()) return false;
+         capacity = Math.min(capacity, column.length() / WIDTH[c]);
+      }//end for
+      if (rows < 0 || capacity < rows) return false;
+      map ((int) Math.min(MAX_ROWS, Math.max(capacity, BLOCK)), false);
+
+      // the block day ranges and column ranges are not stored
+      this.rows = rows;
+      int[] days = new int[BLOCK];
+      int[] customers = new int[BLOCK];
+      int[] hotels = new int[BLOCK];
+      for (int from = 0; from < rows; from += BLOCK){
+         int n = Math.min(BLOCK, rows - from);
+         copy (this.ints[DAY], from, days, n);
+         copy (this.ints[CUSTOMER], from, customers, n);
+         copy (this.ints[HOTEL], from, hotels, n);
+         for (int i = 0; i < n; ++i){
+            note (from + i, days[i]);
+            this.columnMin[CUSTOMER] = Math.min(this.columnMin[CUSTOMER], customers[i]);
+            this.columnMax[CUSTOMER] = Math.max(this.columnMax[CUSTOMER], customers[i]);
+            this.columnMin[HOTEL] = Math.min(this.columnMin[HOTEL], hotels[i]);
+            this.columnMax[HOTEL] = Math.max(this.columnMax[HOTEL], hotels[i]);
+         }//end for
+      }//end for
+      return true;
+   }//end readMeta
+
+   // flushes the columns, then records their rows
+   private void writeMeta () throws IOException {
+      for (MappedByteBuffer map : this.maps) map.force();
+      Properties meta = new Properties();
+      meta.setProperty("order", ByteOrder.nativeOrder().toString());
+      meta.setProperty("rows", String.valueOf(this.rows));
+      meta.setProperty("mark", String.valueOf(this.mark));
+      meta.setProperty("refreshed", String.valueOf(this.refreshedAt));
+      StringBuilder ids = new StringBuilder();
+      for (Map.Entry<Long, Long> e : this.recent.entrySet())
+         ids.append(ids.length() == 0 ? "" : ",").append(e.getKey()).append(':').append(e.getValue());
+      meta.setProperty("recent", ids.toString());
+      File tmp = new File(this.dir, META + ".tmp");
+      OutputStream out = new FileOutputStream(tmp);
+      try{
+         meta.store(out, "BookingSnapshot");
+      }finally{
+         out.close();
+      }//end try
+      Files.move(tmp.toPath(), new File(this.dir, META).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }//end writeMeta
+
+   // copies n values of column from row from into values
+   private static void copy (IntBuffer column, int from, int[] values, int n) {
+      IntBuffer view = column.duplicate();
+      view.position(from);
+      view.get(values, 0, n);
+   }//end copy
+
+   // n values of an int column from row from, in the worker's own array
+   private int[] column (int c, int from, int n) {
+      int[][] scratch = SCRATCH.get();
+      if (scratch[c] == null) scratch[c] = new int[BLOCK];
+      copy (this.ints[c], from, scratch[c], n);
+      return scratch[c];
+   }//end column
+
+   /*
+    * One scan: the partial result of the rows of one block, and how two
+    * partial results combine.  Blocks without a day from first to last
+    * are skipped.
+    */
+   private abstract static class Scan<R> {
+      final int first;
+      final int last;
+
+      Scan (int first, int last) {
+         this.first = first;
+         this.last = last;
+      }
+
+      abstract R empty ();
+
+      abstract R block (int from, int n);
+
+      abstract R merge (R a, R b);
+   }//end Scan
+
+   // the blocks from, inclusive, to to, exclusive, of a scan; never
+   // serialized, though RecursiveTask is Serializable
+   @SuppressWarnings("serial")
+   private final class Task<R> extends RecursiveTask<R> {
+      private final Scan<R> scan;
+      private final int from;
+      private final int to;
+      private final int rows;
+
+      Task (Scan<R> scan, int from, int to, int rows) {
+         this.scan = scan;
+         this.from = from;
+         this.to = to;
+         this.rows = rows;
+      }
+
+      protected R compute () {
+         if (this.to - this.from == 1){
+            int b = this.from;
+            if (blockMax[b] < this.scan.first || blockMin[b] > this.scan.last) return this.scan.empty();
+            int start = b * BLOCK;
+            return this.scan.block(start, Math.min(BLOCK, this.rows - start));
+         }//end if
+         int mid = (this.from + this.to) >>> 1;
+         Task<R> left = new Task<R>(this.scan, this.from, mid, this.rows);
+         left.fork();
+         R right = new Task<R>(this.scan, mid, this.to, this.rows).compute();
+         return this.scan.merge(left.join(), right);
+      }
+   }//end Task
+
+   // runs scan over every block, refreshing a stale snapshot first
+   private <R> R scan (Scan<R> scan) throws SQLException {
+      if (System.currentTimeMillis() - this.refreshedAt > REFRESH_MILLIS){
+         try{
+            refresh ();
+         }catch (IOException e){
+            throw new SQLException("Cannot refresh the booking snapshot: " + e.getMessage());
+         }//end try
+      }//end if
+      this.lock.readLock().lock();
+      try{
+         int blocks = (this.rows + BLOCK - 1) / BLOCK;
+         if (blocks == 0) return scan.empty();
+         return POOL.invoke(new Task<R>(scan, 0, blocks, this.rows));
+      }finally{
+         this.lock.readLock().unlock();
+      }//end try
+   }//end scan
+
+   /**
+    * @return the number of bookings from day first to day last, both
+    *         included
+    */
+   public long count (int first, int last) throws SQLException {
+      return scan (new Scan<Long>(first, last) {
+         Long empty () { return 0L; }
+         Long block (int from, int n) {
+            int[] day = column (DAY, from, n);
+            int hits = 0;
+            for (int i = 0; i < n; ++i)
+               hits += (day[i] >= this.first & day[i] <= this.last) ? 1 : 0;
+            return (long) hits;
+         }
+         Long merge (Long a, Long b) { return a + b; }
+      }).longValue();
+   }//end count
+
+   /**
+    * @return the revenue in cents of a customer's bookings at a hotel from
+    *         day first to day last, both included, or -1 when there are
+    *         none, as RevenueIndex.customerRevenue
+    */
+   public long customerRevenue (int hotelID, int customerID, int first, int last) throws SQLException {
+      return revenue (hotelID, customerID, true, first, last);
+   }//end customerRevenue
+
+   /**
+    * @return the revenue in cents of a hotel's bookings from day first to
+    *         day last, both included, or -1 when there are none
+    */
+   public long hotelRevenue (int hotelID, int first, int last) throws SQLException {
+      return revenue (hotelID, 0, false, first, last);
+   }//end hotelRevenue
+
+   private long revenue (final int hotelID, final int customerID, final boolean byCustomer, int first, int last) throws SQLException {
+      long[] total = scan (new Scan<long[]>(first, last) {
+         long[] empty () { return new long[2]; }
+         long[] block (int from, int n) {
+            int[] day = column (DAY, from, n);
+            int[] hotel = column (HOTEL, from, n);
+            int[] customer = column (CUSTOMER, from, n);
+            int[] price = column (PRICE, from, n);
+            long cents = 0;
+            int hits = 0;
+            for (int i = 0; i < n; ++i){
+               int hit = (day[i] >= this.first & day[i] <= this.last & hotel[i] == hotelID
+                          & (customer[i] == customerID | !byCustomer)) ? 1 : 0;
+               cents += price[i] & -hit;
+               hits += hit;
+            }//end for
+            return new long[] {cents, hits};
+         }
+         long[] merge (long[] a, long[] b) { return new long[] {a[0] + b[0], a[1] + b[1]}; }
+      });
+      return total[1] == 0 ? -1 : total[0];
+   }//end revenue
+
+   /**
+    * Totals the bookings from day first to day last, both included, by
+    * customer or hotel.
+    *
+    * @param by CUSTOMER or HOTEL
+    * @return the revenue in cents and the number of bookings of each key
+    *         with bookings, by key
+    */
+   public SortedMap<Integer, long[]> revenueBy (final int by, int first, int last) throws SQLException {
+      if (by != CUSTOMER && by != HOTEL)
+         throw new IllegalArgumentException("Cannot group by column " + by);
+      this.lock.readLock().lock();
+      final int low, span;
+      try{
+         low = this.columnMin[by];
+         span = this.rows == 0 ? 0 : (int) Math.min(Integer.MAX_VALUE, (long) this.columnMax[by] - low + 1);
+      }finally{
+         this.lock.readLock().unlock();
+      }//end try
+      SortedMap<Integer, long[]> groups = new TreeMap<Integer, long[]>();
+      if (span > 0 && span <= MAX_DENSE_GROUPS){
+         // cents and bookings of key low + g at [2g] and [2g + 1]
+         long[] sums = scan (new Scan<long[]>(first, last) {
+            long[] empty () { return null; }
+            long[] block (int from, int n) {
+               int[] day = column (DAY, from, n);
+               int[] key = column (by, from, n);
+               int[] price = column (PRICE, from, n);
+               long[] sums = new long[2 * span];
+               for (int i = 0; i < n; ++i){
+                  // a key added after the span was read is in no group yet
+                  int g = key[i] - low;
+                  if (day[i] >= this.first & day[i] <= this.last & g >= 0 & g < span){
+                     sums[2 * g] += price[i];
+                     ++sums[2 * g + 1];
+                  }//end if
+               }//end for
+               return sums;
+            }
+            long[] merge (long[] a, long[] b) {
+               if (a == null) return b;
+               if (b == null) return a;
+               for (int i = 0; i < a.length; ++i) a[i] += b[i];
+               return a;
+            }
+         });
+         if (sums != null)
+            for (int g = 0; g < span; ++g)
+               if (sums[2 * g + 1] > 0) groups.put(low + g, new long[] {sums[2 * g], sums[2 * g + 1]});
+         return groups;
+      }//end if
+      Map<Integer, long[]> sparse = scan (new Scan<Map<Integer, long[]>>(first, last) {
+         Map<Integer, long[]> empty () { return new HashMap<Integer, long[]>(); }
+         Map<Integer, long[]> block (int from, int n) {
+            int[] day = column (DAY, from, n);
+            int[] key = column (by, from, n);
+            int[] price = column (PRICE, from, n);
+            Map<Integer, long[]> sums = new HashMap<Integer, long[]>();
+            for (int i = 0; i < n; ++i){
+               if (day[i] < this.first || day[i] > this.last) continue;
+               long[] sum = sums.get(key[i]);
+               if (sum == null) sums.put(key[i], sum = new long[2]);
+               sum[0] += price[i];
+               ++sum[1];
+            }//end for
+            return sums;
+         }
+         Map<Integer, long[]> merge (Map<Integer, long[]> a, Map<Integer, long[]> b) {
+            for (Map.Entry<Integer, long[]> e : b.entrySet()){
+               long[] sum = a.get(e.getKey());
+               if (sum == null) a.put(e.getKey(), e.getValue());
+               else{
+                  sum[0] += e.getValue()[0];
+                  sum[1] += e.getValue()[1];
+               }//end if
+            }//end for
+            return a;
+         }
+      });
+      groups.putAll(sparse);
+      return groups;
+   }//end revenueBy
+
+   // highest price first, then day, hotel and room, so answers are stable
+   static final Comparator<TopKPriceIndex.Entry> BY_PRICE = new Comparator<TopKPriceIndex.Entry>() {
+      public int compare (TopKPriceIndex.Entry a, TopKPriceIndex.Entry b) {
+         if (a.priceCents != b.priceCents) return a.priceCents > b.priceCents ? -1 : 1;
+         if (a.day != b.day) return a.day < b.day ? -1 : 1;
+         if (a.hotelID != b.hotelID) return a.hotelID < b.hotelID ? -1 : 1;
+         return a.roomNo < b.roomNo ? -1 : a.roomNo == b.roomNo ? 0 : 1;
+      }
+   };
+
+   /**
+    * @return the k highest priced bookings from day first to day last,
+    *         both included, highest first, as TopKPriceIndex.topK but for
+    *         any k and any dates
+    */
+   public List<TopKPriceIndex.Entry> topK (int first, int last, final int k) throws SQLException {
+      if (k <= 0) return Collections.emptyList();
+      return scan (new Scan<List<TopKPriceIndex.Entry>>(first, last) {
+         List<TopKPriceIndex.Entry> empty () { return Collections.emptyList(); }
+         List<TopKPriceIndex.Entry> block (int from, int n) {
+            int[] day = column (DAY, from, n);
+            int[] price = column (PRICE, from, n);
+            // the rows of the k highest prices so far, cheapest on top
+            int[] heap = new int[Math.min(k, n)];
+            int size = 0;
+            for (int i = 0; i < n; ++i){
+               if (day[i] < this.first || day[i] > this.last) continue;
+               if (size < heap.length){
+                  int at = size++;
+                  while (at > 0 && price[heap[(at - 1) / 2]] > price[i]){
+                     heap[at] = heap[(at - 1) / 2];
+                     at = (at - 1) / 2;
+                  }//end while
+                  heap[at] = i;
+               }else if (price[i] > price[heap[0]]){
+                  int at = 0;
+                  for (int child = 1; child < size; child = 2 * at + 1){
+                     if (child + 1 < size && price[heap[child + 1]] < price[heap[child]]) ++child;
+                     if (price[heap[child]] >= price[i]) break;
+                     heap[at] = heap[child];
+                     at = child;
+                  }//end for
+                  heap[at] = i;
+               }//end if
+            }//end for
+            List<TopKPriceIndex.Entry> top = new ArrayList<TopKPriceIndex.Entry>(size);
+            for (int j = 0; j < size; ++j){
+               int i = heap[j];
+               top.add(new TopKPriceIndex.Entry(ints[HOTEL].get(from + i), ints[ROOM].get(from + i), price[i], day[i]));
+            }//end for
+            return top;
+         }
+         List<TopKPriceIndex.Entry> merge (List<TopKPriceIndex.Entry> a, List<TopKPriceIndex.Entry> b) {
+            List<TopKPriceIndex.Entry> all = new ArrayList<TopKPriceIndex.Entry>(a.size() + b.size());
+            all.addAll(a);
+            all.addAll(b);
+            Collections.sort(all, BY_PRICE);
+            return all.size() > k ? new ArrayList<TopKPriceIndex.Entry>(all.subList(0, k)) : all;
+         }
+      });
+   }//end topK
+
+   /**
+    * Lists the bookings of hotelID from day to day + 7, both included, as
+    * WeekCache.list does: by day, then room and customer, each once.
+    *
+    * @param rowLimit rows after which the listing stops, 0 for no limit
+    * @return the number of rows given to sink
+    */
+   public int list (final int hotelID, int day, RowSink sink, long rowLimit) throws SQLException {
+      List<long[]> found = scan (new Scan<List<long[]>>(day, day + 7) {
+         List<long[]> empty () { return Collections.emptyList(); }
+         List<long[]> block (int from, int n) {
+            int[] days = column (DAY, from, n);
+            int[] hotel = column (HOTEL, from, n);
+            List<long[]> rows = new ArrayList<long[]>();
+            for (int i = 0; i < n; ++i)
+               if (hotel[i] == hotelID & days[i] >= this.first & days[i] <= this.last)
+                  rows.add(new long[] {days[i], ints[ROOM].get(from + i), ints[CUSTOMER].get(from + i)});
+            return rows;
+         }
+         List<long[]> merge (List<long[]> a, List<long[]> b) {
+            if (a.isEmpty()) return b;
+            if (b.isEmpty()) return a;
+            List<long[]> all = new ArrayList<long[]>(a.size() + b.size());
+            all.addAll(a);
+            all.addAll(b);
+            return all;
+         }
+      });
+      Collections.sort(found, new Comparator<long[]>() {
+         public int compare (long[] a, long[] b) {
+            for (int i = 0; i < 3; ++i)
+               if (a[i] != b[i]) return a[i] < b[i] ? -1 : 1;
+            return 0;
+         }
+      });
+      int rows = 0;
+      boolean truncated = false;
+      long[] previous = null;
+      for (long[] r : found){
+         if (previous != null && Arrays.equals(previous, r)) continue;
+         previous = r;
+         if (rowLimit > 0 && rows >= rowLimit){
+            truncated = true;
+            break;
+         }//end if
+         if (rows == 0) sink.columns(WeekCache.COLUMNS);
+         sink.row(new String[] {String.valueOf(r[1]), String.valueOf(r[2]), Dates.format((int) r[0])});
+         ++rows;
+      }//end for
+      sink.end(rows, truncated);
+      return rows;
+   }//end list
+
+   /**
+    * @return the number of bookings held
+    */
+   public int rows () {
+      this.lock.readLock().lock();
+      try{
+         return this.rows;
+      }finally{
+         this.lock.readLock().unlock();
+      }//end try
+   }//end rows
+
+   /**
+    * @return the bytes of the column files, as mapped
+    */
+   public long bytes () {
+      this.lock.readLock().lock();
+      try{
+         long bytes = 0;
+         for (int width : WIDTH) bytes += (long) this.capacity * width;
+         return bytes;
+      }finally{
+         this.lock.readLock().unlock();
+      }//end try
+   }//end bytes
+
+   /**
+    * Records the rows held and closes the files.
+    */
+   public void close () throws IOException {
+      close (true);
+   }//end close
+
+   private void close (boolean save) throws IOException {
+      this.lock.writeLock().lock();
+      try{
+         if (save && this.bids != null) writeMeta ();
+      }finally{
+         for (int c = 0; c < COLUMNS.length; ++c){
+            if (this.files[c] != null) this.files[c].close();
+            this.files[c] = null;
+         }//end for
+         this.lock.writeLock().unlock();
+      }//end try
+   }//end close
+
+   /**
+    * Closes the snapshot and removes its files.
+    */
+   public void delete () throws IOException {
+      close (false);
+      Files.deleteIfExists(new File(this.dir, META).toPath());
+      for (String column : COLUMNS)
+         Files.deleteIfExists(new File(this.dir, column).toPath());
+   }//end delete
+
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BookingSnapshot.class.getName () +
+            " <dbname> <port> <user> [-build | -refresh | -drop]");
+         System.err.println ("   -build      read every booking into -Dsnapshot.dir again");
+         System.err.println ("   -refresh    add the bookings made since (the default; builds a missing snapshot)");
+         System.err.println ("   -drop       delete the snapshot and stop logging bookings for it");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "", 1, 1);
+         if (args.length > 3 && args[3].equals("-drop")){
+            drop (esql, DEFAULT_DIR);
+            System.out.println ("Dropped the snapshot in " + DEFAULT_DIR + " and its booking log");
+            return;
+         }//end if
+         boolean rebuild = args.length > 3 && args[3].equals("-build");
+         long start = System.nanoTime();
+         BookingSnapshot snapshot = rebuild ? build (esql, DEFAULT_DIR) : open (esql, DEFAULT_DIR);
+         try{
+            System.out.println (snapshot.rows () + " bookings, " + String.format("%.1f", snapshot.bytes () / 1048576.0) +
+                                " MB in " + DEFAULT_DIR + ", " + String.format("%.2f", (System.nanoTime() - start) / 1e9) + " s");
+         }finally{
+            snapshot.close ();
+         }//end try
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null) esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end BookingSnapshot
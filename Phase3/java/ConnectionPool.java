@@ -0,0 +1,504 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A small fixed-bounds pool of physical PostgreSQL connections shared by
+ * every operation of DBProject.
+ *
+ * Connections are handed out most-recently-used first, validated on borrow
+ * when they have been idle for a while, and closed by a background evictor
+ * once they sit idle past the idle timeout (never dropping below the
+ * minimum size).  Callers that cannot get a connection within the borrow
+ * timeout get an SQLException instead of blocking forever.
+ *
+ * Every -Dpool.schemaCheck ms (default 1000, 0 checks every borrow) a
+ * borrow also reads the schema_generation sequence, which KeyMigrator
+ * advances when it swaps column types.  Connections opened before the
+ * change are closed as they come out of the pool, with the statements the
+ * server prepared on them, since those would fail once their result types
+ * change.  A statement already running on an old connection in the
+ * meantime may still fail once.
+ *
+ */
+public class ConnectionPool {
+
+   public static final int DEFAULT_MIN_SIZE = 1;
+   public static final int DEFAULT_MAX_SIZE = 8;
+   public static final long DEFAULT_BORROW_TIMEOUT_MS = 10000;
+   public static final long DEFAULT_IDLE_TIMEOUT_MS = 60000;
+   public static final long DEFAULT_VALIDATE_AFTER_MS = 5000;
+   public static final int STATEMENT_CACHE_SIZE = Integer.getInteger("pool.statements", 64);
+   public static final long SCHEMA_CHECK_MS = Long.getLong("pool.schemaCheck", 1000);
+
+   // 0 until KeyMigrator first creates and advances the sequence
+   static final String SCHEMA_GENERATION =
+      "SELECT COALESCE(MAX(last_value), 0) FROM pg_sequences " +
+      "WHERE schemaname = current_schema() AND sequencename = 'schema_generation'";
+
+   private final String url;
+   private final String user;
+   private final String passwd;
+   private final int minSize;
+   private final int maxSize;
+   private final long borrowTimeoutMs;
+   private final long idleTimeoutMs;
+   private final long validateAfterMs;
+
+   // guards idle, total and closed
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition available = lock.newCondition();
+   private final ArrayDeque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+   private int total = 0;
+   private boolean closed = false;
+
+   // last schema generation read, and when
+   private volatile long generation = 0;
+   private volatile long generationReadAt = 0;
+
+   private final Thread evictor;
+
+   // metrics
+   private final AtomicLong borrows = new AtomicLong();
+   private final AtomicLong borrowTimeouts = new AtomicLong();
+   private final AtomicLong borrowWaitNanos = new AtomicLong();
+   private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+   private final AtomicLong created = new AtomicLong();
+   private final AtomicLong evicted = new AtomicLong();
+   private final AtomicLong validationFailures = new AtomicLong();
+   private final AtomicLong schemaDrops = new AtomicLong();
+
+   /**
+    * A physical connection owned by the pool.  Callers must hand it back
+    * through {@link ConnectionPool#release} once they are done with it.
+    */
+   public static class PooledConnection {
+      private final Connection connection;
+      private long lastUsed;
+      // the schema generation this connection prepared its statements against
+      private long generation;
+
+      // prepared statements keyed by their SQL template, least recently used first
+      private final Map<String, PreparedStatement> statements =
+         new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            protected boolean removeEldestEntry (Map.Entry<String, PreparedStatement> eldest) {
+               if (size() <= STATEMENT_CACHE_SIZE) return false;
+               closeQuietly (eldest.getValue());
+               return true;
+            }
+         };
+
+      PooledConnection (Connection connection) {
+         this.connection = connection;
+         this.lastUsed = System.currentTimeMillis();
+      }
+
+      public Connection getConnection () {
+         return this.connection;
+      }
+
+      /**
+       * Returns the prepared statement for a SQL template, preparing it on
+       * this connection the first time it is seen.  The statement stays
+       * open for the life of the connection, so callers must close only the
+       * ResultSets they obtain from it, never the statement itself.
+       *
+       * @param sql the SQL template with ? placeholders
+       * @return the cached statement, parameters still to be bound
+       * @throws java.sql.SQLException when the statement cannot be prepared
+       */
+      public PreparedStatement prepare (String sql) throws SQLException {
+         PreparedStatement ps = this.statements.get(sql);
+         if (ps == null){
+            ps = this.connection.prepareStatement(sql);
+            // let the server parse and plan the template once (PREPARE/EXECUTE)
+            if (ps instanceof org.postgresql.PGStatement && isPreparable (sql))
+               ((org.postgresql.PGStatement) ps).setUseServerPrepare(true);
+            this.statements.put(sql, ps);
+         }//end if
+         return ps;
+      }//end prepare
+
+      /*
+       * PREPARE only accepts plain queries and DML; cursor commands such as
+       * DECLARE and FETCH have to be sent as they are.
+       */
+      private static boolean isPreparable (String sql) {
+         String head = sql.trim();
+         int space = head.indexOf(' ');
+         if (space > 0) head = head.substring(0, space);
+         return head.equalsIgnoreCase("SELECT") || head.equalsIgnoreCase("INSERT") ||
+                head.equalsIgnoreCase("UPDATE") || head.equalsIgnoreCase("DELETE");
+      }//end isPreparable
+
+      void close () {
+         for (PreparedStatement ps : this.statements.values())
+            closeQuietly (ps);
+         this.statements.clear();
+         try{
+            this.connection.close ();
+         }catch (SQLException e){
+            // ignored.
+         }//end try
+      }//end close
+
+      private static void closeQuietly (Statement stmt) {
+         try{
+            stmt.close ();
+         }catch (SQLException e){
+            // ignored.
+         }//end try
+      }//end closeQuietly
+   }//end PooledConnection
+
+   /**
+    * Creates a pool with the default timeouts and opens minSize
+    * connections right away, so a bad URL or login fails here.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize connections kept open even when idle
+    * @param maxSize upper bound on open connections
+    * @throws java.sql.SQLException when the initial connections cannot be made
+    */
+   public ConnectionPool (String url, String user, String passwd, int minSize, int maxSize) throws SQLException {
+      this(url, user, passwd, minSize, maxSize, DEFAULT_BORROW_TIMEOUT_MS,
+           DEFAULT_IDLE_TIMEOUT_MS, DEFAULT_VALIDATE_AFTER_MS);
+   }//end ConnectionPool
+
+   /**
+    * Creates a pool and opens minSize connections right away.
+    *
+    * @param borrowTimeoutMs how long borrow() waits for a free connection
+    * @param idleTimeoutMs idle time after which surplus connections are closed
+    * @param validateAfterMs idle time after which a connection is checked
+    *        with a round trip before being handed out (0 checks every borrow)
+    */
+   public ConnectionPool (String url, String user, String passwd, int minSize, int maxSize,
+                          long borrowTimeoutMs, long idleTimeoutMs, long validateAfterMs) throws SQLException {
+      if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+         throw new IllegalArgumentException("Invalid pool size: min=" + minSize + " max=" + maxSize);
+      this.url = url;
+      this.user = user;
+      this.passwd = passwd;
+      this.minSize = minSize;
+      this.maxSize = maxSize;
+      this.borrowTimeoutMs = borrowTimeoutMs;
+      this.idleTimeoutMs = idleTimeoutMs;
+      this.validateAfterMs = validateAfterMs;
+
+      try{
+         for (int i = 0; i < minSize; ++i){
+            this.idle.push(open ());
+            ++this.total;
+         }//end for
+      }catch (SQLException e){
+         close ();
+         throw e;
+      }//end try
+      PooledConnection first = this.idle.peek();
+      if (first != null){
+         long current = schemaGeneration (first);
+         for (PooledConnection pc : this.idle)
+            pc.generation = current;
+      }//end if
+
+      this.evictor = new Thread(new Runnable() {
+         public void run () {
+            evictLoop ();
+         }
+      }, "ConnectionPool-evictor");
+      this.evictor.setDaemon(true);
+      this.evictor.start();
+   }//end ConnectionPool
+
+   private PooledConnection open () throws SQLException {
+      Connection conn = DriverManager.getConnection(this.url, this.user, this.passwd);
+      this.created.incrementAndGet();
+      return new PooledConnection(conn);
+   }//end open
+
+   /**
+    * Takes a connection out of the pool, opening a new one when all are in
+    * use and the pool is below its maximum size.
+    *
+    * @return a validated connection, to be given back through release()
+    * @throws java.sql.SQLException when no connection frees up within the
+    *         borrow timeout or a new connection cannot be opened
+    */
+   public PooledConnection borrow () throws SQLException {
+      long start = System.nanoTime();
+      long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.borrowTimeoutMs);
+      while (true){
+         PooledConnection pc = null;
+         boolean grow = false;
+         this.lock.lock();
+         try{
+            while (true){
+               if (this.closed)
+                  throw new SQLException("Connection pool is closed");
+               pc = this.idle.poll();
+               if (pc != null) break;
+               if (this.total < this.maxSize){
+                  ++this.total;
+                  grow = true;
+                  break;
+               }//end if
+               long remaining = deadline - System.nanoTime();
+               if (remaining <= 0){
+                  this.borrowTimeouts.incrementAndGet();
+                  throw new SQLException("Timed out after " + this.borrowTimeoutMs +
+                                         "ms waiting for a database connection (pool size " + this.maxSize + ")");
+               }//end if
+               try{
+                  this.available.awaitNanos(remaining);
+               }catch (InterruptedException e){
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("Interrupted while waiting for a database connection");
+               }//end try
+            }//end while
+         }finally{
+            this.lock.unlock();
+         }//end try
+
+         if (grow){
+            try{
+               pc = open ();
+            }catch (SQLException e){
+               discard ();
+               throw e;
+            }//end try
+         }else if (!isValid (pc)){
+            this.validationFailures.incrementAndGet();
+            pc.close ();
+            discard ();
+            continue;
+         }//end if
+
+         long current = schemaGeneration (pc);
+         if (grow){
+            pc.generation = current;
+         }else if (pc.generation != current){
+            this.schemaDrops.incrementAndGet();
+            pc.close ();
+            discard ();
+            continue;
+         }//end if
+
+         recordWait (System.nanoTime() - start);
+         return pc;
+      }//end while
+   }//end borrow
+
+   /**
+    * Gives a borrowed connection back to the pool.  A connection that was
+    * closed or left inside a transaction is dropped instead of reused.
+    *
+    * @param pc the connection obtained from borrow(), may be null
+    */
+   public void release (PooledConnection pc) {
+      if (pc == null) return;
+      boolean reusable;
+      try{
+         reusable = !pc.connection.isClosed() && pc.connection.getAutoCommit();
+      }catch (SQLException e){
+         reusable = false;
+      }//end try
+      if (!reusable){
+         pc.close ();
+         discard ();
+         return;
+      }//end if
+
+      pc.lastUsed = System.currentTimeMillis();
+      this.lock.lock();
+      try{
+         if (this.closed){
+            pc.close ();
+            --this.total;
+            return;
+         }//end if
+         this.idle.push(pc);
+         this.available.signal();
+      }finally{
+         this.lock.unlock();
+      }//end try
+   }//end release
+
+   // forgets about a connection that is no longer counted by the pool
+   private void discard () {
+      this.lock.lock();
+      try{
+         --this.total;
+         this.available.signal();
+      }finally{
+         this.lock.unlock();
+      }//end try
+   }//end discard
+
+   private boolean isValid (PooledConnection pc) {
+      if (System.currentTimeMillis() - pc.lastUsed < this.validateAfterMs)
+         return true;
+      Statement stmt = null;
+      try{
+         if (pc.connection.isClosed()) return false;
+         stmt = pc.connection.createStatement ();
+         stmt.executeQuery ("SELECT 1");
+         return true;
+      }catch (SQLException e){
+         return false;
+      }finally{
+         try{
+            if (stmt != null) stmt.close ();
+         }catch (SQLException e){
+            // ignored.
+         }//end try
+      }//end try
+   }//end isValid
+
+   /*
+    * Returns the schema generation, read on pc at most every
+    * SCHEMA_CHECK_MS.  A failed read keeps the last value; the connection
+    * is then checked again by the next borrow.
+    */
+   private long schemaGeneration (PooledConnection pc) {
+      long now = System.currentTimeMillis();
+      if (now - this.generationReadAt < SCHEMA_CHECK_MS)
+         return this.generation;
+      Statement stmt = null;
+      try{
+         stmt = pc.connection.createStatement ();
+         ResultSet rs = stmt.executeQuery (SCHEMA_GENERATION);
+         if (rs.next ()) this.generation = rs.getLong(1);
+         rs.close ();
+         this.generationReadAt = now;
+      }catch (SQLException e){
+         // ignored.
+      }finally{
+         try{
+            if (stmt != null) stmt.close ();
+         }catch (SQLException e){
+            // ignored.
+         }//end try
+      }//end try
+      return this.generation;
+   }//end schemaGeneration
+
+   private void recordWait (long nanos) {
+      this.borrows.incrementAndGet();
+      this.borrowWaitNanos.addAndGet(nanos);
+      long max;
+      do{
+         max = this.maxBorrowWaitNanos.get();
+      }while (nanos > max && !this.maxBorrowWaitNanos.compareAndSet(max, nanos));
+   }//end recordWait
+
+   private void evictLoop () {
+      long period = Math.max(1000, this.idleTimeoutMs / 2);
+      while (true){
+         try{
+            Thread.sleep(period);
+         }catch (InterruptedException e){
+            return;
+         }//end try
+         List<PooledConnection> stale = new ArrayList<PooledConnection>();
+         long cutoff = System.currentTimeMillis() - this.idleTimeoutMs;
+         this.lock.lock();
+         try{
+            if (this.closed) return;
+            // the deque is most-recently-used first, so the stalest are at the tail
+            Iterator<PooledConnection> it = this.idle.descendingIterator();
+            while (it.hasNext() && this.total > this.minSize){
+               PooledConnection pc = it.next();
+               if (pc.lastUsed > cutoff) break;
+               it.remove();
+               --this.total;
+               stale.add(pc);
+            }//end while
+         }finally{
+            this.lock.unlock();
+         }//end try
+         for (PooledConnection pc : stale){
+            pc.close ();
+            this.evicted.incrementAndGet();
+         }//end for
+      }//end while
+   }//end evictLoop
+
+   /**
+    * Closes every idle connection and refuses further borrows.  Connections
+    * still out on loan are closed as they are released.
+    */
+   public void close () {
+      List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+      this.lock.lock();
+      try{
+         this.closed = true;
+         toClose.addAll(this.idle);
+         this.total -= this.idle.size();
+         this.idle.clear();
+         this.available.signalAll();
+      }finally{
+         this.lock.unlock();
+      }//end try
+      if (this.evictor != null) this.evictor.interrupt();
+      for (PooledConnection pc : toClose)
+         pc.close ();
+   }//end close
+
+   public int getMaxSize () {
+      return this.maxSize;
+   }//end getMaxSize
+
+   /**
+    * @return a one-line summary of the pool counters
+    */
+   public String stats () {
+      int open, free;
+      this.lock.lock();
+      try{
+         open = this.total;
+         free = this.idle.size();
+      }finally{
+         this.lock.unlock();
+      }//end try
+      long n = this.borrows.get();
+      return "open=" + open + " idle=" + free + " min=" + this.minSize + " max=" + this.maxSize +
+             " borrows=" + n +
+             " avgWaitUs=" + (n == 0 ? 0 : this.borrowWaitNanos.get() / n / 1000) +
+             " maxWaitUs=" + this.maxBorrowWaitNanos.get() / 1000 +
+             " timeouts=" + this.borrowTimeouts.get() +
+             " created=" + this.created.get() +
+             " evicted=" + this.evicted.get() +
+             " validationFailures=" + this.validationFailures.get() +
+             " schemaDrops=" + this.schemaDrops.get();
+   }//end stats
+
+}//end ConnectionPool
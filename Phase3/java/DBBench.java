@@ -0,0 +1,1666 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command line benchmarks for DBProject.  Each mode runs against a live
+ * database loaded with the Phase3 data and prints its numbers to standard
+ * out.
+ *
+ *    java DBBench <dbname> <port> <user> <mode>
+ *
+ * Modes:
+ *    pool        throughput of a read query for pool sizes 1/8/32 at 1/8/32
+ *                concurrent clients
+ *    statements  per-call latency of the booked rooms query sent as a
+ *                fresh Statement versus through the prepared statement cache
+ *    ids         stress test of IdAllocator (two instances, 32 threads, fails
+ *                on any duplicate id) and Request inserts/s with
+ *                SELECT MAX(reqID)+1 versus leased ids
+ *    soak        100k read operations (-Dsoak.ops) over one connection,
+ *                sampling the session's prepared statements, open cursors
+ *                and backend memory every 10k to show they stay flat
+ *    calendar    AvailabilityCalendar over the shipped data scaled
+ *                -Dcalendar.scale times (default 100): heap per hotel-year,
+ *                lookup latency, and every sampled count checked against a
+ *                plain set of bookings.  Synthetic, so it needs no database
+ *                and ignores the connection arguments
+ *    topk        TopKPriceIndex versus the SQL top-K query for date ranges of
+ *                one day to ten years (-Dtopk.k, default 10), checking both
+ *                return the same prices
+ *    cache       hit rate, evictions and lookup latency of the customer name
+ *                cache at sizes 100/1000/10000 under a skewed name mix,
+ *                against the uncached query
+ *    ops         every menu operation through Operations at 1, 4 and 16
+ *                threads (-Dbench.threads): throughput and sampled latency
+ *                percentiles, written as JSON to -Dbench.out (default
+ *                dbbench-ops.json).  -Dbench.ops limits it to a comma
+ *                separated list of operations, -Dbench.warmup sets the
+ *                untimed seconds before each run (default 2) and
+ *                -Dbench.scale labels the data loaded (1x, 10x, 100x) in
+ *                the report, next to the table row counts and the number
+ *                of Booking partitions (see Partitioner).  Rows it inserts
+ *                are deleted at the end
+ *    metrics     cost of LatencyHistogram.record, the instrumentation around
+ *                every operation and SQL call, at 1, 4 and 16 threads
+ *                recording into one histogram, against the two
+ *                System.nanoTime calls alone.  Needs no database
+ *    http        requests/s and latency percentiles of the read operations
+ *                served by HttpService at 100 and 1000 concurrent clients
+ *                (-Dbench.clients) sharing -Dbench.connections database
+ *                connections (default 16)
+ *    booking     bookRoom under contention: 1, 4, 16 and 64 threads
+ *                (-Dbench.threads) booking random days of the next
+ *                -Dbench.days (default 365) in the rooms of the hotel with
+ *                the most rooms.  Reports bookings/s, refused double
+ *                bookings and latency, and fails unless every room and day
+ *                was sold at most once, counted both by the clients and in
+ *                Booking.  The bookings are deleted at the end
+ *    weekcache   the week listing replayed -Dbench.lookups times (default
+ *                20000) with front desk skew: a few hotels get most calls,
+ *                mostly for windows in the latest week, and 1% of calls
+ *                are bookings into that week.  Latency and hit rate
+ *                without and with WeekCache, every 50th cached listing
+ *                checked against SQL.  The bookings are deleted at the end
+ *    revenue     RevenueIndex load time with 1 and -Drevenue.threads
+ *                readers, then -Dbench.checks (default 2000) random date
+ *                ranges summed per customer and per hotel by the index and
+ *                by SQL SUM, failing on any difference, with the time of
+ *                each
+ *    keytypes    Room, Booking and Customer copied twice, once with Numeric
+ *                keys and CHAR names and once with the Integer and VARCHAR
+ *                of KeyMigrator, each with the indexes of the operations:
+ *                table and index sizes, then the Booking-Room-Customer
+ *                join -Dbench.runs times (default 5) and -Dbench.lookups
+ *                one-hotel joins (default 2000) on each.  Run it on data
+ *                from DataGenerator at scale 100 for the 100x figures.
+ *                The copies are dropped at the end
+ *    export      a Booking extract of -Dbench.rows rows (default 2000000;
+ *                Booking is repeated to reach it) read to nowhere, then
+ *                written by Exporter as CSV and as columnar files in
+ *                -Dbench.dir (default the temporary folder): rows/s, MB/s
+ *                and file size, against the same bytes written straight to
+ *                disk, and the heap left after a full GC every 500000 rows
+ *                to show it stays flat.  The files are deleted at the end
+ *    snapshot    BookingSnapshot built in -Dbench.dir (default the temporary
+ *                folder) and reopened: time, rows/s and MB.  Then
+ *                -Dbench.checks (default 600) random date ranges of one day
+ *                to ten years, split evenly over a count, a hotel and a
+ *                customer revenue sum, the top 10 prices, the week listing
+ *                and revenue grouped by hotel, each run on the snapshot
+ *                (-Dsnapshot.threads workers) and in SQL: p50 and p99 of
+ *                both, failing on any difference.  Run it on data from
+ *                DataGenerator at scale 100 for the 100x figures.  The
+ *                files are deleted at the end
+ *
+ * The length of each measurement is set with -Dbench.seconds (default 10).
+ */
+public class DBBench {
+
+   static final long SECONDS = Long.getLong("bench.seconds", 10);
+
+   /**
+    * One unit of benchmark work, run repeatedly by each client thread.
+    */
+   interface Task {
+      void run (int client, Random rnd) throws Exception;
+   }//end Task
+
+   public static void main (String[] args) {
+      if (args.length < 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DBBench.class.getName () +
+            " <dbname> <port> <user> <mode>");
+         return;
+      }//end if
+
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String mode = args[3];
+         if (mode.equals("pool")){
+            poolBenchmark (args[0], args[1], args[2]);
+         }else if (mode.equals("statements")){
+            statementBenchmark (args[0], args[1], args[2]);
+         }else if (mode.equals("ids")){
+            idBenchmark (args[0], args[1], args[2]);
+         }else if (mode.equals("soak")){
+            soakTest (args[0], args[1], args[2]);
+         }else if (mode.equals("calendar")){
+            calendarBenchmark ();
+         }else if (mode.equals("topk")){
+            topKBenchmark (args[0], args[1], args[2]);
+         }else if (mode.equals("cache")){
+            cacheBenchmark (args[0], args[1], args[2]);
+         }else if (mode.equals("metrics")){
+            metricsBenchmark ();
+         }else if (mode.equals("ops")){
+            operationsBenchmark (args[0], args[1], args[2]);
+         }else if (mode.equals("http")){
+            httpBenchmark (args[0], args[1], args[2]);
+         }else if (mode.equals("booking")){
+            bookingBenchmark (args[0], args[1], args[2]);
+         }else if (mode.equals("weekcache")){
+            weekCacheBenchmark (args[0], args[1], args[2]);
+         }else if (mode.equals("revenue")){
+            revenueBenchmark (args[0], args[1], args[2]);
+         }else if (mode.equals("keytypes")){
+            keyTypesBenchmark (args[0], args[1], args[2]);
+         }else if (mode.equals("export")){
+            exportBenchmark (args[0], args[1], args[2]);
+         }else if (mode.equals("snapshot")){
+            snapshotBenchmark (args[0], args[1], args[2]);
+         }else{
+            System.err.println ("Unknown mode: " + mode);
+         }//end if
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }//end try
+   }//end main
+
+   /*
+    * Runs `clients` threads doing `task` for `millis` and returns the
+    * number of completed iterations.  Failed iterations are counted in
+    * errors and do not stop the run.
+    */
+   static long runClients (int clients, long millis, final Task task, final AtomicLong errors) throws InterruptedException {
+      final AtomicLong ops = new AtomicLong();
+      final long deadline = System.currentTimeMillis() + millis;
+      final CountDownLatch done = new CountDownLatch(clients);
+      for (int c = 0; c < clients; ++c){
+         final int client = c;
+         Thread t = new Thread(new Runnable() {
+            public void run () {
+               Random rnd = new Random(client);
+               try{
+                  while (System.currentTimeMillis() < deadline){
+                     try{
+                        task.run(client, rnd);
+                        ops.incrementAndGet();
+                     }catch (Exception e){
+                        errors.incrementAndGet();
+                     }//end try
+                  }//end while
+               }finally{
+                  done.countDown();
+               }//end try
+            }
+         }, "bench-client-" + c);
+         t.start();
+      }//end for
+      done.await();
+      return ops.get();
+   }//end runClients
+
+   static int maxHotelID (DBProject esql) throws Exception {
+      Integer max = esql.queryForObject("SELECT MAX(hotelID) AS max_id FROM Hotel", RowMapper.INT);
+      return max == null ? 1 : Math.max(1, max.intValue());
+   }//end maxHotelID
+
+   /*
+    * Throughput versus pool size: a per-hotel booking count (the query
+    * behind numberOfBookedRooms) issued by 1, 8 and 32 clients against
+    * pools of 1, 8 and 32 connections.
+    */
+   static void poolBenchmark (String dbname, String dbport, String user) throws Exception {
+      int[] sizes = {1, 8, 32};
+      System.out.println ("pool\tclients\tops/s\terrors\tpool stats");
+      for (int size : sizes){
+         final DBProject esql = new DBProject (dbname, dbport, user, "", size, size);
+         try{
+            final int hotels = maxHotelID (esql);
+            for (int clients : sizes){
+               AtomicLong errors = new AtomicLong();
+               long ops = runClients (clients, SECONDS * 1000, new Task() {
+                  public void run (int client, Random rnd) throws Exception {
+                     esql.queryForObject(DBProject.SQL_BOOKED_ROOMS, RowMapper.INT, 1 + rnd.nextInt(hotels), "2015-05-12");
+                  }
+               }, errors);
+               System.out.println (size + "\t" + clients + "\t" + (ops / SECONDS) + "\t" + errors.get() +
+                                   "\t" + esql.getPool().stats());
+            }//end for
+         }finally{
+            esql.cleanup ();
+         }//end try
+      }//end for
+   }//end poolBenchmark
+
+   /*
+    * Single-client latency of the same query built by concatenation and
+    * sent through createStatement(), versus bound to its cached template.
+    */
+   static void statementBenchmark (String dbname, String dbport, String user) throws Exception {
+      final DBProject esql = new DBProject (dbname, dbport, user, "", 1, 1);
+      try{
+         final int hotels = maxHotelID (esql);
+         AtomicLong errors = new AtomicLong();
+         long adhoc = runClients (1, SECONDS * 1000, new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               ConnectionPool.PooledConnection pc = esql.getPool().borrow();
+               try{
+                  Statement stmt = pc.getConnection().createStatement();
+                  try{
+                     ResultSet rs = stmt.executeQuery("SELECT COUNT(DISTINCT b.roomNo) AS count FROM Booking b WHERE b.hotelID = " +
+                                                      (1 + rnd.nextInt(hotels)) + " AND b.bookingDate = CAST('2015-05-12' AS DATE)");
+                     rs.next();
+                  }finally{
+                     stmt.close();
+                  }//end try
+               }finally{
+                  esql.getPool().release(pc);
+               }//end try
+            }
+         }, errors);
+         long prepared = runClients (1, SECONDS * 1000, new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               esql.queryForObject(DBProject.SQL_BOOKED_ROOMS, RowMapper.INT, 1 + rnd.nextInt(hotels), "2015-05-12");
+            }
+         }, errors);
+         System.out.println ("mode\tcalls\tus/call");
+         System.out.println ("statement\t" + adhoc + "\t" + (adhoc == 0 ? 0 : SECONDS * 1000000 / adhoc));
+         System.out.println ("prepared\t" + prepared + "\t" + (prepared == 0 ? 0 : SECONDS * 1000000 / prepared));
+         System.out.println ("errors\t" + errors.get());
+      }finally{
+         esql.cleanup ();
+      }//end try
+   }//end statementBenchmark
+
+   /*
+    * Two DBProject instances stand in for two clerks' processes; 16 threads
+    * on each draw ids from the same sequence and every id must be unique.
+    * Then Request inserts are timed with the old MAX()+1 lookup (one client,
+    * since concurrent clients would collide) and with leased ids at 1 and 8
+    * clients.  Inserted rows are deleted afterwards.
+    */
+   static void idBenchmark (String dbname, String dbport, String user) throws Exception {
+      final DBProject clerk1 = new DBProject (dbname, dbport, user, "", 1, 8);
+      final DBProject clerk2 = new DBProject (dbname, dbport, user, "", 1, 8);
+      try{
+         final ConcurrentHashMap<Long, Boolean> seen = new ConcurrentHashMap<Long, Boolean>();
+         final AtomicLong duplicates = new AtomicLong();
+         AtomicLong errors = new AtomicLong();
+         long drawn = runClients (32, SECONDS * 1000, new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               DBProject esql = (client % 2 == 0) ? clerk1 : clerk2;
+               if (seen.putIfAbsent(esql.getRequestIds().next(), Boolean.TRUE) != null)
+                  duplicates.incrementAndGet();
+            }
+         }, errors);
+         System.out.println ("ids drawn\t" + drawn + "\tduplicates\t" + duplicates.get() +
+                             "\terrors\t" + errors.get() + "\tleases\t" +
+                             (clerk1.getRequestIds().getLeases() + clerk2.getRequestIds().getLeases()));
+         if (duplicates.get() != 0)
+            throw new IllegalStateException("IdAllocator handed out duplicate ids");
+
+         final String insert = "INSERT INTO Request (reqID, managerID, repairID, requestDate, description) VALUES (?, 0, 0, CAST(? AS DATE), 'dbbench')";
+         System.out.println ("path\tclients\tinserts/s\terrors");
+         errors = new AtomicLong();
+         long ops = runClients (1, SECONDS * 1000, new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               long id = clerk1.queryForObject("SELECT MAX(reqID) AS max_id FROM Request", RowMapper.LONG).longValue() + 1;
+               clerk1.executeUpdate(insert, id, "2015-05-12");
+            }
+         }, errors);
+         System.out.println ("max+1\t1\t" + (ops / SECONDS) + "\t" + errors.get());
+         clerk1.executeUpdate("DELETE FROM Request WHERE description = 'dbbench'");
+
+         for (int clients : new int[] {1, 8}){
+            errors = new AtomicLong();
+            ops = runClients (clients, SECONDS * 1000, new Task() {
+               public void run (int client, Random rnd) throws Exception {
+                  clerk1.executeUpdate(insert, clerk1.getRequestIds().next(), "2015-05-12");
+               }
+            }, errors);
+            System.out.println ("leased\t" + clients + "\t" + (ops / SECONDS) + "\t" + errors.get());
+         }//end for
+         clerk1.executeUpdate("DELETE FROM Request WHERE description = 'dbbench'");
+      }finally{
+         clerk1.cleanup ();
+         clerk2.cleanup ();
+      }//end try
+   }//end idBenchmark
+
+   /*
+    * Cycles the read operations' queries through the query API on a pool of
+    * one, so every call lands in the same server session, and samples that
+    * session as it goes.  A leak shows up as a growing number of prepared
+    * statements or cursors, or growing backend memory.
+    */
+   static void soakTest (String dbname, String dbport, String user) throws Exception {
+      long total = Long.getLong("soak.ops", 100000);
+      DBProject esql = new DBProject (dbname, dbport, user, "", 1, 1);
+      try{
+         int hotels = maxHotelID (esql);
+         Random rnd = new Random(42);
+         RowMapper<String> row = new RowMapper<String>() {
+            public String mapRow (ResultSet rs) throws SQLException {
+               return rs.getString (1);
+            }
+         };
+         System.out.println ("ops\tprepared\tcursors\tbackend bytes\tclient heap");
+         long[] first = null;
+         long[] last = null;
+         for (long op = 0; op < total; ++op){
+            if (op % 10000 == 0){
+               last = sampleSession (esql, op);
+               if (first == null) first = last;
+            }//end if
+            int hotel = 1 + rnd.nextInt(hotels);
+            switch ((int) (op % 6)){
+               case 0: esql.queryForObject(DBProject.SQL_BOOKED_ROOMS, RowMapper.INT, hotel, "2015-05-12"); break;
+               case 1: esql.queryForObject(DBProject.SQL_AVAILABLE_ROOMS, RowMapper.INT, hotel, "2015-05-12"); break;
+               case 2: esql.query(DBProject.SQL_WEEK_BOOKINGS, row, hotel, "2015-05-12", "2015-05-12"); break;
+               case 3: esql.query(DBProject.SQL_TOPK_COMPANIES, row, 5); break;
+               case 4: esql.queryForObject(DBProject.SQL_CUSTOMER_BY_NAME, RowMapper.INT, "rzqs", "eyeg"); break;
+               default:
+                  ResultCursor<String> cursor = esql.openCursor(DBProject.SQL_REPAIRS_PER_YEAR, row, 1 + rnd.nextInt(10), hotel);
+                  try{
+                     while (cursor.hasNext ()) cursor.next ();
+                  }finally{
+                     cursor.close ();
+                  }//end try
+            }//end switch
+         }//end for
+         last = sampleSession (esql, total);
+         boolean flat = last[0] <= first[0] + 32 && last[1] == 0;
+         System.out.println (flat ? "server-side statements and cursors stayed flat"
+                                  : "server-side resources grew: possible leak");
+      }finally{
+         esql.cleanup ();
+      }//end try
+   }//end soakTest
+
+   // prepared statements, open cursors and memory of the pool's one session
+   private static long[] sampleSession (DBProject esql, long ops) throws SQLException {
+      long prepared = esql.queryForObject("SELECT COUNT(*) FROM pg_prepared_statements", RowMapper.LONG).longValue();
+      long cursors = esql.queryForObject("SELECT COUNT(*) FROM pg_cursors", RowMapper.LONG).longValue();
+      long bytes = -1;
+      try{
+         // only available on PostgreSQL 14 and later
+         bytes = esql.queryForObject("SELECT COALESCE(SUM(used_bytes), 0) FROM pg_backend_memory_contexts", RowMapper.LONG).longValue();
+      }catch (SQLException e){
+         // leave it unknown.
+      }//end try
+      Runtime rt = Runtime.getRuntime();
+      System.out.println (ops + "\t" + prepared + "\t" + cursors + "\t" + (bytes < 0 ? "n/a" : String.valueOf(bytes)) +
+                          "\t" + (rt.totalMemory() - rt.freeMemory()));
+      return new long[] {prepared, cursors, bytes};
+   }//end sampleSession
+
+   /*
+    * The shipped data has 1000 hotels of 10 rooms and 4000 bookings spread
+    * over 2000-2018.  This builds a calendar of that shape scaled up, then a
+    * separate one with 2015 fully booked for a sample of hotels to give the
+    * worst-case cost of a hotel-year.  Exits with status 1 on a wrong count.
+    */
+   static void calendarBenchmark () {
+      int scale = Integer.getInteger("calendar.scale", 100);
+      int hotels = 1000 * scale;
+      int roomsPerHotel = 10;
+      int bookings = 4000 * scale;
+      int first = Dates.toEpochDay("2000-01-01");
+      int days = Dates.toEpochDay("2018-12-31") - first + 1;
+      Random rnd = new Random(42);
+
+      int[] bookedHotel = new int[bookings];
+      int[] bookedRoom = new int[bookings];
+      int[] bookedDay = new int[bookings];
+      for (int i = 0; i < bookings; ++i){
+         bookedHotel[i] = 1 + rnd.nextInt(hotels);
+         bookedRoom[i] = 1 + rnd.nextInt(roomsPerHotel);
+         bookedDay[i] = first + rnd.nextInt(days);
+      }//end for
+
+      long before = usedHeap ();
+      long start = System.nanoTime();
+      AvailabilityCalendar calendar = new AvailabilityCalendar();
+      for (int h = 1; h <= hotels; ++h)
+         for (int r = 1; r <= roomsPerHotel; ++r)
+            calendar.addRoom (h, r);
+      for (int i = 0; i < bookings; ++i)
+         calendar.book (bookedHotel[i], bookedRoom[i], bookedDay[i]);
+      long buildMillis = (System.nanoTime() - start) / 1000000;
+      long heap = usedHeap () - before;
+      System.out.println ("hotels\trooms\tbookings\tbuild ms\tbitset bytes\theap bytes");
+      System.out.println (hotels + "\t" + (hotels * roomsPerHotel) + "\t" + bookings + "\t" + buildMillis + "\t" +
+                          calendar.footprintBytes() + "\t" + heap);
+      System.out.println ("heap per hotel-year: " + (heap / hotels * 365 / days) + " bytes");
+
+      Set<Long> booked = new HashSet<Long>();
+      for (int i = 0; i < bookings; ++i)
+         booked.add(key (bookedHotel[i], bookedRoom[i], bookedDay[i]));
+
+      // half the probes hit a booked day, half a random one
+      int wrong = 0;
+      for (int i = 0; i < 100000; ++i){
+         int h, d;
+         if ((i & 1) == 0){
+            int b = rnd.nextInt(bookings);
+            h = bookedHotel[b];
+            d = bookedDay[b];
+         }else{
+            h = 1 + rnd.nextInt(hotels);
+            d = first + rnd.nextInt(days);
+         }//end if
+         int expected = 0;
+         for (int r = 1; r <= roomsPerHotel; ++r)
+            if (booked.contains(key (h, r, d))) ++expected;
+         if (calendar.bookedRooms (h, d) != expected || calendar.availableRooms (h, d) != roomsPerHotel - expected)
+            ++wrong;
+      }//end for
+
+      int lookups = 10000000;
+      long sink = 0;
+      start = System.nanoTime();
+      for (int i = 0; i < lookups; ++i){
+         int b = i % bookings;
+         sink += calendar.availableRooms (bookedHotel[b], bookedDay[b] + (i & 7));
+      }//end for
+      long nanos = System.nanoTime() - start;
+      System.out.println ("lookups	ns/lookup	(checksum " + sink + ")");
+      System.out.println (lookups + "	" + String.format("%.1f", (double) nanos / lookups));
+
+      // worst case: every room of every sampled hotel booked all of 2015
+      int dense = Math.min(hotels, 1000);
+      AvailabilityCalendar full = new AvailabilityCalendar();
+      int jan1 = Dates.toEpochDay("2015-01-01");
+      for (int h = 1; h <= dense; ++h)
+         for (int r = 1; r <= roomsPerHotel; ++r)
+            for (int d = jan1; d < jan1 + 365; ++d)
+               full.book (h, r, d);
+      System.out.println ("fully booked hotel-year: " + (full.footprintBytes() / dense) + " bytes");
+
+      if (wrong > 0){
+         System.err.println (wrong + " wrong count(s)");
+         System.exit(1);
+      }//end if
+      System.out.println ("all sampled counts match");
+   }//end calendarBenchmark
+
+   /*
+    * Average latency of the top-K price query through the index and through
+    * SQL, for random ranges of each width within the bookings' years.
+    * Exits with status 1 when the two disagree on the prices returned.
+    */
+   static void topKBenchmark (String dbname, String dbport, String user) throws Exception {
+      int k = Integer.getInteger("topk.k", 10);
+      int runs = 200;
+      DBProject esql = new DBProject (dbname, dbport, user, "", 1, 1);
+      int mismatches = 0;
+      try{
+         long start = System.nanoTime();
+         TopKPriceIndex index = TopKPriceIndex.load (esql);
+         System.out.println ("indexed " + index.size() + " bookings in " + (System.nanoTime() - start) / 1000000 + " ms");
+         RowMapper<Integer> price = new RowMapper<Integer>() {
+            public Integer mapRow (ResultSet rs) throws SQLException {
+               return TopKPriceIndex.cents (rs.getBigDecimal (3));
+            }
+         };
+         int first = Dates.toEpochDay("2000-01-01");
+         int last = Dates.toEpochDay("2018-12-31");
+         int[] widths = {1, 7, 30, 365, 3650};
+         Random rnd = new Random(42);
+         System.out.println ("days\tindex us\tsql us");
+         for (int width : widths){
+            int[] starts = new int[runs];
+            for (int i = 0; i < runs; ++i)
+               starts[i] = first + rnd.nextInt(last - first - width + 2);
+
+            long indexNanos = 0, sqlNanos = 0;
+            for (int i = 0; i < runs; ++i){
+               int end = starts[i] + width - 1;
+               long t0 = System.nanoTime();
+               java.util.List<TopKPriceIndex.Entry> top = index.topK (starts[i], end, k);
+               long t1 = System.nanoTime();
+               java.util.List<Integer> sql = esql.query(DBProject.SQL_TOPK_ROOM_PRICE, price,
+                                                        Dates.format(starts[i]), Dates.format(end), k);
+               long t2 = System.nanoTime();
+               indexNanos += t1 - t0;
+               sqlNanos += t2 - t1;
+               boolean same = top.size() == sql.size();
+               for (int j = 0; same && j < top.size(); ++j)
+                  same = top.get(j).priceCents == sql.get(j).intValue();
+               if (!same) ++mismatches;
+            }//end for
+            System.out.println (width + "\t" + String.format("%.1f", indexNanos / 1e3 / runs) + "\t" +
+                                String.format("%.1f", sqlNanos / 1e3 / runs));
+         }//end for
+      }finally{
+         esql.cleanup ();
+      }//end try
+      if (mismatches > 0){
+         System.err.println (mismatches + " range(s) where the index and SQL disagree");
+         System.exit(1);
+      }//end if
+      System.out.println ("index and SQL agree on every range");
+   }//end topKBenchmark
+
+   /*
+    * Replays the same skewed stream of customer names (a few names take
+    * most lookups, as regulars do at a front desk) against caches of
+    * several sizes, to pick -Dcache.size.  Each name resolves through the
+    * real query on a miss.
+    */
+   static void cacheBenchmark (String dbname, String dbport, String user) throws Exception {
+      final DBProject esql = new DBProject (dbname, dbport, user, "", 1, 1);
+      try{
+         final java.util.List<String[]> names = esql.query("SELECT fName, lName FROM Customer", new RowMapper<String[]>() {
+            public String[] mapRow (ResultSet rs) throws SQLException {
+               return new String[] {rs.getString (1).trim(), rs.getString (2).trim()};
+            }
+         });
+         if (names.isEmpty()){
+            System.err.println ("No customers to look up");
+            return;
+         }//end if
+         int lookups = 20000;
+         int[] stream = new int[lookups];
+         Random rnd = new Random(42);
+         for (int i = 0; i < lookups; ++i){
+            // squaring a uniform draw sends most lookups to the first names
+            double u = rnd.nextDouble();
+            stream[i] = (int) (u * u * names.size());
+         }//end for
+
+         long start = System.nanoTime();
+         for (int i = 0; i < lookups; ++i){
+            String[] name = names.get(stream[i]);
+            esql.query(DBProject.SQL_CUSTOMER_BY_NAME, RowMapper.INT, name[0], name[1]);
+         }//end for
+         System.out.println ("size\tus/lookup\tstats");
+         System.out.println ("none\t" + String.format("%.1f", (System.nanoTime() - start) / 1e3 / lookups));
+
+         int[] sizes = {100, 1000, 10000};
+         for (int size : sizes){
+            LookupCache<String, java.util.List<Integer>> cache =
+               new LookupCache<String, java.util.List<Integer>>(size, LookupCache.DEFAULT_TTL_MILLIS);
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; ++i){
+               final String[] name = names.get(stream[i]);
+               cache.get(name[0] + '\n' + name[1], new LookupCache.Loader<String, java.util.List<Integer>>() {
+                  public java.util.List<Integer> load (String key) throws SQLException {
+                     return esql.query(DBProject.SQL_CUSTOMER_BY_NAME, RowMapper.INT, name[0], name[1]);
+                  }
+               });
+            }//end for
+            System.out.println (size + "\t" + String.format("%.1f", (System.nanoTime() - start) / 1e3 / lookups) +
+                                "\t" + cache.stats());
+         }//end for
+      }finally{
+         esql.cleanup ();
+      }//end try
+   }//end cacheBenchmark
+
+   /*
+    * Nanoseconds per instrumented call: the two nanoTime reads alone, then
+    * with Metrics.record into one shared histogram, at several threads so
+    * contention on its counters shows.  Each thread also does some fixed
+    * work per call, like the query the instrumentation surrounds.
+    */
+   static void metricsBenchmark () throws InterruptedException {
+      final long calls = Long.getLong("metrics.calls", 20000000);
+      System.out.println ("threads\tbare ns/call\trecorded ns/call\toverhead ns");
+      for (final int threads : new int[] {1, 4, 16}){
+         double[] perCall = new double[2];
+         for (int recorded = 0; recorded < 2; ++recorded){
+            final Metrics metrics = new Metrics();
+            final boolean record = recorded == 1;
+            final long each = calls / threads;
+            // warm up the same code path first
+            for (int round = 0; round < 2; ++round){
+               final CountDownLatch done = new CountDownLatch(threads);
+               final AtomicLong sink = new AtomicLong();
+               long start = System.nanoTime();
+               for (int t = 0; t < threads; ++t){
+                  new Thread(new Runnable() {
+                     public void run () {
+                        long acc = 0;
+                        for (long i = 0; i < each; ++i){
+                           long began = System.nanoTime();
+                           acc += i * 31 ^ began;
+                           if (record) metrics.record ("sql.query", began, false);
+                           else acc += System.nanoTime() - began;
+                        }//end for
+                        sink.addAndGet(acc);
+                        done.countDown();
+                     }
+                  }).start();
+               }//end for
+               done.await();
+               perCall[recorded] = (System.nanoTime() - start) / (double) each;
+            }//end for
+            if (record){
+               LatencyHistogram.Snapshot s = metrics.histogram("sql.query").snapshot();
+               if (s.count != 2 * each * threads)
+                  throw new IllegalStateException("lost recordings: " + s.count + " of " + 2 * each * threads);
+            }//end if
+         }//end for
+         System.out.println (threads + "\t" + String.format("%.1f", perCall[0]) + "\t" +
+                             String.format("%.1f", perCall[1]) + "\t" + String.format("%.1f", perCall[1] - perCall[0]));
+      }//end for
+   }//end metricsBenchmark
+
+   // first id of the rows the ops benchmark inserts, far above real data
+   static final int BENCH_BASE = 1000000000;
+   static final int BENCH_CUSTOMER = BENCH_BASE - 1;
+   static final int BENCH_STAFF = BENCH_BASE - 1;
+
+   // latency samples kept per thread; beyond this, reservoir sampling
+   static final int SAMPLES = 100000;
+
+   // a listing sink that only counts
+   static final RowSink DISCARD = new RowSink() {
+      public void columns (String[] names) { }
+      public void row (String[] values) { }
+      public void end (int rows, boolean truncated) { }
+   };
+
+   /*
+    * Sample keys drawn from the loaded data, so every operation runs
+    * against rows that exist at whatever scale was loaded.
+    */
+   static class OpsData {
+      int[][] rooms;          // hotelID, roomNo
+      Object[][] customers;   // customerID, fName, lName
+      String[] companies;
+      int[] repairs;
+      int[] staff;
+      int first = Dates.toEpochDay("2000-01-01");
+      int days = Dates.toEpochDay("2018-12-31") - first + 1;
+      final AtomicLong next = new AtomicLong();
+
+      String date (Random rnd) {
+         return Dates.format(first + rnd.nextInt(days));
+      }
+   }//end OpsData
+
+   /*
+    * Throughput and latency of each of the sixteen operations, run through
+    * the same Operations methods as the menu.  For every thread count the
+    * operation runs bench.warmup seconds untimed, then bench.seconds timed;
+    * each call's latency is sampled.  Inserting operations write marked
+    * rows (ids from BENCH_BASE, description 'dbbench') that are deleted
+    * afterwards; assign repeatedly updates one marked Assigned row, so at
+    * several threads it also measures row lock contention.
+    */
+   static void operationsBenchmark (String dbname, String dbport, String user) throws Exception {
+      int[] threadCounts = ints (System.getProperty("bench.threads", "1,4,16"));
+      int maxThreads = 1;
+      for (int t : threadCounts) maxThreads = Math.max(maxThreads, t);
+      long warmup = Long.getLong("bench.warmup", 2);
+      String only = System.getProperty("bench.ops");
+      String outFile = System.getProperty("bench.out", "dbbench-ops.json");
+
+      final DBProject esql = new DBProject (dbname, dbport, user, "", 1, maxThreads);
+      try{
+         esql.loadIndexes ();
+         final OpsData data = sampleData (esql);
+         final Operations ops = esql.getOperations();
+         esql.executeUpdate("INSERT INTO Customer (customerID, fName, lName, Address, phNo, DOB, gender) VALUES (?, 'dbbench', 'dbbench', 'dbbench', 0, CAST('2000-01-01' AS DATE), CAST('Other' AS GenderType))", BENCH_CUSTOMER);
+         esql.executeUpdate("INSERT INTO Staff (SSN, fName, lName, address, role, employerID) VALUES (?, 'dbbench', 'dbbench', 'dbbench', CAST('HouseCleaning' AS StaffRole), ?)", BENCH_STAFF, data.rooms[0][0]);
+         esql.executeUpdate("INSERT INTO Assigned (asgID, staffID, hotelID, roomNo) VALUES (?, ?, ?, ?)", BENCH_BASE, BENCH_STAFF, data.rooms[0][0], data.rooms[0][1]);
+
+         String[] names = {"addCustomer", "addRoom", "addMaintenanceCompany", "addRepair", "bookRoom",
+                           "assignHouseCleaningToRoom", "repairRequest", "numberOfAvailableRooms",
+                           "numberOfBookedRooms", "listHotelRoomBookingsForAWeek", "topKHighestRoomPriceForADateRange",
+                           "topKHighestPriceBookingsForACustomer", "totalCostForCustomer", "listRepairsMade",
+                           "topKMaintenanceCompany", "numberOfRepairsForEachRoomPerYear"};
+         StringBuilder json = new StringBuilder(8192);
+         json.append("{\"benchmark\":\"DBBench ops\",\"timestamp\":");
+         Json.quote (json, new java.text.SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new java.util.Date()));
+         json.append(",\"scale\":");
+         Json.quote (json, System.getProperty("bench.scale", "1x"));
+         json.append(",\"seconds\":").append(SECONDS).append(",\"warmupSeconds\":").append(warmup);
+         json.append(",\"rows\":{");
+         String[] tables = {"Hotel", "Staff", "Room", "Customer", "MaintenanceCompany", "Booking", "Repair", "Request", "Assigned"};
+         for (int i = 0; i < tables.length; ++i){
+            if (i > 0) json.append(',');
+            Json.quote (json, tables[i]);
+            json.append(':').append(esql.queryForObject("SELECT COUNT(*) FROM " + tables[i], RowMapper.LONG));
+         }//end for
+         json.append("},\"bookingPartitions\":").append(new Partitioner(esql).partitions().size());
+         json.append(",\"results\":[");
+
+         System.out.println ("operation\tthreads\tops/s\terrors\tp50 ms\tp99 ms\tmax ms");
+         boolean firstResult = true;
+         for (int n = 0; n < names.length; ++n){
+            if (only != null && !("," + only + ",").contains("," + names[n] + ",")) continue;
+            Task task = operation (n, ops, esql, data);
+            for (int threads : threadCounts){
+               runClients (threads, warmup * 1000, task, new AtomicLong());
+               AtomicLong errors = new AtomicLong();
+               long[][] samples = new long[threads][];
+               long[] counts = new long[threads];
+               long done = sampledClients (threads, SECONDS * 1000, task, errors, samples, counts);
+               long[] all = merge (samples);
+               long max = 0;
+               for (long v : all) max = Math.max(max, v);
+               double perSecond = done / (double) SECONDS;
+               System.out.println (names[n] + "\t" + threads + "\t" + String.format("%.1f", perSecond) + "\t" + errors.get() +
+                                   "\t" + ms (percentile (all, 50)) + "\t" + ms (percentile (all, 99)) + "\t" + ms (max));
+               if (!firstResult) json.append(',');
+               firstResult = false;
+               json.append("{\"operation\":");
+               Json.quote (json, names[n]);
+               json.append(",\"threads\":").append(threads)
+                   .append(",\"throughput\":{\"opsPerSecond\":").append(Json.number (perSecond))
+                   .append(",\"operations\":").append(done).append(",\"errors\":").append(errors.get()).append('}')
+                   .append(",\"sampleTime\":{\"samples\":").append(all.length)
+                   .append(",\"p50Ms\":").append(ms (percentile (all, 50)))
+                   .append(",\"p90Ms\":").append(ms (percentile (all, 90)))
+                   .append(",\"p99Ms\":").append(ms (percentile (all, 99)))
+                   .append(",\"p999Ms\":").append(ms (percentile (all, 99.9)))
+                   .append(",\"maxMs\":").append(ms (max)).append("}}");
+            }//end for
+         }//end for
+         json.append("]}");
+
+         java.io.Writer out = new java.io.OutputStreamWriter(new java.io.FileOutputStream(outFile), "UTF-8");
+         try{
+            out.write(json.toString());
+            out.write('\n');
+         }finally{
+            out.close();
+         }//end try
+         System.out.println ("results written to " + outFile);
+      }finally{
+         try{
+            cleanupOperations (esql);
+         }finally{
+            esql.cleanup ();
+         }//end try
+      }//end try
+   }//end operationsBenchmark
+
+   private static OpsData sampleData (DBProject esql) throws SQLException {
+      OpsData data = new OpsData();
+      java.util.List<int[]> rooms = esql.query("SELECT hotelID, roomNo FROM Room WHERE hotelID > 0 AND roomNo < ? LIMIT 10000",
+         new RowMapper<int[]>() {
+            public int[] mapRow (ResultSet rs) throws SQLException {
+               return new int[] {rs.getInt (1), rs.getInt (2)};
+            }
+         }, BENCH_BASE);
+      java.util.List<Object[]> customers = esql.query("SELECT customerID, fName, lName FROM Customer WHERE customerID > 0 AND customerID < ? LIMIT 10000",
+         new RowMapper<Object[]>() {
+            public Object[] mapRow (ResultSet rs) throws SQLException {
+               return new Object[] {rs.getInt (1), rs.getString (2).trim(), rs.getString (3).trim()};
+            }
+         }, BENCH_CUSTOMER);
+      java.util.List<String> companies = esql.query("SELECT name FROM MaintenanceCompany WHERE cmpID > 0 AND cmpID < ? LIMIT 10000",
+         new RowMapper<String>() {
+            public String mapRow (ResultSet rs) throws SQLException {
+               return rs.getString (1).trim();
+            }
+         }, BENCH_BASE);
+      java.util.List<Integer> repairs = esql.query("SELECT rID FROM Repair WHERE rID > 0 AND rID < ? LIMIT 10000", RowMapper.INT, BENCH_BASE);
+      java.util.List<Integer> staff = esql.query("SELECT SSN FROM Staff WHERE SSN > 0 AND SSN < ? LIMIT 10000", RowMapper.INT, BENCH_STAFF);
+      if (rooms.isEmpty() || customers.isEmpty() || companies.isEmpty() || repairs.isEmpty() || staff.isEmpty())
+         throw new SQLException("Load Phase3/data before running the ops benchmark");
+      data.rooms = rooms.toArray(new int[rooms.size()][]);
+      data.customers = customers.toArray(new Object[customers.size()][]);
+      data.companies = companies.toArray(new String[companies.size()]);
+      data.repairs = new int[repairs.size()];
+      for (int i = 0; i < data.repairs.length; ++i) data.repairs[i] = repairs.get(i);
+      data.staff = new int[staff.size()];
+      for (int i = 0; i < data.staff.length; ++i) data.staff[i] = staff.get(i);
+      return data;
+   }//end sampleData
+
+   // the n-th menu operation with random arguments from data
+   private static Task operation (int n, final Operations ops, final DBProject esql, final OpsData data) {
+      switch (n){
+         case 0: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               ops.addCustomer(BENCH_BASE + (int) data.next.incrementAndGet(), "dbbench", "dbbench", "dbbench",
+                               "5551234", "1/1/1990", "Other");
+            }
+         };
+         case 1: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               int[] room = data.rooms[rnd.nextInt(data.rooms.length)];
+               ops.addRoom(room[0], BENCH_BASE + (int) data.next.incrementAndGet(), "dbbench");
+            }
+         };
+         case 2: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               ops.addMaintenanceCompany(BENCH_BASE + (int) data.next.incrementAndGet(), "dbbench", "dbbench", "TRUE");
+            }
+         };
+         case 3: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               int[] room = data.rooms[rnd.nextInt(data.rooms.length)];
+               ops.addRepair(BENCH_BASE + (int) data.next.incrementAndGet(), room[0], room[1], 1, data.date(rnd), "dbbench", "Small");
+            }
+         };
+         case 4: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               int[] room = data.rooms[rnd.nextInt(data.rooms.length)];
+               ops.bookRoom(room[0], room[1], BENCH_CUSTOMER, data.date(rnd), 1 + rnd.nextInt(4), 50 + rnd.nextInt(2000));
+            }
+         };
+         case 5: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               ops.assignHouseCleaningToRoom(BENCH_STAFF, data.rooms[0][0], data.rooms[0][1]);
+            }
+         };
+         case 6: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               ops.repairRequest(data.staff[rnd.nextInt(data.staff.length)], data.repairs[rnd.nextInt(data.repairs.length)],
+                                 data.date(rnd), "dbbench");
+            }
+         };
+         case 7: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               ops.numberOfAvailableRooms(data.rooms[rnd.nextInt(data.rooms.length)][0], data.date(rnd));
+            }
+         };
+         case 8: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               ops.numberOfBookedRooms(data.rooms[rnd.nextInt(data.rooms.length)][0], data.date(rnd));
+            }
+         };
+         case 9: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               ops.listHotelRoomBookingsForAWeek(data.rooms[rnd.nextInt(data.rooms.length)][0], data.date(rnd), DISCARD);
+            }
+         };
+         case 10: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               int start = data.first + rnd.nextInt(data.days - 30);
+               ops.topKHighestRoomPriceForADateRange(Dates.format(start), Dates.format(start + 30), 10, DISCARD);
+            }
+         };
+         case 11: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               Object[] c = data.customers[rnd.nextInt(data.customers.length)];
+               ops.topKHighestPriceBookingsForACustomer((String) c[1], (String) c[2], 10, DISCARD);
+            }
+         };
+         case 12: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               Object[] c = data.customers[rnd.nextInt(data.customers.length)];
+               ops.totalCostForCustomer(data.rooms[rnd.nextInt(data.rooms.length)][0], (Integer) c[0],
+                                        "2000-01-01", "2018-12-31", DISCARD);
+            }
+         };
+         case 13: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               ops.listRepairsMade(data.companies[rnd.nextInt(data.companies.length)], DISCARD);
+            }
+         };
+         case 14: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               ops.topKMaintenanceCompany(10, DISCARD);
+            }
+         };
+         default: return new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               int[] room = data.rooms[rnd.nextInt(data.rooms.length)];
+               ops.numberOfRepairsForEachRoomPerYear(room[0], room[1], DISCARD);
+            }
+         };
+      }//end switch
+   }//end operation
+
+   /*
+    * Starts an HttpService in this process and runs clients against it
+    * over loopback, each keeping one HTTP connection alive and asking for
+    * a random read operation (available, booked, week, repairs per year)
+    * on sampled data.  The latencies are those a terminal would see:
+    * request, queueing for a database connection, the query and the
+    * answer.
+    */
+   static void httpBenchmark (String dbname, String dbport, String user) throws Exception {
+      int[] clientCounts = ints (System.getProperty("bench.clients", "100,1000"));
+      int connections = Integer.getInteger("bench.connections", 16);
+      int maxClients = 1;
+      for (int c : clientCounts) maxClients = Math.max(maxClients, c);
+      // keep every client's connection open between requests
+      System.setProperty("http.keepAlive", "true");
+      System.setProperty("http.maxConnections", String.valueOf(maxClients));
+
+      DBProject esql = new DBProject (dbname, dbport, user, "", connections, connections);
+      HttpService service = new HttpService (esql);
+      try{
+         final OpsData data = sampleData (esql);
+         final String base = "http://127.0.0.1:" + service.start(0) + "/";
+         Task task = new Task() {
+            public void run (int client, Random rnd) throws Exception {
+               int[] room = data.rooms[rnd.nextInt(data.rooms.length)];
+               String path;
+               switch (rnd.nextInt(4)){
+                  case 0: path = "available?hotel=" + room[0] + "&date=" + data.date(rnd); break;
+                  case 1: path = "booked?hotel=" + room[0] + "&date=" + data.date(rnd); break;
+                  case 2: path = "week?hotel=" + room[0] + "&date=" + data.date(rnd); break;
+                  default: path = "repairsPerYear?hotel=" + room[0] + "&room=" + room[1]; break;
+               }//end switch
+               java.net.HttpURLConnection conn = (java.net.HttpURLConnection) new java.net.URL(base + path).openConnection();
+               int status = conn.getResponseCode();
+               java.io.InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+               byte[] buffer = new byte[4096];
+               while (in.read(buffer) > 0) { }
+               in.close();
+               if (status != 200) throw new IllegalStateException("HTTP " + status + " for " + path);
+            }
+         };
+         System.out.println ("clients	connections	requests/s	errors	p50 ms	p99 ms	p99.9 ms	max ms");
+         for (int clients : clientCounts){
+            runClients (clients, 2000, task, new AtomicLong());
+            AtomicLong errors = new AtomicLong();
+            long[][] samples = new long[clients][];
+            long[] counts = new long[clients];
+            long done = sampledClients (clients, SECONDS * 1000, task, errors, samples, counts,
+                                        Math.max(1000, SAMPLES * 16 / clients));
+            long[] all = merge (samples);
+            System.out.println (clients + "	" + connections + "	" + String.format("%.1f", done / (double) SECONDS) + "	" +
+                                errors.get() + "	" + ms (percentile (all, 50)) + "	" + ms (percentile (all, 99)) + "	" +
+                                ms (percentile (all, 99.9)) + "	" + ms (all.length == 0 ? 0 : all[all.length - 1]));
+         }//end for
+      }finally{
+         service.stop(0);
+         esql.cleanup ();
+      }//end try
+   }//end httpBenchmark
+
+   /*
+    * Threads booking the rooms of one hotel, each picking a random room
+    * and day, so that the same slot is regularly tried by several at once.
+    * Each client counts the bookings it got per slot; the run fails if a
+    * slot was sold twice or Booking holds a double booking for the hotel.
+    */
+   static void bookingBenchmark (String dbname, String dbport, String user) throws Exception {
+      int[] threadCounts = ints (System.getProperty("bench.threads", "1,4,16,64"));
+      int maxThreads = 1;
+      for (int t : threadCounts) maxThreads = Math.max(maxThreads, t);
+      final int days = Integer.getInteger("bench.days", 365);
+      final int first = Dates.toEpochDay("2030-01-01");
+
+      final DBProject esql = new DBProject (dbname, dbport, user, "", 1, maxThreads);
+      try{
+         final Operations ops = esql.getOperations();
+         final int hotel = esql.queryForObject(
+            "SELECT hotelID FROM Room WHERE hotelID > 0 AND roomNo < ? GROUP BY hotelID ORDER BY COUNT(*) DESC LIMIT 1",
+            RowMapper.INT, BENCH_BASE);
+         final java.util.List<Integer> rooms = esql.query(
+            "SELECT roomNo FROM Room WHERE hotelID = ? AND roomNo < ? ORDER BY roomNo", RowMapper.INT, hotel, BENCH_BASE);
+         esql.executeUpdate("INSERT INTO Customer (customerID, fName, lName, Address, phNo, DOB, gender) VALUES (?, 'dbbench', 'dbbench', 'dbbench', 0, CAST('2000-01-01' AS DATE), CAST('Other' AS GenderType))", BENCH_CUSTOMER);
+         System.out.println ("hotel " + hotel + ": " + rooms.size() + " rooms x " + days + " days from " + Dates.format(first));
+         System.out.println ("threads	attempts/s	bookings/s	double bookings refused	errors	p50 ms	p99 ms	max ms	check");
+         boolean allOk = true;
+         for (int threads : threadCounts){
+            esql.executeUpdate("DELETE FROM Booking WHERE customer = ?", BENCH_CUSTOMER);
+            final java.util.concurrent.atomic.AtomicIntegerArray sold =
+               new java.util.concurrent.atomic.AtomicIntegerArray(rooms.size() * days);
+            final AtomicLong refused = new AtomicLong();
+            Task task = new Task() {
+               public void run (int client, Random rnd) throws Exception {
+                  int slot = rnd.nextInt(sold.length());
+                  try{
+                     ops.bookRoom(hotel, rooms.get(slot / days), BENCH_CUSTOMER, Dates.format(first + slot % days), 1, 100);
+                     sold.incrementAndGet(slot);
+                  }catch (BookingConflictException e){
+                     refused.incrementAndGet();
+                  }//end try
+               }
+            };
+            AtomicLong errors = new AtomicLong();
+            long[][] samples = new long[threads][];
+            long[] counts = new long[threads];
+            long done = sampledClients (threads, SECONDS * 1000, task, errors, samples, counts);
+            long[] all = merge (samples);
+
+            long booked = 0;
+            int twice = 0;
+            for (int i = 0; i < sold.length(); ++i){
+               booked += sold.get(i);
+               if (sold.get(i) > 1) ++twice;
+            }//end for
+            long stored = esql.queryForObject("SELECT COUNT(*) FROM Booking WHERE customer = ?", RowMapper.LONG, BENCH_CUSTOMER);
+            long doubles = esql.queryForObject(
+               "SELECT COUNT(*) FROM (SELECT roomNo, bookingDate FROM Booking WHERE hotelID = ? " +
+               "GROUP BY roomNo, bookingDate HAVING COUNT(*) > 1) d", RowMapper.LONG, hotel);
+            boolean ok = twice == 0 && doubles == 0 && stored == booked;
+            allOk &= ok;
+            System.out.println (threads + "	" + String.format("%.1f", done / (double) SECONDS) + "	" +
+                                String.format("%.1f", booked / (double) SECONDS) + "	" + refused.get() + "	" +
+                                errors.get() + "	" + ms (percentile (all, 50)) + "	" + ms (percentile (all, 99)) + "	" +
+                                ms (all.length == 0 ? 0 : all[all.length - 1]) + "	" +
+                                (ok ? "ok" : "FAILED: " + twice + " slots sold twice by the clients, " + doubles +
+                                      " double bookings stored, " + stored + " stored for " + booked + " sold"));
+         }//end for
+         if (!allOk) throw new IllegalStateException("double booking detected");
+      }finally{
+         try{
+            cleanupOperations (esql);
+         }finally{
+            esql.cleanup ();
+         }//end try
+      }//end try
+   }//end bookingBenchmark
+
+   /*
+    * One sequence of front desk calls, run once against SQL and once
+    * through the week cache.  Hotels are drawn with the square of a
+    * uniform draw (most calls go to the first few), start dates 70% in the
+    * latest week of data, 20% in the eight weeks before and 10% anywhere.
+    * A booking in the latest week replaces 1 call in 100, so the cache is
+    * invalidated the way a busy desk would.
+    */
+   static void weekCacheBenchmark (String dbname, String dbport, String user) throws Exception {
+      int lookups = Integer.getInteger("bench.lookups", 20000);
+      final DBProject esql = new DBProject (dbname, dbport, user, "", 1, 1);
+      try{
+         WeekCache cache = esql.getWeekCache();
+         if (cache == null)
+            throw new IllegalStateException("The week cache is off (-Dweekcache.size=0)");
+         Operations ops = esql.getOperations();
+         java.util.List<int[]> rooms = esql.query("SELECT hotelID, roomNo FROM Room WHERE hotelID > 0 AND roomNo < ? ORDER BY hotelID",
+            new RowMapper<int[]>() {
+               public int[] mapRow (ResultSet rs) throws SQLException {
+                  return new int[] {rs.getInt (1), rs.getInt (2)};
+               }
+            }, BENCH_BASE);
+         java.util.Map<Integer, java.util.List<Integer>> roomsOf = new java.util.HashMap<Integer, java.util.List<Integer>>();
+         for (int[] r : rooms){
+            if (!roomsOf.containsKey(r[0])) roomsOf.put(r[0], new java.util.ArrayList<Integer>());
+            roomsOf.get(r[0]).add(r[1]);
+         }//end for
+         java.util.List<Integer> hotels = new java.util.ArrayList<Integer>(roomsOf.keySet());
+         java.util.Collections.shuffle(hotels, new Random(7));
+         int[] range = esql.queryForObject("SELECT MIN(bookingDate) - DATE '1970-01-01', MAX(bookingDate) - DATE '1970-01-01' FROM Booking",
+            new RowMapper<int[]>() {
+               public int[] mapRow (ResultSet rs) throws SQLException {
+                  return new int[] {rs.getInt (1), rs.getInt (2)};
+               }
+            });
+         if (hotels.isEmpty() || range[1] == 0)
+            throw new SQLException("Load Phase3/data before running the week cache benchmark");
+         int latest = range[1] - 6;
+         esql.executeUpdate("INSERT INTO Customer (customerID, fName, lName, Address, phNo, DOB, gender) VALUES (?, 'dbbench', 'dbbench', 'dbbench', 0, CAST('2000-01-01' AS DATE), CAST('Other' AS GenderType))", BENCH_CUSTOMER);
+
+         // the calls: hotel, start day, and whether it books instead
+         int[][] calls = new int[lookups][];
+         Random rnd = new Random(42);
+         for (int i = 0; i < lookups; ++i){
+            double u = rnd.nextDouble();
+            int hotel = hotels.get((int) (u * u * hotels.size()));
+            double where = rnd.nextDouble();
+            int day = where < 0.7 ? latest + rnd.nextInt(7)
+                    : where < 0.9 ? latest - 7 * (1 + rnd.nextInt(8)) + rnd.nextInt(7)
+                    : range[0] + rnd.nextInt(range[1] - range[0] + 1);
+            boolean book = rnd.nextInt(100) == 0;
+            java.util.List<Integer> hotelRooms = roomsOf.get(hotel);
+            calls[i] = new int[] {hotel, book ? latest + rnd.nextInt(7) : day, book ? hotelRooms.get(rnd.nextInt(hotelRooms.size())) : -1};
+         }//end for
+
+         System.out.println ("listing	us/call	p50 us	p99 us	mismatches	cache");
+         for (int pass = 0; pass < 2; ++pass){
+            boolean cached = pass == 1;
+            cache.invalidateAll();
+            long[] latencies = new long[lookups];
+            int listed = 0;
+            int mismatches = 0;
+            long total = 0;
+            for (int i = 0; i < lookups; ++i){
+               int[] c = calls[i];
+               if (c[2] >= 0){
+                  try{
+                     ops.bookRoom(c[0], c[2], BENCH_CUSTOMER, Dates.format(c[1]), 1, 100);
+                  }catch (BookingConflictException e){
+                     // booked by the other pass
+                  }//end try
+                  continue;
+               }//end if
+               String date = Dates.format(c[1]);
+               RowSet rows = new RowSet();
+               long start = System.nanoTime();
+               if (cached) cache.list(c[0], c[1], rows, 0);
+               else esql.stream(DBProject.SQL_WEEK_BOOKINGS, rows, c[0], date, date);
+               long nanos = System.nanoTime() - start;
+               total += nanos;
+               latencies[listed++] = nanos;
+               if (cached && i % 50 == 0){
+                  RowSet expected = new RowSet();
+                  esql.stream(DBProject.SQL_WEEK_BOOKINGS, expected, c[0], date, date);
+                  if (!expected.rows.equals(rows.rows)) ++mismatches;
+               }//end if
+            }//end for
+            long[] sorted = java.util.Arrays.copyOf(latencies, listed);
+            java.util.Arrays.sort(sorted);
+            System.out.println ((cached ? "cached" : "sql") + "	" + String.format("%.1f", total / 1e3 / Math.max(1, listed)) + "	" +
+                                String.format("%.1f", percentile (sorted, 50) / 1e3) + "	" +
+                                String.format("%.1f", percentile (sorted, 99) / 1e3) + "	" +
+                                (cached ? String.valueOf(mismatches) : "-") + "	" + (cached ? cache.stats() : "-"));
+            if (mismatches > 0)
+               throw new IllegalStateException(mismatches + " cached listings differ from SQL");
+         }//end for
+      }finally{
+         try{
+            cleanupOperations (esql);
+         }finally{
+            esql.cleanup ();
+         }//end try
+      }//end try
+   }//end weekCacheBenchmark
+
+   /*
+    * Loads the index serially and in parallel, then compares its sums to
+    * SQL for ranges of one day to ten years, at hotels and customers taken
+    * from Booking so most ranges have something to sum.
+    */
+   static void revenueBenchmark (String dbname, String dbport, String user) throws Exception {
+      int checks = Integer.getInteger("bench.checks", 2000);
+      int threads = Integer.getInteger("revenue.threads", Runtime.getRuntime().availableProcessors());
+      DBProject esql = new DBProject (dbname, dbport, user, "", 1, Math.max(1, threads));
+      try{
+         System.out.println ("readers	load s");
+         RevenueIndex index = null;
+         for (int readers : new int[] {1, threads}){
+            System.setProperty("revenue.threads", String.valueOf(readers));
+            long start = System.nanoTime();
+            index = RevenueIndex.load (esql);
+            System.out.println (readers + "	" + String.format("%.2f", (System.nanoTime() - start) / 1e9));
+         }//end for
+
+         java.util.List<int[]> samples = esql.query(
+            "SELECT hotelID, customer FROM Booking WHERE hotelID > 0 ORDER BY bID DESC LIMIT 10000",
+            new RowMapper<int[]>() {
+               public int[] mapRow (ResultSet rs) throws SQLException {
+                  return new int[] {rs.getInt (1), rs.getInt (2)};
+               }
+            });
+         if (samples.isEmpty())
+            throw new SQLException("Load Phase3/data before running the revenue benchmark");
+         RowMapper<java.math.BigDecimal> sumOf = new RowMapper<java.math.BigDecimal>() {
+            public java.math.BigDecimal mapRow (ResultSet rs) throws SQLException {
+               return rs.getBigDecimal (1);
+            }
+         };
+         int first = Dates.toEpochDay("2000-01-01");
+         int days = Dates.toEpochDay("2018-12-31") - first + 1;
+         Random rnd = new Random(11);
+         int mismatches = 0;
+         long indexNanos = 0, sqlNanos = 0;
+         for (int i = 0; i < checks; ++i){
+            int[] sample = samples.get(rnd.nextInt(samples.size()));
+            boolean perHotel = i % 2 == 1;
+            int start = first + rnd.nextInt(days);
+            int end = start + (int) Math.pow(3650, rnd.nextDouble());
+
+            long t = System.nanoTime();
+            long cents = perHotel ? index.hotelRevenue(sample[0], start, end)
+                                  : index.customerRevenue(sample[0], sample[1], start, end);
+            indexNanos += System.nanoTime() - t;
+
+            t = System.nanoTime();
+            java.math.BigDecimal sum = perHotel
+               ? esql.queryForObject("SELECT SUM(price) FROM Booking WHERE hotelID = ? AND bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE)",
+                                     sumOf, sample[0], Dates.format(start), Dates.format(end))
+               : esql.queryForObject("SELECT SUM(price) FROM Booking WHERE hotelID = ? AND customer = ? AND bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE)",
+                                     sumOf, sample[0], sample[1], Dates.format(start), Dates.format(end));
+            sqlNanos += System.nanoTime() - t;
+
+            long expected = sum == null ? -1 : TopKPriceIndex.cents (sum);
+            if (cents != expected){
+               if (++mismatches <= 10)
+                  System.out.println ("differs: " + (perHotel ? "hotel " + sample[0] : "hotel " + sample[0] + " customer " + sample[1]) +
+                                      " " + Dates.format(start) + ".." + Dates.format(end) + " index=" + cents + " sql=" + expected);
+            }//end if
+         }//end for
+         System.out.println ("sums	index us/sum	sql us/sum	mismatches");
+         System.out.println (checks + "	" + String.format("%.2f", indexNanos / 1e3 / checks) + "	" +
+                             String.format("%.1f", sqlNanos / 1e3 / checks) + "	" + mismatches);
+         if (mismatches > 0)
+            throw new IllegalStateException(mismatches + " revenue sums differ from SQL");
+      }finally{
+         esql.cleanup ();
+      }//end try
+   }//end revenueBenchmark
+
+   // the column types of the keytypes copies: key, booking id, name, room type
+   static final String[][] KEY_LAYOUTS = {
+      {"numeric", "Numeric", "Numeric", "CHAR(30)", "CHAR(10)"},
+      {"integer", "Integer", "BigInt", "VARCHAR(30)", "VARCHAR(10)"}};
+
+   /*
+    * Builds both copies from the live tables, whatever their types, so the
+    * layouts are compared on the same rows and the same query plans.
+    */
+   static void keyTypesBenchmark (String dbname, String dbport, String user) throws Exception {
+      int runs = Integer.getInteger("bench.runs", 5);
+      int lookups = Integer.getInteger("bench.lookups", 2000);
+      DBProject esql = new DBProject (dbname, dbport, user, "", 1, 1);
+      try{
+         String[] relations = {"room", "room_pkey", "booking", "booking_pkey", "booking_hotel_date", "booking_room_date",
+                               "customer", "customer_pkey", "customer_name"};
+         long[][] sizes = new long[KEY_LAYOUTS.length][relations.length];
+         for (int l = 0; l < KEY_LAYOUTS.length; ++l){
+            String[] t = KEY_LAYOUTS[l];
+            String kt = "kt_" + t[0] + "_";
+            long start = System.currentTimeMillis();
+            for (String table : new String[] {"room", "booking", "customer"})
+               esql.executeUpdate ("DROP TABLE IF EXISTS " + kt + table);
+            esql.executeUpdate ("CREATE TABLE " + kt + "room AS SELECT CAST(hotelID AS " + t[1] + ") AS hotelID, CAST(roomNo AS " + t[1] +
+                                ") AS roomNo, CAST(roomType AS " + t[4] + ") AS roomType FROM Room");
+            esql.executeUpdate ("CREATE TABLE " + kt + "booking AS SELECT CAST(bID AS " + t[2] + ") AS bID, CAST(customer AS " + t[1] +
+                                ") AS customer, CAST(hotelID AS " + t[1] + ") AS hotelID, CAST(roomNo AS " + t[1] +
+                                ") AS roomNo, bookingDate, price FROM Booking");
+            esql.executeUpdate ("CREATE TABLE " + kt + "customer AS SELECT CAST(customerID AS " + t[1] + ") AS customerID, CAST(fName AS " +
+                                t[3] + ") AS fName, CAST(lName AS " + t[3] + ") AS lName FROM Customer");
+            esql.executeUpdate ("ALTER TABLE " + kt + "room ADD CONSTRAINT " + kt + "room_pkey PRIMARY KEY (hotelID, roomNo)");
+            esql.executeUpdate ("ALTER TABLE " + kt + "booking ADD CONSTRAINT " + kt + "booking_pkey PRIMARY KEY (bID)");
+            esql.executeUpdate ("CREATE INDEX " + kt + "booking_hotel_date ON " + kt + "booking (hotelID, bookingDate, roomNo, customer)");
+            esql.executeUpdate ("CREATE INDEX " + kt + "booking_room_date ON " + kt + "booking (hotelID, roomNo, bookingDate)");
+            esql.executeUpdate ("ALTER TABLE " + kt + "customer ADD CONSTRAINT " + kt + "customer_pkey PRIMARY KEY (customerID)");
+            esql.executeUpdate ("CREATE INDEX " + kt + "customer_name ON " + kt + "customer (lName, fName)");
+            for (String table : new String[] {"room", "booking", "customer"})
+               esql.executeUpdate ("VACUUM ANALYZE " + kt + table);
+            for (int r = 0; r < relations.length; ++r)
+               sizes[l][r] = esql.queryForObject ("SELECT pg_relation_size(CAST(? AS regclass))", RowMapper.LONG, kt + relations[r]);
+            System.out.println (t[0] + " copies built in " + String.format("%.1f", (System.currentTimeMillis() - start) / 1000.0) + " s");
+         }//end for
+
+         System.out.println ("relation	numeric MB	integer MB	change");
+         for (int r = 0; r < relations.length; ++r)
+            System.out.println (relations[r] + "	" + String.format("%.2f", sizes[0][r] / 1048576.0) + "	" +
+                                String.format("%.2f", sizes[1][r] / 1048576.0) + "	" +
+                                (sizes[0][r] == 0 ? "-" : String.format("%+.0f%%", 100.0 * (sizes[1][r] - sizes[0][r]) / sizes[0][r])));
+
+         java.util.List<Integer> hotels = esql.query ("SELECT DISTINCT hotelID FROM Room ORDER BY 1", RowMapper.INT);
+         int first = Dates.toEpochDay("2000-01-01");
+         int days = Dates.toEpochDay("2018-12-31") - first + 1;
+         System.out.println ("layout	join p50 ms	join max ms	lookup p50 ms	lookup p99 ms	rows");
+         for (String[] t : KEY_LAYOUTS){
+            String kt = "kt_" + t[0] + "_";
+            String join = "SELECT COUNT(*) FROM " + kt + "booking b JOIN " + kt + "room r ON r.hotelID = b.hotelID AND r.roomNo = b.roomNo " +
+                          "JOIN " + kt + "customer c ON c.customerID = b.customer";
+            String lookup = "SELECT COUNT(*) FROM " + kt + "room r JOIN " + kt + "booking b ON b.hotelID = r.hotelID AND b.roomNo = r.roomNo " +
+                            "WHERE r.hotelID = ? AND b.bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE) + 30";
+            esql.queryForObject (join, RowMapper.LONG);
+            long[] joins = new long[runs];
+            long rows = 0;
+            for (int i = 0; i < runs; ++i){
+               long start = System.nanoTime();
+               rows = esql.queryForObject (join, RowMapper.LONG);
+               joins[i] = System.nanoTime() - start;
+            }//end for
+            // the same hotels and dates for both layouts
+            Random rnd = new Random(42);
+            long[] probes = new long[lookups];
+            for (int i = 0; i < lookups; ++i){
+               int hotel = hotels.get(rnd.nextInt(hotels.size()));
+               String date = Dates.format(first + rnd.nextInt(days));
+               long start = System.nanoTime();
+               esql.queryForObject (lookup, RowMapper.LONG, hotel, date, date);
+               probes[i] = System.nanoTime() - start;
+            }//end for
+            java.util.Arrays.sort(joins);
+            java.util.Arrays.sort(probes);
+            System.out.println (t[0] + "	" + ms (percentile (joins, 50)) + "	" + ms (percentile (joins, 100)) + "	" +
+                                ms (percentile (probes, 50)) + "	" + ms (percentile (probes, 99)) + "	" + rows);
+         }//end for
+      }finally{
+         try{
+            for (String[] t : KEY_LAYOUTS)
+               for (String table : new String[] {"room", "booking", "customer"})
+                  esql.executeUpdate ("DROP TABLE IF EXISTS kt_" + t[0] + "_" + table);
+         }finally{
+            esql.cleanup ();
+         }//end try
+      }//end try
+   }//end keyTypesBenchmark
+
+   /*
+    * The extract joins the customer's name so the columnar file has
+    * dictionary columns as well as numbers.
+    */
+   static void exportBenchmark (String dbname, String dbport, String user) throws Exception {
+      long target = Long.getLong("bench.rows", 2000000);
+      java.io.File dir = new java.io.File(System.getProperty("bench.dir", System.getProperty("java.io.tmpdir")));
+      DBProject esql = new DBProject (dbname, dbport, user, "", 1, 1);
+      esql.setFetchSize (Exporter.FETCH_SIZE);
+      esql.setRowLimit (0);
+      try{
+         long bookings = esql.queryForObject ("SELECT COUNT(*) FROM Booking", RowMapper.LONG);
+         if (bookings == 0)
+            throw new SQLException("Load Phase3/data before running the export benchmark");
+         long copies = (target + bookings - 1) / bookings;
+         String sql = "SELECT b.bID, b.customer, c.fName, c.lName, b.hotelID, b.roomNo, b.bookingDate, b.noOfPeople, b.price " +
+                      "FROM Booking b JOIN Customer c ON c.customerID = b.customer, generate_series(1, " + copies + ") n";
+         final long[] heap = {0};
+         System.out.println ((bookings * copies) + " rows: Booking x " + copies);
+         System.out.println ("format	rows/s	MB/s	MB	max heap MB");
+
+         long start = System.nanoTime();
+         int rows = esql.stream (sql, DISCARD);
+         System.out.println ("none	" + (long) (rows / ((System.nanoTime() - start) / 1e9)) + "	-	-	-");
+
+         long largest = 0;
+         for (String format : new String[] {"csv", "columnar"}){
+            java.io.File file = new java.io.File(dir, "dbbench-export." + format);
+            final Exporter.FileSink sink = format.equals("csv") ? new Exporter.CsvSink(file)
+                                                                : new Exporter.ColumnarSink(file, Exporter.GROUP_ROWS);
+            heap[0] = usedHeap ();
+            start = System.nanoTime();
+            try{
+               esql.stream (sql, new RowSink() {
+                  public void columns (String[] names) { sink.columns (names); }
+                  public void row (String[] values) {
+                     sink.row (values);
+                     if (sink.rows () % 500000 == 0) heap[0] = Math.max(heap[0], usedHeap ());
+                  }
+                  public void end (int rows, boolean truncated) { sink.end (rows, truncated); }
+               });
+            }finally{
+               sink.close ();
+            }//end try
+            double seconds = (System.nanoTime() - start) / 1e9;
+            largest = Math.max(largest, file.length());
+            System.out.println (format + "	" + (long) (sink.rows () / seconds) + "	" +
+                                String.format("%.1f", file.length() / seconds / 1048576) + "	" +
+                                String.format("%.1f", file.length() / 1048576.0) + "	" +
+                                String.format("%.1f", heap[0] / 1048576.0));
+            if (!file.delete()) file.deleteOnExit();
+         }//end for
+
+         // the disk alone: as many bytes as the larger file, through the same kind of buffer
+         java.io.File file = new java.io.File(dir, "dbbench-export.raw");
+         java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocateDirect(Exporter.BUFFER_BYTES);
+         java.io.FileOutputStream out = new java.io.FileOutputStream(file);
+         start = System.nanoTime();
+         try{
+            java.nio.channels.FileChannel channel = out.getChannel();
+            for (long left = largest; left > 0; left -= buffer.capacity()){
+               buffer.clear();
+               buffer.limit((int) Math.min(buffer.capacity(), left));
+               while (buffer.hasRemaining()) channel.write(buffer);
+            }//end for
+         }finally{
+            out.close();
+         }//end try
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.println ("disk	-	" + String.format("%.1f", largest / seconds / 1048576) + "	" +
+                             String.format("%.1f", largest / 1048576.0) + "	-");
+         if (!file.delete()) file.deleteOnExit();
+      }finally{
+         esql.cleanup ();
+      }//end try
+   }//end exportBenchmark
+
+   static final String[] SNAPSHOT_QUERIES = {"count", "hotel sum", "customer sum", "top 10", "week", "by hotel"};
+
+   static void snapshotBenchmark (String dbname, String dbport, String user) throws Exception {
+      int checks = Integer.getInteger("bench.checks", 600);
+      java.io.File dir = new java.io.File(System.getProperty("bench.dir", System.getProperty("java.io.tmpdir")), "dbbench-snapshot");
+      DBProject esql = new DBProject (dbname, dbport, user, "", 1, 1);
+      BookingSnapshot snapshot = null;
+      try{
+         java.util.List<int[]> samples = esql.query(
+            "SELECT hotelID, customer FROM Booking WHERE hotelID > 0 ORDER BY bID DESC LIMIT 10000",
+            new RowMapper<int[]>() {
+               public int[] mapRow (ResultSet rs) throws SQLException {
+                  return new int[] {rs.getInt (1), rs.getInt (2)};
+               }
+            });
+         if (samples.isEmpty())
+            throw new SQLException("Load Phase3/data before running the snapshot benchmark");
+
+         long start = System.nanoTime();
+         snapshot = BookingSnapshot.build (esql, dir);
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.println ("built " + snapshot.rows () + " bookings in " + String.format("%.2f", seconds) + " s, " +
+                             (long) (snapshot.rows () / seconds) + " rows/s, " +
+                             String.format("%.1f", snapshot.bytes () / 1048576.0) + " MB");
+         snapshot.close ();
+         start = System.nanoTime();
+         snapshot = BookingSnapshot.open (esql, dir);
+         System.out.println ("reopened and refreshed in " + ms (System.nanoTime() - start) + " ms");
+
+         RowMapper<java.math.BigDecimal> sumOf = new RowMapper<java.math.BigDecimal>() {
+            public java.math.BigDecimal mapRow (ResultSet rs) throws SQLException {
+               return rs.getBigDecimal (1);
+            }
+         };
+         RowMapper<Integer> price = new RowMapper<Integer>() {
+            public Integer mapRow (ResultSet rs) throws SQLException {
+               return TopKPriceIndex.cents (rs.getBigDecimal (3));
+            }
+         };
+         RowMapper<String> group = new RowMapper<String>() {
+            public String mapRow (ResultSet rs) throws SQLException {
+               return rs.getInt (1) + " " + TopKPriceIndex.cents (rs.getBigDecimal (2)) + " " + rs.getLong (3);
+            }
+         };
+         int first = Dates.toEpochDay("2000-01-01");
+         int days = Dates.toEpochDay("2018-12-31") - first + 1;
+         int kinds = SNAPSHOT_QUERIES.length;
+         long[][] snapshotNanos = new long[kinds][(checks + kinds - 1) / kinds];
+         long[][] sqlNanos = new long[kinds][(checks + kinds - 1) / kinds];
+         int[] mismatches = new int[kinds];
+         Random rnd = new Random(5);
+         for (int i = 0; i < checks; ++i){
+            int kind = i % kinds;
+            int[] sample = samples.get(rnd.nextInt(samples.size()));
+            int from = first + rnd.nextInt(days);
+            int to = from + (int) Math.pow(3650, rnd.nextDouble());
+            String fromDate = Dates.format(from);
+            String toDate = Dates.format(to);
+
+            Object got, expected;
+            long t0 = System.nanoTime();
+            switch (kind){
+               case 0: got = snapshot.count (from, to); break;
+               case 1: got = snapshot.hotelRevenue (sample[0], from, to); break;
+               case 2: got = snapshot.customerRevenue (sample[0], sample[1], from, to); break;
+               case 3:
+                  java.util.List<Integer> top = new java.util.ArrayList<Integer>();
+                  for (TopKPriceIndex.Entry e : snapshot.topK (from, to, 10)) top.add(e.priceCents);
+                  got = top;
+                  break;
+               case 4:
+                  RowSet week = new RowSet();
+                  snapshot.list (sample[0], from, week, 0);
+                  got = week.rows;
+                  break;
+               default:
+                  java.util.List<String> groups = new java.util.ArrayList<String>();
+                  for (java.util.Map.Entry<Integer, long[]> e : snapshot.revenueBy (BookingSnapshot.HOTEL, from, to).entrySet())
+                     groups.add(e.getKey() + " " + e.getValue()[0] + " " + e.getValue()[1]);
+                  got = groups;
+            }//end switch
+            long t1 = System.nanoTime();
+            switch (kind){
+               case 0:
+                  expected = esql.queryForObject ("SELECT COUNT(*) FROM Booking WHERE bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE)",
+                                                  RowMapper.LONG, fromDate, toDate);
+                  break;
+               case 1:
+               case 2:
+                  java.math.BigDecimal sum = kind == 1
+                     ? esql.queryForObject ("SELECT SUM(price) FROM Booking WHERE hotelID = ? AND bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE)",
+                                            sumOf, sample[0], fromDate, toDate)
+                     : esql.queryForObject ("SELECT SUM(price) FROM Booking WHERE hotelID = ? AND customer = ? AND bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE)",
+                                            sumOf, sample[0], sample[1], fromDate, toDate);
+                  expected = sum == null ? -1L : (long) TopKPriceIndex.cents (sum);
+                  break;
+               case 3:
+                  expected = esql.query (DBProject.SQL_TOPK_ROOM_PRICE, price, fromDate, toDate, 10);
+                  break;
+               case 4:
+                  RowSet week = new RowSet();
+                  esql.stream (DBProject.SQL_WEEK_BOOKINGS, week, sample[0], fromDate, fromDate);
+                  expected = week.rows;
+                  break;
+               default:
+                  expected = esql.query ("SELECT hotelID, SUM(price), COUNT(*) FROM Booking " +
+                                         "WHERE bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE) GROUP BY hotelID ORDER BY hotelID",
+                                         group, fromDate, toDate);
+            }//end switch
+            long t2 = System.nanoTime();
+            snapshotNanos[kind][i / kinds] = t1 - t0;
+            sqlNanos[kind][i / kinds] = t2 - t1;
+            if (!got.equals(expected) && ++mismatches[kind] <= 3)
+               System.out.println ("differs: " + SNAPSHOT_QUERIES[kind] + " hotel " + sample[0] + " customer " + sample[1] +
+                                   " " + fromDate + ".." + toDate + " snapshot=" + got + " sql=" + expected);
+         }//end for
+
+         System.out.println ("query	snapshot p50 ms	snapshot p99 ms	sql p50 ms	sql p99 ms	mismatches");
+         int failed = 0;
+         for (int kind = 0; kind < kinds; ++kind){
+            int n = (checks - kind + kinds - 1) / kinds;
+            long[] mine = java.util.Arrays.copyOf(snapshotNanos[kind], n);
+            long[] sql = java.util.Arrays.copyOf(sqlNanos[kind], n);
+            java.util.Arrays.sort(mine);
+            java.util.Arrays.sort(sql);
+            System.out.println (SNAPSHOT_QUERIES[kind] + "	" + ms (percentile (mine, 50)) + "	" + ms (percentile (mine, 99)) + "	" +
+                                ms (percentile (sql, 50)) + "	" + ms (percentile (sql, 99)) + "	" + mismatches[kind]);
+            failed += mismatches[kind];
+         }//end for
+         if (failed > 0)
+            throw new IllegalStateException(failed + " snapshot answers differ from SQL");
+      }finally{
+         try{
+            if (snapshot != null) snapshot.delete ();
+            if (!dir.delete()) dir.deleteOnExit();
+         }finally{
+            esql.cleanup ();
+         }//end try
+      }//end try
+   }//end snapshotBenchmark
+
+   // the rows of a listing as a set, to compare listings whatever their order
+   static class RowSet implements RowSink {
+      final Set<String> rows = new HashSet<String>();
+      public void columns (String[] names) { }
+      public void row (String[] values) { this.rows.add(java.util.Arrays.toString(values)); }
+      public void end (int rows, boolean truncated) { }
+   }//end RowSet
+
+   // deletes every row the ops benchmark inserted, children first
+   private static void cleanupOperations (DBProject esql) throws SQLException {
+      esql.executeUpdate("DELETE FROM Request WHERE description = 'dbbench'");
+      esql.executeUpdate("DELETE FROM Repair WHERE rID >= " + BENCH_BASE);
+      esql.executeUpdate("DELETE FROM Booking WHERE customer = " + BENCH_CUSTOMER);
+      esql.executeUpdate("DELETE FROM Assigned WHERE staffID = " + BENCH_STAFF);
+      esql.executeUpdate("DELETE FROM Room WHERE roomNo >= " + BENCH_BASE);
+      esql.executeUpdate("DELETE FROM MaintenanceCompany WHERE cmpID >= " + BENCH_BASE);
+      esql.executeUpdate("DELETE FROM Customer WHERE customerID >= " + BENCH_CUSTOMER);
+      esql.executeUpdate("DELETE FROM Staff WHERE SSN = " + BENCH_STAFF);
+   }//end cleanupOperations
+
+   /*
+    * runClients, also sampling each call's latency: samples[c] receives up
+    * to SAMPLES latencies of client c, drawn uniformly from all its calls.
+    */
+   static long sampledClients (int clients, long millis, final Task task, final AtomicLong errors,
+                               final long[][] samples, final long[] counts) throws InterruptedException {
+      return sampledClients (clients, millis, task, errors, samples, counts, SAMPLES);
+   }//end sampledClients
+
+   // the same, keeping up to perClient latencies of each client
+   static long sampledClients (int clients, long millis, final Task task, final AtomicLong errors,
+                               final long[][] samples, final long[] counts, final int perClient) throws InterruptedException {
+      final long deadline = System.currentTimeMillis() + millis;
+      final CountDownLatch done = new CountDownLatch(clients);
+      for (int c = 0; c < clients; ++c){
+         final int client = c;
+         Thread t = new Thread(new Runnable() {
+            public void run () {
+               Random rnd = new Random(client);
+               long[] mine = new long[perClient];
+               long calls = 0;
+               try{
+                  while (System.currentTimeMillis() < deadline){
+                     long start = System.nanoTime();
+                     try{
+                        task.run(client, rnd);
+                     }catch (Exception e){
+                        errors.incrementAndGet();
+                     }//end try
+                     long nanos = System.nanoTime() - start;
+                     if (calls < perClient){
+                        mine[(int) calls] = nanos;
+                     }else{
+                        long slot = (long) (rnd.nextDouble() * (calls + 1));
+                        if (slot < perClient) mine[(int) slot] = nanos;
+                     }//end if
+                     ++calls;
+                  }//end while
+               }finally{
+                  samples[client] = java.util.Arrays.copyOf(mine, (int) Math.min(calls, perClient));
+                  counts[client] = calls;
+                  done.countDown();
+               }//end try
+            }
+         }, "bench-client-" + c);
+         t.start();
+      }//end for
+      done.await();
+      long total = 0;
+      for (long n : counts) total += n;
+      return total - errors.get();
+   }//end sampledClients
+
+   private static long[] merge (long[][] parts) {
+      int n = 0;
+      for (long[] p : parts) n += p.length;
+      long[] all = new long[n];
+      int at = 0;
+      for (long[] p : parts){
+         System.arraycopy(p, 0, all, at, p.length);
+         at += p.length;
+      }//end for
+      java.util.Arrays.sort(all);
+      return all;
+   }//end merge
+
+   private static long percentile (long[] sorted, double p) {
+      if (sorted.length == 0) return 0;
+      int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+   }//end percentile
+
+   private static String ms (long nanos) {
+      return Json.number (nanos / 1e6);
+   }//end ms
+
+   private static int[] ints (String list) {
+      String[] parts = list.split(",");
+      int[] values = new int[parts.length];
+      for (int i = 0; i < parts.length; ++i)
+         values[i] = Integer.parseInt(parts[i].trim());
+      return values;
+   }//end ints
+
+   private static long key (int hotel, int room, int day) {
+      return ((long) hotel << 40) | ((long) room << 20) | (day & 0xFFFFF);
+   }//end key
+
+   private static long usedHeap () {
+      Runtime rt = Runtime.getRuntime();
+      for (int i = 0; i < 3; ++i) System.gc();
+      return rt.totalMemory() - rt.freeMemory();
+   }//end usedHeap
+
+}//end DBBench
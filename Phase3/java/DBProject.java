@@ -11,16 +11,25 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.Statement;
+import java.sql.Types;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.math.BigDecimal;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -29,8 +38,104 @@ import java.io.InputStreamReader;
  */
 public class DBProject {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections shared by all operations.
+   private ConnectionPool _pool = null;
+
+   // rows per round trip and maximum rows printed by executeQuery2.
+   private volatile int _fetchSize = Integer.getInteger("query.fetchSize", 500);
+   private volatile long _rowLimit = Long.getLong("query.rowLimit", 0);
+
+   // primary key allocators for the tables the menu inserts into.
+   private final IdAllocator _bookingIds = new IdAllocator(this, "booking_bid_seq");
+   private final IdAllocator _assignedIds = new IdAllocator(this, "assigned_asgid_seq");
+   private final IdAllocator _requestIds = new IdAllocator(this, "request_reqid_seq");
+
+   // in-memory indexes over Booking, null when disabled (-Dcalendar=off,
+   // -Dtopk=off, -Drevenue=off) or not loaded; their operations then fall
+   // back to SQL.
+   private volatile AvailabilityCalendar _calendar = null;
+   private volatile TopKPriceIndex _prices = null;
+   private volatile RevenueIndex _revenue = null;
+
+   // Booking as mapped column files, null unless -Dsnapshot=on; when open
+   // it answers the date range reports in place of the indexes above.
+   private volatile BookingSnapshot _snapshot = null;
+
+   // name -> ids of the customers and maintenance companies with that name
+   // (-Dcache.size entries, -Dcache.ttl seconds); cleared when this
+   // instance adds one.
+   private final LookupCache<String, List<Integer>> _customerIds = new LookupCache<String, List<Integer>>();
+   private final LookupCache<String, List<Integer>> _companyIds = new LookupCache<String, List<Integer>>();
+
+   // week listings by hotel and week, null when -Dweekcache.size=0
+   private final WeekCache _weekCache = WeekCache.DEFAULT_SIZE > 0 ? new WeekCache(this, WeekCache.DEFAULT_SIZE) : null;
+
+   // latency of every operation and SQL helper call
+   private final Metrics _metrics = new Metrics();
+
+   // SQL helper calls slower than -Dslowlog.ms, with their plans
+   private final SlowQueryLog _slowLog = new SlowQueryLog(this, SlowQueryLog.DEFAULT_THRESHOLD_MILLIS);
+
+   // the menu operations in callable form, shared by the menu and scripts
+   private final Operations _operations = new Operations(this);
+
+   // SQL templates for the menu operations.  Each one is prepared once per
+   // pooled connection and executed with bound parameters.  Inserts name
+   // their columns, as KeyMigrator moves converted columns to the end.  Names
+   // are cast to VARCHAR, which compares on the column's own type whether it
+   // is CHAR (before KeyMigrator) or VARCHAR, so the name indexes are used;
+   // and bookingDate is compared to DATE values (not timestamps) so only the
+   // partitions in range are read when Booking is partitioned.
+   static final String SQL_ADD_CUSTOMER =
+      "INSERT INTO Customer (customerID, fName, lName, Address, phNo, DOB, gender) " +
+      "VALUES (?, ?, ?, ?, CAST(? AS NUMERIC), CAST(? AS DATE), CAST(? AS GenderType))";
+   static final String SQL_ADD_ROOM =
+      "INSERT INTO Room (hotelID, roomNo, roomType) VALUES (?, ?, ?)";
+   static final String SQL_ADD_COMPANY =
+      "INSERT INTO MaintenanceCompany (cmpID, name, address, isCertified) VALUES (?, ?, ?, CAST(? AS BOOLEAN))";
+   static final String SQL_ADD_REPAIR =
+      "INSERT INTO Repair (rID, hotelID, roomNo, mCompany, repairDate, description, repairType) " +
+      "VALUES (?, ?, ?, ?, CAST(? AS DATE), ?, ?)";
+   static final String SQL_CUSTOMER_BY_NAME =
+      "SELECT c.customerID FROM Customer c WHERE c.fName = CAST(? AS VARCHAR(30)) AND c.lName = CAST(? AS VARCHAR(30)) " +
+      "ORDER BY c.customerID";
+   static final String SQL_ADD_BOOKING =
+      "INSERT INTO Booking (bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price) " +
+      "VALUES (?, ?, ?, ?, CAST(? AS DATE), ?, ?)";
+   static final String SQL_ASSIGN_STAFF =
+      "UPDATE Assigned SET asgID = ?, roomNo = ? WHERE hotelID = ? AND staffID = ?";
+   static final String SQL_ADD_REQUEST =
+      "INSERT INTO Request (reqID, managerID, repairID, requestDate, description) VALUES (?, ?, ?, CAST(? AS DATE), ?)";
+   static final String SQL_AVAILABLE_ROOMS =
+      "SELECT COUNT(*) AS count FROM Room r WHERE r.hotelID = ? AND NOT EXISTS (SELECT 1 FROM Booking b " +
+      "WHERE b.hotelID = r.hotelID AND b.roomNo = r.roomNo AND b.bookingDate = CAST(? AS DATE))";
+   static final String SQL_BOOKED_ROOMS =
+      "SELECT COUNT(DISTINCT b.roomNo) AS count FROM Booking b WHERE b.hotelID = ? AND b.bookingDate = CAST(? AS DATE)";
+   static final String SQL_WEEK_BOOKINGS =
+      "SELECT b.roomNo, b.customer, b.bookingDate FROM Booking b WHERE b.hotelID = ? " +
+      "AND (b.bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE) + 7) " +
+      "GROUP BY b.roomNo, b.customer, b.bookingDate";
+   static final String SQL_TOPK_ROOM_PRICE =
+      "SELECT b.hotelID, b.roomNo, b.price, b.bookingDate FROM Booking b " +
+      "WHERE b.bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE) ORDER BY b.price DESC LIMIT ?";
+   static final String SQL_TOPK_CUSTOMER_PRICE =
+      "SELECT b.price FROM Booking b, Customer c WHERE c.customerID = b.customer " +
+      "AND c.fName = CAST(? AS VARCHAR(30)) AND c.lName = CAST(? AS VARCHAR(30)) ORDER BY b.price DESC LIMIT ?";
+   static final String SQL_CUSTOMER_COST =
+      "SELECT SUM(b.price), b.customer FROM Booking b WHERE b.hotelID = ? AND b.customer = ? " +
+      "AND b.bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE) GROUP BY b.customer";
+   static final String SQL_COMPANY_BY_NAME =
+      "SELECT c.cmpID AS ID FROM MaintenanceCompany c WHERE c.name = CAST(? AS VARCHAR(30)) ORDER BY c.cmpID";
+   static final String SQL_REPAIRS_BY_COMPANY =
+      "SELECT r.mCompany, r.repairType, r.hotelID, r.roomNo FROM Repair r, MaintenanceCompany m " +
+      "WHERE r.mCompany = m.cmpID AND m.cmpID = ?";
+   // the repair counts are kept by migration 002 (CompanyRepairs, RoomRepairYear)
+   static final String SQL_TOPK_COMPANIES =
+      "SELECT SUM(s.repairs), m.name FROM MaintenanceCompany m, CompanyRepairs s WHERE m.cmpID = s.cmpID " +
+      "AND s.repairs > 0 GROUP BY m.name ORDER BY SUM(s.repairs) DESC LIMIT ?";
+   static final String SQL_REPAIRS_PER_YEAR =
+      "SELECT s.year, s.repairs FROM RoomRepairYear s WHERE s.roomNo = ? AND s.hotelID = ? AND s.repairs > 0 " +
+      "ORDER BY s.year";
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -47,6 +152,20 @@ public class DBProject {
     * @throws java.sql.SQLException when failed to make a connection.
     */
    public DBProject (String dbname, String dbport, String user, String passwd) throws SQLException {
+      this(dbname, dbport, user, passwd,
+           Integer.getInteger("pool.min", ConnectionPool.DEFAULT_MIN_SIZE),
+           Integer.getInteger("pool.max", ConnectionPool.DEFAULT_MAX_SIZE));
+   }//end DBProject
+
+   /**
+    * Creates a new instance of DBProject backed by a connection pool of the
+    * given bounds.
+    *
+    * @param minPool connections kept open even when idle
+    * @param maxPool upper bound on concurrently open connections
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public DBProject (String dbname, String dbport, String user, String passwd, int minPool, int maxPool) throws SQLException {
 
       System.out.print("Connecting to database...");
       try{
@@ -54,8 +173,8 @@ public class DBProject {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the pool, which makes the first physical connection(s)
+         this._pool = new ConnectionPool(url, user, passwd, minPool, maxPool);
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -72,103 +191,600 @@ public class DBProject {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      long start = System.nanoTime ();
+      boolean failed = true;
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
+      try{
+         // creates a statement object
+         Statement stmt = pc.getConnection ().createStatement ();
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+         // issues the update instruction
+         stmt.executeUpdate (sql);
 
-      // close the instruction
-      stmt.close ();
+         // close the instruction
+         stmt.close ();
+         failed = false;
+      }finally{
+         this._pool.release (pc);
+         finished ("sql.executeUpdate", sql, null, start, failed);
+      }//end try
    }//end executeUpdate
 
    /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and outputs the results to
+    * Method to execute a parameterized update SQL statement through the
+    * prepared statement cache of the borrowed connection.
+    *
+    * @param sql the SQL template with ? placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      boolean failed = true;
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
+      try{
+         PreparedStatement stmt = pc.prepare (sql);
+         bind (stmt, params);
+         int rows = stmt.executeUpdate ();
+         failed = false;
+         return rows;
+      }finally{
+         this._pool.release (pc);
+         finished ("sql.executeUpdate", sql, params, start, failed);
+      }//end try
+   }//end executeUpdate
+
+   /**
+    * Method to execute a parameterized query and map every row it returns.
+    * The result set is always closed before returning; the prepared
+    * statement stays in the cache of the pooled connection.
+    *
+    * @param sql the SQL template with ? placeholders
+    * @param mapper turns each row into a value
+    * @param params the values bound to the placeholders, in order
+    * @return the mapped rows, in order
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public <T> List<T> query (String sql, RowMapper<T> mapper, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      boolean failed = true;
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
+      try{
+         PreparedStatement stmt = pc.prepare (sql);
+         bind (stmt, params);
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            List<T> rows = new ArrayList<T>();
+            while (rs.next ())
+               rows.add (mapper.mapRow (rs));
+            failed = false;
+            return rows;
+         }finally{
+            rs.close ();
+         }//end try
+      }finally{
+         this._pool.release (pc);
+         finished ("sql.query", sql, params, start, failed);
+      }//end try
+   }//end query
+
+   /**
+    * Method to execute a parameterized query that yields a single row, such
+    * as a COUNT or a lookup by key.
+    *
+    * @param sql the SQL template with ? placeholders
+    * @param mapper turns the row into a value
+    * @param params the values bound to the placeholders, in order
+    * @return the first row mapped, or null when there are no rows
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public <T> T queryForObject (String sql, RowMapper<T> mapper, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      boolean failed = true;
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
+      try{
+         PreparedStatement stmt = pc.prepare (sql);
+         bind (stmt, params);
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            T value = rs.next () ? mapper.mapRow (rs) : null;
+            failed = false;
+            return value;
+         }finally{
+            rs.close ();
+         }//end try
+      }finally{
+         this._pool.release (pc);
+         finished ("sql.queryForObject", sql, params, start, failed);
+      }//end try
+   }//end queryForObject
+
+   /**
+    * Method to open a parameterized query as a stream of mapped rows, read
+    * fetchSize rows at a time through a server-side cursor.  The caller
+    * must close the returned cursor.
+    *
+    * @param sql the SQL template with ? placeholders
+    * @param mapper turns each row into a value
+    * @param params the values bound to the placeholders, in order
+    * @return an open cursor positioned before the first row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public <T> ResultCursor<T> openCursor (String sql, RowMapper<T> mapper, Object... params) throws SQLException {
+      return new ResultCursor<T>(this._pool, this._fetchSize, sql, mapper, params);
+   }//end openCursor
+
+   /*
+    * Records a helper call that started at start in its histogram and
+    * hands it to the slow query log.
+    */
+   private void finished (String name, String sql, Object[] params, long start, boolean failed) {
+      long nanos = System.nanoTime () - start;
+      this._metrics.histogram (name).record (nanos, failed);
+      this._slowLog.check (sql, params, nanos);
+   }//end finished
+
+   /*
+    * Binds params to the placeholders of stmt, in order.
+    */
+   static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+      for (int i = 0; i < params.length; ++i){
+         Object p = params[i];
+         if (p == null)
+            stmt.setNull (i + 1, Types.VARCHAR);
+         else if (p instanceof Integer)
+            stmt.setInt (i + 1, ((Integer) p).intValue());
+         else if (p instanceof Long)
+            stmt.setLong (i + 1, ((Long) p).longValue());
+         else if (p instanceof java.math.BigDecimal)
+            stmt.setBigDecimal (i + 1, (java.math.BigDecimal) p);
+         else if (p instanceof java.sql.Date)
+            stmt.setDate (i + 1, (java.sql.Date) p);
+         else
+            stmt.setString (i + 1, p.toString());
+      }//end for
+   }//end bind
+
+   /**
+    * Method to execute a parameterized query and print its rows to
     * standard out.
     *
-    * @param query the input query string
-    * @return the number of rows returned
+    * @param query the SQL template with ? placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows printed
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public ResultSet executeQuery (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-      return rs;
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      /*ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
+   public int executeQuery2 (String query, Object... params) throws SQLException {
+      return stream (query, new PrintSink(System.out), params);
+   }//end executeQuery2
+
+   /**
+    * Method to execute a parameterized query and hand its rows to a sink.
+    *
+    * The rows are read through a server-side cursor, fetchSize rows at a
+    * time, so memory stays flat however large the result is.  The listing
+    * stops early once rowLimit rows have been delivered (when set) or the
+    * calling thread is interrupted.
+    *
+    * @param query the SQL template with ? placeholders
+    * @param sink receives the column names, the rows and the end
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows delivered
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int stream (String query, RowSink sink, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      boolean failed = true;
+      try{
+         int rows = streamRows (query, sink, params);
+         failed = false;
+         return rows;
+      }finally{
+         finished ("sql.stream", query, params, start, failed);
+      }//end try
+   }//end stream
 
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-	 if(outputHeader){
-	    for(int i = 1; i <= numCol; i++){
-		System.out.print(rsmd.getColumnName(i) + "\t");
-	    }
-	    System.out.println();
-	    outputHeader = false;
-	 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;*/
-   }//end executeQuery
-
-  public int executeQuery2 (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
+   private int streamRows (String query, RowSink sink, Object... params) throws SQLException {
+      long rowLimit = this._rowLimit;
       int rowCount = 0;
+      boolean truncated = false;
+      // one row array for the whole listing, sized from the first row
+      ResultCursor<String[]> cursor = openCursor (query, new RowMapper<String[]>() {
+         private String[] row;
+
+         public String[] mapRow (ResultSet rs) throws SQLException {
+            if (this.row == null)
+               this.row = new String[rs.getMetaData ().getColumnCount ()];
+            for (int i = 0; i < this.row.length; ++i)
+               this.row[i] = rs.getString (i + 1);
+            return this.row;
+         }
+      }, params);
+      try{
+         while (cursor.hasNext ()){
+            if (rowCount == 0)
+               sink.columns (cursor.getColumnNames ());
+            sink.row (cursor.next ());
+            ++rowCount;
+            if ((rowLimit > 0 && rowCount >= rowLimit) || Thread.currentThread ().isInterrupted ()){
+               truncated = cursor.hasNext ();
+               break;
+            }//end if
+         }//end while
+      }finally{
+         cursor.close ();
+      }//end try
+      sink.end (rowCount, truncated);
+      return rowCount;
+   }//end streamRows
 
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-	 if(outputHeader){
-	    for(int i = 1; i <= numCol; i++){
-		System.out.print(rsmd.getColumnName(i) + "\t");
-	    }
-	    System.out.println();
-	    outputHeader = false;
-	 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
+   /**
+    * Method to execute a parameterized query whose result is known to be
+    * small, such as a LIMIT k no larger than the fetch size or an
+    * aggregate, and hand its rows to a sink.
+    *
+    * The rows are read with a plain query, in one round trip, instead of
+    * through a cursor and its transaction; rowLimit and interrupts stop
+    * the listing as they do for stream.
+    *
+    * @param query the SQL template with ? placeholders
+    * @param sink receives the column names, the rows and the end
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows delivered
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int streamAll (String query, RowSink sink, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      boolean failed = true;
+      long rowLimit = this._rowLimit;
+      int rowCount = 0;
+      boolean truncated = false;
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
+      try{
+         PreparedStatement stmt = pc.prepare (query);
+         bind (stmt, params);
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            String[] row = null;
+            while (rs.next ()){
+               if (row == null){
+                  ResultSetMetaData rsmd = rs.getMetaData ();
+                  row = new String[rsmd.getColumnCount ()];
+                  String[] names = new String[row.length];
+                  for (int i = 0; i < names.length; ++i)
+                     names[i] = rsmd.getColumnName (i + 1);
+                  sink.columns (names);
+               }//end if
+               for (int i = 0; i < row.length; ++i)
+                  row[i] = rs.getString (i + 1);
+               sink.row (row);
+               ++rowCount;
+               if ((rowLimit > 0 && rowCount >= rowLimit) || Thread.currentThread ().isInterrupted ()){
+                  truncated = rs.next ();
+                  break;
+               }//end if
+            }//end while
+         }finally{
+            rs.close ();
+         }//end try
+         failed = false;
+      }finally{
+         this._pool.release (pc);
+         finished ("sql.streamAll", query, params, start, failed);
+      }//end try
+      sink.end (rowCount, truncated);
       return rowCount;
-   }//end executeQuery
+   }//end streamAll
 
    /**
-    * Method to close the physical connection if it is open.
+    * Prints listings the way the menu always has: a tab separated header
+    * line, then one tab separated line per row, through one buffered writer
+    * flushed at the end of each listing.
     */
-   public void cleanup(){
+   static class PrintSink implements RowSink {
+      private final PrintWriter out;
+      // one line's text, reused for every row
+      private final StringBuilder line = new StringBuilder(256);
+      private char[] chars = new char[256];
+
+      PrintSink (java.io.OutputStream stream) {
+         this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(stream), 1 << 16));
+      }
+
+      public void columns (String[] names) {
+         for (String name : names)
+            this.out.print (name + "\t");
+         this.out.println ();
+      }
+
+      public void row (String[] values) {
+         this.line.setLength (0);
+         for (String value : values)
+            this.line.append (value).append ('\t');
+         int n = this.line.length ();
+         if (n > this.chars.length)
+            this.chars = new char[Math.max(n, 2 * this.chars.length)];
+         this.line.getChars (0, n, this.chars, 0);
+         this.out.write (this.chars, 0, n);
+         this.out.println ();
+      }
+
+      public void end (int rows, boolean truncated) {
+         if (truncated)
+            this.out.println ("(listing stopped after " + rows + " rows)");
+         this.out.flush ();
+      }
+   }//end PrintSink
+
+   /**
+    * @param fetchSize rows pulled from the server per round trip by executeQuery2
+    */
+   public void setFetchSize (int fetchSize) {
+      if (fetchSize < 1)
+         throw new IllegalArgumentException("Fetch size must be positive: " + fetchSize);
+      this._fetchSize = fetchSize;
+   }//end setFetchSize
+
+   /**
+    * @return rows pulled from the server per round trip by stream
+    */
+   public int getFetchSize () {
+      return this._fetchSize;
+   }//end getFetchSize
+
+   /**
+    * @param rowLimit the most rows executeQuery2 prints, 0 for no limit
+    */
+   public void setRowLimit (long rowLimit) {
+      this._rowLimit = rowLimit;
+   }//end setRowLimit
+
+   /**
+    * @return the connection pool backing this instance
+    */
+   public ConnectionPool getPool () {
+      return this._pool;
+   }//end getPool
+
+   /**
+    * @return the latency histograms of this instance
+    */
+   public Metrics getMetrics () {
+      return this._metrics;
+   }//end getMetrics
+
+   public Operations getOperations () {
+      return this._operations;
+   }//end getOperations
+
+   public IdAllocator getBookingIds () {
+      return this._bookingIds;
+   }//end getBookingIds
+
+   public IdAllocator getAssignedIds () {
+      return this._assignedIds;
+   }//end getAssignedIds
+
+   public IdAllocator getRequestIds () {
+      return this._requestIds;
+   }//end getRequestIds
+
+   /**
+    * Builds the in-memory indexes from the database, skipping any turned
+    * off with -Dcalendar=off, -Dtopk=off or -Drevenue=off.  Until an index
+    * is loaded its operations are answered by SQL.
+    *
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public void loadIndexes () throws SQLException {
+      if (!"off".equals(System.getProperty("calendar")))
+         this._calendar = AvailabilityCalendar.load (this);
+      if (!"off".equals(System.getProperty("topk")))
+         this._prices = TopKPriceIndex.load (this);
+      if (!"off".equals(System.getProperty("revenue")))
+         this._revenue = RevenueIndex.load (this);
+      if ("on".equals(System.getProperty("snapshot"))){
+         try{
+            this._snapshot = BookingSnapshot.open (this, BookingSnapshot.DEFAULT_DIR);
+         }catch (IOException e){
+            throw new SQLException("Cannot open the booking snapshot in " + BookingSnapshot.DEFAULT_DIR + ": " + e.getMessage());
+         }//end try
+      }//end if
+   }//end loadIndexes
+
+   /**
+    * @return the availability calendar, or null when it is not loaded
+    */
+   public AvailabilityCalendar getCalendar () {
+      return this._calendar;
+   }//end getCalendar
+
+   /**
+    * @return the top-K price index, or null when it is not loaded
+    */
+   public TopKPriceIndex getPriceIndex () {
+      return this._prices;
+   }//end getPriceIndex
+
+   /**
+    * @return the revenue index, or null when it is not loaded
+    */
+   public RevenueIndex getRevenueIndex () {
+      return this._revenue;
+   }//end getRevenueIndex
+
+   /**
+    * @return the booking snapshot, or null when it is not open
+    */
+   public BookingSnapshot getSnapshot () {
+      return this._snapshot;
+   }//end getSnapshot
+
+   /**
+    * @param fName the customer's first name
+    * @param lName the customer's last name
+    * @return the ids of every customer with that name, in id order; empty
+    *         when there is none
+    * @throws java.sql.SQLException when the lookup query fails
+    */
+   public List<Integer> customerIds (final String fName, final String lName) throws SQLException {
+      return this._customerIds.get(nameKey (fName) + '\n' + nameKey (lName), new LookupCache.Loader<String, List<Integer>>() {
+         public List<Integer> load (String key) throws SQLException {
+            return Collections.unmodifiableList(query (SQL_CUSTOMER_BY_NAME, RowMapper.INT, nameKey (fName), nameKey (lName)));
+         }
+      });
+   }//end customerIds
+
+   /**
+    * @param name the maintenance company's name
+    * @return the ids of every company with that name, in id order; empty
+    *         when there is none
+    * @throws java.sql.SQLException when the lookup query fails
+    */
+   public List<Integer> companyIds (final String name) throws SQLException {
+      return this._companyIds.get(nameKey (name), new LookupCache.Loader<String, List<Integer>>() {
+         public List<Integer> load (String key) throws SQLException {
+            return Collections.unmodifiableList(query (SQL_COMPANY_BY_NAME, RowMapper.INT, nameKey (name)));
+         }
+      });
+   }//end companyIds
+
+   // CHAR(30) comparisons ignore trailing blanks, so the cache keys and the
+   // lookups on VARCHAR names do too
+   static String nameKey (String name) {
+      int end = name.length();
+      while (end > 0 && name.charAt(end - 1) == ' ') --end;
+      return name.substring(0, end);
+   }//end nameKey
+
+   public LookupCache<String, List<Integer>> getCustomerCache () {
+      return this._customerIds;
+   }//end getCustomerCache
+
+   public LookupCache<String, List<Integer>> getCompanyCache () {
+      return this._companyIds;
+   }//end getCompanyCache
+
+   /**
+    * @return the week listing cache, or null when it is off
+    */
+   public WeekCache getWeekCache () {
+      return this._weekCache;
+   }//end getWeekCache
+
+   /**
+    * Method to list a hotel's bookings from a date to seven days later,
+    * from the booking snapshot when it is open, else from the week cache
+    * when it is on.
+    *
+    * @param date YYYY-MM-DD or MM/DD/YYYY
+    * @return the number of rows delivered
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int weekBookings (int hotelID, String date, RowSink sink) throws SQLException {
+      BookingSnapshot snapshot = this._snapshot;
+      WeekCache cache = this._weekCache;
+      if (snapshot != null || cache != null){
+         int day;
+         try{
+            day = Dates.toEpochDay (date);
+         }catch (IllegalArgumentException e){
+            // let the database read it, or explain why it cannot
+            return stream (SQL_WEEK_BOOKINGS, sink, hotelID, date, date);
+         }//end try
+         if (snapshot != null) return snapshot.list (hotelID, day, sink, this._rowLimit);
+         return cache.list (hotelID, day, sink, this._rowLimit);
+      }//end if
+      return stream (SQL_WEEK_BOOKINGS, sink, hotelID, date, date);
+   }//end weekBookings
+
+   /**
+    * Forgets the cached ids of a customer name after a customer of that
+    * name was inserted.
+    */
+   public void customerAdded (String fName, String lName) {
+      this._customerIds.invalidate(nameKey (fName) + '\n' + nameKey (lName));
+   }//end customerAdded
+
+   /**
+    * Forgets the cached ids of a company name after a company of that name
+    * was inserted.
+    */
+   public void companyAdded (String name) {
+      this._companyIds.invalidate(nameKey (name));
+   }//end companyAdded
+
+   /**
+    * Records a room inserted through this instance in the in-memory state.
+    */
+   public void roomAdded (int hotelID, int roomNo) {
+      AvailabilityCalendar calendar = this._calendar;
+      if (calendar != null) calendar.addRoom (hotelID, roomNo);
+   }//end roomAdded
+
+   /**
+    * Records a booking inserted through this instance in the in-memory
+    * state.  A date the database accepted but Dates cannot read leaves the
+    * indexes unreliable, so they are dropped and SQL answers from then on;
+    * so is a snapshot that cannot grow.
+    *
+    * @param noOfPeople the party size, null when not given
+    */
+   public void bookingAdded (long bID, int hotelID, int roomNo, int customerID, String bookingDate, Integer noOfPeople, BigDecimal price) {
+      AvailabilityCalendar calendar = this._calendar;
+      TopKPriceIndex prices = this._prices;
+      RevenueIndex revenue = this._revenue;
+      BookingSnapshot snapshot = this._snapshot;
+      WeekCache weeks = this._weekCache;
+      if (calendar == null && prices == null && revenue == null && snapshot == null && weeks == null) return;
+      int day;
       try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
+         day = Dates.toEpochDay (bookingDate);
+      }catch (IllegalArgumentException e){
+         this._calendar = null;
+         this._prices = null;
+         this._revenue = null;
+         dropSnapshot ();
+         if (weeks != null) weeks.invalidateAll ();
+         return;
+      }//end try
+      if (weeks != null) weeks.bookingAdded (hotelID, day);
+      if (calendar != null) calendar.book (hotelID, roomNo, day);
+      if (prices != null) prices.add (hotelID, roomNo, day, TopKPriceIndex.cents (price));
+      if (revenue != null) revenue.add (hotelID, customerID, day, TopKPriceIndex.cents (price));
+      if (snapshot != null){
+         try{
+            snapshot.add (bID, customerID, hotelID, roomNo, day, noOfPeople == null ? -1 : noOfPeople.intValue(),
+                          TopKPriceIndex.cents (price));
+         }catch (IOException e){
+            dropSnapshot ();
+         }//end try
+      }//end if
+   }//end bookingAdded
+
+   // closes the snapshot, keeping the rows it recorded for the next start
+   private void dropSnapshot () {
+      BookingSnapshot snapshot = this._snapshot;
+      this._snapshot = null;
+      if (snapshot == null) return;
+      try{
+         snapshot.close ();
+      }catch (IOException e){
+         // rebuilt at the next start when its properties were not written
       }//end try
+   }//end dropSnapshot
+
+   /**
+    * Method to close the physical connections if they are open.
+    */
+   public void cleanup(){
+      this._metrics.close ();
+      this._slowLog.close ();
+      dropSnapshot ();
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -177,16 +793,26 @@ public class DBProject {
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      boolean importMode = (args.length == 5 || args.length == 6) && args[3].equals("-import");
+      boolean scriptMode = (args.length == 5 || args.length == 6) && args[3].equals("-script");
+      boolean httpMode = (args.length == 5 || args.length == 6) && args[3].equals("-http");
+      if (args.length != 3 && !importMode && !scriptMode && !httpMode) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             DBProject.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [-import <booking file> [batch size] | -script <file|-> [threads] |" +
+            " -http <http port> [connections]]");
          return;
       }//end if
-      
-      Greeting();
+
+      // scripts write their results to standard out; everything else the
+      // program prints goes to standard error so the results stay parsable
+      PrintStream results = System.out;
+      if (scriptMode)
+         System.setOut(System.err);
+      else
+         Greeting();
       DBProject esql = null;
       try{
          // use postgres JDBC driver.
@@ -196,7 +822,39 @@ public class DBProject {
          String dbname = args[0];
          String dbport = args[1];
          String user = args[2];
-         esql = new DBProject (dbname, dbport, user, "");
+         int threads = (scriptMode || httpMode) && args.length == 6 ? Integer.parseInt(args[5]) : 1;
+         esql = new DBProject (dbname, dbport, user, "",
+                               Integer.getInteger("pool.min", ConnectionPool.DEFAULT_MIN_SIZE),
+                               Math.max(threads, Integer.getInteger("pool.max", ConnectionPool.DEFAULT_MAX_SIZE)));
+
+         if (importMode) {
+            int batchSize = args.length == 6 ? Integer.parseInt(args[5]) : BookingImporter.DEFAULT_BATCH_SIZE;
+            importBookings(esql, args[4], batchSize);
+            return;
+         }//end if
+
+         startMetrics(esql);
+         maintainPartitions(esql);
+
+         System.out.print("Loading in-memory indexes...");
+         esql.loadIndexes ();
+         System.out.println("Done");
+
+         if (scriptMode) {
+            BufferedReader script = args[4].equals("-")
+               ? in : new BufferedReader(new FileReader(args[4]));
+            try{
+               new ScriptRunner(esql, threads).run(script, results, System.err);
+            }finally{
+               script.close();
+            }//end try
+            return;
+         }//end if
+
+         if (httpMode) {
+            serve(esql, Integer.parseInt(args[4]));
+            return;
+         }//end if
 
          boolean keepon = true;
          while(keepon) {
@@ -219,7 +877,8 @@ public class DBProject {
 				System.out.println("14. List the repairs made by maintenance company");
 				System.out.println("15. Get top k maintenance companies based on repair count");
 				System.out.println("16. Get number of repairs occurred per year for a given hotel room");
-				System.out.println("17. < EXIT");
+				System.out.println("17. Show operation statistics");
+				System.out.println("18. < EXIT");
 
             switch (readChoice()){
 				   case 1: addCustomer(esql); break;
@@ -238,7 +897,8 @@ public class DBProject {
 				   case 14: listRepairsMade(esql); break;
 				   case 15: topKMaintenanceCompany(esql); break;
 				   case 16: numberOfRepairsForEachRoomPerYear(esql); break;
-				   case 17: keepon = false; break;
+				   case 17: showStatistics(esql); break;
+				   case 18: keepon = false; break;
 				   default : System.out.println("Unrecognized choice!"); break;
             }//end switch
          }//end while
@@ -258,6 +918,63 @@ public class DBProject {
       }//end try
    }//end main
    
+   /*
+    * Bulk loads a booking file through BookingImporter.  Refused rows go to
+    * <file>.rejects.
+    */
+   public static void importBookings(DBProject esql, String file, int batchSize) throws Exception {
+      File input = new File(file);
+      File rejects = new File(file + ".rejects");
+      System.out.println("Importing bookings from " + input + " in batches of " + batchSize + "...");
+      BookingImporter.Result result = new BookingImporter(esql, batchSize).importFile(input, rejects);
+      System.out.println(result);
+      if (result.rejected > 0) {
+         System.out.println("Rejected rows written to " + rejects);
+      }//end if
+   }//end importBookings
+
+   /*
+    * Answers the menu operations over HTTP until the process is stopped;
+    * requests in progress get a second to finish.
+    */
+   static void serve(final DBProject esql, int port) throws Exception {
+      final HttpService service = new HttpService(esql);
+      System.out.println("Serving the operations on port " + service.start(port) + " (see HttpService.java)");
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+         public void run() {
+            service.stop(1);
+            esql.cleanup();
+         }
+      });
+      Thread.sleep(Long.MAX_VALUE);
+   }//end serve
+
+   /*
+    * Adds the Booking partitions the coming dates need, when Booking is
+    * partitioned (see Partitioner).
+    */
+   static void maintainPartitions(DBProject esql) {
+      try{
+         for (String name : new Partitioner(esql).maintain())
+            System.out.println("Added Booking partition " + name);
+      }catch (SQLException e){
+         System.err.println("Cannot add Booking partitions: " + e.getMessage());
+      }//end try
+   }//end maintainPartitions
+
+   /*
+    * Publishes the latency histograms over JMX (unless -Dmetrics.jmx=off)
+    * and, with -Dmetrics.interval=<seconds>, appends them to -Dmetrics.file
+    * (default metrics.log) that often.
+    */
+   static void startMetrics(DBProject esql) {
+      if (!"off".equals(System.getProperty("metrics.jmx")))
+         esql.getMetrics().exportToJmx("DBProject");
+      long interval = Long.getLong("metrics.interval", 0);
+      if (interval > 0)
+         esql.getMetrics().startLogging(new File(System.getProperty("metrics.file", "metrics.log")), interval);
+   }//end startMetrics
+
    public static void Greeting(){
       System.out.println(
          "\n\n*******************************************************\n" +
@@ -265,6 +982,29 @@ public class DBProject {
          "*******************************************************\n");
    }//end Greeting
 
+   /*
+    * Resolves a name to one id: null when nobody has the name, the id when
+    * one does, and the user's pick when several share it.
+    */
+   static Integer chooseId(List<Integer> ids, String what, String name) {
+      if (ids.isEmpty()) {
+         System.out.println("No " + what + " named " + name);
+         return null;
+      }
+      if (ids.size() == 1) return ids.get(0);
+      System.out.println("Several " + what + " records are named " + name + ": " + ids);
+      do {
+         System.out.print("Please Enter the ID to use: ");
+         try {
+            Integer id = Integer.valueOf(in.readLine().trim());
+            if (ids.contains(id)) return id;
+            System.out.println("Your input is not one of the listed IDs!");
+         }catch (Exception e) {
+            System.out.println("Your input is invalid!");
+         }//end try
+      }while (true);
+   }//end chooseId
+
    /*
     * Reads the users choice given from the keyboard
     * @int
@@ -388,9 +1128,7 @@ public class DBProject {
         }while(true);
 
 	try {
-     		String query = "INSERT INTO Customer VALUES (" + customerID + ", \'" + fName + "\', \'" + lName + "\', \'" +
-				 address + "\', " + phNo + ",\'" + DOB + "\',\'" + gender + "\')";
-		esql.executeQuery(query);
+		esql.getOperations().addCustomer(customerID, fName, lName, address, phNo, DOB, gender);
 	}catch(Exception e) {
 		System.err.println(e.getMessage());		
 	}	
@@ -446,8 +1184,7 @@ public class DBProject {
 
 
         try {
-                String query = "INSERT INTO Room VALUES (" + hotelID + ", " + roomNo + ", \'" + roomType  + "\')";
-                esql.executeQuery(query);
+                esql.getOperations().addRoom(hotelID, roomNo, roomType);
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -511,8 +1248,7 @@ public class DBProject {
         }while(true);
 
         try {
-                String query = "INSERT INTO MaintenanceCompany VALUES (" + cmpID + ",\'" + name + "\', \'" + address + "\'," + isCertified +")";
-                esql.executeQuery(query);
+                esql.getOperations().addMaintenanceCompany(cmpID, name, address, isCertified);
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -622,9 +1358,7 @@ public class DBProject {
 
 
         try {
-		String query = "INSERT INTO Repair VALUES (" + rID + "," + hotelID + "," + roomNo + "," + mCompany + 
-					",\'" + repairDate + "\',\'" + description + "\',\'" + repairType + "\')";
-                esql.executeQuery(query);
+                esql.getOperations().addRepair(rID, hotelID, roomNo, mCompany, repairDate, description, repairType);
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -695,7 +1429,7 @@ public class DBProject {
        do{
               System.out.print("Please Enter the Booking Date: ");
               try{
-                      bookingDate = in.readLine();
+                      bookingDate = Dates.format(Dates.toEpochDay(in.readLine()));
                       break;
               }catch(Exception e) {
                       System.err.println(e.getMessage());
@@ -732,20 +1466,10 @@ public class DBProject {
        }while(true);
 
        try {
-               ResultSet getCustomer = esql.executeQuery("SELECT COUNT(*) AS customerID FROM Customer c WHERE c.fname = \'" + 
-						fName + "\' AND c.lName = \'" + lName + "\'");
-               getCustomer.next();
-
-               ResultSet getNewID = esql.executeQuery("SELECT MAX(bID) AS max_id FROM Booking");
-               getNewID.next();
-               
-               int bID = getNewID.getInt("max_id") + 1;
-               int customerID = getCustomer.getInt("customerID");
-
-               String query = "INSERT INTO Booking VALUES (" + bID + ", " + customerID + ", " + 
-					hotelID + ", " + roomNo + ", \'" + bookingDate + "\', " +
-						 noOfPeople + ", " + price + ")";
-	       esql.executeQuery(query);
+               Integer customerID = chooseId(esql.customerIds(fName, lName), "customer", fName + " " + lName);
+               if (customerID == null) return;
+
+               esql.getOperations().bookRoom(hotelID, roomNo, customerID, bookingDate, noOfPeople, price);
 	}catch(Exception e) {
                 System.err.println(e.getMessage());
        }
@@ -800,14 +1524,8 @@ public class DBProject {
         }while(true);
 
         try {
-		ResultSet getasgID = esql.executeQuery("SELECT MAX(asgID) AS max_id FROM Assigned");
-                getasgID.next();
-               
-                int asgID = getasgID.getInt("max_id") + 1;
-                
-		String query = "UPDATE Assigned SET asgID = " + asgID + ", roomNo = " + 
-			roomNo + " WHERE hotelID = " + hotelID + " and staffID = " + staffID;
-                esql.executeQuery(query);
+
+                esql.getOperations().assignHouseCleaningToRoom(staffID, hotelID, roomNo);
         } catch(Exception e) {
                 System.err.println(e.getMessage());
        }
@@ -906,21 +1624,16 @@ public class DBProject {
           while(true);
 
       try {
-		ResultSet getReqID = esql.executeQuery("SELECT MAX(reqID) AS max_id FROM Request");
-          	getReqID.next();
-		
-		int ID = getReqID.getInt("max_id") + 1;
-       	    	String query = "INSERT INTO Request VALUES (" + ID + ", " + staffID
-			+ ", " + repairID + ", \'" + requestDate + "\', \'" + description + "\')";
-            	esql.executeQuery(query);
+            	esql.getOperations().repairRequest(staffID, repairID, requestDate, description);
       }catch(Exception e) {
             	System.err.println(e.getMessage());
       }
    }//end repairRequest
    
    public static void numberOfAvailableRooms(DBProject esql){
-      // Given a hotelID, get the count of rooms available 
+      // Given a hotelID and date, get the count of rooms available 
         int hotelID;
+        int day;
         
         do{
                 System.out.print("Please Enter the Hotel ID: ");
@@ -936,12 +1649,19 @@ public class DBProject {
                 }
         }while(true);
         
-        try {
-                ResultSet getCount = esql.executeQuery("SELECT COUNT(*) as COUNT FROM Room r, Booking b WHERE r.hotelID = b.hotelID AND r.hotelID = " + 
-					hotelID + "AND r.roomNo NOT IN (SELECT r.roomNo FROM Booking b WHERE r.roomNo = b.roomNo)");
-		getCount.next();
+        do{
+                System.out.print("Please Enter the Date: ");
+                try{
+                        day = Dates.toEpochDay(in.readLine());
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
 
-		int count = getCount.getInt("count");
+        try {
+		int count = esql.getOperations().numberOfAvailableRooms(hotelID, Dates.format(day));
 		System.out.println("Number of Available Rooms: " + count);
 	}catch(Exception e) {
                 System.err.println(e.getMessage());
@@ -949,8 +1669,9 @@ public class DBProject {
    }//end numberOfAvailableRooms
    
    public static void numberOfBookedRooms(DBProject esql){
-      // Given a hotelID, get the count of rooms booked
+      // Given a hotelID and date, get the count of rooms booked
         int hotelID;
+        int day;
         
         do{
                 System.out.print("Please Enter to Hotel ID: ");
@@ -966,11 +1687,19 @@ public class DBProject {
                 }
         }while(true);
 
-        try {
-                ResultSet getCount = esql.executeQuery("SELECT COUNT(*) AS count FROM Booking b WHERE b.hotelID = " + hotelID);
-		getCount.next();
+        do{
+                System.out.print("Please Enter the Date: ");
+                try{
+                        day = Dates.toEpochDay(in.readLine());
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
 
-		int count = getCount.getInt("count"); 
+        try {
+		int count = esql.getOperations().numberOfBookedRooms(hotelID, Dates.format(day));
 		System.out.println("Number of Booked Rooms: " + count);               
         }catch(Exception e) {
                 System.err.println(e.getMessage());
@@ -1008,9 +1737,7 @@ public class DBProject {
         }while(true);
 
         try {
-                String query = "SELECT b.roomNo, b.customer, b.bookingDate FROM Booking b WHERE b.hotelID = " + hotelID 
-			+ "AND (b.bookingDate BETWEEN \'" + date + "\' AND DATE \'" + date + "\' + INTERVAL '1 week') GROUP BY b.roomNo, b.customer, b.bookingDate";
-                esql.executeQuery2(query);
+                esql.getOperations().listHotelRoomBookingsForAWeek(hotelID, date, new PrintSink(System.out));
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }  
@@ -1019,8 +1746,8 @@ public class DBProject {
    public static void topKHighestRoomPriceForADateRange(DBProject esql){
     // List Top K Rooms with the highest price for a given date range
        int K;
-       String dateStart;
-       String dateEnd;
+       int dateStart;
+       int dateEnd;
 
        do{
                System.out.print("Please Enter the Number of Rooms: ");
@@ -1039,7 +1766,7 @@ public class DBProject {
        do{
                System.out.print("Please Enter Start Date: ");
                try{
-                       dateStart = in.readLine();
+                       dateStart = Dates.toEpochDay(in.readLine());
                        break;
                }catch(Exception e) {
                        System.err.println(e.getMessage());
@@ -1050,7 +1777,7 @@ public class DBProject {
        do{
                System.out.print("Please Enter End Date: ");
                try{
-                       dateEnd = in.readLine();
+                       dateEnd = Dates.toEpochDay(in.readLine());
                        break;
                }catch(Exception e) {
                        System.err.println(e.getMessage());
@@ -1059,9 +1786,7 @@ public class DBProject {
        }while(true);
        
        try {
-               String query = "SELECT b.price, b.bookingDate FROM Room r, Booking b WHERE r.roomNo = b.roomNo AND b.bookingDate BETWEEN \'" + 
-					dateStart + "\' AND DATE \'" + dateEnd + "\' ORDER BY b.price DESC LIMIT " + K;
-               esql.executeQuery2(query);
+               esql.getOperations().topKHighestRoomPriceForADateRange(Dates.format(dateStart), Dates.format(dateEnd), K, new PrintSink(System.out));
        }catch(Exception e) {
                System.err.println(e.getMessage());
        }
@@ -1116,9 +1841,7 @@ public class DBProject {
         }while(true);
 
         try {
-                String query = "SELECT b.price FROM Booking b, Customer c WHERE c.customerID = b.customer AND c.fName = \'" + 
-					fName + "\' AND c.lname = \'" + lName + "\' ORDER BY b.price DESC LIMIT " + K;
-                esql.executeQuery2(query);
+                esql.getOperations().topKHighestPriceBookingsForACustomer(fName, lName, K, new PrintSink(System.out));
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -1197,15 +1920,10 @@ public class DBProject {
         }while(true);
 
         try {
-		ResultSet getCustomer = esql.executeQuery("SELECT COUNT(*) AS customerID FROM Customer c WHERE c.fName = \'" +
-					 fName + "\' AND c.lName = \'" + lName + "\'");
-		getCustomer.next();
+		Integer customerID = chooseId(esql.customerIds(fName, lName), "customer", fName + " " + lName);
+		if (customerID == null) return;
 
-		String customerID = getCustomer.getString("customerID");
-
-		String query = "SELECT SUM(b.price), b.customer FROM Booking b WHERE b.hotelID = " + hotelID + 
-				" AND b.customer = " + customerID +"AND b.bookingDate BETWEEN \'"+ startDate + "\' AND DATE \'" + endDate + "\' GROUP BY b.customer";
-                esql.executeQuery2(query);
+                esql.getOperations().totalCostForCustomer(hotelID, customerID, startDate, endDate, new PrintSink(System.out));
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -1230,13 +1948,9 @@ public class DBProject {
         }while(true);
 
         try {
-		ResultSet getID = esql.executeQuery("Select c.cmpID as ID FROM MaintenanceCompany c WHERE c.name = \'" + companyName + "\'");
-		getID.next();
-
-		int companyID = getID.getInt("ID");
-
-                String query = "SELECT r.mCompany, r.repairType, r.hotelID, r.roomNo FROM Repair r, MaintenanceCompany m WHERE r.mCompany = m.cmpID AND m.cmpID = " + companyID;
-                esql.executeQuery2(query);
+		if(esql.getOperations().listRepairsMade(companyName, new PrintSink(System.out)) == 0) {
+			System.out.println("No maintenance company named " + companyName);
+		}
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -1261,8 +1975,7 @@ public class DBProject {
         }while(true);
 
         try {
-                String query = "SELECT COUNT(r.rID), m.name FROM MaintenanceCompany m, Repair r WHERE m.cmpID = r.mCompany GROUP BY m.name ORDER BY (COUNT(r.rID)) DESC LIMIT " + K;
-                esql.executeQuery2(query);
+                esql.getOperations().topKMaintenanceCompany(K, new PrintSink(System.out));
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -1302,12 +2015,19 @@ public class DBProject {
         }while(true);
         
         try {
-                String query = "SELECT DATE_PART('year', r.repairDate), COUNT(*) FROM Repair r WHERE r.roomNo = " + 
-					roomNo +" AND r.hotelID = " + hotelID + " GROUP BY DATE_PART('year', r.repairDate)";
-		esql.executeQuery2(query);
+		esql.getOperations().numberOfRepairsForEachRoomPerYear(hotelID, roomNo, new PrintSink(System.out));
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
    }//end listRepairsMade
 
+   public static void showStatistics(DBProject esql){
+      // Latency of each operation and SQL call since startup, in milliseconds
+      esql.getMetrics().print(System.out);
+      System.out.println("customer names: " + esql.getCustomerCache().stats());
+      System.out.println("company names: " + esql.getCompanyCache().stats());
+      if (esql.getWeekCache() != null)
+         System.out.println("week listings: " + esql.getWeekCache().stats());
+   }//end showStatistics
+
 }//end DBProject
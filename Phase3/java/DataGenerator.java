@@ -0,0 +1,420 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the nine data files create.sql loads, laid out like the ones in
+ * data/, at any multiple of their size.
+ *
+ *    java DataGenerator <output folder> [scale]
+ *
+ * Scale 1 gives the shipped volumes (1000 hotels, 10000 rooms, 2000
+ * customers, 4000 bookings, 2000 repairs and requests); hotels, customers,
+ * companies, bookings and repairs grow with the scale, and every hotel
+ * keeps 10 rooms, 5 staff and 2 cleaning assignments.  Row 0 of each file
+ * is the "default" row the ON DELETE SET DEFAULT constraints point to.
+ *
+ * Every reference names a row of another file, so the files load under the
+ * constraints of create.sql.  Bookings are skewed towards a few hot hotels
+ * and frequent customers and towards the summer and December, with three
+ * times as many bookings a year from 2010; repairs favour some companies.
+ * -Dgen.skew sets how strong the skew is (1 is uniform, default 2: the
+ * hottest tenth of the hotels takes about a third of the bookings).  No
+ * room is booked twice on one day.
+ *
+ * Each file is written by its own thread (-Dgen.threads, default one per
+ * processor) and streamed to disk, so memory does not grow with the scale.
+ * The output depends only on the scale and -Dgen.seed (default 166), not
+ * on the number of threads: every row draws from a generator seeded by
+ * the seed, its table and its position.
+ *
+ */
+public class DataGenerator {
+
+   static final int ROOMS_PER_HOTEL = 10;
+   static final int STAFF_PER_HOTEL = 5;
+   static final int ASSIGNED_PER_HOTEL = 2;
+
+   // by position in the hotel: rooms repeat every 4, staff every 5
+   static final String[] ROOM_TYPES = {"Suite", "Economy", "Deluxe", "Economy"};
+   static final String[] STAFF_ROLES = {"Manager", "Receptionist", "HouseCleaning", "Receptionist", "HouseCleaning"};
+   static final String[] GENDERS = {"Male", "Female", "Other"};
+   static final String[] REPAIR_TYPES = {"Small", "Medium", "Large"};
+
+   static final int FIRST_BOOKING_YEAR = 2000;
+   static final int BUSY_FROM_YEAR = 2010;
+   static final int LAST_YEAR = 2018;
+   static final int FIRST_REPAIR_YEAR = 2005;
+   // relative bookings per month, January first
+   static final int[] MONTH_WEIGHTS = {6, 5, 6, 7, 8, 11, 13, 12, 8, 7, 7, 10};
+
+   // generator streams, one per table
+   private static final int HOTEL = 1, STAFF = 2, ROOM = 3, CUSTOMER = 4, COMPANY = 5,
+                            BOOKING = 6, REPAIR = 7, REQUEST = 8, ASSIGNED = 9;
+
+   private final File folder;
+   private final long seed;
+   private final double skew;
+   private final int hotels;
+   private final int customers;
+   private final int companies;
+   private final long bookings;
+   private final int repairs;
+
+   // cumulative booking weight of each day of a year, per month
+   private final int[] monthTotals = new int[12];
+
+   /**
+    * @param folder where the files are written
+    * @param scale multiple of the shipped data volumes
+    * @param seed seeds every random choice
+    * @param skew 1 for uniform choices, higher for hotter hot spots
+    */
+   public DataGenerator (File folder, double scale, long seed, double skew) {
+      if (scale <= 0)
+         throw new IllegalArgumentException("Scale must be positive: " + scale);
+      if (skew < 1)
+         throw new IllegalArgumentException("Skew must be at least 1: " + skew);
+      this.folder = folder;
+      this.seed = seed;
+      this.skew = skew;
+      this.hotels = count (1000, scale);
+      this.customers = count (2000, scale);
+      this.companies = count (20, scale);
+      this.bookings = count (4000, scale);
+      this.repairs = count (2000, scale);
+      for (int m = 0, sum = 0; m < 12; ++m)
+         this.monthTotals[m] = (sum += MONTH_WEIGHTS[m]);
+   }//end DataGenerator
+
+   private static int count (int base, double scale) {
+      double n = Math.rint(base * scale);
+      if (n >= Integer.MAX_VALUE)
+         throw new IllegalArgumentException("Scale too large: " + scale);
+      return (int) Math.max(1, n);
+   }//end count
+
+   /**
+    * One data file.  write returns the number of rows written, row 0
+    * included.
+    */
+   abstract class Table implements Callable<Long> {
+      final String file;
+      long millis;
+
+      Table (String file) {
+         this.file = file;
+      }
+
+      abstract long write (Writer out) throws IOException;
+
+      public Long call () throws IOException {
+         long start = System.currentTimeMillis();
+         Writer out = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(new File(folder, this.file)), "US-ASCII"), 1 << 16);
+         try{
+            long rows = write (out);
+            this.millis = System.currentTimeMillis() - start;
+            return rows;
+         }finally{
+            out.close();
+         }//end try
+      }
+   }//end Table
+
+   List<Table> tables () {
+      List<Table> tables = new ArrayList<Table>();
+      tables.add(new Table("hotel.csv") {
+         long write (Writer out) throws IOException {
+            out.write("0,default,\\N\n");
+            for (int h = 1; h <= hotels; ++h){
+               Random rnd = random (HOTEL, h);
+               // the manager is filled in by create.sql from staff.csv
+               out.write(h + "," + word (rnd, 6) + ",\\N\n");
+            }//end for
+            return hotels + 1L;
+         }
+      });
+      tables.add(new Table("staff.csv") {
+         long write (Writer out) throws IOException {
+            out.write("0,default,default,default,Manager,0\n");
+            long ssn = 0;
+            for (int h = 1; h <= hotels; ++h){
+               for (int s = 0; s < STAFF_PER_HOTEL; ++s){
+                  Random rnd = random (STAFF, ++ssn);
+                  out.write(ssn + "," + word (rnd, 4) + "," + word (rnd, 4) + "," + word (rnd, 6) + "," +
+                            STAFF_ROLES[s] + "," + h + "\n");
+               }//end for
+            }//end for
+            return ssn + 1;
+         }
+      });
+      tables.add(new Table("room.csv") {
+         long write (Writer out) throws IOException {
+            out.write("0,0,default\n");
+            for (int h = 1; h <= hotels; ++h)
+               for (int r = 1; r <= ROOMS_PER_HOTEL; ++r)
+                  out.write(h + "," + r + "," + ROOM_TYPES[(r - 1) % ROOM_TYPES.length] + "\n");
+            return (long) hotels * ROOMS_PER_HOTEL + 1;
+         }
+      });
+      tables.add(new Table("customer.csv") {
+         long write (Writer out) throws IOException {
+            out.write("0,default,default,default,0,1/1/2000,Male\n");
+            int first = Dates.epochDay(1900, 1, 1), last = Dates.epochDay(1999, 12, 31);
+            for (int c = 1; c <= customers; ++c){
+               Random rnd = random (CUSTOMER, c);
+               long phone = 1000000000L + (long) (rnd.nextDouble() * 9000000000L);
+               out.write(c + "," + word (rnd, 4) + "," + word (rnd, 4) + "," + word (rnd, 6) + "," + phone + "," +
+                         mdy (first + rnd.nextInt(last - first + 1)) + "," + GENDERS[rnd.nextInt(GENDERS.length)] + "\n");
+            }//end for
+            return customers + 1L;
+         }
+      });
+      tables.add(new Table("maintenanceCompany.csv") {
+         long write (Writer out) throws IOException {
+            out.write("0,default,default,TRUE\n");
+            for (int c = 1; c <= companies; ++c){
+               Random rnd = random (COMPANY, c);
+               out.write(c + "," + word (rnd, 4) + "," + word (rnd, 6) + "," + (rnd.nextInt(10) < 8 ? "TRUE" : "FALSE") + "\n");
+            }//end for
+            return companies + 1L;
+         }
+      });
+      tables.add(new Table("booking.csv") {
+         long write (Writer out) throws IOException {
+            return writeBookings (out);
+         }
+      });
+      tables.add(new Table("repair.csv") {
+         long write (Writer out) throws IOException {
+            out.write("0,0,0,0,1/1/2000,default,Small\n");
+            for (int r = 1; r <= repairs; ++r){
+               Random rnd = random (REPAIR, r);
+               int hotel = 1 + rnd.nextInt(hotels);
+               int room = 1 + rnd.nextInt(ROOMS_PER_HOTEL);
+               int company = pick (rnd, companies);
+               int day = repairDay (rnd);
+               out.write(r + "," + hotel + "," + room + "," + company + "," + mdy (day) + "," + word (rnd, 4) + "," +
+                         REPAIR_TYPES[rnd.nextInt(REPAIR_TYPES.length)] + "\n");
+            }//end for
+            return repairs + 1L;
+         }
+      });
+      tables.add(new Table("request.csv") {
+         long write (Writer out) throws IOException {
+            out.write("0,0,0,1/1/2000,default\n");
+            for (int r = 1; r <= repairs; ++r){
+               // replay the repair's draws for its hotel and date
+               Random repair = random (REPAIR, r);
+               int hotel = 1 + repair.nextInt(hotels);
+               repair.nextInt(ROOMS_PER_HOTEL);
+               pick (repair, companies);
+               int repairDay = repairDay (repair);
+
+               // raised by the hotel's manager up to a month before the repair
+               Random rnd = random (REQUEST, r);
+               long manager = (long) (hotel - 1) * STAFF_PER_HOTEL + 1;
+               out.write(r + "," + manager + "," + r + "," + mdy (repairDay - rnd.nextInt(31)) + "," + word (rnd, 4) + "\n");
+            }//end for
+            return repairs + 1L;
+         }
+      });
+      tables.add(new Table("assigned.csv") {
+         long write (Writer out) throws IOException {
+            out.write("0,0,0,0\n");
+            long asgID = 0;
+            for (int h = 1; h <= hotels; ++h){
+               Random rnd = random (ASSIGNED, h);
+               long firstStaff = (long) (h - 1) * STAFF_PER_HOTEL + 1;
+               // the hotel's two HouseCleaning staff
+               for (int a = 0; a < ASSIGNED_PER_HOTEL; ++a)
+                  out.write(++asgID + "," + (firstStaff + 2 + 2 * a) + "," + h + "," + (1 + rnd.nextInt(ROOMS_PER_HOTEL)) + "\n");
+            }//end for
+            return asgID + 1;
+         }
+      });
+      return tables;
+   }//end tables
+
+   /*
+    * Each hotel gets its share of the bookings from its popularity rank,
+    * split evenly over its rooms; each room's days are drawn without
+    * repeats and written in date order.  Customers are drawn skewed too.
+    */
+   private long writeBookings (Writer out) throws IOException {
+      out.write("0,0,0,0,1/1/2000,0,0\n");
+      int days = Dates.epochDay(LAST_YEAR, 12, 31) - Dates.epochDay(FIRST_BOOKING_YEAR, 1, 1) + 1;
+      long bID = 0;
+      for (int h = 1; h <= this.hotels; ++h){
+         Random rnd = random (BOOKING, h);
+         long hotelBookings = share (this.bookings, permute (h, this.hotels), this.hotels);
+         for (int r = 1; r <= ROOMS_PER_HOTEL; ++r){
+            long n = hotelBookings * r / ROOMS_PER_HOTEL - hotelBookings * (r - 1) / ROOMS_PER_HOTEL;
+            // past half the calendar a room is as full as it gets
+            n = Math.min(n, days / 2);
+            Set<Integer> taken = new HashSet<Integer>();
+            while (taken.size() < n) taken.add(bookingDay (rnd));
+            List<Integer> sorted = new ArrayList<Integer>(taken);
+            Collections.sort(sorted);
+            for (int day : sorted){
+               int customer = pick (rnd, this.customers);
+               out.write(++bID + "," + customer + "," + h + "," + r + "," + mdy (day) + "," +
+                         (1 + rnd.nextInt(3)) + "," + (500 + rnd.nextInt(1500)) + "\n");
+            }//end for
+         }//end for
+      }//end for
+      return bID + 1;
+   }//end writeBookings
+
+   /*
+    * Bookings of the hotel at popularity rank (1 the hottest) out of n
+    * hotels: the difference of the rank's cumulative share, so the shares
+    * add up to exactly total.
+    */
+   private long share (long total, int rank, int n) {
+      return (long) Math.floor(total * cumulative (rank, n)) - (long) Math.floor(total * cumulative (rank - 1, n));
+   }//end share
+
+   private double cumulative (int rank, int n) {
+      return rank >= n ? 1.0 : Math.pow((double) rank / n, 1.0 / this.skew);
+   }//end cumulative
+
+   /*
+    * An id from 1 to n, drawn with the same skew as the hotel shares and
+    * scattered so the popular ids are not simply the low ones.
+    */
+   private int pick (Random rnd, int n) {
+      int rank = (int) Math.min(n - 1, (long) (n * Math.pow(rnd.nextDouble(), this.skew))) + 1;
+      return permute (rank, n);
+   }//end pick
+
+   // a fixed shuffle of 1..n
+   private static int permute (int i, int n) {
+      long stride = 1000003 % n;
+      while (stride == 0 || gcd (stride, n) != 1) ++stride;
+      return (int) (((i - 1) * stride + n / 3) % n) + 1;
+   }//end permute
+
+   private static long gcd (long a, long b) {
+      while (b != 0){
+         long t = a % b;
+         a = b;
+         b = t;
+      }//end while
+      return a;
+   }//end gcd
+
+   private int bookingDay (Random rnd) {
+      // each year from BUSY_FROM_YEAR counts three times
+      int quiet = BUSY_FROM_YEAR - FIRST_BOOKING_YEAR;
+      int slot = rnd.nextInt(quiet + 3 * (LAST_YEAR - BUSY_FROM_YEAR + 1));
+      int year = slot < quiet ? FIRST_BOOKING_YEAR + slot : BUSY_FROM_YEAR + (slot - quiet) / 3;
+      int weight = rnd.nextInt(this.monthTotals[11]);
+      int month = 0;
+      while (this.monthTotals[month] <= weight) ++month;
+      return Dates.epochDay(year, month + 1, 1 + rnd.nextInt(Dates.daysInMonth(year, month + 1)));
+   }//end bookingDay
+
+   private static int repairDay (Random rnd) {
+      int first = Dates.epochDay(FIRST_REPAIR_YEAR, 1, 1);
+      return first + rnd.nextInt(Dates.epochDay(LAST_YEAR, 12, 31) - first + 1);
+   }//end repairDay
+
+   // the generator of one row (or hotel) of one table
+   private Random random (int table, long row) {
+      long z = this.seed + table * 0x9E3779B97F4A7C15L + row * 0xC2B2AE3D27D4EB4FL;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return new Random(z ^ (z >>> 31));
+   }//end random
+
+   private static String word (Random rnd, int length) {
+      char[] c = new char[length];
+      for (int i = 0; i < length; ++i) c[i] = (char) ('a' + rnd.nextInt(26));
+      return new String(c);
+   }//end word
+
+   // M/D/YYYY, as in the shipped files
+   private static String mdy (int epochDay) {
+      int[] ymd = Dates.civil(epochDay);
+      return ymd[1] + "/" + ymd[2] + "/" + ymd[0];
+   }//end mdy
+
+   /**
+    * Writes every file, threads at a time, and prints the rows and time of
+    * each.
+    *
+    * @return the number of rows written
+    */
+   public long generate (int threads) throws Exception {
+      if (!this.folder.isDirectory() && !this.folder.mkdirs())
+         throw new IOException("Cannot create " + this.folder);
+      List<Table> tables = tables ();
+      ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tables.size())));
+      try{
+         List<Future<Long>> rows = new ArrayList<Future<Long>>();
+         for (Table t : tables) rows.add(pool.submit(t));
+         long total = 0;
+         System.out.println ("file\trows\tms");
+         for (int i = 0; i < tables.size(); ++i){
+            long n = rows.get(i).get();
+            total += n;
+            System.out.println (tables.get(i).file + "\t" + n + "\t" + tables.get(i).millis);
+         }//end for
+         return total;
+      }finally{
+         pool.shutdownNow();
+      }//end try
+   }//end generate
+
+   public static void main (String[] args) {
+      if (args.length < 1 || args.length > 2) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DataGenerator.class.getName () +
+            " <output folder> [scale]");
+         return;
+      }//end if
+      try{
+         double scale = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+         DataGenerator generator = new DataGenerator (new File(args[0]), scale,
+            Long.getLong("gen.seed", 166), Double.parseDouble(System.getProperty("gen.skew", "2")));
+         long start = System.currentTimeMillis();
+         long rows = generator.generate (Integer.getInteger("gen.threads", Runtime.getRuntime().availableProcessors()));
+         long millis = Math.max(1, System.currentTimeMillis() - start);
+         System.out.println (rows + " rows in " + millis + " ms (" + rows * 1000 / millis + " rows/s)");
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+         System.exit (1);
+      }//end try
+   }//end main
+
+}//end DataGenerator
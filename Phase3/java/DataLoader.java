@@ -0,0 +1,434 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds the database from create.sql and the data files, reading the files
+ * on the client, so they need not be copied into the database's folder.
+ *
+ *    java DataLoader <dbname> <port> <user> [data folder] [threads]
+ *
+ * create.sql is run in phases rather than top to bottom:
+ *
+ *    1. the drops, types, sequences and tables, with the primary keys
+ *       taken out of the CREATE TABLE statements;
+ *    2. every COPY, as multi-row INSERTs of -Dload.batch rows (default
+ *       1000), threads batches at a time over all tables at once, largest
+ *       file first;
+ *    3. the remaining statements (the hotel manager UPDATE, the sequence
+ *       starts) once the data is in;
+ *    4. the primary keys, built in parallel, then the foreign keys;
+ *    5. ANALYZE, and the migrations of Migrator (the operation indexes),
+ *       unless -Dload.migrate=off;
+ *    6. with -Dload.partition=year or month, Booking split into
+ *       partitions by Partitioner.
+ *
+ * No constraint or index exists while rows go in, so the tables do not
+ * depend on each other and all load together.  The bundled pg73 driver has
+ * no client-side COPY, so multi-row INSERTs are the nearest bulk path.
+ * The schema is recreated, so the migrations recorded in SchemaVersion are
+ * forgotten and applied again.
+ *
+ * The data files are read as COPY reads them: text format with the
+ * delimiter of the COPY statement, \N for null and backslash escapes.
+ * The first failure stops the load.
+ *
+ */
+public class DataLoader {
+
+   public static final String DEFAULT_SCHEMA = "../sql/create.sql";
+   public static final String DEFAULT_DATA = "../data";
+   public static final int DEFAULT_BATCH_SIZE = Integer.getInteger("load.batch", 1000);
+
+   private static final Pattern COPY = Pattern.compile(
+      "COPY\\s+(\\w+)\\s*\\(([^)]*)\\)\\s*FROM\\s*'([^']*)'\\s*WITH\\s+DELIMITER\\s+'(.)'",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+   private static final Pattern CREATE_TABLE = Pattern.compile(
+      "CREATE\\s+TABLE\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+   private static final Pattern PRIMARY_KEY = Pattern.compile(
+      ",\\s*PRIMARY\\s+KEY\\s*\\(([^)]*)\\)", Pattern.CASE_INSENSITIVE);
+   private static final Pattern ADD_CONSTRAINT = Pattern.compile(
+      "ALTER\\s+TABLE\\s+\\w+\\s+ADD\\s+CONSTRAINT\\b.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+   private final DBProject esql;
+   private final File dataDir;
+   private final int threads;
+   private final int batchSize;
+
+   // create.sql, sorted into phases
+   final List<String> schema = new ArrayList<String>();
+   final List<TableLoad> loads = new ArrayList<TableLoad>();
+   final List<String> fixups = new ArrayList<String>();
+   final List<String> primaryKeys = new ArrayList<String>();
+   final List<String> constraints = new ArrayList<String>();
+
+   /**
+    * One COPY of create.sql and its progress.
+    */
+   static class TableLoad {
+      final String table;
+      final String[] columns;
+      final File file;
+      final char delimiter;
+      final AtomicLong rows = new AtomicLong();
+      volatile long start;
+      final AtomicLong end = new AtomicLong();
+
+      TableLoad (String table, String[] columns, File file, char delimiter) {
+         this.table = table;
+         this.columns = columns;
+         this.file = file;
+         this.delimiter = delimiter;
+      }
+
+      // INSERT of n rows
+      String insert (int n) {
+         StringBuilder sql = new StringBuilder("INSERT INTO ").append(this.table).append(" (");
+         for (int c = 0; c < this.columns.length; ++c)
+            sql.append(c > 0 ? ", " : "").append(this.columns[c]);
+         sql.append(") VALUES ");
+         for (int r = 0; r < n; ++r){
+            sql.append(r > 0 ? ",(" : "(");
+            for (int c = 0; c < this.columns.length; ++c)
+               sql.append(c > 0 ? ",?" : "?");
+            sql.append(')');
+         }//end for
+         return sql.toString();
+      }
+
+      long rowsPerSecond () {
+         long millis = Math.max(1, this.end.get() - this.start);
+         return this.rows.get() * 1000 / millis;
+      }
+   }//end TableLoad
+
+   public DataLoader (DBProject esql, File schemaFile, File dataDir, int threads, int batchSize) throws IOException {
+      if (threads < 1 || batchSize < 1)
+         throw new IllegalArgumentException("Threads and batch size must be positive");
+      this.esql = esql;
+      this.dataDir = dataDir;
+      this.threads = threads;
+      this.batchSize = batchSize;
+      plan (Migrator.split (Migrator.read (schemaFile)));
+   }//end DataLoader
+
+   /*
+    * Sorts the statements of create.sql into the phases of the load.
+    */
+   private void plan (List<String> statements) throws IOException {
+      for (String sql : statements){
+         Matcher copy = COPY.matcher(sql);
+         Matcher create = CREATE_TABLE.matcher(sql);
+         if (copy.lookingAt()){
+            String[] columns = copy.group(2).trim().split("\\s*,\\s*");
+            File file = new File(this.dataDir, copy.group(3));
+            if (!file.isFile())
+               throw new IOException("No data file " + file + " for " + copy.group(1));
+            this.loads.add(new TableLoad(copy.group(1), columns, file, copy.group(4).charAt(0)));
+         }else if (create.lookingAt()){
+            Matcher pk = PRIMARY_KEY.matcher(sql);
+            if (pk.find()){
+               this.primaryKeys.add("ALTER TABLE " + create.group(1) + " ADD PRIMARY KEY (" + pk.group(1).trim() + ")");
+               sql = sql.substring(0, pk.start()) + sql.substring(pk.end());
+            }//end if
+            this.schema.add(sql);
+         }else if (ADD_CONSTRAINT.matcher(sql).matches()){
+            this.constraints.add(sql);
+         }else if (this.loads.isEmpty()){
+            this.schema.add(sql);
+         }else{
+            this.fixups.add(sql);
+         }//end if
+      }//end for
+   }//end plan
+
+   /**
+    * Runs every phase, printing the rows and rate of each table and the
+    * time of each phase.
+    *
+    * @param migrations the migrations folder, or null to skip them
+    * @throws java.sql.SQLException when a statement or batch fails
+    * @throws java.io.IOException when a data file cannot be read
+    */
+   public void load (File migrations) throws Exception {
+      long t = System.currentTimeMillis();
+      for (String sql : this.schema) execute (sql);
+      // the schema is new, so no migration has been applied to it
+      execute ("DROP TABLE IF EXISTS SchemaVersion");
+      t = phase ("schema", t);
+
+      loadTables ();
+      System.out.println ("table\trows\tseconds\trows/s");
+      for (TableLoad load : this.loads)
+         System.out.println (load.table + "\t" + load.rows.get() + "\t" +
+                             String.format("%.2f", (load.end.get() - load.start) / 1000.0) + "\t" + load.rowsPerSecond ());
+      t = phase ("data", t);
+
+      for (String sql : this.fixups) execute (sql);
+      t = phase ("fix-ups", t);
+
+      parallel (this.primaryKeys);
+      t = phase ("primary keys", t);
+
+      // a foreign key locks both of its tables, so these go one at a time
+      for (String sql : this.constraints) execute (sql);
+      t = phase ("foreign keys", t);
+
+      List<String> analyze = new ArrayList<String>();
+      for (TableLoad load : this.loads) analyze.add("ANALYZE " + load.table);
+      parallel (analyze);
+      t = phase ("analyze", t);
+
+      if (migrations != null){
+         new Migrator(this.esql, migrations).migrate ();
+         t = phase ("migrations", t);
+      }//end if
+
+      String partition = System.getProperty("load.partition");
+      if (partition != null){
+         new Partitioner(this.esql).convert (partition.equals("month"));
+         phase ("partitions", t);
+      }//end if
+   }//end load
+
+   private static long phase (String name, long since) {
+      long now = System.currentTimeMillis();
+      System.out.println (name + ": " + String.format("%.2f", (now - since) / 1000.0) + " s");
+      return now;
+   }//end phase
+
+   /*
+    * A reader per table cuts its file into batches; threads workers insert
+    * them.  At most two batches per worker are read ahead, which bounds
+    * memory whatever the size of the files.
+    */
+   private void loadTables () throws Exception {
+      List<TableLoad> bySize = new ArrayList<TableLoad>(this.loads);
+      Collections.sort(bySize, new Comparator<TableLoad>() {
+         public int compare (TableLoad a, TableLoad b) {
+            return Long.compare(b.file.length(), a.file.length());
+         }
+      });
+
+      final ExecutorService workers = Executors.newFixedThreadPool(this.threads);
+      ExecutorService readers = Executors.newFixedThreadPool(bySize.size());
+      final Semaphore inFlight = new Semaphore(2 * this.threads);
+      final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+      try{
+         List<Future<List<Future<?>>>> read = new ArrayList<Future<List<Future<?>>>>();
+         for (final TableLoad load : bySize){
+            read.add(readers.submit(new Callable<List<Future<?>>>() {
+               public List<Future<?>> call () throws Exception {
+                  return readTable (load, workers, inFlight, failure);
+               }
+            }));
+         }//end for
+         for (Future<List<Future<?>>> r : read)
+            for (Future<?> batch : r.get())
+               batch.get();
+      }catch (ExecutionException e){
+         // a reader failed: report the file's own error
+         failure.compareAndSet(null, (Exception) e.getCause());
+      }finally{
+         readers.shutdownNow();
+         workers.shutdownNow();
+      }//end try
+      if (failure.get() != null) throw failure.get();
+   }//end loadTables
+
+   private List<Future<?>> readTable (final TableLoad load, ExecutorService workers, final Semaphore inFlight,
+                                      final AtomicReference<Exception> failure) throws IOException, InterruptedException {
+      List<Future<?>> batches = new ArrayList<Future<?>>();
+      load.start = System.currentTimeMillis();
+      load.end.set(load.start);
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(load.file), "UTF-8"), 1 << 16);
+      try{
+         String line;
+         long lineNo = 0;
+         List<String[]> batch = new ArrayList<String[]>(this.batchSize);
+         while (failure.get() == null && (line = reader.readLine()) != null){
+            ++lineNo;
+            String[] fields = fields (line, load.delimiter);
+            if (fields.length != load.columns.length)
+               throw new IOException(load.file.getName() + " line " + lineNo + ": expected " +
+                                     load.columns.length + " fields, found " + fields.length);
+            batch.add(fields);
+            if (batch.size() == this.batchSize){
+               batches.add(submit (load, batch, workers, inFlight, failure));
+               batch = new ArrayList<String[]>(this.batchSize);
+            }//end if
+         }//end while
+         if (!batch.isEmpty())
+            batches.add(submit (load, batch, workers, inFlight, failure));
+      }finally{
+         reader.close();
+      }//end try
+      return batches;
+   }//end readTable
+
+   private Future<?> submit (final TableLoad load, final List<String[]> rows, ExecutorService workers,
+                             final Semaphore inFlight, final AtomicReference<Exception> failure) throws InterruptedException {
+      inFlight.acquire();
+      return workers.submit(new Runnable() {
+         public void run () {
+            try{
+               if (failure.get() == null) insert (load, rows);
+            }catch (Exception e){
+               failure.compareAndSet(null, new SQLException(load.table + ": " + e.getMessage()));
+            }finally{
+               inFlight.release();
+            }//end try
+         }
+      });
+   }//end submit
+
+   private void insert (TableLoad load, List<String[]> rows) throws SQLException {
+      ConnectionPool.PooledConnection pc = this.esql.getPool().borrow ();
+      try{
+         PreparedStatement stmt = pc.prepare (load.insert (rows.size()));
+         int p = 0;
+         for (String[] row : rows){
+            for (String value : row){
+               // untyped, so the server converts each value to its column's type as COPY does
+               if (value == null) stmt.setNull (++p, Types.VARCHAR);
+               else stmt.setString (++p, value);
+            }//end for
+         }//end for
+         stmt.executeUpdate ();
+      }finally{
+         this.esql.getPool().release (pc);
+      }//end try
+      load.rows.addAndGet(rows.size());
+      long now = System.currentTimeMillis();
+      for (long e = load.end.get(); e < now && !load.end.compareAndSet(e, now); e = load.end.get()) { }
+   }//end insert
+
+   // runs independent statements on up to threads connections
+   private void parallel (List<String> statements) throws Exception {
+      ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(this.threads, statements.size())));
+      try{
+         List<Future<Void>> done = new ArrayList<Future<Void>>();
+         for (final String sql : statements){
+            done.add(pool.submit(new Callable<Void>() {
+               public Void call () throws SQLException {
+                  execute (sql);
+                  return null;
+               }
+            }));
+         }//end for
+         for (Future<Void> f : done) f.get();
+      }finally{
+         pool.shutdownNow();
+      }//end try
+   }//end parallel
+
+   // any statement, SELECT setval(...) included
+   private void execute (String sql) throws SQLException {
+      ConnectionPool.PooledConnection pc = this.esql.getPool().borrow ();
+      try{
+         Statement stmt = pc.getConnection ().createStatement ();
+         try{
+            stmt.execute (sql);
+         }finally{
+            stmt.close ();
+         }//end try
+      }finally{
+         this.esql.getPool().release (pc);
+      }//end try
+   }//end execute
+
+   /**
+    * Splits a line of a COPY text format file: fields end at delimiter,
+    * \N alone is null, and a backslash escapes the character after it.
+    */
+   static String[] fields (String line, char delimiter) {
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean isNull = false;
+      for (int i = 0; i < line.length(); ++i){
+         char c = line.charAt(i);
+         if (c == '\\' && i + 1 < line.length()){
+            char next = line.charAt(++i);
+            switch (next){
+               case 'N': isNull = true; break;
+               case 't': field.append('\t'); break;
+               case 'n': field.append('\n'); break;
+               case 'r': field.append('\r'); break;
+               default: field.append(next);
+            }//end switch
+         }else if (c == delimiter){
+            fields.add(isNull ? null : field.toString());
+            field.setLength(0);
+            isNull = false;
+         }else{
+            field.append(c);
+         }//end if
+      }//end for
+      fields.add(isNull ? null : field.toString());
+      return fields.toArray(new String[fields.size()]);
+   }//end fields
+
+   public static void main (String[] args) {
+      if (args.length < 3 || args.length > 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DataLoader.class.getName () +
+            " <dbname> <port> <user> [data folder] [threads]");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+         esql = new DBProject (args[0], args[1], args[2], "", 1, threads);
+         DataLoader loader = new DataLoader (esql, new File(System.getProperty("load.schema", DEFAULT_SCHEMA)),
+                                             new File(args.length > 3 ? args[3] : DEFAULT_DATA), threads, DEFAULT_BATCH_SIZE);
+         long start = System.currentTimeMillis();
+         boolean migrate = !"off".equals(System.getProperty("load.migrate"));
+         loader.load (migrate ? new File(Migrator.DEFAULT_DIR) : null);
+         System.out.println ("loaded in " + String.format("%.2f", (System.currentTimeMillis() - start) / 1000.0) + " s");
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         System.exit(1);
+      }finally{
+         if (esql != null) esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end DataLoader
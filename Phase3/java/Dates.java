@@ -0,0 +1,109 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * Conversions between date strings and epoch days (days since 1970-01-01),
+ * the form the in-memory engines index dates by.
+ *
+ * Accepts the ISO form PostgreSQL prints (YYYY-MM-DD) and the M/D/YYYY form
+ * used by the data files.  Plain integer arithmetic, so no time zone or
+ * daylight saving rule can shift a date.
+ *
+ */
+public final class Dates {
+
+   private Dates () {
+   }
+
+   /**
+    * @param text a date as YYYY-MM-DD or M/D/YYYY
+    * @return the epoch day of that date
+    * @throws IllegalArgumentException when text is not a valid date
+    */
+   public static int toEpochDay (String text) {
+      String s = text.trim();
+      int y, m, d;
+      try{
+         if (s.indexOf('-') > 0){
+            String[] f = s.split("-");
+            if (f.length != 3) throw new NumberFormatException();
+            y = Integer.parseInt(f[0]);
+            m = Integer.parseInt(f[1]);
+            d = Integer.parseInt(f[2]);
+         }else{
+            String[] f = s.split("/");
+            if (f.length != 3) throw new NumberFormatException();
+            m = Integer.parseInt(f[0]);
+            d = Integer.parseInt(f[1]);
+            y = Integer.parseInt(f[2]);
+         }//end if
+      }catch (NumberFormatException e){
+         throw new IllegalArgumentException("Invalid date: " + text + " (use YYYY-MM-DD or MM/DD/YYYY)");
+      }//end try
+      if (m < 1 || m > 12 || d < 1 || d > daysInMonth (y, m) || y < 1 || y > 9999)
+         throw new IllegalArgumentException("Invalid date: " + text);
+      return epochDay (y, m, d);
+   }//end toEpochDay
+
+   /**
+    * @return the epoch day of the given calendar date
+    */
+   public static int epochDay (int y, int m, int d) {
+      // days from civil, proleptic Gregorian calendar
+      y -= m <= 2 ? 1 : 0;
+      int era = (y >= 0 ? y : y - 399) / 400;
+      int yoe = y - era * 400;
+      int doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+      int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+      return era * 146097 + doe - 719468;
+   }//end epochDay
+
+   /**
+    * @return the year, month and day of an epoch day
+    */
+   public static int[] civil (int epochDay) {
+      int z = epochDay + 719468;
+      int era = (z >= 0 ? z : z - 146096) / 146097;
+      int doe = z - era * 146097;
+      int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+      int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+      int mp = (5 * doy + 2) / 153;
+      int d = doy - (153 * mp + 2) / 5 + 1;
+      int m = mp + (mp < 10 ? 3 : -9);
+      int y = yoe + era * 400 + (m <= 2 ? 1 : 0);
+      return new int[] {y, m, d};
+   }//end civil
+
+   /**
+    * @return the epoch day as YYYY-MM-DD
+    */
+   public static String format (int epochDay) {
+      int[] c = civil (epochDay);
+      StringBuilder s = new StringBuilder(10);
+      s.append(c[0]).append('-');
+      if (c[1] < 10) s.append('0');
+      s.append(c[1]).append('-');
+      if (c[2] < 10) s.append('0');
+      s.append(c[2]);
+      return s.toString();
+   }//end format
+
+   static int daysInMonth (int y, int m) {
+      switch (m){
+         case 2: return (y % 4 == 0 && (y % 100 != 0 || y % 400 == 0)) ? 29 : 28;
+         case 4: case 6: case 9: case 11: return 30;
+         default: return 31;
+      }//end switch
+   }//end daysInMonth
+
+}//end Dates
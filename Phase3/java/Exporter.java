@@ -0,0 +1,660 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the rows of a listing operation or of any read query to a file,
+ * as CSV or as a binary columnar format, while they are read.
+ *
+ *    java Exporter <dbname> <port> <user> <csv|columnar> <file> <operation> [key=value ...]
+ *    java Exporter <dbname> <port> <user> <csv|columnar> <file> -sql "<query>"
+ *    java Exporter -decode <columnar file> <csv file>
+ *
+ * The operation is any listing of ScriptRunner or Operations (repairs,
+ * listRepairsMade, topCompanies, repairsPerYear, week, topRooms, ...) with
+ * the arguments of a script line, for example
+ *
+ *    java Exporter hotel 5432 user csv repairs.csv repairs company="Fix It"
+ *    java Exporter hotel 5432 user columnar bookings.col -sql "SELECT * FROM Booking"
+ *
+ * Rows come through DBProject.stream, a server-side cursor of
+ * -Dexport.fetchSize rows per round trip (default 10000), and are encoded
+ * straight into one direct buffer of -Dexport.buffer bytes (default 4 MB)
+ * that is written to a FileChannel each time it fills.  The heap holds one
+ * fetch, plus one row group for the columnar format, whatever the size of
+ * the result.  The query runs inside DECLARE CURSOR, which takes only
+ * SELECT and VALUES; the functions a SELECT calls still run, with any
+ * changes they make.
+ *
+ * CSV follows RFC 4180: a header line, fields quoted when they hold a
+ * comma, quote or line break, an empty unquoted field for NULL and "" for
+ * an empty string (as COPY ... CSV writes them), CRLF line ends, UTF-8.
+ *
+ * The columnar file, big-endian throughout:
+ *
+ *    "DBPCOL1\n", int columns, then per column int length + UTF-8 name
+ *    row groups of up to -Dexport.groupRows rows (default 65536), each
+ *       int rows, then per column a byte encoding and its values:
+ *       1 INT64    a null bitmap of (rows + 7) / 8 bytes, rows longs
+ *       2 DECIMAL  a byte scale, the null bitmap, rows unscaled longs
+ *       3 DICT     int entries, each int length + UTF-8, then rows ints
+ *                  indexing them, -1 for NULL
+ *    int 0, long total rows, byte 1 when the listing was truncated
+ *
+ * Each column of each group takes the first of these its values all fit,
+ * so ids and counts are longs, prices are scaled longs and dates and names
+ * are dictionary codes: a string is stored once per group however often
+ * it repeats.  Values are written as the database returns them, so CHAR
+ * columns keep their padding.  -decode writes a columnar file back out as CSV.
+ *
+ * Both write to <file>.part and rename it to <file> once it is complete; a
+ * failed export or decode deletes it, so no file is left that looks whole
+ * but is not.
+ *
+ */
+public class Exporter {
+
+   public static final int BUFFER_BYTES = Integer.getInteger("export.buffer", 4 << 20);
+   public static final int GROUP_ROWS = Integer.getInteger("export.groupRows", 65536);
+   public static final int FETCH_SIZE = Integer.getInteger("export.fetchSize", 10000);
+
+   static final Charset UTF8 = Charset.forName("UTF-8");
+   static final byte[] MAGIC = {'D', 'B', 'P', 'C', 'O', 'L', '1', '\n'};
+   static final byte INT64 = 1;
+   static final byte DECIMAL = 2;
+   static final byte DICT = 3;
+
+   private final ScriptRunner runner;
+   private final DBProject esql;
+
+   public Exporter (DBProject esql) {
+      this.esql = esql;
+      this.runner = new ScriptRunner(esql, 1);
+   }//end Exporter
+
+   /**
+    * Streams the rows of a listing operation into sink.
+    *
+    * @param op the operation, by its ScriptRunner or Operations name
+    * @param args the operation's arguments, as in a script line
+    * @throws java.lang.IllegalArgumentException when the operation is not
+    *         a listing or an argument is missing
+    */
+   public void exportOperation (String op, Map<String, String> args, RowSink sink) throws Exception {
+      String name = HttpService.OPERATIONS.get(op);
+      if (name == null || !this.runner.list (new ScriptRunner.Command(0, name, args), sink))
+         throw new IllegalArgumentException(op + " is not a listing operation");
+   }//end exportOperation
+
+   /**
+    * Streams the rows of a read query into sink.
+    *
+    * @return the number of rows exported
+    */
+   public int exportQuery (String sql, RowSink sink) throws java.sql.SQLException {
+      return this.esql.stream (sql, sink);
+   }//end exportQuery
+
+   /*
+    * Buffered writes to a FileChannel through one direct buffer.
+    */
+   static final class ChannelOut implements Closeable {
+      private final FileOutputStream file;
+      private final FileChannel channel;
+      private final ByteBuffer buffer;
+      private long written;
+
+      ChannelOut (File target, int bufferBytes) throws IOException {
+         this.file = new FileOutputStream(target);
+         this.channel = this.file.getChannel();
+         this.buffer = ByteBuffer.allocateDirect(Math.max(bufferBytes, 64));
+      }
+
+      // makes room for n bytes, when the buffer can hold them at all
+      void ensure (int n) throws IOException {
+         if (this.buffer.remaining() < n) flush ();
+      }
+
+      void put (byte b) throws IOException {
+         ensure (1);
+         this.buffer.put(b);
+      }
+
+      void putInt (int v) throws IOException {
+         ensure (4);
+         this.buffer.putInt(v);
+      }
+
+      void putLong (long v) throws IOException {
+         ensure (8);
+         this.buffer.putLong(v);
+      }
+
+      void put (byte[] bytes) throws IOException {
+         if (bytes.length <= this.buffer.capacity()){
+            ensure (bytes.length);
+            this.buffer.put(bytes);
+            return;
+         }//end if
+         flush ();
+         ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+         while (wrapped.hasRemaining()) this.channel.write(wrapped);
+         this.written += bytes.length;
+      }
+
+      /*
+       * Writes value as UTF-8.  ASCII, nearly all of this data, is copied a
+       * char at a time; anything else goes through the encoder.
+       */
+      void putText (String value, int length) throws IOException {
+         if (length > this.buffer.capacity()){
+            put (value.substring(0, length).getBytes(UTF8));
+            return;
+         }//end if
+         ensure (length);
+         int mark = this.buffer.position();
+         for (int i = 0; i < length; ++i){
+            char c = value.charAt(i);
+            if (c >= 0x80){
+               this.buffer.position(mark);
+               put (value.substring(0, length).getBytes(UTF8));
+               return;
+            }//end if
+            this.buffer.put((byte) c);
+         }//end for
+      }
+
+      void flush () throws IOException {
+         this.buffer.flip();
+         this.written += this.buffer.remaining();
+         while (this.buffer.hasRemaining()) this.channel.write(this.buffer);
+         this.buffer.clear();
+      }
+
+      long bytes () {
+         return this.written + this.buffer.position();
+      }
+
+      public void close () throws IOException {
+         try{
+            flush ();
+         }finally{
+            this.file.close();
+         }//end try
+      }
+   }//end ChannelOut
+
+   /**
+    * A sink writing to a file; the columns of every listing after the
+    * first are taken to be the same (companies sharing a name give one
+    * listing per company).  Close it to finish the file.
+    */
+   public abstract static class FileSink implements RowSink, Closeable {
+      final ChannelOut out;
+      String[] names;
+      long rows;
+      boolean truncated;
+
+      FileSink (File target) throws IOException {
+         this.out = new ChannelOut(target, BUFFER_BYTES);
+      }
+
+      public void columns (String[] names) {
+         if (this.names != null) return;
+         this.names = names;
+         try{
+            header ();
+         }catch (IOException e){
+            throw new ExportException(e);
+         }//end try
+      }
+
+      public void row (String[] values) {
+         ++this.rows;
+         try{
+            write (values);
+         }catch (IOException e){
+            throw new ExportException(e);
+         }//end try
+      }
+
+      public void end (int rows, boolean truncated) {
+         this.truncated |= truncated;
+      }
+
+      /**
+       * @return the rows written
+       */
+      public long rows () {
+         return this.rows;
+      }
+
+      /**
+       * @return the bytes written so far
+       */
+      public long bytes () {
+         return this.out.bytes ();
+      }
+
+      abstract void header () throws IOException;
+
+      abstract void write (String[] values) throws IOException;
+   }//end FileSink
+
+   /*
+    * A write failure inside a RowSink call, which cannot throw
+    * IOException; main reports its cause.
+    */
+   static class ExportException extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+
+      ExportException (IOException cause) {
+         super(cause.getMessage(), cause);
+      }
+   }//end ExportException
+
+   /**
+    * Writes RFC 4180 CSV.
+    */
+   public static class CsvSink extends FileSink {
+      public CsvSink (File target) throws IOException {
+         super(target);
+      }
+
+      void header () throws IOException {
+         write (this.names);
+      }
+
+      void write (String[] values) throws IOException {
+         for (int i = 0; i < values.length; ++i){
+            if (i > 0) this.out.put((byte) ',');
+            field (values[i]);
+         }//end for
+         this.out.put((byte) '\r');
+         this.out.put((byte) '\n');
+      }
+
+      private void field (String value) throws IOException {
+         if (value == null) return;
+         int length = value.length();
+         boolean quote = length == 0;
+         for (int i = 0; i < length && !quote; ++i){
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+         }//end for
+         if (!quote){
+            this.out.putText (value, length);
+            return;
+         }//end if
+         this.out.put((byte) '"');
+         String text = value.replace("\"", "\"\"");
+         this.out.putText (text, text.length());
+         this.out.put((byte) '"');
+      }
+
+      public void close () throws IOException {
+         this.out.close();
+      }
+   }//end CsvSink
+
+   /**
+    * Writes the columnar format, a row group at a time.
+    */
+   public static class ColumnarSink extends FileSink {
+      private final int groupRows;
+      private String[][] group;
+      private int size;
+
+      public ColumnarSink (File target, int groupRows) throws IOException {
+         super(target);
+         if (groupRows < 1)
+            throw new IllegalArgumentException("Group rows must be positive: " + groupRows);
+         this.groupRows = groupRows;
+      }
+
+      void header () throws IOException {
+         this.out.put(MAGIC);
+         this.out.putInt(this.names.length);
+         for (String name : this.names){
+            byte[] bytes = name.getBytes(UTF8);
+            this.out.putInt(bytes.length);
+            this.out.put(bytes);
+         }//end for
+         this.group = new String[this.names.length][this.groupRows];
+      }
+
+      void write (String[] values) throws IOException {
+         for (int c = 0; c < this.group.length; ++c)
+            this.group[c][this.size] = values[c];
+         if (++this.size == this.groupRows) flushGroup ();
+      }
+
+      private void flushGroup () throws IOException {
+         if (this.size == 0) return;
+         this.out.putInt(this.size);
+         for (String[] column : this.group){
+            writeColumn (column, this.size);
+            java.util.Arrays.fill(column, 0, this.size, null);
+         }//end for
+         this.size = 0;
+      }
+
+      private void writeColumn (String[] values, int n) throws IOException {
+         int scale = decimalScale (values, n);
+         if (scale >= 0){
+            this.out.put(scale == 0 ? INT64 : DECIMAL);
+            if (scale > 0) this.out.put((byte) scale);
+            byte[] nulls = new byte[(n + 7) / 8];
+            for (int i = 0; i < n; ++i)
+               if (values[i] == null) nulls[i >> 3] |= 1 << (i & 7);
+            this.out.put(nulls);
+            for (int i = 0; i < n; ++i)
+               this.out.putLong(values[i] == null ? 0 : unscaled (values[i], scale));
+            return;
+         }//end if
+         // codes first, so the dictionary is known before it is written
+         Map<String, Integer> codes = new HashMap<String, Integer>();
+         java.util.List<String> entries = new java.util.ArrayList<String>();
+         int[] indexes = new int[n];
+         for (int i = 0; i < n; ++i){
+            if (values[i] == null){
+               indexes[i] = -1;
+               continue;
+            }//end if
+            String value = values[i];
+            Integer code = codes.get(value);
+            if (code == null){
+               code = entries.size();
+               codes.put(value, code);
+               entries.add(value);
+            }//end if
+            indexes[i] = code;
+         }//end for
+         this.out.put(DICT);
+         this.out.putInt(entries.size());
+         for (String entry : entries){
+            byte[] bytes = entry.getBytes(UTF8);
+            this.out.putInt(bytes.length);
+            this.out.put(bytes);
+         }//end for
+         for (int i = 0; i < n; ++i)
+            this.out.putInt(indexes[i]);
+      }
+
+      public void close () throws IOException {
+         try{
+            if (this.names == null) columns (new String[0]);
+            flushGroup ();
+            this.out.putInt(0);
+            this.out.putLong(this.rows);
+            this.out.put((byte) (this.truncated ? 1 : 0));
+         }finally{
+            this.out.close();
+         }//end try
+      }
+   }//end ColumnarSink
+
+   /*
+    * The one scale every non-null value has as a plain decimal of at most
+    * 18 digits (0 for integers), or -1 when they do not all have it.
+    */
+   static int decimalScale (String[] values, int n) {
+      int scale = -1;
+      for (int i = 0; i < n; ++i){
+         String v = values[i];
+         if (v == null) continue;
+         int length = v.length();
+         int at = length > 0 && v.charAt(0) == '-' ? 1 : 0;
+         int digits = 0;
+         int point = -1;
+         for (int j = at; j < length; ++j){
+            char c = v.charAt(j);
+            if (c == '.' && point < 0) point = j;
+            else if (c >= '0' && c <= '9') ++digits;
+            else return -1;
+         }//end for
+         // only the form the value prints back in: no "007", ".5" or "5."
+         int whole = (point < 0 ? length : point) - at;
+         if (whole == 0 || (whole > 1 && v.charAt(at) == '0') || point == length - 1) return -1;
+         int s = point < 0 ? 0 : length - point - 1;
+         if (digits > 18 || (scale >= 0 && s != scale)) return -1;
+         scale = s;
+      }//end for
+      return scale < 0 ? 0 : scale;
+   }//end decimalScale
+
+   // a decimalScale value without its point
+   static long unscaled (String value, int scale) {
+      return Long.parseLong(scale == 0 ? value : value.replace(".", ""));
+   }//end unscaled
+
+   /**
+    * Writes a columnar file back out as CSV.
+    *
+    * @return the number of rows written
+    * @throws java.io.IOException when a file cannot be read or written, or
+    *         the columnar file is malformed
+    */
+   public static long decode (File columnar, File csv) throws IOException {
+      FileInputStream in = new FileInputStream(columnar);
+      try{
+         In source = new In(in.getChannel());
+         byte[] magic = source.bytes (MAGIC.length);
+         if (!java.util.Arrays.equals(magic, MAGIC))
+            throw new IOException(columnar + " is not a columnar export");
+         String[] names = new String[source.getInt ()];
+         for (int c = 0; c < names.length; ++c)
+            names[c] = new String(source.bytes (source.getInt ()), UTF8);
+         File part = partial (csv);
+         CsvSink sink = new CsvSink(part);
+         try{
+            if (names.length > 0) sink.columns (names);
+            for (int n; (n = source.getInt ()) > 0;){
+               String[][] group = new String[names.length][];
+               for (int c = 0; c < names.length; ++c)
+                  group[c] = readColumn (source, n);
+               String[] row = new String[names.length];
+               for (int i = 0; i < n; ++i){
+                  for (int c = 0; c < names.length; ++c) row[c] = group[c][i];
+                  sink.row (row);
+               }//end for
+            }//end for
+            long rows = source.getLong ();
+            if (rows != sink.rows ())
+               throw new IOException(columnar + " holds " + sink.rows () + " rows, its footer says " + rows);
+            complete (sink, part, csv);
+            return rows;
+         }catch (IOException | RuntimeException e){
+            discard (sink, part);
+            throw e;
+         }//end try
+      }finally{
+         in.close();
+      }//end try
+   }//end decode
+
+   // the file a sink writes until it is complete
+   static File partial (File target) {
+      return new File(target.getPath() + ".part");
+   }//end partial
+
+   // finishes part and puts it in target's place
+   static void complete (FileSink sink, File part, File target) throws IOException {
+      sink.close ();
+      Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+   }//end complete
+
+   // closes a sink that failed and deletes what it wrote
+   static void discard (FileSink sink, File part) {
+      try{
+         sink.close ();
+      }catch (IOException e){
+         // ignored.
+      }//end try
+      part.delete();
+   }//end discard
+
+   private static String[] readColumn (In source, int n) throws IOException {
+      String[] values = new String[n];
+      byte encoding = source.get ();
+      if (encoding == INT64 || encoding == DECIMAL){
+         int scale = encoding == DECIMAL ? source.get () : 0;
+         byte[] nulls = source.bytes ((n + 7) / 8);
+         for (int i = 0; i < n; ++i){
+            long v = source.getLong ();
+            if ((nulls[i >> 3] & (1 << (i & 7))) == 0)
+               values[i] = scale == 0 ? String.valueOf(v) : java.math.BigDecimal.valueOf(v, scale).toPlainString();
+         }//end for
+      }else if (encoding == DICT){
+         String[] entries = new String[source.getInt ()];
+         for (int e = 0; e < entries.length; ++e)
+            entries[e] = new String(source.bytes (source.getInt ()), UTF8);
+         for (int i = 0; i < n; ++i){
+            int code = source.getInt ();
+            values[i] = code < 0 ? null : entries[code];
+         }//end for
+      }else{
+         throw new IOException("unknown column encoding " + encoding);
+      }//end if
+      return values;
+   }//end readColumn
+
+   /*
+    * Buffered reads from a FileChannel, for decode.
+    */
+   static final class In {
+      private final FileChannel channel;
+      private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+      In (FileChannel channel) {
+         this.channel = channel;
+         this.buffer.flip();
+      }
+
+      private void need (int n) throws IOException {
+         if (this.buffer.remaining() >= n) return;
+         this.buffer.compact();
+         while (this.buffer.position() < n)
+            if (this.channel.read(this.buffer) < 0) throw new EOFException("columnar file ends early");
+         this.buffer.flip();
+      }
+
+      byte get () throws IOException {
+         need (1);
+         return this.buffer.get();
+      }
+
+      int getInt () throws IOException {
+         need (4);
+         return this.buffer.getInt();
+      }
+
+      long getLong () throws IOException {
+         need (8);
+         return this.buffer.getLong();
+      }
+
+      byte[] bytes (int n) throws IOException {
+         byte[] bytes = new byte[n];
+         int at = 0;
+         while (at < n){
+            need (1);
+            int chunk = Math.min(n - at, this.buffer.remaining());
+            this.buffer.get(bytes, at, chunk);
+            at += chunk;
+         }//end while
+         return bytes;
+      }
+   }//end In
+
+   public static void main (String[] args) {
+      if (args.length == 3 && args[0].equals("-decode")){
+         try{
+            long start = System.currentTimeMillis();
+            long rows = decode (new File(args[1]), new File(args[2]));
+            System.out.println (rows + " rows decoded in " + String.format("%.2f", (System.currentTimeMillis() - start) / 1000.0) + " s");
+         }catch (IOException e){
+            System.err.println (e.getMessage ());
+            System.exit(1);
+         }//end try
+         return;
+      }//end if
+      boolean sql = args.length == 7 && args[5].equals("-sql");
+      if (args.length < 6 || !(args[3].equals("csv") || args[3].equals("columnar")) || (args[5].equals("-sql") && !sql)) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            Exporter.class.getName () +
+            " <dbname> <port> <user> <csv|columnar> <file> <operation> [key=value ...]\n" +
+            "       java [-classpath <classpath>] " + Exporter.class.getName () +
+            " <dbname> <port> <user> <csv|columnar> <file> -sql \"<query>\"\n" +
+            "       java [-classpath <classpath>] " + Exporter.class.getName () +
+            " -decode <columnar file> <csv file>");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "", 1, 1);
+         esql.setFetchSize (FETCH_SIZE);
+         Exporter exporter = new Exporter (esql);
+         File target = new File(args[4]);
+         long start = System.currentTimeMillis();
+         File part = partial (target);
+         FileSink sink = args[3].equals("csv") ? new CsvSink(part) : new ColumnarSink(part, GROUP_ROWS);
+         try{
+            if (sql){
+               exporter.exportQuery (args[6], sink);
+            }else{
+               Map<String, String> arguments = new HashMap<String, String>();
+               for (int i = 6; i < args.length; ++i){
+                  int eq = args[i].indexOf('=');
+                  if (eq < 0)
+                     throw new IllegalArgumentException("expected key=value: " + args[i]);
+                  arguments.put(args[i].substring(0, eq).toLowerCase(), args[i].substring(eq + 1));
+               }//end for
+               exporter.exportOperation (args[5], arguments, sink);
+            }//end if
+            complete (sink, part, target);
+         }catch (Exception e){
+            discard (sink, part);
+            throw e;
+         }//end try
+         double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+         System.out.println (sink.rows () + " rows, " + sink.bytes () + " bytes to " + target + " in " + String.format("%.2f", seconds) +
+                             " s (" + String.format("%.1f", sink.bytes () / seconds / 1048576) + " MB/s)" +
+                             (sink.truncated ? ", stopped at -Dquery.rowLimit" : ""));
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         System.exit(1);
+      }finally{
+         if (esql != null) esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end Exporter
@@ -0,0 +1,250 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the sixteen menu operations over HTTP, so one process and one
+ * connection pool serve every terminal.
+ *
+ *    java DBProject <dbname> <port> <user> -http <http port> [connections]
+ *
+ * Each operation is at /<name>, named as in Operations or in a script
+ * (see ScriptRunner), with the script's arguments in the query string or
+ * as a form in the body:
+ *
+ *    GET  /numberOfAvailableRooms?hotel=381&date=2015-05-12
+ *    POST /bookRoom    hotel=381&room=5&customer=12&date=2015-05-12&guests=2&price=150
+ *
+ * Operations that add rows take POST only.  The answer is a JSON object:
+ *
+ *    {"op":"book","ok":true,"ms":1.52,"result":40012}
+ *    {"op":"book","ok":false,"ms":0.41,"error":"no customer named Ada Byron"}
+ *
+ * with status 200, 400 for bad arguments, 404 for an unknown operation,
+ * 405 for a GET that would add rows, 409 for a room already booked that
+ * day and 500 when the database fails.
+ * GET /stats answers the latency statistics of menu entry 17 as text.
+ *
+ * Requests run on a pool of -Dhttp.threads threads (default 256).  They
+ * share the connection pool, so at most [connections] of them talk to the
+ * database at once and the rest wait in ConnectionPool.borrow.
+ *
+ * -Dhttp.virtual=on runs them on virtual threads instead, one per request.
+ * The bundled driver sends each query and reads its answer inside a
+ * synchronized block, and before Java 24 a virtual thread blocked there
+ * holds its carrier thread: no more than availableProcessors queries are
+ * then in flight, and while every carrier waits on the database no other
+ * request is served.  So the default, -Dhttp.virtual=auto, takes virtual
+ * threads only from Java 24 on; =off never does.
+ *
+ */
+public class HttpService {
+
+   // the Operations method names, for the script operation they map to
+   static final Map<String, String> OPERATIONS = new HashMap<String, String>();
+   // the script operations that add or change rows
+   static final Set<String> WRITES = new HashSet<String>();
+   static {
+      String[][] names = {
+         {"addCustomer", "addCustomer"}, {"addRoom", "addRoom"}, {"addMaintenanceCompany", "addCompany"},
+         {"addRepair", "addRepair"}, {"bookRoom", "book"}, {"assignHouseCleaningToRoom", "assign"},
+         {"repairRequest", "request"}, {"numberOfAvailableRooms", "available"}, {"numberOfBookedRooms", "booked"},
+         {"listHotelRoomBookingsForAWeek", "week"}, {"topKHighestRoomPriceForADateRange", "topRooms"},
+         {"topKHighestPriceBookingsForACustomer", "topCustomer"}, {"totalCostForCustomer", "cost"},
+         {"listRepairsMade", "repairs"}, {"topKMaintenanceCompany", "topCompanies"},
+         {"numberOfRepairsForEachRoomPerYear", "repairsPerYear"}};
+      for (int i = 0; i < names.length; ++i){
+         OPERATIONS.put(names[i][0], names[i][1]);
+         OPERATIONS.put(names[i][1], names[i][1]);
+         if (i < 7) WRITES.add(names[i][1]);
+      }//end for
+   }
+
+   private final DBProject esql;
+   private final ScriptRunner runner;
+   private HttpServer server;
+   private ExecutorService executor;
+
+   public HttpService (DBProject esql) {
+      this.esql = esql;
+      this.runner = new ScriptRunner(esql, 1);
+   }//end HttpService
+
+   /**
+    * Starts answering on port, 0 for any free one.
+    *
+    * @return the port listened on
+    * @throws java.io.IOException when the port cannot be bound
+    */
+   public synchronized int start (int port) throws IOException {
+      this.server = HttpServer.create(new InetSocketAddress(port), Integer.getInteger("http.backlog", 1024));
+      this.server.createContext("/", new HttpHandler() {
+         public void handle (HttpExchange exchange) throws IOException {
+            try{
+               serve (exchange);
+            }finally{
+               exchange.close();
+            }//end try
+         }
+      });
+      this.executor = requestExecutor ();
+      this.server.setExecutor(this.executor);
+      this.server.start();
+      return this.server.getAddress().getPort();
+   }//end start
+
+   /**
+    * Stops accepting requests, giving those in progress up to
+    * delaySeconds to finish.
+    */
+   public synchronized void stop (int delaySeconds) {
+      if (this.server == null) return;
+      this.server.stop(delaySeconds);
+      this.executor.shutdownNow();
+      this.server = null;
+   }//end stop
+
+   /*
+    * A virtual thread per request when -Dhttp.virtual asks for them and
+    * the JVM has them, found by reflection so this still compiles and runs
+    * on older releases; else the fixed pool.
+    */
+   static ExecutorService requestExecutor () {
+      String virtual = System.getProperty("http.virtual", "auto");
+      if (virtual.equals("on") || (virtual.equals("auto") && javaFeature () >= 24)){
+         try{
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+         }catch (ReflectiveOperationException e){
+            // no virtual threads before Java 21.
+         }//end try
+      }//end if
+      return Executors.newFixedThreadPool(Integer.getInteger("http.threads", 256));
+   }//end requestExecutor
+
+   // the major Java version: 1.7 gives 7, 21.0.2 gives 21
+   static int javaFeature () {
+      String version = System.getProperty("java.specification.version", "0");
+      if (version.startsWith("1.")) version = version.substring(2);
+      try{
+         return Integer.parseInt(version.split("\\.")[0]);
+      }catch (NumberFormatException e){
+         return 0;
+      }//end try
+   }//end javaFeature
+
+   private void serve (HttpExchange exchange) throws IOException {
+      String path = exchange.getRequestURI().getPath();
+      String method = exchange.getRequestMethod();
+      if (path.equals("/stats")){
+         ByteArrayOutputStream text = new ByteArrayOutputStream();
+         PrintStream out = new PrintStream(text, false, "UTF-8");
+         this.esql.getMetrics().print(out);
+         out.flush();
+         reply (exchange, 200, "text/plain; charset=utf-8", text.toByteArray());
+         return;
+      }//end if
+      String op = OPERATIONS.get(path.startsWith("/") ? path.substring(1) : path);
+      long start = System.nanoTime();
+      if (op == null){
+         json (exchange, 404, path, start, null, "unknown operation " + path);
+         return;
+      }//end if
+      if (WRITES.contains(op) && !method.equals("POST")){
+         exchange.getResponseHeaders().set("Allow", "POST");
+         json (exchange, 405, op, start, null, op + " adds rows: use POST");
+         return;
+      }//end if
+      Map<String, String> args = new HashMap<String, String>();
+      try{
+         form (exchange.getRequestURI().getRawQuery(), args);
+         if (method.equals("POST"))
+            form (new String(readAll (exchange.getRequestBody()), "UTF-8"), args);
+         json (exchange, 200, op, start, this.runner.dispatch(new ScriptRunner.Command(0, op, args)), null);
+      }catch (IllegalArgumentException e){
+         json (exchange, 400, op, start, null, e.getMessage());
+      }catch (BookingConflictException e){
+         json (exchange, 409, op, start, null, e.getMessage());
+      }catch (SQLException e){
+         json (exchange, 500, op, start, null, e.getMessage());
+      }catch (Exception e){
+         json (exchange, 500, op, start, null, e.getMessage() != null ? e.getMessage() : e.toString());
+      }//end try
+   }//end serve
+
+   // adds the key=value pairs of an urlencoded form to args
+   static void form (String text, Map<String, String> args) {
+      if (text == null || text.length() == 0) return;
+      try{
+         for (String pair : text.split("&")){
+            if (pair.length() == 0) continue;
+            int eq = pair.indexOf('=');
+            if (eq < 0)
+               throw new IllegalArgumentException("expected key=value: " + pair);
+            args.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8").toLowerCase(),
+                     URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+         }//end for
+      }catch (java.io.UnsupportedEncodingException e){
+         throw new IllegalStateException(e);
+      }//end try
+   }//end form
+
+   private static byte[] readAll (InputStream in) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int n; (n = in.read(buffer)) > 0;)
+         out.write(buffer, 0, n);
+      return out.toByteArray();
+   }//end readAll
+
+   private static void json (HttpExchange exchange, int status, String op, long start, String result, String error) throws IOException {
+      StringBuilder out = new StringBuilder(128);
+      out.append("{\"op\":");
+      Json.quote (out, op);
+      out.append(",\"ok\":").append(error == null).append(",\"ms\":")
+         .append(Json.number ((System.nanoTime() - start) / 1e6));
+      if (error == null){
+         out.append(",\"result\":").append(result);
+      }else{
+         out.append(",\"error\":");
+         Json.quote (out, error.replace('\n', ' '));
+      }//end if
+      out.append("}\n");
+      reply (exchange, status, "application/json; charset=utf-8", out.toString().getBytes("UTF-8"));
+   }//end json
+
+   private static void reply (HttpExchange exchange, int status, String type, byte[] body) throws IOException {
+      exchange.getResponseHeaders().set("Content-Type", type);
+      exchange.sendResponseHeaders(status, body.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(body);
+      out.close();
+   }//end reply
+
+}//end HttpService
@@ -0,0 +1,94 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out primary keys for one table from blocks leased off a PostgreSQL
+ * sequence (hi/lo allocation).
+ *
+ * The sequence is created in create.sql with INCREMENT BY BLOCK_SIZE, so
+ * each nextval() reserves the ids [value, value + BLOCK_SIZE) for this
+ * process alone.  Ids inside a block are taken with a single atomic
+ * increment; only the thread that finds the block exhausted goes back to
+ * the database, under a lock, for the next one.  Ids left in a block when
+ * the program exits are simply skipped.
+ *
+ */
+public class IdAllocator {
+
+   // must match the INCREMENT BY of the sequences in create.sql
+   public static final int BLOCK_SIZE = 50;
+
+   private static final class Block {
+      final AtomicLong next;
+      final long end;
+
+      Block (long start, long end) {
+         this.next = new AtomicLong(start);
+         this.end = end;
+      }
+   }//end Block
+
+   private final DBProject esql;
+   private final String sequence;
+   private final String leaseSql;
+   private volatile Block block = new Block(0, 0);
+   private final AtomicLong leases = new AtomicLong();
+
+   /**
+    * @param esql the database the sequence lives in
+    * @param sequence the name of the sequence backing this table's ids
+    */
+   public IdAllocator (DBProject esql, String sequence) {
+      this.esql = esql;
+      this.sequence = sequence;
+      this.leaseSql = "SELECT nextval('" + sequence + "')";
+   }//end IdAllocator
+
+   /**
+    * @return an id no other caller, in this or any other process, will get
+    * @throws java.sql.SQLException when a new block cannot be leased
+    */
+   public long next () throws SQLException {
+      while (true){
+         Block b = this.block;
+         long id = b.next.getAndIncrement();
+         if (id < b.end) return id;
+         synchronized (this){
+            // another thread may have refilled while we waited for the lock
+            if (this.block == b)
+               this.block = lease ();
+         }//end synchronized
+      }//end while
+   }//end next
+
+   private Block lease () throws SQLException {
+      long start = this.esql.queryForObject(this.leaseSql, RowMapper.LONG).longValue();
+      this.leases.incrementAndGet();
+      return new Block(start, start + BLOCK_SIZE);
+   }//end lease
+
+   public String getSequence () {
+      return this.sequence;
+   }//end getSequence
+
+   /**
+    * @return the number of blocks leased from the database so far
+    */
+   public long getLeases () {
+      return this.leases.get();
+   }//end getLeases
+
+}//end IdAllocator
@@ -0,0 +1,108 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.Locale;
+
+/**
+ * Just enough JSON writing for the machine-readable outputs (script
+ * results, benchmark reports): string quoting and a row collector.
+ *
+ */
+public final class Json {
+
+   private Json () {
+   }
+
+   /**
+    * Appends value as a JSON string literal, or null.
+    */
+   public static StringBuilder quote (StringBuilder out, String value) {
+      if (value == null) return out.append("null");
+      out.append('"');
+      for (int i = 0; i < value.length(); ++i){
+         char c = value.charAt(i);
+         switch (c){
+            case '"': out.append("\\\""); break;
+            case '\\': out.append("\\\\"); break;
+            case '\n': out.append("\\n"); break;
+            case '\r': out.append("\\r"); break;
+            case '\t': out.append("\\t"); break;
+            default:
+               if (c < 0x20) out.append(String.format("\\u%04x", (int) c));
+               else out.append(c);
+         }//end switch
+      }//end for
+      return out.append('"');
+   }//end quote
+
+   /**
+    * @return value as a JSON string literal, or null
+    */
+   public static String quote (String value) {
+      return quote (new StringBuilder(), value).toString();
+   }//end quote
+
+   /**
+    * @return value as a JSON number with three decimals, written with a
+    *         point whatever the default locale
+    */
+   public static String number (double value) {
+      return String.format(Locale.ROOT, "%.3f", value);
+   }//end number
+
+   /**
+    * Collects a listing as {"columns":[...],"rows":[[...],...]}.  Trailing
+    * blanks of CHAR columns are trimmed.  When a listing is made of several
+    * queries (companies sharing a name) the rows of all of them are kept
+    * under the first set of columns.
+    */
+   public static class RowsSink implements RowSink {
+      private final StringBuilder columns = new StringBuilder("[]");
+      private final StringBuilder rows = new StringBuilder("[");
+      private int count;
+      private boolean truncated;
+
+      public void columns (String[] names) {
+         if (this.columns.length() > 2) return;
+         this.columns.setLength(0);
+         array (this.columns, names);
+      }
+
+      public void row (String[] values) {
+         if (this.count++ > 0) this.rows.append(',');
+         array (this.rows, values);
+      }
+
+      public void end (int rows, boolean truncated) {
+         this.truncated |= truncated;
+      }
+
+      public String toString () {
+         return "{\"columns\":" + this.columns + ",\"rows\":" + this.rows + "]" +
+                (this.truncated ? ",\"truncated\":true" : "") + "}";
+      }
+
+      private static void array (StringBuilder out, String[] values) {
+         out.append('[');
+         for (int i = 0; i < values.length; ++i){
+            if (i > 0) out.append(',');
+            String v = values[i];
+            int end = v == null ? 0 : v.length();
+            while (end > 0 && v.charAt(end - 1) == ' ') --end;
+            quote (out, v == null ? null : v.substring(0, end));
+         }//end for
+         out.append(']');
+      }
+   }//end RowsSink
+
+}//end Json
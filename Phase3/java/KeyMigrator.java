@@ -0,0 +1,582 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Converts a database created with Numeric keys and CHAR names to the
+ * Integer keys (BigInt for bID) and VARCHAR names of create.sql, while the
+ * program keeps running against it.
+ *
+ *    java KeyMigrator <dbname> <port> <user> [-check | -migrate]
+ *
+ * -check (the default) lists the columns still to convert and any value
+ * that would not fit its new type.  -migrate converts them, in steps that
+ * each hold their locks briefly, so bookings and repairs carry on:
+ *
+ *    1. a shadow column col__new of the new type beside each column, and
+ *       a trigger copying col into it on every insert and update;
+ *    2. the rows there already copied in batches of -Dmigrate.batch keys
+ *       (default 5000), one transaction each, -Dmigrate.pause ms apart
+ *       (default 10), then compared to the originals;
+ *    3. a NOT VALID check that each shadow of a NOT NULL column is not
+ *       null, validated without blocking writes, and every index on a
+ *       converted column built again on the shadows CONCURRENTLY;
+ *    4. the swap, one transaction for every table: the old columns
+ *       dropped, the shadows renamed over them, the primary keys and
+ *       unique constraints moved onto their new indexes, and the foreign
+ *       keys added back NOT VALID, and the schema_generation sequence
+ *       advanced.  It only changes the catalog, so the tables are locked
+ *       for moments;
+ *    5. the foreign keys validated, again without blocking writes, and
+ *       the tables analyzed.
+ *
+ * Each DDL step gives up after -Dmigrate.lockTimeout ms (default 2000)
+ * rather than queue writers behind it, and is retried up to
+ * -Dmigrate.attempts times (default 20).  Every step can be repeated, so
+ * a run that stops is finished by running -migrate again.
+ *
+ * The converted columns end up last in their tables: every INSERT of this
+ * program names its columns, and its connection pool closes the
+ * connections whose prepared statements predate the swap within
+ * -Dpool.schemaCheck ms of it (see ConnectionPool), so it may run
+ * throughout.  A call caught in that window may fail once ("cached plan
+ * must not change result type") and can simply be repeated; any other
+ * client that keeps prepared statements has to reconnect.  The dropped
+ * columns' space is reused as rows are updated, or given back at once by
+ * VACUUM FULL in a quiet hour.  A partitioned Booking (see Partitioner)
+ * has its indexes, NOT NULL and foreign keys built in the swap instead,
+ * since PostgreSQL cannot build them concurrently or NOT VALID on a
+ * partitioned table; convert before partitioning to avoid that.  Needs
+ * PostgreSQL 12 or later, and 13 for a partitioned Booking, whose shadow
+ * copy trigger runs BEFORE each row.  Compare before and after with
+ *
+ *    java DBBench <dbname> <port> <user> keytypes
+ *
+ */
+public class KeyMigrator {
+
+   static final String SUFFIX = "__new";
+
+   // per table: the key batches are ranged over, then each column and its
+   // new type
+   static final String[][] PLAN = {
+      {"hotel", "hotelid", "hotelid", "integer", "manager", "integer"},
+      {"staff", "ssn", "ssn", "integer", "fname", "varchar(30)", "lname", "varchar(30)", "employerid", "integer"},
+      {"room", "hotelid", "hotelid", "integer", "roomno", "integer", "roomtype", "varchar(10)"},
+      {"customer", "customerid", "customerid", "integer", "fname", "varchar(30)", "lname", "varchar(30)"},
+      {"maintenancecompany", "cmpid", "cmpid", "integer", "name", "varchar(30)"},
+      {"booking", "bid", "bid", "bigint", "customer", "integer", "hotelid", "integer", "roomno", "integer"},
+      {"repair", "rid", "rid", "integer", "hotelid", "integer", "roomno", "integer", "mcompany", "integer",
+       "repairtype", "varchar(10)"},
+      {"request", "reqid", "reqid", "integer", "managerid", "integer", "repairid", "integer"},
+      {"assigned", "asgid", "asgid", "integer", "staffid", "integer", "hotelid", "integer", "roomno", "integer"}};
+
+   private final DBProject esql;
+   private final long batch = Long.getLong("migrate.batch", 5000);
+   private final long pauseMillis = Long.getLong("migrate.pause", 10);
+   private final long lockTimeoutMillis = Long.getLong("migrate.lockTimeout", 2000);
+   private final int attempts = Integer.getInteger("migrate.attempts", 20);
+
+   public KeyMigrator (DBProject esql) {
+      this.esql = esql;
+   }//end KeyMigrator
+
+   /*
+    * A column to convert, as it is now.
+    */
+   static class Column {
+      final String name;
+      final String type;
+      final boolean notNull;
+      final String defaultValue;
+
+      Column (String name, String type, boolean notNull, String defaultValue) {
+         this.name = name;
+         this.type = type;
+         this.notNull = notNull;
+         this.defaultValue = defaultValue;
+      }
+
+      String shadow () {
+         return this.name + SUFFIX;
+      }
+
+      String check () {
+         return this.name + SUFFIX + "_not_null";
+      }
+   }//end Column
+
+   /*
+    * A table with columns to convert, and the indexes built for them.
+    */
+   static class Table {
+      final String name;
+      final String batchKey;
+      final boolean partitioned;
+      final List<Column> columns = new ArrayList<Column>();
+      final List<IndexSwap> indexes = new ArrayList<IndexSwap>();
+
+      Table (String name, String batchKey, boolean partitioned) {
+         this.name = name;
+         this.batchKey = batchKey;
+         this.partitioned = partitioned;
+      }
+
+      String trigger () {
+         return "keymigrator_" + this.name;
+      }
+   }//end Table
+
+   /*
+    * An index on a converted column and the one built to replace it; the
+    * constraint it backs, if any, moves to the new one in the swap.
+    */
+   static class IndexSwap {
+      final String name;
+      final String newName;
+      final String constraint;
+      final String constraintType;
+
+      IndexSwap (String name, String constraint, String constraintType) {
+         this.name = name;
+         this.newName = (name.length() > 63 - SUFFIX.length() ? name.substring(0, 63 - SUFFIX.length()) : name) + SUFFIX;
+         this.constraint = constraint;
+         this.constraintType = constraintType;
+      }
+   }//end IndexSwap
+
+   // the statements of one transaction, retried when a lock is not granted in time
+   private interface Work {
+      void run (Statement stmt) throws SQLException;
+   }//end Work
+
+   /**
+    * @return the tables with columns still to convert
+    * @throws java.sql.SQLException when the catalog cannot be read
+    */
+   public List<Table> pending () throws SQLException {
+      List<Table> tables = new ArrayList<Table>();
+      for (String[] plan : PLAN){
+         String kind = this.esql.queryForObject ("SELECT CAST(relkind AS TEXT) FROM pg_class WHERE oid = CAST(? AS regclass)",
+                                                 RowMapper.STRING, plan[0]);
+         Table table = new Table(plan[0], plan[1], "p".equals(kind));
+         for (int i = 2; i < plan.length; i += 2){
+            final String name = plan[i];
+            final String type = plan[i + 1];
+            Column column = this.esql.queryForObject (
+               "SELECT data_type, is_nullable, column_default FROM information_schema.columns " +
+               "WHERE table_schema = current_schema() AND table_name = ? AND column_name = ?",
+               new RowMapper<Column>() {
+                  public Column mapRow (ResultSet rs) throws SQLException {
+                     if (rs.getString (1).equals(dataType (type))) return null;
+                     return new Column(name, type, rs.getString (2).equals("NO"), rs.getString (3));
+                  }
+               }, plan[0], name);
+            if (column != null) table.columns.add(column);
+         }//end for
+         if (!table.columns.isEmpty()) tables.add(table);
+      }//end for
+      return tables;
+   }//end pending
+
+   // the information_schema name of a type of PLAN
+   static String dataType (String type) {
+      return type.startsWith("varchar") ? "character varying" : type;
+   }//end dataType
+
+   /**
+    * Counts the values of each column that do not fit its new type: keys
+    * with a fraction or out of range.
+    *
+    * @return one line per column with such values, empty when all fit
+    * @throws java.sql.SQLException when a table cannot be read
+    */
+   public List<String> check (List<Table> tables) throws SQLException {
+      List<String> problems = new ArrayList<String>();
+      for (Table t : tables){
+         for (Column c : t.columns){
+            if (c.type.startsWith("varchar")) continue;
+            String max = c.type.equals("bigint") ? "9223372036854775807" : "2147483647";
+            Long bad = this.esql.queryForObject ("SELECT COUNT(*) FROM " + t.name + " WHERE " + c.name + " <> trunc(" + c.name +
+                                                 ") OR " + c.name + " NOT BETWEEN -" + max + " - 1 AND " + max, RowMapper.LONG);
+            if (bad.longValue() > 0)
+               problems.add(t.name + "." + c.name + ": " + bad + " value(s) not " + c.type);
+         }//end for
+      }//end for
+      return problems;
+   }//end check
+
+   /**
+    * Converts every pending column, as described above.
+    *
+    * @throws java.sql.SQLException when a value does not fit or a step
+    *         fails; the steps done are kept and the next run resumes
+    * @throws java.lang.InterruptedException when interrupted between batches
+    */
+   public void migrate () throws SQLException, InterruptedException {
+      List<Table> tables = pending ();
+      if (tables.isEmpty()){
+         System.out.println ("Every key is converted already");
+         return;
+      }//end if
+      List<String> problems = check (tables);
+      if (!problems.isEmpty())
+         throw new SQLException("Values that do not fit their new type: " + problems);
+      for (Table t : tables){
+         // BEFORE row triggers on a partitioned table came in 13
+         if (t.partitioned && this.esql.queryForObject ("SELECT CAST(current_setting('server_version_num') AS Integer)",
+                                                         RowMapper.INT) < 130000)
+            throw new SQLException(t.name + " is partitioned: converting it needs PostgreSQL 13 or later");
+      }//end for
+
+      for (Table t : tables) addShadows (t);
+      for (Table t : tables) backfill (t);
+      for (Table t : tables) verify (t);
+      for (Table t : tables){
+         if (t.partitioned) continue;
+         addNotNullChecks (t);
+         buildIndexes (t);
+      }//end for
+      List<String> foreignKeys = swap (tables);
+      for (String validate : foreignKeys){
+         System.out.println (validate);
+         this.esql.executeUpdate (validate);
+      }//end for
+      for (Table t : tables)
+         this.esql.executeUpdate ("ANALYZE " + t.name);
+   }//end migrate
+
+   // step 1: the shadow columns and the trigger keeping them current
+   private void addShadows (Table t) throws SQLException {
+      StringBuilder add = new StringBuilder("ALTER TABLE " + t.name);
+      StringBuilder copy = new StringBuilder();
+      for (int i = 0; i < t.columns.size(); ++i){
+         Column c = t.columns.get(i);
+         add.append(i == 0 ? " " : ", ").append("ADD COLUMN IF NOT EXISTS ").append(c.shadow ()).append(' ').append(c.type);
+         copy.append("   NEW.").append(c.shadow ()).append(" := NEW.").append(c.name).append(";\n");
+      }//end for
+      System.out.println (t.name + ": adding " + t.columns.size() + " shadow column(s)");
+      ddl (add.toString(),
+           "CREATE OR REPLACE FUNCTION " + t.trigger () + "() RETURNS trigger AS $$\nBEGIN\n" + copy +
+           "   RETURN NEW;\nEND;\n$$ LANGUAGE plpgsql",
+           "DROP TRIGGER IF EXISTS " + t.trigger () + " ON " + t.name,
+           "CREATE TRIGGER " + t.trigger () + " BEFORE INSERT OR UPDATE ON " + t.name +
+           " FOR EACH ROW EXECUTE PROCEDURE " + t.trigger () + "()");
+   }//end addShadows
+
+   // step 2: copies the rows written before the trigger, batch keys at a time
+   private void backfill (Table t) throws SQLException, InterruptedException {
+      long[] range = this.esql.queryForObject ("SELECT MIN(" + t.batchKey + "), MAX(" + t.batchKey + ") FROM " + t.name,
+         new RowMapper<long[]>() {
+            public long[] mapRow (ResultSet rs) throws SQLException {
+               long min = rs.getLong (1);
+               return rs.wasNull () ? null : new long[] {min, rs.getLong (2)};
+            }
+         });
+      if (range == null) return;
+      StringBuilder set = new StringBuilder();
+      StringBuilder missing = new StringBuilder();
+      for (Column c : t.columns){
+         set.append(set.length() == 0 ? "" : ", ").append(c.shadow ()).append(" = ").append(c.name);
+         missing.append(missing.length() == 0 ? "" : " OR ").append(c.shadow ()).append(" IS NULL AND ").append(c.name).append(" IS NOT NULL");
+      }//end for
+      String update = "UPDATE " + t.name + " SET " + set + " WHERE " + t.batchKey + " >= ? AND " + t.batchKey +
+                      " < ? AND (" + missing + ")";
+      long rows = 0;
+      long start = System.currentTimeMillis();
+      long reported = start;
+      for (long from = range[0]; from <= range[1]; from += this.batch){
+         rows += this.esql.executeUpdate (update, from, from + this.batch);
+         if (System.currentTimeMillis() - reported >= 10000){
+            reported = System.currentTimeMillis();
+            System.out.println (t.name + ": " + rows + " rows copied, " + t.batchKey + " " + from + " of " + range[1]);
+         }//end if
+         if (this.pauseMillis > 0) Thread.sleep(this.pauseMillis);
+      }//end for
+      System.out.println (t.name + ": " + rows + " rows copied in " +
+                          String.format("%.1f", (System.currentTimeMillis() - start) / 1000.0) + " s");
+   }//end backfill
+
+   // the end of step 2: every shadow holds its column's value
+   private void verify (Table t) throws SQLException {
+      StringBuilder differs = new StringBuilder();
+      for (Column c : t.columns)
+         differs.append(differs.length() == 0 ? "" : " OR ").append(c.shadow ()).append(" IS DISTINCT FROM CAST(")
+                .append(c.name).append(" AS ").append(c.type).append(')');
+      Long bad = this.esql.queryForObject ("SELECT COUNT(*) FROM " + t.name + " WHERE " + differs, RowMapper.LONG);
+      if (bad.longValue() > 0)
+         throw new SQLException(t.name + ": " + bad + " row(s) differ from their shadow columns; run -migrate again");
+   }//end verify
+
+   // step 3: NOT NULL proved by a check validated under a lock writers pass
+   private void addNotNullChecks (Table t) throws SQLException {
+      for (Column c : t.columns){
+         if (!c.notNull) continue;
+         Long exists = this.esql.queryForObject ("SELECT COUNT(*) FROM pg_constraint WHERE conrelid = CAST(? AS regclass) AND conname = ?",
+                                                 RowMapper.LONG, t.name, c.check ());
+         if (exists.longValue() == 0)
+            ddl ("ALTER TABLE " + t.name + " ADD CONSTRAINT " + c.check () + " CHECK (" + c.shadow () + " IS NOT NULL) NOT VALID");
+         this.esql.executeUpdate ("ALTER TABLE " + t.name + " VALIDATE CONSTRAINT " + c.check ());
+      }//end for
+   }//end addNotNullChecks
+
+   // step 3: each index on a converted column again, on the shadows
+   private void buildIndexes (final Table t) throws SQLException {
+      List<String[]> indexes = this.esql.query (
+         "SELECT CAST(i.relname AS TEXT), pg_get_indexdef(x.indexrelid), CAST(x.indisvalid AS TEXT), " +
+         "CAST(c.conname AS TEXT), CAST(c.contype AS TEXT) " +
+         "FROM pg_index x JOIN pg_class i ON i.oid = x.indexrelid " +
+         "LEFT JOIN pg_constraint c ON c.conindid = x.indexrelid AND c.conrelid = x.indrelid AND c.contype IN ('p', 'u') " +
+         "WHERE x.indrelid = CAST(? AS regclass) ORDER BY 1",
+         new RowMapper<String[]>() {
+            public String[] mapRow (ResultSet rs) throws SQLException {
+               return new String[] {rs.getString (1), rs.getString (2), rs.getString (3), rs.getString (4), rs.getString (5)};
+            }
+         }, t.name);
+      List<String> names = new ArrayList<String>();
+      for (String[] index : indexes) names.add(index[0]);
+      for (String[] index : indexes){
+         String name = index[0];
+         if (name.endsWith(SUFFIX)){
+            // a concurrent build that failed leaves an invalid index behind
+            if (index[2].startsWith("f")){
+               System.out.println (t.name + ": dropping unfinished index " + name);
+               this.esql.executeUpdate ("DROP INDEX CONCURRENTLY IF EXISTS " + name);
+               names.remove(name);
+            }//end if
+            continue;
+         }//end if
+         String shadowDef = shadowIndex (index[1], t.columns);
+         if (shadowDef == null) continue;
+         IndexSwap swap = new IndexSwap(name, index[3], index[4]);
+         t.indexes.add(swap);
+         if (names.contains(swap.newName)) continue;
+         System.out.println (t.name + ": building " + swap.newName);
+         this.esql.executeUpdate (shadowDef.replaceFirst("INDEX \\S+ ON ", "INDEX CONCURRENTLY " + swap.newName + " ON "));
+         names.add(swap.newName);
+      }//end for
+   }//end buildIndexes
+
+   private static final Pattern USING = Pattern.compile(" USING ");
+
+   /*
+    * An index definition from pg_get_indexdef with the converted columns
+    * replaced by their shadows, or null when it has none of them.
+    */
+   static String shadowIndex (String def, List<Column> columns) {
+      Matcher using = USING.matcher(def);
+      if (!using.find()) return null;
+      String head = def.substring(0, using.end());
+      String body = def.substring(using.end());
+      String shadowed = body;
+      for (Column c : columns)
+         shadowed = Pattern.compile("\\b" + Pattern.quote(c.name) + "\\b", Pattern.CASE_INSENSITIVE)
+                           .matcher(shadowed).replaceAll(c.shadow ());
+      return shadowed.equals(body) ? null : head + shadowed;
+   }//end shadowIndex
+
+   /*
+    * Step 4: every table at once, since a foreign key needs the same type
+    * at both ends.  Returns the statements validating the foreign keys.
+    */
+   private List<String> swap (final List<Table> tables) throws SQLException {
+      final List<String> validate = new ArrayList<String>();
+      System.out.println ("Swapping " + tables.size() + " table(s)");
+      inTransaction ("swap", new Work() {
+         public void run (Statement stmt) throws SQLException {
+            validate.clear();
+            StringBuilder all = new StringBuilder();
+            for (String[] plan : PLAN) all.append(all.length() == 0 ? "" : ", ").append(plan[0]);
+            stmt.execute ("LOCK TABLE " + all + " IN ACCESS EXCLUSIVE MODE");
+
+            // every foreign key between these tables goes and comes back,
+            // as either end may be changing type
+            StringBuilder oids = new StringBuilder();
+            for (String[] plan : PLAN) oids.append(oids.length() == 0 ? "" : ", ").append("CAST('").append(plan[0]).append("' AS regclass)");
+            List<String[]> foreignKeys = rows (stmt,
+               "SELECT CAST(CAST(conrelid AS regclass) AS TEXT), quote_ident(conname), pg_get_constraintdef(oid), " +
+               "CAST((SELECT relkind FROM pg_class WHERE oid = conrelid) AS TEXT) " +
+               "FROM pg_constraint WHERE contype = 'f' AND conparentid = 0 AND (conrelid IN (" + oids + ") OR confrelid IN (" + oids + "))", 4);
+            for (String[] fk : foreignKeys)
+               stmt.execute ("ALTER TABLE " + fk[0] + " DROP CONSTRAINT " + fk[1]);
+
+            for (Table t : tables){
+               // a partitioned table gets its keys and indexes built here
+               List<String> rebuild = new ArrayList<String>();
+               if (t.partitioned){
+                  for (String[] c : rows (stmt, "SELECT quote_ident(conname), pg_get_constraintdef(oid) FROM pg_constraint " +
+                                                "WHERE conrelid = CAST('" + t.name + "' AS regclass) AND contype IN ('p', 'u') " +
+                                                "ORDER BY contype DESC", 2))
+                     if (shadowIndex (" USING " + c[1], t.columns) != null)
+                        rebuild.add("ALTER TABLE " + t.name + " ADD CONSTRAINT " + c[0] + " " + c[1]);
+                  for (String[] i : rows (stmt, "SELECT indexdef FROM pg_indexes WHERE schemaname = current_schema() AND tablename = '" + t.name +
+                                                "' AND indexname NOT IN (SELECT conname FROM pg_constraint WHERE conrelid = CAST('" +
+                                                t.name + "' AS regclass))", 1))
+                     if (shadowIndex (i[0], t.columns) != null) rebuild.add(i[0]);
+               }//end if
+
+               stmt.execute ("DROP TRIGGER " + t.trigger () + " ON " + t.name);
+               stmt.execute ("DROP FUNCTION " + t.trigger () + "()");
+               StringBuilder drop = new StringBuilder("ALTER TABLE " + t.name);
+               for (int i = 0; i < t.columns.size(); ++i)
+                  drop.append(i == 0 ? " " : ", ").append("DROP COLUMN ").append(t.columns.get(i).name);
+               stmt.execute (drop.toString());
+               for (Column c : t.columns){
+                  stmt.execute ("ALTER TABLE " + t.name + " RENAME COLUMN " + c.shadow () + " TO " + c.name);
+                  if (c.defaultValue != null)
+                     stmt.execute ("ALTER TABLE " + t.name + " ALTER COLUMN " + c.name + " SET DEFAULT " + c.defaultValue);
+                  if (c.notNull){
+                     // the validated check spares the scan
+                     stmt.execute ("ALTER TABLE " + t.name + " ALTER COLUMN " + c.name + " SET NOT NULL");
+                     stmt.execute ("ALTER TABLE " + t.name + " DROP CONSTRAINT IF EXISTS " + c.check ());
+                  }//end if
+               }//end for
+               for (IndexSwap i : t.indexes){
+                  if (i.constraint != null)
+                     stmt.execute ("ALTER TABLE " + t.name + " ADD CONSTRAINT " + i.constraint +
+                                   (i.constraintType.equals("p") ? " PRIMARY KEY" : " UNIQUE") + " USING INDEX " + i.newName);
+                  else
+                     stmt.execute ("ALTER INDEX " + i.newName + " RENAME TO " + i.name);
+               }//end for
+               for (String sql : rebuild)
+                  stmt.execute (sql);
+            }//end for
+
+            // NOT VALID keeps the swap short; a partitioned table cannot
+            // take one, so its keys are checked here
+            for (String[] fk : foreignKeys){
+               boolean partitioned = fk[3].equals("p");
+               stmt.execute ("ALTER TABLE " + fk[0] + " ADD CONSTRAINT " + fk[1] + " " + fk[2] + (partitioned ? "" : " NOT VALID"));
+               if (!partitioned)
+                  validate.add("ALTER TABLE " + fk[0] + " VALIDATE CONSTRAINT " + fk[1]);
+            }//end for
+
+            // tells running pools to drop their prepared statements
+            stmt.execute ("CREATE SEQUENCE IF NOT EXISTS schema_generation");
+            stmt.execute ("SELECT nextval('schema_generation')");
+         }
+      });
+      return validate;
+   }//end swap
+
+   // runs statements in one transaction under the lock timeout
+   private void ddl (final String... statements) throws SQLException {
+      inTransaction (statements[0], new Work() {
+         public void run (Statement stmt) throws SQLException {
+            for (String sql : statements)
+               stmt.execute (sql);
+         }
+      });
+   }//end ddl
+
+   /*
+    * Runs work in a transaction that waits at most lockTimeoutMillis for
+    * each lock, so writers never queue behind a step for longer; a step
+    * that times out is rolled back and tried again.
+    */
+   private void inTransaction (String what, Work work) throws SQLException {
+      for (int attempt = 1; ; ++attempt){
+         ConnectionPool.PooledConnection pc = this.esql.getPool().borrow ();
+         Connection conn = pc.getConnection ();
+         try{
+            conn.setAutoCommit (false);
+            Statement stmt = conn.createStatement ();
+            try{
+               stmt.execute ("SET LOCAL lock_timeout = " + this.lockTimeoutMillis);
+               work.run (stmt);
+               conn.commit ();
+               return;
+            }catch (SQLException e){
+               conn.rollback ();
+               String message = String.valueOf(e.getMessage());
+               if (!message.contains("lock timeout") || attempt >= this.attempts)
+                  throw new SQLException(what + ": " + message);
+               System.out.println ("lock not granted, retrying (" + attempt + "): " + what);
+            }finally{
+               stmt.close ();
+               conn.setAutoCommit (true);
+            }//end try
+         }finally{
+            this.esql.getPool().release (pc);
+         }//end try
+         try{
+            Thread.sleep(Math.min(5000, 100L * attempt));
+         }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to retry " + what);
+         }//end try
+      }//end for
+   }//end inTransaction
+
+   private static List<String[]> rows (Statement stmt, String sql, int columns) throws SQLException {
+      List<String[]> values = new ArrayList<String[]>();
+      ResultSet rs = stmt.executeQuery (sql);
+      try{
+         while (rs.next ()){
+            String[] row = new String[columns];
+            for (int i = 0; i < columns; ++i) row[i] = rs.getString (i + 1);
+            values.add (row);
+         }//end while
+      }finally{
+         rs.close ();
+      }//end try
+      return values;
+   }//end rows
+
+   public static void main (String[] args) {
+      boolean migrate = args.length == 4 && args[3].equals("-migrate");
+      if (args.length < 3 || args.length > 4 || (args.length == 4 && !migrate && !args[3].equals("-check"))) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            KeyMigrator.class.getName () +
+            " <dbname> <port> <user> [-check | -migrate]");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "", 1, 1);
+         KeyMigrator migrator = new KeyMigrator (esql);
+         if (migrate){
+            long start = System.currentTimeMillis();
+            migrator.migrate ();
+            System.out.println ("Keys converted in " + String.format("%.1f", (System.currentTimeMillis() - start) / 1000.0) + " s");
+         }else{
+            List<Table> tables = migrator.pending ();
+            for (Table t : tables)
+               for (Column c : t.columns)
+                  System.out.println (t.name + "." + c.name + " -> " + c.type);
+            for (String problem : migrator.check (tables))
+               System.out.println (problem);
+            if (tables.isEmpty()) System.out.println ("Every key is converted already");
+         }//end if
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         System.exit(1);
+      }finally{
+         if (esql != null) esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end KeyMigrator
@@ -0,0 +1,173 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with log-linear buckets: below 16 ns one bucket per
+ * nanosecond, above that 16 buckets per power of two, up to 2^41 ns
+ * (about 36 minutes) where the last bucket collects the rest.  A
+ * percentile is therefore within 1/16 (6.25%) of the true value; count,
+ * errors, total and max are exact.
+ *
+ * record is a handful of atomic increments on a fixed array: no lock and
+ * no allocation, so it can sit on every query.  Reading the statistics
+ * copies the buckets; a copy taken while others record may be off by the
+ * recordings in flight, which does not matter for percentiles.
+ *
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+   static final int SUB_BITS = 4;
+   static final int SUB_BUCKETS = 1 << SUB_BITS;
+   static final int MAX_EXPONENT = 40;
+   static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+   private final String name;
+   private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+   private final AtomicLong errors = new AtomicLong();
+   private final AtomicLong totalNanos = new AtomicLong();
+   private final AtomicLong maxNanos = new AtomicLong();
+
+   public LatencyHistogram (String name) {
+      this.name = name;
+   }//end LatencyHistogram
+
+   public String getName () {
+      return this.name;
+   }//end getName
+
+   /**
+    * Records one call.
+    *
+    * @param nanos how long it took
+    * @param failed whether it ended in an error; it is counted in the
+    *        latencies as well
+    */
+   public void record (long nanos, boolean failed) {
+      if (nanos < 0) nanos = 0;
+      this.buckets.incrementAndGet(bucket (nanos));
+      this.totalNanos.addAndGet(nanos);
+      if (failed) this.errors.incrementAndGet();
+      for (long max = this.maxNanos.get(); nanos > max && !this.maxNanos.compareAndSet(max, nanos); max = this.maxNanos.get()) { }
+   }//end record
+
+   static int bucket (long nanos) {
+      if (nanos < SUB_BUCKETS) return (int) nanos;
+      int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+      if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+      return (exponent - SUB_BITS + 1) * SUB_BUCKETS + (int) ((nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+   }//end bucket
+
+   // the largest latency that falls in bucket i
+   static long upperBound (int i) {
+      if (i < SUB_BUCKETS) return i;
+      int exponent = i / SUB_BUCKETS + SUB_BITS - 1;
+      long width = 1L << (exponent - SUB_BITS);
+      return (SUB_BUCKETS + i % SUB_BUCKETS) * width + width - 1;
+   }//end upperBound
+
+   /**
+    * A copy of the histogram at one moment.
+    */
+   public static class Snapshot {
+      public final long count;
+      public final long errors;
+      public final long totalNanos;
+      public final long maxNanos;
+      private final long[] buckets;
+
+      Snapshot (long[] buckets, long errors, long totalNanos, long maxNanos) {
+         long count = 0;
+         for (long n : buckets) count += n;
+         this.buckets = buckets;
+         this.count = count;
+         this.errors = errors;
+         this.totalNanos = totalNanos;
+         this.maxNanos = maxNanos;
+      }
+
+      /**
+       * @param p the percentile, 0 to 100
+       * @return the latency at or under which p percent of the calls took,
+       *         rounded up to its bucket; 0 when nothing was recorded
+       */
+      public long percentile (double p) {
+         if (this.count == 0) return 0;
+         long rank = Math.max(1, (long) Math.ceil(p / 100.0 * this.count));
+         long seen = 0;
+         for (int i = 0; i < this.buckets.length; ++i){
+            seen += this.buckets[i];
+            if (seen >= rank) return Math.min(upperBound (i), this.maxNanos);
+         }//end for
+         return this.maxNanos;
+      }
+
+      public long meanNanos () {
+         return this.count == 0 ? 0 : this.totalNanos / this.count;
+      }
+   }//end Snapshot
+
+   public Snapshot snapshot () {
+      long[] copy = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; ++i)
+         copy[i] = this.buckets.get(i);
+      return new Snapshot(copy, this.errors.get(), this.totalNanos.get(), this.maxNanos.get());
+   }//end snapshot
+
+   /**
+    * Starts counting afresh.  Calls recorded while this runs may be partly
+    * kept.
+    */
+   public void reset () {
+      for (int i = 0; i < BUCKETS; ++i)
+         this.buckets.set(i, 0);
+      this.errors.set(0);
+      this.totalNanos.set(0);
+      this.maxNanos.set(0);
+   }//end reset
+
+   public long getCount () {
+      return snapshot ().count;
+   }//end getCount
+
+   public long getErrors () {
+      return this.errors.get();
+   }//end getErrors
+
+   public double getMeanMillis () {
+      return snapshot ().meanNanos () / 1e6;
+   }//end getMeanMillis
+
+   public double getP50Millis () {
+      return snapshot ().percentile (50) / 1e6;
+   }//end getP50Millis
+
+   public double getP90Millis () {
+      return snapshot ().percentile (90) / 1e6;
+   }//end getP90Millis
+
+   public double getP99Millis () {
+      return snapshot ().percentile (99) / 1e6;
+   }//end getP99Millis
+
+   public double getP999Millis () {
+      return snapshot ().percentile (99.9) / 1e6;
+   }//end getP999Millis
+
+   public double getMaxMillis () {
+      return this.maxNanos.get() / 1e6;
+   }//end getMaxMillis
+
+}//end LatencyHistogram
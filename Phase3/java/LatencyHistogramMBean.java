@@ -0,0 +1,42 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * The read side of a LatencyHistogram, in milliseconds, as published over
+ * JMX by Metrics.
+ *
+ */
+public interface LatencyHistogramMBean {
+
+   long getCount ();
+
+   long getErrors ();
+
+   double getMeanMillis ();
+
+   double getP50Millis ();
+
+   double getP90Millis ();
+
+   double getP99Millis ();
+
+   double getP999Millis ();
+
+   double getMaxMillis ();
+
+   /**
+    * Starts counting afresh.
+    */
+   void reset ();
+
+}//end LatencyHistogramMBean
@@ -0,0 +1,175 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded read-through cache with least recently used eviction and a time
+ * to live, for lookups whose answers change only through operations of this
+ * program (names to ids, and the like).
+ *
+ * A miss calls the loader outside the cache lock, so a slow query does not
+ * block hits on other keys.  Invalidation bumps a generation number and a
+ * load that started before it is not stored, so a value read before an
+ * insert can never be cached after the insert invalidated it.  Absent
+ * results should be loaded as an empty value rather than null so that they
+ * are cached too; null is returned but not stored.
+ *
+ */
+public class LookupCache<K, V> {
+
+   public static final int DEFAULT_SIZE = Integer.getInteger("cache.size", 10000);
+   public static final long DEFAULT_TTL_MILLIS = Long.getLong("cache.ttl", 300) * 1000;
+
+   /**
+    * Reads the value of a key from the database on a miss.
+    */
+   public interface Loader<K, V> {
+      V load (K key) throws SQLException;
+   }//end Loader
+
+   private static final class Cached<V> {
+      final V value;
+      final long expires;
+
+      Cached (V value, long expires) {
+         this.value = value;
+         this.expires = expires;
+      }
+   }//end Cached
+
+   private final int maxSize;
+   private final long ttlMillis;
+   private final LinkedHashMap<K, Cached<V>> entries;
+   private long generation;
+
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+   private final AtomicLong evictions = new AtomicLong();
+   private final AtomicLong expirations = new AtomicLong();
+
+   public LookupCache () {
+      this(DEFAULT_SIZE, DEFAULT_TTL_MILLIS);
+   }//end LookupCache
+
+   /**
+    * @param maxSize entries kept before the least recently used is evicted
+    * @param ttlMillis how long an entry is served after it was loaded
+    */
+   public LookupCache (int maxSize, long ttlMillis) {
+      if (maxSize < 1)
+         throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+      this.maxSize = maxSize;
+      this.ttlMillis = ttlMillis;
+      this.entries = new LinkedHashMap<K, Cached<V>>(16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<K, Cached<V>> eldest) {
+            if (size() <= LookupCache.this.maxSize) return false;
+            evictions.incrementAndGet();
+            return true;
+         }
+      };
+   }//end LookupCache
+
+   /**
+    * Returns the cached value of key, loading and caching it on a miss.
+    *
+    * @throws java.sql.SQLException when the loader fails; nothing is cached
+    */
+   public V get (K key, Loader<K, V> loader) throws SQLException {
+      long now = System.currentTimeMillis();
+      long loadGeneration;
+      synchronized (this){
+         Cached<V> e = this.entries.get(key);
+         if (e != null){
+            if (e.expires > now){
+               this.hits.incrementAndGet();
+               return e.value;
+            }//end if
+            this.entries.remove(key);
+            this.expirations.incrementAndGet();
+         }//end if
+         loadGeneration = this.generation;
+      }//end synchronized
+      this.misses.incrementAndGet();
+      V value = loader.load(key);
+      if (value != null){
+         synchronized (this){
+            if (this.generation == loadGeneration)
+               this.entries.put(key, new Cached<V>(value, now + this.ttlMillis));
+         }//end synchronized
+      }//end if
+      return value;
+   }//end get
+
+   /**
+    * Drops key, and keeps any load already under way from storing it.
+    */
+   public synchronized void invalidate (K key) {
+      this.entries.remove(key);
+      ++this.generation;
+   }//end invalidate
+
+   public synchronized void invalidateAll () {
+      this.entries.clear();
+      ++this.generation;
+   }//end invalidateAll
+
+   /**
+    * Removes expired entries.  Expired entries are also dropped when read,
+    * so this only matters for reclaiming memory.
+    */
+   public synchronized void purgeExpired () {
+      long now = System.currentTimeMillis();
+      for (Iterator<Cached<V>> it = this.entries.values().iterator(); it.hasNext();){
+         if (it.next().expires <= now){
+            it.remove();
+            this.expirations.incrementAndGet();
+         }//end if
+      }//end for
+   }//end purgeExpired
+
+   public synchronized int size () {
+      return this.entries.size();
+   }//end size
+
+   public long getHits () {
+      return this.hits.get();
+   }//end getHits
+
+   public long getMisses () {
+      return this.misses.get();
+   }//end getMisses
+
+   public long getEvictions () {
+      return this.evictions.get();
+   }//end getEvictions
+
+   public long getExpirations () {
+      return this.expirations.get();
+   }//end getExpirations
+
+   /**
+    * @return the counters as one line, for logs and benchmarks
+    */
+   public String stats () {
+      long h = getHits (), m = getMisses ();
+      return "size=" + size () + "/" + this.maxSize + " hits=" + h + " misses=" + m +
+             " hitRate=" + (h + m == 0 ? "n/a" : String.format("%.3f", (double) h / (h + m))) +
+             " evictions=" + getEvictions () + " expirations=" + getExpirations ();
+   }//end stats
+
+}//end LookupCache
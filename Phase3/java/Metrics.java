@@ -0,0 +1,168 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The latency histograms of one DBProject, by name: each menu operation
+ * under its method name, and the SQL helpers under sql.executeUpdate,
+ * sql.query, sql.queryForObject and sql.stream.
+ *
+ * Besides the menu's statistics entry the histograms can be published as
+ * JMX MBeans (DBProject:type=Latency,name=<name>) and written to a log file
+ * every few seconds.
+ *
+ */
+public class Metrics {
+
+   private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+   private volatile String jmxDomain;
+   private ScheduledExecutorService logger;
+
+   /**
+    * @return the histogram called name, created on first use
+    */
+   public LatencyHistogram histogram (String name) {
+      LatencyHistogram h = this.histograms.get(name);
+      if (h != null) return h;
+      LatencyHistogram created = new LatencyHistogram(name);
+      h = this.histograms.putIfAbsent(name, created);
+      if (h != null) return h;
+      if (this.jmxDomain != null) register (created);
+      return created;
+   }//end histogram
+
+   /**
+    * Records a call that started at startNanos (System.nanoTime) and ends
+    * now.
+    */
+   public void record (String name, long startNanos, boolean failed) {
+      histogram (name).record(System.nanoTime() - startNanos, failed);
+   }//end record
+
+   /**
+    * @return the histograms, by name
+    */
+   public List<LatencyHistogram> histograms () {
+      List<String> names = new ArrayList<String>(this.histograms.keySet());
+      Collections.sort(names);
+      List<LatencyHistogram> result = new ArrayList<LatencyHistogram>(names.size());
+      for (String name : names) result.add(this.histograms.get(name));
+      return result;
+   }//end histograms
+
+   public void resetAll () {
+      for (LatencyHistogram h : this.histograms.values()) h.reset();
+   }//end resetAll
+
+   /**
+    * Prints one tab separated line per histogram that recorded anything,
+    * times in milliseconds.
+    */
+   public void print (PrintStream out) {
+      out.println ("operation\tcount\terrors\tmean\tp50\tp90\tp99\tp99.9\tmax");
+      for (LatencyHistogram h : histograms ()){
+         LatencyHistogram.Snapshot s = h.snapshot();
+         if (s.count == 0) continue;
+         out.println (h.getName() + "\t" + s.count + "\t" + s.errors + "\t" + ms (s.meanNanos()) + "\t" +
+                      ms (s.percentile(50)) + "\t" + ms (s.percentile(90)) + "\t" + ms (s.percentile(99)) + "\t" +
+                      ms (s.percentile(99.9)) + "\t" + ms (s.maxNanos));
+      }//end for
+   }//end print
+
+   private static String ms (long nanos) {
+      return String.format("%.3f", nanos / 1e6);
+   }//end ms
+
+   /**
+    * Publishes every histogram, present and future, as an MBean in domain.
+    */
+   public void exportToJmx (String domain) {
+      this.jmxDomain = domain;
+      for (LatencyHistogram h : this.histograms.values()) register (h);
+   }//end exportToJmx
+
+   private void register (LatencyHistogram h) {
+      try{
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(this.jmxDomain + ":type=Latency,name=" + ObjectName.quote(h.getName()));
+         if (server.isRegistered(name)) server.unregisterMBean(name);
+         server.registerMBean(h, name);
+      }catch (Exception e){
+         // statistics are still kept and shown by the menu
+         System.err.println ("Cannot publish " + h.getName() + " over JMX: " + e.getMessage());
+      }//end try
+   }//end register
+
+   /**
+    * Appends the statistics, with a time stamp, to file every seconds
+    * seconds from a background thread, until close.
+    */
+   public synchronized void startLogging (final File file, long seconds) {
+      if (this.logger != null) this.logger.shutdownNow();
+      this.logger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "metrics-log");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      this.logger.scheduleAtFixedRate(new Runnable() {
+         public void run () {
+            try{
+               dump (file);
+            }catch (IOException e){
+               System.err.println ("Cannot write statistics to " + file + ": " + e.getMessage());
+            }//end try
+         }
+      }, seconds, seconds, TimeUnit.SECONDS);
+   }//end startLogging
+
+   /**
+    * Appends the statistics to file, with a time stamp.
+    */
+   public void dump (File file) throws IOException {
+      PrintStream out = new PrintStream(new FileOutputStream(file, true), false, "UTF-8");
+      try{
+         out.println ("# " + new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new java.util.Date()));
+         print (out);
+      }finally{
+         out.close();
+      }//end try
+   }//end dump
+
+   /**
+    * Stops the periodic log, if any.
+    */
+   public synchronized void close () {
+      if (this.logger != null){
+         this.logger.shutdownNow();
+         this.logger = null;
+      }//end if
+   }//end close
+
+}//end Metrics
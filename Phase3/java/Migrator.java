@@ -0,0 +1,220 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Applies the numbered schema migrations in sql/migrations to a database
+ * created by create.sql.
+ *
+ * Migration files are named NNN_description.sql and run in numeric order.
+ * Each one runs in its own transaction together with the row that records
+ * it in SchemaVersion, so a failed migration leaves nothing behind and is
+ * retried on the next run, and an applied one is never run twice.
+ *
+ *    java Migrator <dbname> <port> <user> [migrations folder]
+ *
+ */
+public class Migrator {
+
+   public static final String DEFAULT_DIR = "../sql/migrations";
+
+   private final DBProject esql;
+   private final File dir;
+
+   public Migrator (DBProject esql, File dir) {
+      this.esql = esql;
+      this.dir = dir;
+   }//end Migrator
+
+   public static void main (String[] args) {
+      if (args.length != 3 && args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            Migrator.class.getName () +
+            " <dbname> <port> <user> [migrations folder]");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "");
+         File dir = new File(args.length == 4 ? args[3] : DEFAULT_DIR);
+         int applied = new Migrator(esql, dir).migrate ();
+         System.out.println (applied + " migration(s) applied");
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         System.exit(1);
+      }finally{
+         if (esql != null) esql.cleanup ();
+      }//end try
+   }//end main
+
+   /**
+    * Applies every migration in the folder that is not yet recorded in
+    * SchemaVersion.
+    *
+    * @return the number of migrations applied
+    * @throws java.sql.SQLException when a migration fails; it is rolled back
+    * @throws java.io.IOException when a migration file cannot be read
+    */
+   public int migrate () throws SQLException, IOException {
+      this.esql.executeUpdate(
+         "CREATE TABLE IF NOT EXISTS SchemaVersion( version Numeric NOT NULL, " +
+         "description Text, appliedOn Timestamp NOT NULL DEFAULT now(), PRIMARY KEY(version))");
+      Set<Integer> done = new HashSet<Integer>(
+         this.esql.query("SELECT version FROM SchemaVersion", RowMapper.INT));
+
+      int applied = 0;
+      for (File file : migrations (this.dir)){
+         int version = versionOf (file);
+         if (done.contains(version)) continue;
+         System.out.print ("Applying " + file.getName() + "...");
+         apply (version, file);
+         System.out.println ("Done");
+         ++applied;
+      }//end for
+      return applied;
+   }//end migrate
+
+   /**
+    * @return the migration files of dir, in version order
+    */
+   static List<File> migrations (File dir) throws IOException {
+      File[] files = dir.listFiles();
+      if (files == null)
+         throw new IOException("No migrations folder at " + dir);
+      List<File> result = new ArrayList<File>();
+      for (File f : files)
+         if (f.getName().matches("\\d+_.*\\.sql")) result.add(f);
+      File[] sorted = result.toArray(new File[result.size()]);
+      Arrays.sort(sorted, new java.util.Comparator<File>() {
+         public int compare (File a, File b) {
+            return Integer.compare(versionOf (a), versionOf (b));
+         }
+      });
+      return Arrays.asList(sorted);
+   }//end migrations
+
+   static int versionOf (File file) {
+      String name = file.getName();
+      return Integer.parseInt(name.substring(0, name.indexOf('_')));
+   }//end versionOf
+
+   private void apply (int version, File file) throws SQLException, IOException {
+      List<String> statements = split (read (file));
+      String name = file.getName();
+      String description = name.substring(name.indexOf('_') + 1, name.length() - 4).replace('_', ' ');
+
+      ConnectionPool.PooledConnection pc = this.esql.getPool().borrow ();
+      Connection conn = pc.getConnection ();
+      try{
+         conn.setAutoCommit (false);
+         Statement stmt = conn.createStatement ();
+         try{
+            for (String sql : statements)
+               stmt.execute (sql);
+            PreparedStatement record = pc.prepare ("INSERT INTO SchemaVersion (version, description) VALUES (?, ?)");
+            DBProject.bind (record, new Object[] {version, description});
+            record.executeUpdate ();
+            conn.commit ();
+         }catch (SQLException e){
+            conn.rollback ();
+            throw new SQLException(name + ": " + e.getMessage());
+         }finally{
+            stmt.close ();
+            conn.setAutoCommit (true);
+         }//end try
+      }finally{
+         this.esql.getPool().release (pc);
+      }//end try
+   }//end apply
+
+   static String read (File file) throws IOException {
+      Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+      try{
+         StringBuilder text = new StringBuilder();
+         char[] buf = new char[8192];
+         int n;
+         while ((n = reader.read(buf)) > 0)
+            text.append(buf, 0, n);
+         return text.toString();
+      }finally{
+         reader.close();
+      }//end try
+   }//end read
+
+   /**
+    * Splits a SQL script into statements on the semicolons that end them,
+    * skipping -- comments and leaving semicolons inside quoted strings and
+    * $$ bodies alone.
+    *
+    * @param script the text of a .sql file
+    * @return the statements, without their terminating semicolons
+    */
+   static List<String> split (String script) {
+      List<String> statements = new ArrayList<String>();
+      StringBuilder current = new StringBuilder();
+      int n = script.length();
+      for (int i = 0; i < n; ++i){
+         char c = script.charAt(i);
+         if (c == '-' && i + 1 < n && script.charAt(i + 1) == '-'){
+            // comment runs to the end of the line
+            while (i < n && script.charAt(i) != '\n') ++i;
+            current.append('\n');
+         }else if (c == '\''){
+            int end = script.indexOf('\'', i + 1);
+            // '' is an escaped quote inside the literal
+            while (end > 0 && end + 1 < n && script.charAt(end + 1) == '\'')
+               end = script.indexOf('\'', end + 2);
+            if (end < 0) end = n - 1;
+            current.append(script, i, end + 1);
+            i = end;
+         }else if (c == '$' && script.startsWith("$$", i)){
+            int end = script.indexOf("$$", i + 2);
+            if (end < 0) end = n - 2;
+            current.append(script, i, end + 2);
+            i = end + 1;
+         }else if (c == ';'){
+            addStatement (statements, current);
+         }else{
+            current.append(c);
+         }//end if
+      }//end for
+      addStatement (statements, current);
+      return statements;
+   }//end split
+
+   private static void addStatement (List<String> statements, StringBuilder current) {
+      String sql = current.toString().trim();
+      if (sql.length() > 0) statements.add(sql);
+      current.setLength(0);
+   }//end addStatement
+
+}//end Migrator
@@ -0,0 +1,402 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * The sixteen menu operations as plain methods: parameters in, result out,
+ * no prompting and no printing.  The interactive menu in DBProject gathers
+ * the parameters and prints what these return; ScriptRunner calls them
+ * from a command file.
+ *
+ * Listing operations hand their rows to a RowSink and return the number
+ * of rows.  Every method is safe to call from several threads at once, and
+ * records its latency in the DBProject's Metrics under its own name.
+ *
+ */
+public class Operations {
+
+   private final DBProject esql;
+
+   // inserts bookRoom tries before giving up on finding a free booking id
+   static final int BOOKING_ATTEMPTS = 3;
+
+   public Operations (DBProject esql) {
+      this.esql = esql;
+   }//end Operations
+
+   /**
+    * 1. Adds a customer.
+    */
+   public void addCustomer (int customerID, String fName, String lName, String address, String phNo,
+                            String DOB, String gender) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         this.esql.executeUpdate(DBProject.SQL_ADD_CUSTOMER, customerID, fName, lName, address, phNo, DOB, gender);
+         this.esql.customerAdded(fName, lName);
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("addCustomer", startNanos, failed);
+      }//end try
+   }//end addCustomer
+
+   /**
+    * 2. Adds a room.
+    */
+   public void addRoom (int hotelID, int roomNo, String roomType) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         this.esql.executeUpdate(DBProject.SQL_ADD_ROOM, hotelID, roomNo, roomType);
+         this.esql.roomAdded(hotelID, roomNo);
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("addRoom", startNanos, failed);
+      }//end try
+   }//end addRoom
+
+   /**
+    * 3. Adds a maintenance company.
+    *
+    * @param isCertified TRUE or FALSE
+    */
+   public void addMaintenanceCompany (int cmpID, String name, String address, String isCertified) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         this.esql.executeUpdate(DBProject.SQL_ADD_COMPANY, cmpID, name, address, isCertified);
+         this.esql.companyAdded(name);
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("addMaintenanceCompany", startNanos, failed);
+      }//end try
+   }//end addMaintenanceCompany
+
+   /**
+    * 4. Records a repair.  A trigger on Repair updates the repair counts
+    * read by operations 15 and 16 in the same statement.
+    */
+   public void addRepair (int rID, int hotelID, int roomNo, int mCompany, String repairDate,
+                          String description, String repairType) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         this.esql.executeUpdate(DBProject.SQL_ADD_REPAIR, rID, hotelID, roomNo, mCompany, repairDate, description, repairType);
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("addRepair", startNanos, failed);
+      }//end try
+   }//end addRepair
+
+   /**
+    * 5. Books a room for a customer.
+    *
+    * The room and day are claimed by the insert itself: the unique
+    * constraint of migration 003 lets one of two concurrent bookings of the
+    * same room and day through and refuses the other, while bookings of
+    * other rooms go ahead without waiting.  An insert refused because its
+    * booking id was already taken (a row added without IdAllocator) is
+    * retried with the next id; on a Booking partitioned by Partitioner it
+    * is booking_ids that refuses the id.
+    *
+    * @param bookingDate YYYY-MM-DD or MM/DD/YYYY
+    * @return the id of the new booking
+    * @throws BookingConflictException when the room is already booked that
+    *         day
+    * @throws IllegalArgumentException when bookingDate is not a valid date
+    */
+   public long bookRoom (int hotelID, int roomNo, int customerID, String bookingDate, int noOfPeople, int price) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         String date = Dates.format(Dates.toEpochDay(bookingDate));
+         for (int attempt = 1; ; ++attempt){
+            long bID = this.esql.getBookingIds().next();
+            try{
+               this.esql.executeUpdate(DBProject.SQL_ADD_BOOKING, bID, customerID, hotelID, roomNo, date, noOfPeople, price);
+            }catch (SQLException e){
+               if (BookingConflictException.isSlotTaken (e))
+                  throw new BookingConflictException(hotelID, roomNo, date, e);
+               if (!BookingConflictException.isUniqueViolation (e) || attempt == BOOKING_ATTEMPTS) throw e;
+               continue;
+            }//end try
+            this.esql.bookingAdded(bID, hotelID, roomNo, customerID, date, noOfPeople, BigDecimal.valueOf(price));
+            return bID;
+         }//end for
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("bookRoom", startNanos, failed);
+      }//end try
+   }//end bookRoom
+
+   /**
+    * 6. Assigns a staff member's cleaning assignment at a hotel to a room.
+    *
+    * @return the number of assignments updated, 0 when the staff member has
+    *         none at that hotel
+    */
+   public int assignHouseCleaningToRoom (int staffID, int hotelID, int roomNo) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         long asgID = this.esql.getAssignedIds().next();
+         return this.esql.executeUpdate(DBProject.SQL_ASSIGN_STAFF, asgID, roomNo, hotelID, staffID);
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("assignHouseCleaningToRoom", startNanos, failed);
+      }//end try
+   }//end assignHouseCleaningToRoom
+
+   /**
+    * 7. Raises a repair request.
+    *
+    * @return the id of the new request
+    */
+   public long repairRequest (int staffID, int repairID, String requestDate, String description) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         long reqID = this.esql.getRequestIds().next();
+         this.esql.executeUpdate(DBProject.SQL_ADD_REQUEST, reqID, staffID, repairID, requestDate, description);
+         return reqID;
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("repairRequest", startNanos, failed);
+      }//end try
+   }//end repairRequest
+
+   /**
+    * 8. Counts the rooms of a hotel with no booking on a date.
+    */
+   public int numberOfAvailableRooms (int hotelID, String date) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         int day = Dates.toEpochDay(date);
+         AvailabilityCalendar calendar = this.esql.getCalendar();
+         if (calendar != null) return calendar.availableRooms(hotelID, day);
+         return this.esql.queryForObject(DBProject.SQL_AVAILABLE_ROOMS, RowMapper.INT, hotelID, Dates.format(day));
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("numberOfAvailableRooms", startNanos, failed);
+      }//end try
+   }//end numberOfAvailableRooms
+
+   /**
+    * 9. Counts the rooms of a hotel booked on a date.
+    */
+   public int numberOfBookedRooms (int hotelID, String date) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         int day = Dates.toEpochDay(date);
+         AvailabilityCalendar calendar = this.esql.getCalendar();
+         if (calendar != null) return calendar.bookedRooms(hotelID, day);
+         return this.esql.queryForObject(DBProject.SQL_BOOKED_ROOMS, RowMapper.INT, hotelID, Dates.format(day));
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("numberOfBookedRooms", startNanos, failed);
+      }//end try
+   }//end numberOfBookedRooms
+
+   /**
+    * 10. Lists a hotel's bookings in the week starting on a date, through
+    * the week cache when it is on (see WeekCache).
+    */
+   public int listHotelRoomBookingsForAWeek (int hotelID, String date, RowSink sink) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         return this.esql.weekBookings(hotelID, date, sink);
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("listHotelRoomBookingsForAWeek", startNanos, failed);
+      }//end try
+   }//end listHotelRoomBookingsForAWeek
+
+   /**
+    * 11. Lists the k highest priced bookings between two dates, from the
+    * booking snapshot when it is open, else from the top-K index when it
+    * can answer.
+    */
+   public int topKHighestRoomPriceForADateRange (String dateStart, String dateEnd, int k, RowSink sink) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         int start = Dates.toEpochDay(dateStart);
+         int end = Dates.toEpochDay(dateEnd);
+         BookingSnapshot snapshot = this.esql.getSnapshot();
+         TopKPriceIndex prices = this.esql.getPriceIndex();
+         List<TopKPriceIndex.Entry> top = snapshot != null ? snapshot.topK(start, end, k)
+                                        : prices == null ? null : prices.topK(start, end, k);
+         if (top == null && k <= this.esql.getFetchSize())
+            return this.esql.streamAll(DBProject.SQL_TOPK_ROOM_PRICE, sink, Dates.format(start), Dates.format(end), k);
+         if (top == null)
+            return this.esql.stream(DBProject.SQL_TOPK_ROOM_PRICE, sink, Dates.format(start), Dates.format(end), k);
+
+         // same columns as the SQL path
+         if (!top.isEmpty())
+            sink.columns(new String[] {"hotelid", "roomno", "price", "bookingdate"});
+         for (TopKPriceIndex.Entry e : top)
+            sink.row(new String[] {String.valueOf(e.hotelID), String.valueOf(e.roomNo), e.price(), Dates.format(e.day)});
+         sink.end(top.size(), false);
+         return top.size();
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("topKHighestRoomPriceForADateRange", startNanos, failed);
+      }//end try
+   }//end topKHighestRoomPriceForADateRange
+
+   /**
+    * 12. Lists a customer's k highest booking prices.
+    */
+   public int topKHighestPriceBookingsForACustomer (String fName, String lName, int k, RowSink sink) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         if (k <= this.esql.getFetchSize())
+            return this.esql.streamAll(DBProject.SQL_TOPK_CUSTOMER_PRICE, sink, DBProject.nameKey(fName), DBProject.nameKey(lName), k);
+         return this.esql.stream(DBProject.SQL_TOPK_CUSTOMER_PRICE, sink, DBProject.nameKey(fName), DBProject.nameKey(lName), k);
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("topKHighestPriceBookingsForACustomer", startNanos, failed);
+      }//end try
+   }//end topKHighestPriceBookingsForACustomer
+
+   /**
+    * 13. Totals a customer's bookings at a hotel between two dates, from
+    * the booking snapshot when it is open, else from the revenue index
+    * when it is loaded.
+    */
+   public int totalCostForCustomer (int hotelID, int customerID, String startDate, String endDate, RowSink sink) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         BookingSnapshot snapshot = this.esql.getSnapshot();
+         RevenueIndex revenue = this.esql.getRevenueIndex();
+         if (snapshot == null && revenue == null)
+            return this.esql.streamAll(DBProject.SQL_CUSTOMER_COST, sink, hotelID, customerID, startDate, endDate);
+         int start, end;
+         try{
+            start = Dates.toEpochDay(startDate);
+            end = Dates.toEpochDay(endDate);
+         }catch (IllegalArgumentException e){
+            // let the database read them, or explain why it cannot
+            return this.esql.streamAll(DBProject.SQL_CUSTOMER_COST, sink, hotelID, customerID, startDate, endDate);
+         }//end try
+         long cents = snapshot != null ? snapshot.customerRevenue(hotelID, customerID, start, end)
+                                       : revenue.customerRevenue(hotelID, customerID, start, end);
+         // same columns as the SQL path, which has no row without bookings
+         if (cents < 0){
+            sink.end(0, false);
+            return 0;
+         }//end if
+         sink.columns(new String[] {"sum", "customer"});
+         sink.row(new String[] {RevenueIndex.format(cents), String.valueOf(customerID)});
+         sink.end(1, false);
+         return 1;
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("totalCostForCustomer", startNanos, failed);
+      }//end try
+   }//end totalCostForCustomer
+
+   /**
+    * 14. Lists the repairs made by every maintenance company with a name.
+    *
+    * @return the number of companies with that name
+    */
+   public int listRepairsMade (String companyName, RowSink sink) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         List<Integer> companyIDs = this.esql.companyIds(companyName);
+         // companies sharing a name are all listed; mCompany tells them apart
+         for (Integer companyID : companyIDs)
+            this.esql.stream(DBProject.SQL_REPAIRS_BY_COMPANY, sink, companyID);
+         return companyIDs.size();
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("listRepairsMade", startNanos, failed);
+      }//end try
+   }//end listRepairsMade
+
+   /**
+    * 15. Lists the k maintenance companies with the most repairs, from the
+    * per company counts rather than a scan of Repair.
+    */
+   public int topKMaintenanceCompany (int k, RowSink sink) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         if (k <= this.esql.getFetchSize())
+            return this.esql.streamAll(DBProject.SQL_TOPK_COMPANIES, sink, k);
+         return this.esql.stream(DBProject.SQL_TOPK_COMPANIES, sink, k);
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("topKMaintenanceCompany", startNanos, failed);
+      }//end try
+   }//end topKMaintenanceCompany
+
+   /**
+    * 16. Lists a room's repair count per year, from the per room and year
+    * counts.
+    */
+   public int numberOfRepairsForEachRoomPerYear (int hotelID, int roomNo, RowSink sink) throws SQLException {
+      long startNanos = System.nanoTime ();
+      boolean failed = false;
+      try{
+         // one row per year, never more than a fetch
+         return this.esql.streamAll(DBProject.SQL_REPAIRS_PER_YEAR, sink, roomNo, hotelID);
+      }catch (SQLException | RuntimeException e){
+         failed = true;
+         throw e;
+      }finally{
+         this.esql.getMetrics().record ("numberOfRepairsForEachRoomPerYear", startNanos, failed);
+      }//end try
+   }//end numberOfRepairsForEachRoomPerYear
+
+}//end Operations
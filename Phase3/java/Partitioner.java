@@ -0,0 +1,347 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Splits Booking into one partition per year or month of bookingDate, and
+ * keeps the partitions ahead of the dates being booked.
+ *
+ *    java Partitioner <dbname> <port> <user> -convert [year|month]
+ *    java Partitioner <dbname> <port> <user> [-maintain]
+ *
+ * -convert rebuilds an unpartitioned Booking as a table partitioned by
+ * range of bookingDate (PostgreSQL 11 or later), in one transaction with
+ * Booking locked: partitions from the first booking's period to
+ * -Dpartition.ahead periods past today (default 2 years, or 24 months), a
+ * booking_default partition for dates outside them, and the indexes,
+ * constraints and triggers Booking had.  The primary key becomes (bID, bookingDate),
+ * since a key of a partitioned table must hold the partition column, so
+ * bID alone is kept unique by booking_ids, an unpartitioned table of the
+ * ids that a trigger on Booking fills: an insert reusing an id fails with
+ * the duplicate key error of booking_ids_pkey, as it did on Booking.  Ids
+ * of deleted bookings stay there and cannot be used again; the sequence
+ * never hands them out anyway.
+ *
+ * -maintain adds the partitions missing up to -Dpartition.ahead periods
+ * past today and moves bookings out of booking_default into partitions of
+ * their own.  DBProject runs it at start, so the partitions follow the
+ * dates as they arrive; inserts never fail for want of one, since
+ * booking_default takes what has no partition yet.
+ *
+ * The date range reports (the week listing, the top prices of a range, a
+ * customer's cost over a range and the bookings of one day) compare
+ * bookingDate to dates, so only the partitions of their range are read.
+ * Compare them before and after with
+ *
+ *    java DBBench <dbname> <port> <user> ops -Dbench.ops=listHotelRoomBookingsForAWeek,...
+ *
+ * Repair is not partitioned: Request's foreign key needs a unique rID,
+ * which a table partitioned by repairDate cannot have, and its yearly
+ * report reads RoomRepairYear (migration 002) rather than Repair.
+ *
+ */
+public class Partitioner {
+
+   static final String TABLE = "booking";
+   static final String DEFAULT_PARTITION = "booking_default";
+   static final String ID_TABLE = "booking_ids";
+
+   // records each new bID in ID_TABLE, whose primary key refuses a repeat
+   static final String ID_FUNCTION =
+      "CREATE OR REPLACE FUNCTION booking_id_unique() RETURNS trigger AS $$ " +
+      "BEGIN " +
+      "   IF TG_OP = 'INSERT' OR OLD.bID IS DISTINCT FROM NEW.bID THEN " +
+      "      INSERT INTO " + ID_TABLE + " VALUES (NEW.bID); " +
+      "   END IF; " +
+      "   RETURN NULL; " +
+      "END; $$ LANGUAGE plpgsql";
+
+   private final DBProject esql;
+   private final int ahead = Integer.getInteger("partition.ahead", 2);
+
+   public Partitioner (DBProject esql) {
+      this.esql = esql;
+   }//end Partitioner
+
+   /*
+    * A year or month of bookings: its partition's name and bounds.
+    */
+   static class Period {
+      final boolean monthly;
+      final int index;   // the year, or year * 12 + month - 1
+
+      Period (boolean monthly, int index) {
+         this.monthly = monthly;
+         this.index = index;
+      }
+
+      static Period of (boolean monthly, int epochDay) {
+         int[] ymd = Dates.civil (epochDay);
+         return new Period(monthly, monthly ? ymd[0] * 12 + ymd[1] - 1 : ymd[0]);
+      }
+
+      int first () {
+         return this.monthly ? Dates.epochDay (this.index / 12, this.index % 12 + 1, 1) : Dates.epochDay (this.index, 1, 1);
+      }
+
+      Period next () {
+         return new Period(this.monthly, this.index + 1);
+      }
+
+      String name () {
+         return this.monthly ? String.format("booking_m%04d_%02d", this.index / 12, this.index % 12 + 1)
+                             : String.format("booking_y%04d", this.index);
+      }
+
+      String bounds () {
+         return "FROM ('" + Dates.format (first ()) + "') TO ('" + Dates.format (next ().first ()) + "')";
+      }
+   }//end Period
+
+   /**
+    * @return whether Booking is a partitioned table
+    */
+   public boolean isPartitioned () throws SQLException {
+      String kind = this.esql.queryForObject ("SELECT CAST(relkind AS TEXT) FROM pg_class WHERE oid = CAST('booking' AS regclass)",
+                                              RowMapper.STRING);
+      return "p".equals(kind);
+   }//end isPartitioned
+
+   /**
+    * @return the names of Booking's partitions, in order
+    */
+   public List<String> partitions () throws SQLException {
+      return this.esql.query ("SELECT CAST(c.relname AS TEXT) FROM pg_inherits i, pg_class c " +
+                              "WHERE c.oid = i.inhrelid AND i.inhparent = CAST('booking' AS regclass) ORDER BY 1",
+                              RowMapper.STRING);
+   }//end partitions
+
+   /**
+    * Rebuilds an unpartitioned Booking as partitioned by bookingDate.
+    *
+    * @param monthly a partition per month rather than per year
+    * @throws java.sql.SQLException when Booking is partitioned already or
+    *         the rebuild fails; it is rolled back
+    */
+   public void convert (boolean monthly) throws SQLException {
+      if (isPartitioned ())
+         throw new SQLException("Booking is partitioned already");
+      ConnectionPool.PooledConnection pc = this.esql.getPool().borrow ();
+      Connection conn = pc.getConnection ();
+      try{
+         conn.setAutoCommit (false);
+         Statement stmt = conn.createStatement ();
+         try{
+            stmt.execute ("LOCK TABLE Booking IN ACCESS EXCLUSIVE MODE");
+            // what Booking has, to put back on the partitioned table
+            List<String> indexes = strings (stmt,
+               "SELECT indexdef FROM pg_indexes WHERE tablename = 'booking' AND indexname NOT IN " +
+               "(SELECT conname FROM pg_constraint WHERE conrelid = CAST('booking' AS regclass))");
+            List<String> constraints = strings (stmt,
+               "SELECT 'ALTER TABLE Booking ADD CONSTRAINT ' || quote_ident(conname) || ' ' || pg_get_constraintdef(oid) " +
+               "FROM pg_constraint WHERE conrelid = CAST('booking' AS regclass) AND contype IN ('p', 'u', 'f', 'c') " +
+               "ORDER BY contype DESC, conname");
+            // the triggers, BookingSnapshot's booking_log among them, but
+            // not the one made below
+            List<String> triggers = strings (stmt,
+               "SELECT pg_get_triggerdef(oid) FROM pg_trigger WHERE tgrelid = CAST('booking' AS regclass) " +
+               "AND NOT tgisinternal AND tgname <> 'booking_id_unique'");
+            List<String> range = strings (stmt, "SELECT CAST(MIN(bookingDate) AS TEXT) || ' ' || CAST(MAX(bookingDate) AS TEXT) FROM Booking");
+
+            stmt.execute ("ALTER TABLE Booking RENAME TO booking_unpartitioned");
+            stmt.execute ("CREATE TABLE Booking (LIKE booking_unpartitioned INCLUDING DEFAULTS) PARTITION BY RANGE (bookingDate)");
+            int today = (int) (System.currentTimeMillis() / 86400000L);
+            int from = today;
+            int to = today;
+            if (range.get(0) != null){
+               String[] minMax = range.get(0).split(" ");
+               from = Math.min(from, Dates.toEpochDay (minMax[0]));
+               to = Math.max(to, Dates.toEpochDay (minMax[1]));
+            }//end if
+            Period last = Period.of (monthly, to);
+            last = new Period(monthly, last.index + (monthly ? 12 * this.ahead : this.ahead));
+            for (Period p = Period.of (monthly, from); p.index <= last.index; p = p.next ())
+               stmt.execute ("CREATE TABLE " + p.name () + " PARTITION OF Booking FOR VALUES " + p.bounds ());
+            stmt.execute ("CREATE TABLE " + DEFAULT_PARTITION + " PARTITION OF Booking DEFAULT");
+            stmt.execute ("INSERT INTO Booking SELECT * FROM booking_unpartitioned");
+            stmt.execute ("DROP TABLE booking_unpartitioned");
+
+            for (String sql : constraints)
+               stmt.execute (withPartitionKey (sql));
+            for (String sql : indexes)
+               stmt.execute (sql);
+            for (String sql : triggers)
+               stmt.execute (sql);
+
+            stmt.execute ("DROP TABLE IF EXISTS " + ID_TABLE);
+            stmt.execute ("CREATE TABLE " + ID_TABLE + " AS SELECT bID FROM Booking");
+            stmt.execute ("ALTER TABLE " + ID_TABLE + " ADD CONSTRAINT " + ID_TABLE + "_pkey PRIMARY KEY (bID)");
+            stmt.execute (ID_FUNCTION);
+            stmt.execute ("CREATE TRIGGER booking_id_unique AFTER INSERT OR UPDATE ON Booking " +
+                          "FOR EACH ROW EXECUTE PROCEDURE booking_id_unique()");
+            conn.commit ();
+         }catch (SQLException e){
+            conn.rollback ();
+            throw e;
+         }finally{
+            stmt.close ();
+            conn.setAutoCommit (true);
+         }//end try
+      }finally{
+         this.esql.getPool().release (pc);
+      }//end try
+      this.esql.executeUpdate ("ANALYZE Booking");
+   }//end convert
+
+   /*
+    * A primary key or unique constraint of a partitioned table must hold
+    * the partition column: adds bookingDate to those that lack it.  bID
+    * stays unique through ID_TABLE.
+    */
+   static String withPartitionKey (String addConstraint) {
+      String lower = addConstraint.toLowerCase();
+      boolean key = lower.contains(" primary key (") || lower.contains(" unique (");
+      if (!key || lower.contains("bookingdate")) return addConstraint;
+      int close = addConstraint.indexOf(')');
+      return addConstraint.substring(0, close) + ", bookingDate" + addConstraint.substring(close);
+   }//end withPartitionKey
+
+   /**
+    * Adds the partitions missing up to partition.ahead periods past today
+    * and gives the bookings in booking_default partitions of their own.
+    * Does nothing when Booking is not partitioned.
+    *
+    * @return the partitions added
+    * @throws java.sql.SQLException when a partition cannot be added; the
+    *         ones added before it are kept
+    */
+   public List<String> maintain () throws SQLException {
+      List<String> added = new ArrayList<String>();
+      if (!isPartitioned ()) return added;
+      List<String> existing = partitions ();
+      boolean monthly = false;
+      int lastIndex = Integer.MIN_VALUE;
+      for (String name : existing){
+         if (name.startsWith("booking_m")){
+            monthly = true;
+            lastIndex = Math.max(lastIndex, Integer.parseInt(name.substring(9, 13)) * 12 + Integer.parseInt(name.substring(14, 16)) - 1);
+         }else if (name.startsWith("booking_y")){
+            lastIndex = Math.max(lastIndex, Integer.parseInt(name.substring(9, 13)));
+         }//end if
+      }//end for
+
+      // periods past the last partition up to the horizon, and those of the
+      // bookings that went to the default partition
+      TreeSet<Integer> wanted = new TreeSet<Integer>();
+      Period horizon = Period.of (monthly, (int) (System.currentTimeMillis() / 86400000L));
+      horizon = new Period(monthly, horizon.index + (monthly ? 12 * this.ahead : this.ahead));
+      if (lastIndex != Integer.MIN_VALUE)
+         for (int i = lastIndex + 1; i <= horizon.index; ++i) wanted.add(i);
+      if (existing.contains(DEFAULT_PARTITION))
+         for (Integer day : this.esql.query ("SELECT DISTINCT bookingDate - DATE '1970-01-01' FROM " + DEFAULT_PARTITION, RowMapper.INT))
+            wanted.add(Period.of (monthly, day).index);
+
+      for (int index : wanted){
+         Period p = new Period(monthly, index);
+         if (existing.contains(p.name ())) continue;
+         addPartition (p);
+         added.add(p.name ());
+      }//end for
+      return added;
+   }//end maintain
+
+   // creates p's partition, moving its bookings out of the default one
+   private void addPartition (Period p) throws SQLException {
+      String lo = "DATE '" + Dates.format (p.first ()) + "'";
+      String hi = "DATE '" + Dates.format (p.next ().first ()) + "'";
+      ConnectionPool.PooledConnection pc = this.esql.getPool().borrow ();
+      Connection conn = pc.getConnection ();
+      try{
+         conn.setAutoCommit (false);
+         Statement stmt = conn.createStatement ();
+         try{
+            stmt.execute ("CREATE TABLE " + p.name () + " (LIKE Booking INCLUDING DEFAULTS)");
+            stmt.execute ("WITH moved AS (DELETE FROM " + DEFAULT_PARTITION + " WHERE bookingDate >= " + lo +
+                          " AND bookingDate < " + hi + " RETURNING *) INSERT INTO " + p.name () + " SELECT * FROM moved");
+            stmt.execute ("ALTER TABLE Booking ATTACH PARTITION " + p.name () + " FOR VALUES " + p.bounds ());
+            conn.commit ();
+         }catch (SQLException e){
+            conn.rollback ();
+            throw new SQLException(p.name () + ": " + e.getMessage());
+         }finally{
+            stmt.close ();
+            conn.setAutoCommit (true);
+         }//end try
+      }finally{
+         this.esql.getPool().release (pc);
+      }//end try
+   }//end addPartition
+
+   private static List<String> strings (Statement stmt, String sql) throws SQLException {
+      List<String> values = new ArrayList<String>();
+      ResultSet rs = stmt.executeQuery (sql);
+      try{
+         while (rs.next ())
+            values.add (rs.getString (1));
+      }finally{
+         rs.close ();
+      }//end try
+      return values;
+   }//end strings
+
+   public static void main (String[] args) {
+      boolean convert = args.length >= 4 && args[3].equals("-convert");
+      boolean maintain = args.length == 3 || (args.length == 4 && args[3].equals("-maintain"));
+      boolean monthly = convert && args.length == 5 && args[4].equals("month");
+      if ((!convert && !maintain) || (convert && args.length == 5 && !monthly && !args[4].equals("year")) || args.length > 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            Partitioner.class.getName () +
+            " <dbname> <port> <user> [-convert [year|month] | -maintain]");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "", 1, 1);
+         Partitioner partitioner = new Partitioner (esql);
+         if (convert){
+            long start = System.currentTimeMillis();
+            partitioner.convert (monthly);
+            System.out.println ("Booking partitioned by " + (monthly ? "month" : "year") + " in " +
+                                String.format("%.2f", (System.currentTimeMillis() - start) / 1000.0) + " s");
+         }else{
+            for (String name : partitioner.maintain ())
+               System.out.println ("added " + name);
+         }//end if
+         List<String> partitions = partitioner.partitions ();
+         System.out.println (partitions.isEmpty() ? "Booking is not partitioned" : partitions.size() + " partitions: " + partitions);
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         System.exit(1);
+      }finally{
+         if (esql != null) esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end Partitioner
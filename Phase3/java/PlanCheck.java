@@ -0,0 +1,172 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that the query behind each DBProject operation can be answered
+ * through an index, and times the read queries.
+ *
+ *    java PlanCheck <dbname> <port> <user>
+ *
+ * Plans are taken with sequential scans disabled, inside a transaction that
+ * is rolled back, so the check asserts that an index path exists whatever
+ * the table sizes (on the small shipped data the planner may still prefer a
+ * sequential scan).  Timings are then taken with normal planner settings,
+ * averaged over -Dplan.runs executions (default 20); run it before and
+ * after migrations/001 to compare.  Exits with status 1 when an operation
+ * expected to use an index does not.
+ *
+ */
+public class PlanCheck {
+
+   static final int RUNS = Integer.getInteger("plan.runs", 20);
+
+   private static final Pattern INDEX = Pattern.compile("Index (?:Only )?Scan(?: Backward)? using (\\w+)|Bitmap Index Scan on (\\w+)");
+
+   // one operation's query with sample parameters taken from Phase3/data
+   static class Check {
+      final String operation;
+      final String sql;
+      final Object[] params;
+      final boolean read;
+
+      Check (String operation, String sql, boolean read, Object... params) {
+         this.operation = operation;
+         this.sql = sql;
+         this.read = read;
+         this.params = params;
+      }
+   }//end Check
+
+   static List<Check> checks () {
+      List<Check> checks = new ArrayList<Check>();
+      checks.add(new Check("bookRoom (customer lookup)", DBProject.SQL_CUSTOMER_BY_NAME, true, "rzqs", "eyeg"));
+      checks.add(new Check("assignHouseCleaningToRoom", DBProject.SQL_ASSIGN_STAFF, false, 0, 4, 1, 3));
+      checks.add(new Check("numberOfAvailableRooms", DBProject.SQL_AVAILABLE_ROOMS, true, 381, "5/12/2015"));
+      checks.add(new Check("numberOfBookedRooms", DBProject.SQL_BOOKED_ROOMS, true, 381, "5/12/2015"));
+      checks.add(new Check("listHotelRoomBookingsForAWeek", DBProject.SQL_WEEK_BOOKINGS, true, 381, "5/12/2015", "5/12/2015"));
+      checks.add(new Check("topKHighestRoomPriceForADateRange", DBProject.SQL_TOPK_ROOM_PRICE, true, "1/1/2015", "1/31/2015", 5));
+      checks.add(new Check("topKHighestPriceBookingsForACustomer", DBProject.SQL_TOPK_CUSTOMER_PRICE, true, "rzqs", "eyeg", 5));
+      checks.add(new Check("totalCostForCustomer", DBProject.SQL_CUSTOMER_COST, true, 381, 1, "1/1/2000", "12/31/2020"));
+      checks.add(new Check("listRepairsMade (company lookup)", DBProject.SQL_COMPANY_BY_NAME, true, "iqcq"));
+      checks.add(new Check("listRepairsMade", DBProject.SQL_REPAIRS_BY_COMPANY, true, 1));
+      checks.add(new Check("topKMaintenanceCompany", DBProject.SQL_TOPK_COMPANIES, true, 5));
+      checks.add(new Check("numberOfRepairsForEachRoomPerYear", DBProject.SQL_REPAIRS_PER_YEAR, true, 4, 145));
+      return checks;
+   }//end checks
+
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            PlanCheck.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      int failures = 0;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "", 1, 1);
+         List<Check> checks = checks ();
+         List<String> indexes = explainAll (esql, checks);
+
+         System.out.println ("operation\tindexes\tavg ms");
+         for (int i = 0; i < checks.size(); ++i){
+            Check check = checks.get(i);
+            String used = indexes.get(i);
+            String avg = check.read ? String.format("%.3f", time (esql, check)) : "-";
+            System.out.println (check.operation + "\t" + (used.length() == 0 ? "NONE" : used) + "\t" + avg);
+            if (used.length() == 0) ++failures;
+         }//end for
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         failures = 1;
+      }finally{
+         if (esql != null) esql.cleanup ();
+      }//end try
+      if (failures > 0){
+         System.err.println (failures + " operation(s) without an index path");
+         System.exit(1);
+      }//end if
+   }//end main
+
+   /*
+    * EXPLAINs every check with sequential scans off and returns, per check,
+    * the comma separated names of the indexes its plan uses.
+    */
+   static List<String> explainAll (DBProject esql, List<Check> checks) throws SQLException {
+      List<String> result = new ArrayList<String>();
+      ConnectionPool.PooledConnection pc = esql.getPool().borrow ();
+      Connection conn = pc.getConnection ();
+      try{
+         conn.setAutoCommit (false);
+         Statement stmt = conn.createStatement ();
+         stmt.execute ("SET LOCAL enable_seqscan = off");
+         stmt.close ();
+         for (Check check : checks){
+            PreparedStatement explain = conn.prepareStatement ("EXPLAIN " + check.sql);
+            try{
+               DBProject.bind (explain, check.params);
+               ResultSet rs = explain.executeQuery ();
+               StringBuilder used = new StringBuilder();
+               while (rs.next ()){
+                  Matcher m = INDEX.matcher (rs.getString (1));
+                  while (m.find ()){
+                     String name = m.group(1) != null ? m.group(1) : m.group(2);
+                     if (used.indexOf(name) < 0){
+                        if (used.length() > 0) used.append(',');
+                        used.append(name);
+                     }//end if
+                  }//end while
+               }//end while
+               rs.close ();
+               result.add(used.toString());
+            }finally{
+               explain.close ();
+            }//end try
+         }//end for
+      }finally{
+         try{
+            conn.rollback ();
+            conn.setAutoCommit (true);
+         }finally{
+            esql.getPool().release (pc);
+         }//end try
+      }//end try
+      return result;
+   }//end explainAll
+
+   // average milliseconds per execution of a read check
+   static double time (DBProject esql, Check check) throws SQLException {
+      RowMapper<String> row = RowMapper.STRING;
+      esql.query(check.sql, row, check.params);   // warm the statement cache
+      long start = System.nanoTime();
+      for (int i = 0; i < RUNS; ++i)
+         esql.query(check.sql, row, check.params);
+      return (System.nanoTime() - start) / 1e6 / RUNS;
+   }//end time
+
+}//end PlanCheck
@@ -0,0 +1,166 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the repair counts of migration 002 (CompanyRepairs and
+ * RoomRepairYear) against a full recount of Repair, and rebuilds them on
+ * request.
+ *
+ *    java RepairSummaries <dbname> <port> <user> [-rebuild]
+ *
+ * The check reads the counts and the recount from one snapshot, so it can
+ * run while repairs are being added.  Each count that differs is printed
+ * and the exit status is 1 when any does.  -rebuild recounts both tables
+ * with Repair locked against changes, then checks again.
+ *
+ */
+public class RepairSummaries {
+
+   // rows where the kept count and the recount differ: key..., kept, actual
+   static final String SQL_COMPANY_DIFF =
+      "SELECT COALESCE(s.cmpID, r.mCompany), COALESCE(s.repairs, 0), COALESCE(r.n, 0) " +
+      "FROM (SELECT cmpID, repairs FROM CompanyRepairs WHERE repairs <> 0) s " +
+      "FULL OUTER JOIN (SELECT mCompany, COUNT(*) AS n FROM Repair GROUP BY mCompany) r ON s.cmpID = r.mCompany " +
+      "WHERE COALESCE(s.repairs, 0) <> COALESCE(r.n, 0)";
+   static final String SQL_ROOM_YEAR_DIFF =
+      "SELECT COALESCE(s.hotelID, r.hotelID), COALESCE(s.roomNo, r.roomNo), COALESCE(s.year, r.year), " +
+      "COALESCE(s.repairs, 0), COALESCE(r.n, 0) " +
+      "FROM (SELECT hotelID, roomNo, year, repairs FROM RoomRepairYear WHERE repairs <> 0) s " +
+      "FULL OUTER JOIN (SELECT hotelID, roomNo, CAST(DATE_PART('year', repairDate) AS Integer) AS year, COUNT(*) AS n " +
+      "FROM Repair GROUP BY 1, 2, 3) r " +
+      "ON s.hotelID = r.hotelID AND s.roomNo = r.roomNo AND s.year = r.year " +
+      "WHERE COALESCE(s.repairs, 0) <> COALESCE(r.n, 0)";
+
+   static final String[] SQL_REBUILD = {
+      "LOCK TABLE Repair IN SHARE MODE",
+      "DELETE FROM CompanyRepairs",
+      "INSERT INTO CompanyRepairs SELECT mCompany, COUNT(*) FROM Repair GROUP BY mCompany",
+      "DELETE FROM RoomRepairYear",
+      "INSERT INTO RoomRepairYear SELECT hotelID, roomNo, CAST(DATE_PART('year', repairDate) AS Integer), COUNT(*) " +
+      "FROM Repair GROUP BY 1, 2, 3"};
+
+   private final DBProject esql;
+
+   public RepairSummaries (DBProject esql) {
+      this.esql = esql;
+   }//end RepairSummaries
+
+   /**
+    * Compares both summaries to a recount of Repair.
+    *
+    * @return one line per count that differs, empty when they all agree
+    * @throws java.sql.SQLException when a summary table is missing or the
+    *         queries fail
+    */
+   public List<String> check () throws SQLException {
+      List<String> differences = new ArrayList<String>();
+      ConnectionPool.PooledConnection pc = this.esql.getPool().borrow ();
+      Connection conn = pc.getConnection ();
+      try{
+         conn.setAutoCommit (false);
+         Statement stmt = conn.createStatement ();
+         try{
+            // both comparisons see the same committed repairs
+            stmt.execute ("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+            ResultSet rs = stmt.executeQuery (SQL_COMPANY_DIFF);
+            while (rs.next ())
+               differences.add("CompanyRepairs cmpID=" + rs.getInt (1) +
+                               " kept=" + rs.getLong (2) + " recount=" + rs.getLong (3));
+            rs.close ();
+            rs = stmt.executeQuery (SQL_ROOM_YEAR_DIFF);
+            while (rs.next ())
+               differences.add("RoomRepairYear hotelID=" + rs.getInt (1) + " roomNo=" + rs.getInt (2) +
+                               " year=" + rs.getInt (3) + " kept=" + rs.getLong (4) + " recount=" + rs.getLong (5));
+            rs.close ();
+         }finally{
+            stmt.close ();
+            conn.rollback ();
+            conn.setAutoCommit (true);
+         }//end try
+      }finally{
+         this.esql.getPool().release (pc);
+      }//end try
+      return differences;
+   }//end check
+
+   /**
+    * Recounts both summaries from Repair in one transaction.
+    *
+    * @throws java.sql.SQLException when the rebuild fails; it is rolled back
+    */
+   public void rebuild () throws SQLException {
+      ConnectionPool.PooledConnection pc = this.esql.getPool().borrow ();
+      Connection conn = pc.getConnection ();
+      try{
+         conn.setAutoCommit (false);
+         Statement stmt = conn.createStatement ();
+         try{
+            for (String sql : SQL_REBUILD)
+               stmt.execute (sql);
+            conn.commit ();
+         }catch (SQLException e){
+            conn.rollback ();
+            throw e;
+         }finally{
+            stmt.close ();
+            conn.setAutoCommit (true);
+         }//end try
+      }finally{
+         this.esql.getPool().release (pc);
+      }//end try
+   }//end rebuild
+
+   public static void main (String[] args) {
+      boolean rebuild = args.length == 4 && args[3].equals("-rebuild");
+      if (args.length != 3 && !rebuild) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            RepairSummaries.class.getName () +
+            " <dbname> <port> <user> [-rebuild]");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      int differences = 0;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "", 1, 1);
+         RepairSummaries summaries = new RepairSummaries (esql);
+         if (rebuild){
+            summaries.rebuild ();
+            System.out.println ("Repair summaries rebuilt");
+         }//end if
+         List<String> diff = summaries.check ();
+         for (String line : diff)
+            System.out.println (line);
+         differences = diff.size();
+         System.out.println (differences == 0 ? "Repair summaries match a recount" : differences + " count(s) differ");
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         differences = 1;
+      }finally{
+         if (esql != null) esql.cleanup ();
+      }//end try
+      if (differences > 0) System.exit(1);
+   }//end main
+
+}//end RepairSummaries
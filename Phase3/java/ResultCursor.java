@@ -0,0 +1,161 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * A forward-only stream of mapped rows read through a server-side cursor.
+ *
+ * The cursor holds a pooled connection inside a transaction until it is
+ * closed, pulling fetchSize rows per round trip, so only one batch is ever
+ * held in memory.  Always close it, preferably with try-with-resources;
+ * closing releases the cursor on the server and gives the connection back
+ * to the pool.
+ *
+ */
+public class ResultCursor<T> implements AutoCloseable {
+
+   private static final String NAME = "dbproject_cursor";
+
+   private final ConnectionPool pool;
+   private final ConnectionPool.PooledConnection pc;
+   private final RowMapper<T> mapper;
+   private final int fetchSize;
+   private final PreparedStatement fetch;
+   private final String[] columnNames;
+
+   private ResultSet rs;
+   private int fetched;
+   private boolean ready;
+   private boolean exhausted;
+   private boolean closed;
+
+   /**
+    * Opens the cursor and reads the first batch of rows.
+    *
+    * @param pool the pool the connection is borrowed from
+    * @param fetchSize rows read per round trip
+    * @param sql the SQL template with ? placeholders
+    * @param mapper turns each row into a value
+    * @param params the values bound to the placeholders, in order
+    * @throws java.sql.SQLException when the query fails
+    */
+   ResultCursor (ConnectionPool pool, int fetchSize, String sql, RowMapper<T> mapper, Object[] params) throws SQLException {
+      this.pool = pool;
+      this.mapper = mapper;
+      this.fetchSize = fetchSize;
+      this.pc = pool.borrow ();
+      Connection conn = this.pc.getConnection ();
+      try{
+         // cursors only live inside a transaction
+         conn.setAutoCommit (false);
+         PreparedStatement declare = this.pc.prepare ("DECLARE " + NAME + " NO SCROLL CURSOR FOR " + sql);
+         DBProject.bind (declare, params);
+         declare.executeUpdate ();
+         this.fetch = this.pc.prepare ("FETCH FORWARD " + fetchSize + " FROM " + NAME);
+         fetchBatch ();
+
+         ResultSetMetaData rsmd = this.rs.getMetaData ();
+         this.columnNames = new String[rsmd.getColumnCount ()];
+         for (int i = 0; i < this.columnNames.length; ++i)
+            this.columnNames[i] = rsmd.getColumnName (i + 1);
+      }catch (SQLException e){
+         abort ();
+         throw e;
+      }//end try
+   }//end ResultCursor
+
+   private void fetchBatch () throws SQLException {
+      if (this.rs != null) this.rs.close ();
+      this.rs = this.fetch.executeQuery ();
+      this.fetched = 0;
+   }//end fetchBatch
+
+   /**
+    * @return the column names of the result, in order
+    */
+   public String[] getColumnNames () {
+      return this.columnNames;
+   }//end getColumnNames
+
+   /**
+    * @return true when another row is available
+    * @throws java.sql.SQLException when the next batch cannot be fetched
+    */
+   public boolean hasNext () throws SQLException {
+      if (this.ready) return true;
+      if (this.exhausted || this.closed) return false;
+      while (true){
+         if (this.rs.next ()){
+            ++this.fetched;
+            this.ready = true;
+            return true;
+         }//end if
+         // a short batch means the server has nothing more
+         if (this.fetched < this.fetchSize){
+            this.exhausted = true;
+            return false;
+         }//end if
+         fetchBatch ();
+      }//end while
+   }//end hasNext
+
+   /**
+    * @return the next row, mapped
+    * @throws java.sql.SQLException when the row cannot be read
+    */
+   public T next () throws SQLException {
+      if (!hasNext ())
+         throw new java.util.NoSuchElementException();
+      this.ready = false;
+      return this.mapper.mapRow (this.rs);
+   }//end next
+
+   /**
+    * Closes the server-side cursor, ends the transaction and returns the
+    * connection to the pool.  Safe to call more than once.
+    */
+   public void close () throws SQLException {
+      if (this.closed) return;
+      this.closed = true;
+      Connection conn = this.pc.getConnection ();
+      try{
+         this.rs.close ();
+         this.pc.prepare ("CLOSE " + NAME).executeUpdate ();
+         conn.commit ();
+         conn.setAutoCommit (true);
+      }catch (SQLException e){
+         abort ();
+         throw e;
+      }//end try
+      this.pool.release (this.pc);
+   }//end close
+
+   // rolls back and hands the connection back after a failure
+   private void abort () {
+      this.closed = true;
+      Connection conn = this.pc.getConnection ();
+      try{
+         conn.rollback ();
+         conn.setAutoCommit (true);
+      }catch (SQLException e){
+         // the pool drops connections it cannot reuse.
+      }//end try
+      this.pool.release (this.pc);
+   }//end abort
+
+}//end ResultCursor
@@ -0,0 +1,297 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory booking revenue by hotel and by hotel and customer, answering
+ * the sum of Booking.price over any range of days for totalCostForCustomer
+ * and for hotel revenue reports.
+ *
+ * Each hotel, and each customer at a hotel, has a Series: the days it has
+ * bookings on, sorted, and a binary indexed (Fenwick) tree of their
+ * revenue in whole cents, so sums are exact.  A range sum is two binary
+ * searches and two prefix sums, O(log n) in the n days of that series.  A
+ * booking on a day the series has adds to the tree in O(log n); one on a
+ * new day inserts the day and rebuilds that series' tree, O(n).  Most
+ * series are a handful of days (a customer at a hotel), so this stays
+ * cheap; a hotel gains each day once.
+ *
+ * Built at start from Booking by -Drevenue.threads readers (default the
+ * processors, at most the pool size), each over its own range of hotels,
+ * and kept current by bookings made through this program.
+ *
+ */
+public class RevenueIndex {
+
+   /*
+    * The revenue of one hotel or customer by day: tree[i] holds the sum of
+    * a Fenwick range ending at days[i - 1].
+    */
+   static final class Series {
+      int[] days;
+      long[] tree;
+
+      // days must be sorted and distinct; cents[i] is the revenue of days[i]
+      Series (int[] days, long[] cents) {
+         this.days = days;
+         this.tree = build (cents);
+      }
+
+      // a Fenwick tree in O(n): each node passes its sum to its parent
+      static long[] build (long[] cents) {
+         long[] tree = new long[cents.length + 1];
+         for (int i = 1; i <= cents.length; ++i){
+            tree[i] += cents[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= cents.length) tree[parent] += tree[i];
+         }//end for
+         return tree;
+      }
+
+      // undoes build, also in O(n): a node's full sum is taken back from
+      // its parent before its own children are taken from it
+      static long[] values (long[] tree) {
+         long[] t = tree.clone();
+         int n = t.length - 1;
+         for (int i = n; i >= 1; --i){
+            int parent = i + (i & -i);
+            if (parent <= n) t[parent] -= t[i];
+         }//end for
+         return Arrays.copyOfRange(t, 1, n + 1);
+      }
+
+      // the sum of the first n days
+      long prefix (int n) {
+         long sum = 0;
+         for (int i = n; i > 0; i -= i & -i) sum += this.tree[i];
+         return sum;
+      }
+
+      void add (int day, long cents) {
+         int at = Arrays.binarySearch(this.days, day);
+         if (at >= 0){
+            for (int i = at + 1; i < this.tree.length; i += i & -i) this.tree[i] += cents;
+            return;
+         }//end if
+         // a new day: recover the days' values, insert, rebuild
+         int insert = -at - 1;
+         int n = this.days.length;
+         long[] old = values (this.tree);
+         long[] values = new long[n + 1];
+         System.arraycopy(old, 0, values, 0, insert);
+         values[insert] = cents;
+         System.arraycopy(old, insert, values, insert + 1, n - insert);
+         int[] days = new int[n + 1];
+         System.arraycopy(this.days, 0, days, 0, insert);
+         days[insert] = day;
+         System.arraycopy(this.days, insert, days, insert + 1, n - insert);
+         this.days = days;
+         this.tree = build (values);
+      }
+
+      /*
+       * The revenue of the days from start to end, both included, or -1
+       * when there are no bookings in between.
+       */
+      long sum (int start, int end) {
+         int from = lowerBound (this.days, start);
+         int to = lowerBound (this.days, end + 1);
+         if (from >= to) return -1;
+         return prefix (to) - prefix (from);
+      }
+   }//end Series
+
+   // the first index of sorted, distinct values whose value is at least value
+   static int lowerBound (int[] sorted, int value) {
+      int at = Arrays.binarySearch(sorted, value);
+      return at < 0 ? -at - 1 : at;
+   }//end lowerBound
+
+   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+   private final Map<Integer, Series> hotels = new HashMap<Integer, Series>();
+   private final Map<Long, Series> customers = new HashMap<Long, Series>();
+
+   private static Long key (int hotelID, int customerID) {
+      return ((long) hotelID << 32) | (customerID & 0xFFFFFFFFL);
+   }//end key
+
+   /**
+    * Builds the index from the Booking table, reading ranges of hotels in
+    * parallel.
+    *
+    * @param esql the database to read
+    * @return the index
+    * @throws java.sql.SQLException when Booking cannot be read
+    */
+   public static RevenueIndex load (final DBProject esql) throws SQLException {
+      int threads = Math.max(1, Math.min(Integer.getInteger("revenue.threads", Runtime.getRuntime().availableProcessors()),
+                                         esql.getPool().getMaxSize()));
+      int[] range = esql.queryForObject("SELECT COALESCE(MIN(hotelID), 0), COALESCE(MAX(hotelID), -1) FROM Booking",
+         new RowMapper<int[]>() {
+            public int[] mapRow (ResultSet rs) throws SQLException {
+               return new int[] {rs.getInt (1), rs.getInt (2)};
+            }
+         });
+      RevenueIndex index = new RevenueIndex();
+      if (range[1] < range[0]) return index;
+      long width = ((long) range[1] - range[0]) / threads + 1;
+      ExecutorService readers = Executors.newFixedThreadPool(threads);
+      try{
+         List<Future<RevenueIndex>> parts = new ArrayList<Future<RevenueIndex>>();
+         for (int t = 0; t < threads; ++t){
+            final long from = range[0] + t * width;
+            final long to = Math.min((long) range[1] + 1, from + width);
+            if (from >= to) break;
+            parts.add(readers.submit(new Callable<RevenueIndex>() {
+               public RevenueIndex call () throws SQLException {
+                  return loadHotels (esql, from, to);
+               }
+            }));
+         }//end for
+         // the hotel ranges do not overlap, so neither do the series
+         for (Future<RevenueIndex> part : parts){
+            RevenueIndex p = part.get();
+            index.hotels.putAll(p.hotels);
+            index.customers.putAll(p.customers);
+         }//end for
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while loading the revenue index");
+      }catch (ExecutionException e){
+         if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+         throw new SQLException("Cannot load the revenue index: " + e.getCause());
+      }finally{
+         readers.shutdownNow();
+      }//end try
+      return index;
+   }//end load
+
+   // the series of the hotels from, inclusive, to to, exclusive
+   private static RevenueIndex loadHotels (DBProject esql, long from, long to) throws SQLException {
+      // revenue by key, then day, gathered before the trees are built
+      final Map<Integer, Map<Integer, long[]>> byHotel = new HashMap<Integer, Map<Integer, long[]>>();
+      final Map<Long, Map<Integer, long[]>> byCustomer = new HashMap<Long, Map<Integer, long[]>>();
+      ResultCursor<Object> bookings = esql.openCursor(
+         "SELECT hotelID, customer, bookingDate - DATE '1970-01-01', price FROM Booking WHERE hotelID >= ? AND hotelID < ?",
+         new RowMapper<Object>() {
+            public Object mapRow (ResultSet rs) throws SQLException {
+               int hotelID = rs.getInt (1);
+               int day = rs.getInt (3);
+               long cents = TopKPriceIndex.cents (rs.getBigDecimal (4));
+               add (byHotel, hotelID, day, cents);
+               add (byCustomer, key (hotelID, rs.getInt (2)), day, cents);
+               return null;
+            }
+         }, from, to);
+      try{
+         while (bookings.hasNext ()) bookings.next ();
+      }finally{
+         bookings.close ();
+      }//end try
+      RevenueIndex part = new RevenueIndex();
+      for (Map.Entry<Integer, Map<Integer, long[]>> e : byHotel.entrySet())
+         part.hotels.put(e.getKey(), series (e.getValue()));
+      for (Map.Entry<Long, Map<Integer, long[]>> e : byCustomer.entrySet())
+         part.customers.put(e.getKey(), series (e.getValue()));
+      return part;
+   }//end loadHotels
+
+   private static <K> void add (Map<K, Map<Integer, long[]>> map, K key, int day, long cents) {
+      Map<Integer, long[]> days = map.get(key);
+      if (days == null){
+         days = new HashMap<Integer, long[]>(4);
+         map.put(key, days);
+      }//end if
+      long[] sum = days.get(day);
+      if (sum == null) days.put(day, new long[] {cents});
+      else sum[0] += cents;
+   }//end add
+
+   private static Series series (Map<Integer, long[]> byDay) {
+      int[] days = new int[byDay.size()];
+      int n = 0;
+      for (Integer day : byDay.keySet()) days[n++] = day;
+      Arrays.sort(days);
+      long[] cents = new long[n];
+      for (int i = 0; i < n; ++i) cents[i] = byDay.get(days[i])[0];
+      return new Series(days, cents);
+   }//end series
+
+   /**
+    * Adds a booking.
+    */
+   public void add (int hotelID, int customerID, int day, long cents) {
+      this.lock.writeLock().lock();
+      try{
+         Series h = this.hotels.get(hotelID);
+         if (h == null) this.hotels.put(hotelID, new Series(new int[] {day}, new long[] {cents}));
+         else h.add (day, cents);
+         Long k = key (hotelID, customerID);
+         Series c = this.customers.get(k);
+         if (c == null) this.customers.put(k, new Series(new int[] {day}, new long[] {cents}));
+         else c.add (day, cents);
+      }finally{
+         this.lock.writeLock().unlock();
+      }//end try
+   }//end add
+
+   /**
+    * @return the revenue in cents of a customer's bookings at a hotel from
+    *         day start to day end, both included, or -1 when there are none
+    */
+   public long customerRevenue (int hotelID, int customerID, int start, int end) {
+      this.lock.readLock().lock();
+      try{
+         Series c = this.customers.get(key (hotelID, customerID));
+         return c == null ? -1 : c.sum (start, end);
+      }finally{
+         this.lock.readLock().unlock();
+      }//end try
+   }//end customerRevenue
+
+   /**
+    * @return the revenue in cents of a hotel's bookings from day start to
+    *         day end, both included, or -1 when there are none
+    */
+   public long hotelRevenue (int hotelID, int start, int end) {
+      this.lock.readLock().lock();
+      try{
+         Series h = this.hotels.get(hotelID);
+         return h == null ? -1 : h.sum (start, end);
+      }finally{
+         this.lock.readLock().unlock();
+      }//end try
+   }//end hotelRevenue
+
+   /**
+    * @return cents as PostgreSQL prints a sum of Numeric(6,2) prices
+    */
+   public static String format (long cents) {
+      long part = cents % 100;
+      return (cents / 100) + (part < 10 ? ".0" : ".") + part;
+   }//end format
+
+}//end RevenueIndex
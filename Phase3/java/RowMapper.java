@@ -0,0 +1,56 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Turns the current row of a ResultSet into a typed value.  Used by the
+ * query methods of DBProject, which own the ResultSet and close it once
+ * every row has been mapped.
+ *
+ */
+public interface RowMapper<T> {
+
+   /**
+    * @param rs a result set positioned on the row to map; implementations
+    *        must not advance or close it
+    * @return the value for this row
+    * @throws java.sql.SQLException when a column cannot be read
+    */
+   T mapRow (ResultSet rs) throws SQLException;
+
+   // the first column as an Integer, null for SQL NULL
+   RowMapper<Integer> INT = new RowMapper<Integer>() {
+      public Integer mapRow (ResultSet rs) throws SQLException {
+         int value = rs.getInt (1);
+         return rs.wasNull () ? null : Integer.valueOf(value);
+      }
+   };
+
+   // the first column as a Long, null for SQL NULL
+   RowMapper<Long> LONG = new RowMapper<Long>() {
+      public Long mapRow (ResultSet rs) throws SQLException {
+         long value = rs.getLong (1);
+         return rs.wasNull () ? null : Long.valueOf(value);
+      }
+   };
+
+   // the first column as a String
+   RowMapper<String> STRING = new RowMapper<String>() {
+      public String mapRow (ResultSet rs) throws SQLException {
+         return rs.getString (1);
+      }
+   };
+
+}//end RowMapper
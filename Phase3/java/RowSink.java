@@ -0,0 +1,43 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * Receives the rows of a listing operation as they are read, so the same
+ * operation can print to the terminal (DBProject.PrintSink) or be captured
+ * as data (ScriptRunner).
+ *
+ * For each listing the sink sees columns once, before the first row, then
+ * every row, then end.  A listing with no rows calls end only.
+ *
+ */
+public interface RowSink {
+
+   /**
+    * @param names the column labels, in order
+    */
+   void columns (String[] names);
+
+   /**
+    * @param values the row's columns as text, null for SQL NULL; the
+    *        array is reused for the next row, so copy it to keep it
+    */
+   void row (String[] values);
+
+   /**
+    * @param rows the number of rows delivered
+    * @param truncated true when the listing stopped before its last row
+    *        (row limit reached or thread interrupted)
+    */
+   void end (int rows, boolean truncated);
+
+}//end RowSink
@@ -0,0 +1,390 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs DBProject operations from a command file instead of the menu.
+ *
+ *    java DBProject <dbname> <port> <user> -script <file|-> [threads]
+ *
+ * One operation per line, an operation name followed by key=value
+ * arguments; values with blanks are written in double quotes.  Blank lines
+ * and lines starting with # are skipped.  For example:
+ *
+ *    addCustomer id=2001 fname=Ada lname=Lovelace address="1 Main St" phone=555 dob=12/10/1990 gender=Female
+ *    book hotel=381 room=5 fname=Ada lname=Lovelace date=2015-05-12 guests=2 price=150
+ *    available hotel=381 date=2015-05-12
+ *
+ * Operations and their arguments (customer=<id> may replace fname/lname):
+ *
+ *    addCustomer     id fname lname address phone dob gender
+ *    addRoom         hotel room type
+ *    addCompany      id name address certified
+ *    addRepair       id hotel room company date description type
+ *    book            hotel room fname lname date guests price
+ *    assign          staff hotel room
+ *    request         staff repair date description
+ *    available       hotel date
+ *    booked          hotel date
+ *    week            hotel date
+ *    topRooms        k start end
+ *    topCustomer     fname lname k
+ *    cost            hotel fname lname start end
+ *    repairs         company
+ *    topCompanies    k
+ *    repairsPerYear  hotel room
+ *    barrier         waits for every earlier line to finish
+ *
+ * Lines are read ahead and run on `threads` workers (default 1) while
+ * results are written, so a run is not paced by round trips.  With more
+ * than one worker, lines run concurrently: put a barrier between lines
+ * that depend on each other (an insert and a read of it).  Results go to
+ * standard out as one JSON object per line, in input order:
+ *
+ *    {"line":2,"op":"book","ok":true,"ms":1.52,"result":40012}
+ *    {"line":3,"op":"week","ok":true,"ms":0.87,"result":{"columns":[...],"rows":[[...]]}}
+ *    {"line":4,"op":"book","ok":false,"ms":0.41,"error":"no customer named Ada Byron"}
+ *
+ * Throughput and per-operation latency are written to standard error at
+ * the end.
+ *
+ */
+public class ScriptRunner {
+
+   // a parsed line
+   static class Command {
+      final int line;
+      final String op;
+      final Map<String, String> args;
+
+      Command (int line, String op, Map<String, String> args) {
+         this.line = line;
+         this.op = op;
+         this.args = args;
+      }
+
+      String str (String key) {
+         String v = this.args.get(key);
+         if (v == null)
+            throw new IllegalArgumentException("missing " + key + "=");
+         return v;
+      }
+
+      int integer (String key) {
+         try{
+            return Integer.parseInt(str (key));
+         }catch (NumberFormatException e){
+            throw new IllegalArgumentException(key + " must be an integer: " + this.args.get(key));
+         }//end try
+      }
+   }//end Command
+
+   private final DBProject esql;
+   private final Operations ops;
+   private final int threads;
+   // latencies of this run by script operation, apart from the program's
+   private final Metrics latencies = new Metrics();
+
+   public ScriptRunner (DBProject esql, int threads) {
+      if (threads < 1)
+         throw new IllegalArgumentException("Threads must be positive: " + threads);
+      this.esql = esql;
+      this.ops = esql.getOperations();
+      this.threads = threads;
+   }//end ScriptRunner
+
+   /**
+    * Runs every line of input, writing one JSON result per line to out and
+    * the summary to report.
+    *
+    * @return the number of lines that failed
+    */
+   public int run (BufferedReader input, final PrintStream out, PrintStream report) throws IOException, InterruptedException {
+      ExecutorService workers = Executors.newFixedThreadPool(this.threads);
+      // results in input order; bounded so reading stays at most this far
+      // ahead of writing
+      final BlockingQueue<Future<String>> pending = new ArrayBlockingQueue<Future<String>>(this.threads * 64);
+      final FutureTask<String> last = new FutureTask<String>(new Callable<String>() {
+         public String call () { return null; }
+      });
+      Thread writer = new Thread(new Runnable() {
+         public void run () {
+            try{
+               for (Future<String> f = pending.take(); f != last; f = pending.take()){
+                  try{
+                     out.println(f.get());
+                  }catch (ExecutionException e){
+                     out.println(failure (0, "?", 0, String.valueOf(e.getCause())));
+                  }//end try
+               }//end for
+            }catch (InterruptedException e){
+               Thread.currentThread().interrupt();
+            }finally{
+               out.flush();
+            }//end try
+         }
+      }, "script-writer");
+      writer.start();
+
+      long start = System.nanoTime();
+      int lines = 0;
+      List<Future<String>> sinceBarrier = new ArrayList<Future<String>>();
+      try{
+         String text;
+         int lineNo = 0;
+         while ((text = input.readLine()) != null){
+            ++lineNo;
+            String trimmed = text.trim();
+            if (trimmed.length() == 0 || trimmed.startsWith("#")) continue;
+            ++lines;
+            final Command command;
+            try{
+               command = parse (lineNo, trimmed);
+            }catch (IllegalArgumentException e){
+               record ("?", 0, false);
+               final String result = failure (lineNo, "?", 0, e.getMessage());
+               FutureTask<String> done = new FutureTask<String>(new Callable<String>() {
+                  public String call () { return result; }
+               });
+               done.run();
+               pending.put(done);
+               continue;
+            }//end try
+            if (command.op.equals("barrier")){
+               for (Future<String> f : sinceBarrier)
+                  await (f);
+               sinceBarrier.clear();
+               --lines;
+               continue;
+            }//end if
+            Future<String> f = workers.submit(new Callable<String>() {
+               public String call () {
+                  return execute (command);
+               }
+            });
+            pending.put(f);
+            sinceBarrier.add(f);
+            if (sinceBarrier.size() >= 4096){
+               // long runs without a barrier: only unfinished lines matter
+               for (java.util.Iterator<Future<String>> it = sinceBarrier.iterator(); it.hasNext();)
+                  if (it.next().isDone()) it.remove();
+            }//end if
+         }//end while
+      }finally{
+         workers.shutdown();
+         pending.put(last);
+         writer.join();
+      }//end try
+      long elapsed = System.nanoTime() - start;
+      return summary (report, lines, elapsed);
+   }//end run
+
+   private static void await (Future<String> f) throws InterruptedException {
+      try{
+         f.get();
+      }catch (ExecutionException e){
+         // reported by the writer.
+      }//end try
+   }//end await
+
+   /*
+    * Splits a line into the operation name and its key=value arguments.
+    */
+   static Command parse (int line, String text) {
+      Map<String, String> args = new HashMap<String, String>();
+      int n = text.length();
+      int i = 0;
+      while (i < n && !Character.isWhitespace(text.charAt(i))) ++i;
+      String op = text.substring(0, i);
+      while (i < n){
+         while (i < n && Character.isWhitespace(text.charAt(i))) ++i;
+         if (i == n) break;
+         int eq = text.indexOf('=', i);
+         if (eq < 0)
+            throw new IllegalArgumentException("expected key=value at column " + (i + 1));
+         String key = text.substring(i, eq).trim().toLowerCase();
+         i = eq + 1;
+         StringBuilder value = new StringBuilder();
+         if (i < n && text.charAt(i) == '"'){
+            ++i;
+            while (i < n && text.charAt(i) != '"'){
+               if (text.charAt(i) == '\\' && i + 1 < n) ++i;
+               value.append(text.charAt(i++));
+            }//end while
+            if (i == n)
+               throw new IllegalArgumentException("unterminated quote in " + key + "=");
+            ++i;
+         }else{
+            while (i < n && !Character.isWhitespace(text.charAt(i)))
+               value.append(text.charAt(i++));
+         }//end if
+         args.put(key, value.toString());
+      }//end while
+      return new Command(line, op, args);
+   }//end parse
+
+   /*
+    * Runs one command and returns its JSON result line.
+    */
+   String execute (Command c) {
+      long start = System.nanoTime();
+      String result;
+      try{
+         result = dispatch (c);
+      }catch (Exception e){
+         String message = e.getMessage() != null ? e.getMessage() : e.toString();
+         long nanos = System.nanoTime() - start;
+         record (c.op, nanos, false);
+         return failure (c.line, c.op, nanos, message);
+      }//end try
+      long nanos = System.nanoTime() - start;
+      record (c.op, nanos, true);
+      StringBuilder line = new StringBuilder(128);
+      line.append("{\"line\":").append(c.line).append(",\"op\":");
+      Json.quote (line, c.op);
+      line.append(",\"ok\":true,\"ms\":").append(Json.number (nanos / 1e6));
+      line.append(",\"result\":").append(result).append('}');
+      return line.toString();
+   }//end execute
+
+   private static String failure (int line, String op, long nanos, String message) {
+      StringBuilder out = new StringBuilder(128);
+      out.append("{\"line\":").append(line).append(",\"op\":");
+      Json.quote (out, op);
+      out.append(",\"ok\":false,\"ms\":").append(Json.number (nanos / 1e6)).append(",\"error\":");
+      Json.quote (out, message.replace('\n', ' '));
+      return out.append('}').toString();
+   }//end failure
+
+   // the operation's result as JSON; HttpService runs its requests here too
+   String dispatch (Command c) throws Exception {
+      Json.RowsSink rows = new Json.RowsSink();
+      switch (c.op){
+         case "addCustomer":
+            this.ops.addCustomer(c.integer("id"), c.str("fname"), c.str("lname"), c.str("address"),
+                                 c.str("phone"), c.str("dob"), c.str("gender"));
+            return "null";
+         case "addRoom":
+            this.ops.addRoom(c.integer("hotel"), c.integer("room"), c.str("type"));
+            return "null";
+         case "addCompany":
+            this.ops.addMaintenanceCompany(c.integer("id"), c.str("name"), c.str("address"), c.str("certified"));
+            return "null";
+         case "addRepair":
+            this.ops.addRepair(c.integer("id"), c.integer("hotel"), c.integer("room"), c.integer("company"),
+                               c.str("date"), c.str("description"), c.str("type"));
+            return "null";
+         case "book":
+            return String.valueOf(this.ops.bookRoom(c.integer("hotel"), c.integer("room"), customer (c),
+                                                    c.str("date"), c.integer("guests"), c.integer("price")));
+         case "assign":
+            return String.valueOf(this.ops.assignHouseCleaningToRoom(c.integer("staff"), c.integer("hotel"), c.integer("room")));
+         case "request":
+            return String.valueOf(this.ops.repairRequest(c.integer("staff"), c.integer("repair"), c.str("date"), c.str("description")));
+         case "available":
+            return String.valueOf(this.ops.numberOfAvailableRooms(c.integer("hotel"), c.str("date")));
+         case "booked":
+            return String.valueOf(this.ops.numberOfBookedRooms(c.integer("hotel"), c.str("date")));
+         default:
+            if (list (c, rows)) return rows.toString();
+            throw new IllegalArgumentException("unknown operation " + c.op);
+      }//end switch
+   }//end dispatch
+
+   /*
+    * Runs a listing operation (week through repairsPerYear) into sink;
+    * false when c is not one.  Exporter streams them to files from here.
+    */
+   boolean list (Command c, RowSink sink) throws Exception {
+      switch (c.op){
+         case "week":
+            this.ops.listHotelRoomBookingsForAWeek(c.integer("hotel"), c.str("date"), sink);
+            return true;
+         case "topRooms":
+            this.ops.topKHighestRoomPriceForADateRange(c.str("start"), c.str("end"), c.integer("k"), sink);
+            return true;
+         case "topCustomer":
+            this.ops.topKHighestPriceBookingsForACustomer(c.str("fname"), c.str("lname"), c.integer("k"), sink);
+            return true;
+         case "cost":
+            this.ops.totalCostForCustomer(c.integer("hotel"), customer (c), c.str("start"), c.str("end"), sink);
+            return true;
+         case "repairs":
+            if (this.ops.listRepairsMade(c.str("company"), sink) == 0)
+               throw new IllegalArgumentException("no maintenance company named " + c.str("company"));
+            return true;
+         case "topCompanies":
+            this.ops.topKMaintenanceCompany(c.integer("k"), sink);
+            return true;
+         case "repairsPerYear":
+            this.ops.numberOfRepairsForEachRoomPerYear(c.integer("hotel"), c.integer("room"), sink);
+            return true;
+         default:
+            return false;
+      }//end switch
+   }//end list
+
+   // customer=<id>, or the one customer named fname lname
+   private int customer (Command c) throws Exception {
+      if (c.args.containsKey("customer")) return c.integer("customer");
+      String name = c.str("fname") + " " + c.str("lname");
+      List<Integer> ids = this.esql.customerIds(c.str("fname"), c.str("lname"));
+      if (ids.isEmpty())
+         throw new IllegalArgumentException("no customer named " + name);
+      if (ids.size() > 1)
+         throw new IllegalArgumentException("several customers named " + name + " " + ids + ", give customer=<id>");
+      return ids.get(0);
+   }//end customer
+
+   private void record (String op, long nanos, boolean ok) {
+      this.latencies.histogram(op).record(nanos, !ok);
+   }//end record
+
+   // writes the summary and returns the number of failed lines
+   private int summary (PrintStream report, int lines, long elapsedNanos) {
+      int failed = 0;
+      double seconds = elapsedNanos / 1e9;
+      report.println(lines + " operations in " + String.format("%.3f", seconds) + " s, " +
+                     String.format("%.1f", seconds == 0 ? 0 : lines / seconds) + " ops/s, " + this.threads + " thread(s)");
+      report.println("op\tcount\terrors\tavg ms\tp50 ms\tp95 ms\tp99 ms\tmax ms");
+      for (LatencyHistogram h : this.latencies.histograms()){
+         LatencyHistogram.Snapshot l = h.snapshot();
+         failed += l.errors;
+         report.println(h.getName() + "\t" + l.count + "\t" + l.errors + "\t" +
+                        ms (l.meanNanos()) + "\t" + ms (l.percentile(50)) + "\t" +
+                        ms (l.percentile(95)) + "\t" + ms (l.percentile(99)) + "\t" +
+                        ms (l.maxNanos));
+      }//end for
+      return failed;
+   }//end summary
+
+   private static String ms (long nanos) {
+      return String.format("%.3f", nanos / 1e6);
+   }//end ms
+
+}//end ScriptRunner
@@ -0,0 +1,279 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs the queries of DBProject that take longer than a threshold, with
+ * the plan the database used for them.
+ *
+ * Every call over -Dslowlog.ms milliseconds (default 500, 0 turns the log
+ * off) is written to -Dslowlog.file (default slow-queries.log) as one JSON
+ * line holding its template, a short id of the template, its parameters
+ * and its time.  A sample of them (-Dslowlog.sample, the fraction captured,
+ * default 1) is explained and the plan is added to the line.  Queries are
+ * run again under EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) in a transaction
+ * that is rolled back; writes only get a plain EXPLAIN (FORMAT JSON), as do
+ * queries whose ANALYZE run fails.  A template is explained at most once every -Dslowlog.every
+ * seconds (default 60), so a query that is always slow does not double the
+ * load.  Plans are captured on a background thread with a connection of
+ * the pool; when that falls behind, lines are written without a plan.
+ *
+ * The file is rolled over at -Dslowlog.maxBytes (default 10 MB) to .1, .2
+ * and so on, keeping -Dslowlog.files of them (default 5).
+ *
+ * The time of a streamed listing includes handing the rows to its sink.
+ * Only SELECT, INSERT, UPDATE, DELETE and WITH statements are explained.
+ * A write is never run again: its INSERT has committed by then and would
+ * only fail on its key, and an UPDATE or DELETE would take its row locks
+ * on the live tables a second time.  Nor is a query that calls nextval or
+ * setval, or locks rows FOR UPDATE, since the rollback does not undo a
+ * sequence change.
+ *
+ */
+public class SlowQueryLog {
+
+   public static final long DEFAULT_THRESHOLD_MILLIS = Long.getLong("slowlog.ms", 500);
+
+   private final DBProject esql;
+   private final long thresholdNanos;
+   private final double sample = Double.parseDouble(System.getProperty("slowlog.sample", "1"));
+   private final long everyMillis = Long.getLong("slowlog.every", 60) * 1000;
+   private final long timeoutMillis = Long.getLong("slowlog.timeout", 30) * 1000;
+   private final File file = new File(System.getProperty("slowlog.file", "slow-queries.log"));
+   private final long maxBytes = Long.getLong("slowlog.maxBytes", 10L << 20);
+   private final int files = Integer.getInteger("slowlog.files", 5);
+
+   // template -> when it was last explained
+   private final ConcurrentHashMap<String, Long> lastExplained = new ConcurrentHashMap<String, Long>();
+   private final Random random = new Random();
+   private final ThreadPoolExecutor explainer;
+   private Writer out;
+   private long written;
+
+   /**
+    * @param thresholdMillis calls slower than this are logged; 0 or less
+    *        turns the log off
+    */
+   public SlowQueryLog (DBProject esql, long thresholdMillis) {
+      this.esql = esql;
+      this.thresholdNanos = thresholdMillis <= 0 ? Long.MAX_VALUE : thresholdMillis * 1000000;
+      this.explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(16),
+         new ThreadFactory() {
+            public Thread newThread (Runnable r) {
+               Thread t = new Thread(r, "slow-query-explain");
+               t.setDaemon(true);
+               return t;
+            }
+         });
+   }//end SlowQueryLog
+
+   /**
+    * Called after every query: logs it when it took longer than the
+    * threshold.  Costs one comparison otherwise.
+    */
+   public void check (String sql, Object[] params, long nanos) {
+      if (nanos < this.thresholdNanos) return;
+      final String template = template (sql);
+      final Object[] values = params == null ? new Object[0] : params.clone();
+      final long millis = nanos / 1000000;
+      if (explainable (template) && sampled () && due (template)){
+         try{
+            this.explainer.execute(new Runnable() {
+               public void run () {
+                  String plan;
+                  try{
+                     plan = explain (template, values);
+                  }catch (SQLException e){
+                     plan = null;
+                  }//end try
+                  write (template, values, millis, plan);
+               }
+            });
+            return;
+         }catch (java.util.concurrent.RejectedExecutionException e){
+            // explainer busy or closed: log without a plan
+         }//end try
+      }//end if
+      write (template, values, millis, null);
+   }//end check
+
+   private synchronized boolean sampled () {
+      return this.sample >= 1 || this.random.nextDouble() < this.sample;
+   }//end sampled
+
+   // whether template may be explained now, claiming the slot if so
+   private boolean due (String template) {
+      long now = System.currentTimeMillis();
+      Long last = this.lastExplained.get(template);
+      if (last == null)
+         return this.lastExplained.putIfAbsent(template, now) == null;
+      return now - last >= this.everyMillis && this.lastExplained.replace(template, last, now);
+   }//end due
+
+   // the query text with its whitespace collapsed, as the log's key
+   static String template (String sql) {
+      return sql.trim().replaceAll("\\s+", " ");
+   }//end template
+
+   static boolean explainable (String template) {
+      String head = template.length() > 7 ? template.substring(0, 7).toUpperCase() : template.toUpperCase();
+      return head.startsWith("SELECT") || head.startsWith("INSERT") || head.startsWith("UPDATE") ||
+             head.startsWith("DELETE") || head.startsWith("WITH");
+   }//end explainable
+
+   private static final java.util.regex.Pattern SEQUENCE_CALL =
+      java.util.regex.Pattern.compile("\\b(nextval|setval)\\s*\\(", java.util.regex.Pattern.CASE_INSENSITIVE);
+
+   // a write anywhere in the statement, a data-modifying WITH or FOR UPDATE included
+   private static final java.util.regex.Pattern WRITE =
+      java.util.regex.Pattern.compile("\\b(INSERT|UPDATE|DELETE)\\b", java.util.regex.Pattern.CASE_INSENSITIVE);
+
+   // whether template may be run again: a query that writes no row and
+   // moves no sequence
+   static boolean analyzable (String template) {
+      String head = template.length() > 7 ? template.substring(0, 7).toUpperCase() : template.toUpperCase();
+      return (head.startsWith("SELECT") || head.startsWith("WITH")) &&
+             !WRITE.matcher(template).find() && !SEQUENCE_CALL.matcher(template).find();
+   }//end analyzable
+
+   // a short stable id of a template, to group its lines
+   static String id (String template) {
+      java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+      try{
+         crc.update(template.getBytes("UTF-8"));
+      }catch (java.io.UnsupportedEncodingException e){
+         throw new IllegalStateException(e);
+      }//end try
+      return String.format("%08x", crc.getValue());
+   }//end id
+
+   /*
+    * Returns the JSON plan of the query: run again under EXPLAIN ANALYZE
+    * when analyzable, else, or when that run fails, only planned.
+    */
+   String explain (String template, Object[] params) throws SQLException {
+      ConnectionPool.PooledConnection pc = this.esql.getPool().borrow ();
+      try{
+         if (analyzable (template)){
+            try{
+               return plan (pc.getConnection (), "EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) " + template, params);
+            }catch (SQLException e){
+               // a timeout, say: the plan alone is still worth having
+            }//end try
+         }//end if
+         return plan (pc.getConnection (), "EXPLAIN (FORMAT JSON) " + template, params);
+      }finally{
+         this.esql.getPool().release (pc);
+      }//end try
+   }//end explain
+
+   // runs one EXPLAIN in a transaction that is always rolled back
+   private String plan (Connection conn, String sql, Object[] params) throws SQLException {
+      conn.setAutoCommit (false);
+      try{
+         Statement stmt = conn.createStatement ();
+         stmt.execute ("SET LOCAL statement_timeout = " + this.timeoutMillis);
+         stmt.close ();
+         PreparedStatement explain = conn.prepareStatement (sql);
+         try{
+            DBProject.bind (explain, params);
+            ResultSet rs = explain.executeQuery ();
+            StringBuilder plan = new StringBuilder();
+            while (rs.next ())
+               plan.append (rs.getString (1));
+            rs.close ();
+            return plan.toString();
+         }finally{
+            explain.close ();
+         }//end try
+      }finally{
+         conn.rollback ();
+         conn.setAutoCommit (true);
+      }//end try
+   }//end plan
+
+   private void write (String template, Object[] params, long millis, String plan) {
+      StringBuilder line = new StringBuilder(256);
+      line.append("{\"time\":");
+      Json.quote (line, new java.text.SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new java.util.Date()));
+      line.append(",\"id\":\"").append(id (template)).append("\",\"template\":");
+      Json.quote (line, template);
+      line.append(",\"params\":[");
+      for (int i = 0; i < params.length; ++i){
+         if (i > 0) line.append(',');
+         Json.quote (line, params[i] == null ? null : params[i].toString());
+      }//end for
+      line.append("],\"ms\":").append(millis);
+      // the plan is JSON already
+      line.append(",\"plan\":").append(plan == null || plan.length() == 0 ? "null" : plan);
+      line.append("}\n");
+      append (line.toString());
+   }//end write
+
+   private synchronized void append (String line) {
+      try{
+         if (this.out == null){
+            this.written = this.file.length();
+            this.out = new OutputStreamWriter(new FileOutputStream(this.file, true), "UTF-8");
+         }//end if
+         this.out.write(line);
+         this.out.flush();
+         this.written += line.length();
+         if (this.written >= this.maxBytes) rotate ();
+      }catch (IOException e){
+         System.err.println ("Cannot write the slow query log " + this.file + ": " + e.getMessage());
+      }//end try
+   }//end append
+
+   // file -> file.1 -> file.2 ..., dropping the oldest
+   private void rotate () throws IOException {
+      this.out.close();
+      this.out = null;
+      String name = this.file.getPath();
+      new File(name + "." + (this.files - 1)).delete();
+      for (int i = this.files - 2; i >= 1; --i)
+         new File(name + "." + i).renameTo(new File(name + "." + (i + 1)));
+      if (this.files > 1) this.file.renameTo(new File(name + ".1"));
+      else this.file.delete();
+   }//end rotate
+
+   /**
+    * Stops capturing plans and closes the file.
+    */
+   public synchronized void close () {
+      this.explainer.shutdownNow();
+      try{
+         if (this.out != null) this.out.close();
+      }catch (IOException e){
+         // nothing more to write
+      }//end try
+      this.out = null;
+   }//end close
+
+}//end SlowQueryLog
@@ -0,0 +1,241 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index answering "the K highest priced bookings between two
+ * dates" for topKHighestRoomPriceForADateRange.
+ *
+ * Bookings are kept in parallel arrays and indexed by a segment tree over
+ * the epoch days from 1900-01-01 to 2100-12-31.  Every tree node holds the
+ * CAP best bookings of its day span, sorted by price descending.  A query
+ * splits [start, end] into at most 2 log2(days) = 34 nodes and merges their
+ * lists, stopping after K, so its work depends on K and the number of nodes
+ * touched, not on how many bookings the range holds.
+ *
+ * A booking is added to the top list of each of the 18 nodes above its day,
+ * so inserting costs at most 18 sorted inserts into lists of CAP entries.
+ * Queries with K above CAP (-Dtopk.cap, default 100) or with dates outside
+ * the indexed span return null and are left to SQL.
+ *
+ */
+public class TopKPriceIndex {
+
+   public static final int CAP = Integer.getInteger("topk.cap", 100);
+
+   static final int FIRST_DAY = Dates.toEpochDay("1900-01-01");
+   static final int LAST_DAY = Dates.toEpochDay("2100-12-31");
+
+   // leaves of the tree, a power of two at least the number of days
+   private static final int LEAVES = Integer.highestOneBit(LAST_DAY - FIRST_DAY) << 1;
+
+   /**
+    * One booking of a top-K answer.
+    */
+   public static final class Entry {
+      public final int hotelID;
+      public final int roomNo;
+      public final int priceCents;
+      public final int day;
+
+      Entry (int hotelID, int roomNo, int priceCents, int day) {
+         this.hotelID = hotelID;
+         this.roomNo = roomNo;
+         this.priceCents = priceCents;
+         this.day = day;
+      }
+
+      /**
+       * @return the price as printed by PostgreSQL for a Numeric(6,2)
+       */
+      public String price () {
+         int cents = this.priceCents % 100;
+         return (this.priceCents / 100) + (cents < 10 ? ".0" : ".") + cents;
+      }//end price
+   }//end Entry
+
+   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+   // bookings, by insertion index
+   private int[] hotels = new int[1024];
+   private int[] rooms = new int[1024];
+   private int[] prices = new int[1024];
+   private int[] days = new int[1024];
+   private int count;
+
+   // node n covers the leaves under it; node 1 is the root and leaf i is
+   // node LEAVES + i.  Lists are sorted best first and hold at most CAP.
+   private final int[][] top = new int[2 * LEAVES][];
+   private final int[] topSize = new int[2 * LEAVES];
+
+   /**
+    * Builds the index from the Booking table.
+    *
+    * @param esql the database to read
+    * @return the index
+    * @throws java.sql.SQLException when Booking cannot be read
+    */
+   public static TopKPriceIndex load (DBProject esql) throws SQLException {
+      final TopKPriceIndex index = new TopKPriceIndex();
+      ResultCursor<Object> bookings = esql.openCursor("SELECT hotelID, roomNo, bookingDate, price FROM Booking", new RowMapper<Object>() {
+         public Object mapRow (ResultSet rs) throws SQLException {
+            index.add (rs.getInt (1), rs.getInt (2), Dates.toEpochDay (rs.getString (3)), cents (rs.getBigDecimal (4)));
+            return null;
+         }
+      });
+      try{
+         while (bookings.hasNext ()) bookings.next ();
+      }finally{
+         bookings.close ();
+      }//end try
+      return index;
+   }//end load
+
+   /**
+    * @return the price in whole cents
+    */
+   public static int cents (BigDecimal price) {
+      return price.movePointRight(2).setScale(0, RoundingMode.HALF_UP).intValue();
+   }//end cents
+
+   /**
+    * Adds a booking.  Bookings outside the indexed span are not kept, and
+    * queries that would include them go to SQL.
+    */
+   public void add (int hotelID, int roomNo, int day, int priceCents) {
+      if (day < FIRST_DAY || day > LAST_DAY) return;
+      this.lock.writeLock().lock();
+      try{
+         if (this.count == this.prices.length){
+            int capacity = this.count * 2;
+            this.hotels = Arrays.copyOf(this.hotels, capacity);
+            this.rooms = Arrays.copyOf(this.rooms, capacity);
+            this.prices = Arrays.copyOf(this.prices, capacity);
+            this.days = Arrays.copyOf(this.days, capacity);
+         }//end if
+         int b = this.count++;
+         this.hotels[b] = hotelID;
+         this.rooms[b] = roomNo;
+         this.prices[b] = priceCents;
+         this.days[b] = day;
+         for (int node = LEAVES + (day - FIRST_DAY); node >= 1; node >>= 1)
+            if (!offer (node, b)) break;
+      }finally{
+         this.lock.writeLock().unlock();
+      }//end try
+   }//end add
+
+   /*
+    * Inserts booking b into a node's list.  Returns false when b did not
+    * make the list, in which case it cannot make any ancestor's list either.
+    */
+   private boolean offer (int node, int b) {
+      int[] list = this.top[node];
+      int size = this.topSize[node];
+      if (size == CAP && !better (b, list[size - 1])) return false;
+      int lo = 0, hi = size;
+      while (lo < hi){
+         int mid = (lo + hi) >>> 1;
+         if (better (list[mid], b)) lo = mid + 1; else hi = mid;
+      }//end while
+      if (list == null){
+         list = this.top[node] = new int[Math.min(CAP, 4)];
+      }else if (size == list.length){
+         list = this.top[node] = Arrays.copyOf(list, Math.min(CAP, size * 2));
+      }//end if
+      int moved = Math.min(size, CAP - 1) - lo;
+      System.arraycopy(list, lo, list, lo + 1, moved);
+      list[lo] = b;
+      if (size < CAP) this.topSize[node] = size + 1;
+      return true;
+   }//end offer
+
+   // orders by price descending, then earlier day, then earlier insert
+   private boolean better (int a, int b) {
+      if (this.prices[a] != this.prices[b]) return this.prices[a] > this.prices[b];
+      if (this.days[a] != this.days[b]) return this.days[a] < this.days[b];
+      return a < b;
+   }//end better
+
+   /**
+    * @param start first epoch day of the range
+    * @param end last epoch day of the range, inclusive
+    * @param k number of bookings wanted
+    * @return the k highest priced bookings in the range, best first, or
+    *         null when the index cannot answer and SQL should
+    */
+   public List<Entry> topK (int start, int end, int k) {
+      if (k > CAP || start < FIRST_DAY || end > LAST_DAY) return null;
+      List<Entry> result = new ArrayList<Entry>(Math.max(0, Math.min(k, 64)));
+      if (k <= 0 || start > end) return result;
+      this.lock.readLock().lock();
+      try{
+         // the nodes exactly covering [start, end]
+         int[] nodes = new int[64];
+         int n = 0;
+         for (int lo = LEAVES + (start - FIRST_DAY), hi = LEAVES + (end - FIRST_DAY) + 1; lo < hi; lo >>= 1, hi >>= 1){
+            if ((lo & 1) == 1){
+               if (this.topSize[lo] > 0) nodes[n++] = lo;
+               ++lo;
+            }//end if
+            if ((hi & 1) == 1){
+               --hi;
+               if (this.topSize[hi] > 0) nodes[n++] = hi;
+            }//end if
+         }//end for
+
+         // k-way merge of their lists; n is small so a linear pick is cheaper
+         // than a heap
+         int[] pos = new int[n];
+         while (result.size() < k){
+            int bestNode = -1;
+            int best = -1;
+            for (int i = 0; i < n; ++i){
+               if (pos[i] == this.topSize[nodes[i]]) continue;
+               int b = this.top[nodes[i]][pos[i]];
+               if (best < 0 || better (b, best)){
+                  best = b;
+                  bestNode = i;
+               }//end if
+            }//end for
+            if (best < 0) break;
+            ++pos[bestNode];
+            result.add(new Entry(this.hotels[best], this.rooms[best], this.prices[best], this.days[best]));
+         }//end while
+      }finally{
+         this.lock.readLock().unlock();
+      }//end try
+      return result;
+   }//end topK
+
+   /**
+    * @return the number of bookings indexed
+    */
+   public int size () {
+      this.lock.readLock().lock();
+      try{
+         return this.count;
+      }finally{
+         this.lock.readLock().unlock();
+      }//end try
+   }//end size
+
+}//end TopKPriceIndex
@@ -0,0 +1,158 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cache of the week listing (listHotelRoomBookingsForAWeek), by hotel and
+ * week.  A week is seven days from a Thursday (epoch day / 7); a listing
+ * of any date to seven days later spans two of them and is put together
+ * from both, so every start date shares the cached weeks.
+ *
+ * A week holds its distinct (day, room, customer) rows packed in a long
+ * per row, sorted, about 8 bytes a booking.  bookRoom through this program
+ * drops the one week it wrote to; bookings made elsewhere show once the
+ * week expires (-Dcache.ttl).  -Dweekcache.size weeks are kept (default
+ * 10000, 0 turns the cache off).
+ *
+ * Calls are timed in Metrics as weekCache.hit (every week was cached) and
+ * weekCache.miss; stats() gives the hit rate.
+ *
+ */
+public class WeekCache {
+
+   public static final int DEFAULT_SIZE = Integer.getInteger("weekcache.size", 10000);
+
+   // the rows of one hotel and week, as the week listing returns them
+   static final String SQL_WEEK =
+      "SELECT b.bookingDate - DATE '1970-01-01', b.roomNo, b.customer FROM Booking b WHERE b.hotelID = ? " +
+      "AND b.bookingDate >= CAST(? AS DATE) AND b.bookingDate < CAST(? AS DATE) " +
+      "GROUP BY b.roomNo, b.customer, b.bookingDate";
+   // the column names of DBProject.SQL_WEEK_BOOKINGS
+   static final String[] COLUMNS = {"roomno", "customer", "bookingdate"};
+
+   /*
+    * The bookings of one hotel in one week: the rows of day d of the week
+    * are rows[dayStart[d]] to rows[dayStart[d + 1]], each room << 32 |
+    * customer, sorted.
+    */
+   static final class Week {
+      final int[] dayStart = new int[8];
+      final long[] rows;
+
+      Week (int firstDay, List<long[]> dayRoomCustomer) {
+         this.rows = new long[dayRoomCustomer.size()];
+         int[] perDay = new int[7];
+         for (long[] r : dayRoomCustomer) ++perDay[(int) r[0] - firstDay];
+         for (int d = 0; d < 7; ++d) this.dayStart[d + 1] = this.dayStart[d] + perDay[d];
+         int[] at = Arrays.copyOf(this.dayStart, 7);
+         for (long[] r : dayRoomCustomer)
+            this.rows[at[(int) r[0] - firstDay]++] = (r[1] << 32) | (r[2] & 0xFFFFFFFFL);
+         for (int d = 0; d < 7; ++d) Arrays.sort(this.rows, this.dayStart[d], this.dayStart[d + 1]);
+      }
+   }//end Week
+
+   private final DBProject esql;
+   private final LookupCache<Long, Week> weeks;
+
+   public WeekCache (DBProject esql, int size) {
+      this.esql = esql;
+      this.weeks = new LookupCache<Long, Week>(size, LookupCache.DEFAULT_TTL_MILLIS);
+   }//end WeekCache
+
+   static int weekOf (int day) {
+      return (int) Math.floor(day / 7.0);
+   }//end weekOf
+
+   private static Long key (int hotelID, int week) {
+      return ((long) hotelID << 32) | (week & 0xFFFFFFFFL);
+   }//end key
+
+   /**
+    * Lists the bookings of hotelID from day to day + 7, both included, as
+    * SQL_WEEK_BOOKINGS does: by day, then room and customer.
+    *
+    * @param rowLimit rows after which the listing stops, 0 for no limit
+    * @return the number of rows given to sink
+    */
+   public int list (int hotelID, int day, RowSink sink, long rowLimit) throws SQLException {
+      long start = System.nanoTime();
+      boolean failed = true;
+      final boolean[] loaded = {false};
+      try{
+         int rows = 0;
+         boolean truncated = false;
+         int last = day + 7;
+         listing:
+         for (int w = weekOf (day); w <= weekOf (last); ++w){
+            Week week = week (hotelID, w, loaded);
+            int first = w * 7;
+            for (int d = Math.max(day, first); d <= Math.min(last, first + 6); ++d){
+               String date = Dates.format(d);
+               for (int i = week.dayStart[d - first]; i < week.dayStart[d - first + 1]; ++i){
+                  if (rowLimit > 0 && rows >= rowLimit){
+                     truncated = true;
+                     break listing;
+                  }//end if
+                  if (rows == 0) sink.columns(COLUMNS);
+                  long r = week.rows[i];
+                  sink.row(new String[] {String.valueOf(r >> 32), String.valueOf((int) r), date});
+                  ++rows;
+               }//end for
+            }//end for
+         }//end for
+         sink.end(rows, truncated);
+         failed = false;
+         return rows;
+      }finally{
+         this.esql.getMetrics().record(loaded[0] ? "weekCache.miss" : "weekCache.hit", start, failed);
+      }//end try
+   }//end list
+
+   private Week week (final int hotelID, final int w, final boolean[] loaded) throws SQLException {
+      return this.weeks.get(key (hotelID, w), new LookupCache.Loader<Long, Week>() {
+         public Week load (Long key) throws SQLException {
+            loaded[0] = true;
+            int first = w * 7;
+            List<long[]> rows = esql.query(SQL_WEEK, new RowMapper<long[]>() {
+               public long[] mapRow (ResultSet rs) throws SQLException {
+                  return new long[] {rs.getInt (1), rs.getInt (2), rs.getInt (3)};
+               }
+            }, hotelID, Dates.format(first), Dates.format(first + 7));
+            return new Week(first, rows);
+         }
+      });
+   }//end week
+
+   /**
+    * Drops the week of day at hotelID, after a booking was written there.
+    */
+   public void bookingAdded (int hotelID, int day) {
+      this.weeks.invalidate(key (hotelID, weekOf (day)));
+   }//end bookingAdded
+
+   public void invalidateAll () {
+      this.weeks.invalidateAll();
+   }//end invalidateAll
+
+   /**
+    * @return the cache counters as one line
+    */
+   public String stats () {
+      return this.weeks.stats();
+   }//end stats
+
+}//end WeekCache
@@ -7,9 +7,12 @@ export PATH=$JAVA_HOME/bin:$PATH
 export CLASSPATH=$CLASSPATH:$PWD/pg73jdbc3.jar
 
 # compile the java program
-javac DBProject.java
+javac *.java
 
 #run the java program
 #Use your database name, port number and login
 java DBProject $USER"_DB" $PGPORT $USER
 
+#benchmarks (see DBBench.java for the modes), e.g.
+#java DBBench $USER"_DB" $PGPORT $USER pool
+
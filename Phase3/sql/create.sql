@@ -10,6 +10,33 @@ DROP TABLE IF EXISTS Repair CASCADE;
 DROP TABLE IF EXISTS Request CASCADE;
 DROP TABLE IF EXISTS Assigned CASCADE;
 
+-- The below sql statements drop the repair summaries of migration 002 and
+-- their functions (the trigger goes with Repair)
+DROP TABLE IF EXISTS CompanyRepairs CASCADE;
+DROP TABLE IF EXISTS RoomRepairYear CASCADE;
+DROP FUNCTION IF EXISTS repair_summary_trigger();
+DROP FUNCTION IF EXISTS repair_summary_add(Numeric, Numeric, Numeric, Date, Numeric);
+DROP FUNCTION IF EXISTS repair_summary_add(Integer, Integer, Integer, Date, Integer);
+
+-- The below sql statements drop the booking ids Partitioner keeps for a
+-- partitioned Booking (the trigger goes with Booking)
+DROP TABLE IF EXISTS booking_ids;
+DROP FUNCTION IF EXISTS booking_id_unique();
+
+-- The below sql statements drop the booking log of migration 005 and its
+-- function (the trigger goes with Booking)
+DROP TABLE IF EXISTS BookingLog;
+DROP FUNCTION IF EXISTS booking_log();
+
+-- The migrations recorded here belong to the tables dropped above, so
+-- Migrator applies them all again to the new schema
+DROP TABLE IF EXISTS SchemaVersion;
+
+-- The below sql statements drops the id sequences if they exist
+DROP SEQUENCE IF EXISTS booking_bid_seq;
+DROP SEQUENCE IF EXISTS assigned_asgid_seq;
+DROP SEQUENCE IF EXISTS request_reqid_seq;
+
 -- The below sql statements drops of the enum types if they exits
 DROP TYPE IF EXISTS StaffRole CASCADE;
 DROP TYPE IF EXISTS GenderType CASCADE;
@@ -17,70 +44,79 @@ DROP TYPE IF EXISTS GenderType CASCADE;
 CREATE TYPE StaffRole AS ENUM('Receptionist','HouseCleaning','Manager'); -- enum for staffRoles
 CREATE TYPE GenderType AS ENUM('Male', 'Female', 'Other'); -- enum for gender
 
--- The below statements create necessary tables 
-CREATE TABLE Hotel( hotelID Numeric NOT NULL, 
+-- The below statements create necessary tables.  Keys are Integer (BigInt
+-- for bookings, the fastest growing) and names VARCHAR; databases created
+-- with Numeric keys and CHAR names are converted in place by KeyMigrator.
+CREATE TABLE Hotel( hotelID Integer NOT NULL, 
                     address Text, 
-					manager Numeric DEFAULT 0,
+					manager Integer DEFAULT 0,
 					PRIMARY KEY(hotelID));
 
-CREATE TABLE Staff( SSN Numeric NOT NULL, 
-					fName CHAR(30) NOT NULL, 
-					lName CHAR(30) NOT NULL, 
+CREATE TABLE Staff( SSN Integer NOT NULL, 
+					fName VARCHAR(30) NOT NULL, 
+					lName VARCHAR(30) NOT NULL, 
 					address Text,
 					role StaffRole NOT NULL,
-					employerID Numeric NOT NULL DEFAULT 0,
+					employerID Integer NOT NULL DEFAULT 0,
 					PRIMARY KEY(SSN));
 
-CREATE TABLE Room( hotelID Numeric NOT NULL,
-				   roomNo  Numeric NOT NULL,
-				   roomType CHAR(10) NOT NULL,
+CREATE TABLE Room( hotelID Integer NOT NULL,
+				   roomNo  Integer NOT NULL,
+				   roomType VARCHAR(10) NOT NULL,
 				   PRIMARY KEY(hotelID, roomNo));
 
-CREATE TABLE Customer( customerID Numeric NOT NULL,
-					   fName CHAR(30) NOT NULL,
-					   lName CHAR(30) NOT NULL,
+CREATE TABLE Customer( customerID Integer NOT NULL,
+					   fName VARCHAR(30) NOT NULL,
+					   lName VARCHAR(30) NOT NULL,
 					   Address TEXT,
 					   phNo Numeric,
 					   DOB Date,
 					   gender GenderType,
 					   PRIMARY KEY(customerID));
 
-CREATE TABLE MaintenanceCompany( cmpID Numeric NOT NULL,
-								 name CHAR(30) NOT NULL,
+CREATE TABLE MaintenanceCompany( cmpID Integer NOT NULL,
+								 name VARCHAR(30) NOT NULL,
 								 address TEXT,
 								 isCertified Boolean NOT NULL,
 								 PRIMARY KEY(cmpID));
-CREATE TABLE Booking( bID Numeric NOT NULL,
-					  customer Numeric NOT NULL DEFAULT 0,
-					  hotelID Numeric NOT NULL DEFAULT 0,
-					  roomNo Numeric NOT NULL DEFAULT 0,
+CREATE TABLE Booking( bID BigInt NOT NULL,
+					  customer Integer NOT NULL DEFAULT 0,
+					  hotelID Integer NOT NULL DEFAULT 0,
+					  roomNo Integer NOT NULL DEFAULT 0,
 					  bookingDate Date NOT NULL,
 					  noOfPeople Numeric,
 					  price Numeric(6,2) NOT NULL,
 					  PRIMARY KEY(bID));
 					  
-CREATE TABLE Repair( rID Numeric NOT NULL,
-					 hotelID Numeric NOT NULL DEFAULT 0,
-					 roomNo Numeric NOT NULL DEFAULT 0,
-					 mCompany Numeric NOT NULL DEFAULT 0,
+CREATE TABLE Repair( rID Integer NOT NULL,
+					 hotelID Integer NOT NULL DEFAULT 0,
+					 roomNo Integer NOT NULL DEFAULT 0,
+					 mCompany Integer NOT NULL DEFAULT 0,
 					 repairDate Date NOT NULL,
 					 description TEXT,
-					 repairType CHAR(10),
+					 repairType VARCHAR(10),
 					 PRIMARY KEY(rID));
 					 
-CREATE TABLE Request( reqID Numeric NOT NULL,
-					  managerID Numeric NOT NULL DEFAULT 0,
-					  repairID Numeric NOT NULL DEFAULT 0,
+CREATE TABLE Request( reqID Integer NOT NULL,
+					  managerID Integer NOT NULL DEFAULT 0,
+					  repairID Integer NOT NULL DEFAULT 0,
 					  requestDate Date NOT NULL,
 					  description TEXT,
 					  PRIMARY KEY(reqID));
 					  
-CREATE TABLE Assigned( asgID Numeric NOT NULL,
-					   staffID Numeric NOT NULL DEFAULT 0,
-					   hotelID Numeric NOT NULL DEFAULT 0,
-					   roomNo Numeric NOT NULL DEFAULT 0,
+CREATE TABLE Assigned( asgID Integer NOT NULL,
+					   staffID Integer NOT NULL DEFAULT 0,
+					   hotelID Integer NOT NULL DEFAULT 0,
+					   roomNo Integer NOT NULL DEFAULT 0,
 					   PRIMARY KEY(asgID));
 
+-- The below sql statements create the id sequences.  DBProject leases ids in
+-- blocks: each nextval reserves INCREMENT BY ids, which must match
+-- IdAllocator.BLOCK_SIZE.
+CREATE SEQUENCE booking_bid_seq INCREMENT BY 50;
+CREATE SEQUENCE assigned_asgid_seq INCREMENT BY 50;
+CREATE SEQUENCE request_reqid_seq INCREMENT BY 50;
+
 -- The below sql statments creates necessary Foreign Key Constraints on the above created tables
 ALTER TABLE Hotel
 ADD CONSTRAINT managerConstraint
@@ -227,5 +263,12 @@ COPY Assigned(asgID,
 			  hotelID,
 			  roomNo)
 FROM 'assigned.csv'
-WITH DELIMITER ',';		
-	
\ No newline at end of file
+WITH DELIMITER ',';
+
+-- start the id sequences after the loaded data
+SELECT setval('booking_bid_seq', (SELECT COALESCE(MAX(bID), 0) + 1 FROM Booking), false);
+SELECT setval('assigned_asgid_seq', (SELECT COALESCE(MAX(asgID), 0) + 1 FROM Assigned), false);
+SELECT setval('request_reqid_seq', (SELECT COALESCE(MAX(reqID), 0) + 1 FROM Request), false);
+
+-- indexes and later schema changes live in sql/migrations; apply them with
+-- java Migrator <dbname> <port> <user>
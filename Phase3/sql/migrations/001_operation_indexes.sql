@@ -0,0 +1,45 @@
+-- Indexes behind the DBProject menu operations.  create.sql only defines
+-- primary keys, so every lookup below used to be a sequential scan.
+-- Applied by Migrator; PlanCheck verifies each operation's plan uses them.
+
+-- bookRoom, topKHighestPriceBookingsForACustomer, totalCostForCustomer:
+-- customer lookup by name
+CREATE INDEX customer_name_idx ON Customer(lName, fName);
+
+-- listRepairsMade: company lookup by name
+CREATE INDEX maintenancecompany_name_idx ON MaintenanceCompany(name);
+
+-- assignHouseCleaningToRoom: UPDATE Assigned ... WHERE hotelID = ? AND staffID = ?
+CREATE INDEX assigned_staff_hotel_idx ON Assigned(staffID, hotelID);
+
+-- numberOfAvailableRooms, numberOfBookedRooms, listHotelRoomBookingsForAWeek:
+-- bookings of one hotel over a date range; roomNo and customer are carried
+-- along so the week listing is answered from the index alone
+CREATE INDEX booking_hotel_date_idx ON Booking(hotelID, bookingDate, roomNo, customer);
+
+-- numberOfAvailableRooms and the bookingRoomConstraint foreign key:
+-- bookings of one room
+CREATE INDEX booking_room_idx ON Booking(hotelID, roomNo, bookingDate);
+
+-- topKHighestRoomPriceForADateRange: bookings in a date range by price
+CREATE INDEX booking_date_price_idx ON Booking(bookingDate, price);
+
+-- topKHighestPriceBookingsForACustomer: a customer's bookings by price
+CREATE INDEX booking_customer_price_idx ON Booking(customer, price DESC);
+
+-- totalCostForCustomer: a customer's bookings at one hotel over a date range
+CREATE INDEX booking_customer_hotel_date_idx ON Booking(customer, hotelID, bookingDate, price);
+
+-- listRepairsMade, topKMaintenanceCompany: repairs of one company, with the
+-- listed columns carried along
+CREATE INDEX repair_company_idx ON Repair(mCompany, repairType, hotelID, roomNo);
+
+-- numberOfRepairsForEachRoomPerYear: repairs of one room by date
+CREATE INDEX repair_room_date_idx ON Repair(hotelID, roomNo, repairDate);
+
+-- refresh planner statistics so the new indexes are costed correctly
+ANALYZE Customer;
+ANALYZE MaintenanceCompany;
+ANALYZE Assigned;
+ANALYZE Booking;
+ANALYZE Repair;
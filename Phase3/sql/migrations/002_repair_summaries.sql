@@ -0,0 +1,72 @@
+-- Repair counts per company and per room and year, kept current by a
+-- trigger on Repair in the same transaction as the change that moves them.
+-- topKMaintenanceCompany and numberOfRepairsForEachRoomPerYear read these
+-- instead of grouping Repair; RepairSummaries compares them to a recount.
+
+CREATE TABLE CompanyRepairs( cmpID Numeric NOT NULL,
+                             repairs Numeric NOT NULL,
+                             PRIMARY KEY(cmpID));
+
+CREATE TABLE RoomRepairYear( hotelID Numeric NOT NULL,
+                             roomNo Numeric NOT NULL,
+                             year Numeric NOT NULL,
+                             repairs Numeric NOT NULL,
+                             PRIMARY KEY(hotelID, roomNo, year));
+
+-- adds delta to the counts of one repair, creating the rows on first use
+CREATE OR REPLACE FUNCTION repair_summary_add(h Numeric, r Numeric, c Numeric, d Date, delta Numeric)
+RETURNS void AS $$
+DECLARE
+   y Numeric := CAST(DATE_PART('year', d) AS Numeric);
+BEGIN
+   LOOP
+      UPDATE CompanyRepairs SET repairs = repairs + delta WHERE cmpID = c;
+      EXIT WHEN FOUND;
+      BEGIN
+         INSERT INTO CompanyRepairs VALUES (c, delta);
+         EXIT;
+      EXCEPTION WHEN unique_violation THEN
+         -- a concurrent transaction created the row first: update it
+      END;
+   END LOOP;
+   LOOP
+      UPDATE RoomRepairYear SET repairs = repairs + delta WHERE hotelID = h AND roomNo = r AND year = y;
+      EXIT WHEN FOUND;
+      BEGIN
+         INSERT INTO RoomRepairYear VALUES (h, r, y, delta);
+         EXIT;
+      EXCEPTION WHEN unique_violation THEN
+      END;
+   END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION repair_summary_trigger()
+RETURNS trigger AS $$
+BEGIN
+   IF TG_OP <> 'INSERT' THEN
+      PERFORM repair_summary_add(OLD.hotelID, OLD.roomNo, OLD.mCompany, OLD.repairDate, -1);
+   END IF;
+   IF TG_OP <> 'DELETE' THEN
+      PERFORM repair_summary_add(NEW.hotelID, NEW.roomNo, NEW.mCompany, NEW.repairDate, 1);
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- the counts of the repairs already there; Repair is locked so none is
+-- added between the recount and the trigger taking over
+LOCK TABLE Repair IN SHARE MODE;
+
+INSERT INTO CompanyRepairs
+SELECT mCompany, COUNT(*) FROM Repair GROUP BY mCompany;
+
+INSERT INTO RoomRepairYear
+SELECT hotelID, roomNo, CAST(DATE_PART('year', repairDate) AS Numeric), COUNT(*)
+FROM Repair GROUP BY hotelID, roomNo, CAST(DATE_PART('year', repairDate) AS Numeric);
+
+CREATE TRIGGER repair_summary AFTER INSERT OR UPDATE OR DELETE ON Repair
+FOR EACH ROW EXECUTE PROCEDURE repair_summary_trigger();
+
+ANALYZE CompanyRepairs;
+ANALYZE RoomRepairYear;
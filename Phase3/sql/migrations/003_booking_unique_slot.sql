@@ -0,0 +1,19 @@
+-- At most one booking per room and day.  Operations.bookRoom used to insert
+-- without looking, so two clerks could sell the same room for the same
+-- night; the unique constraint makes the database refuse the second one,
+-- and bookRoom reports it as a BookingConflictException.
+--
+-- Its index locks only the key being inserted, so bookings of different
+-- rooms (or of one room on different days) never wait for each other.  It
+-- takes over from booking_room_idx of migration 001, on the same columns.
+--
+-- Fails if double bookings are already stored; list them with
+--    SELECT hotelID, roomNo, bookingDate, COUNT(*) FROM Booking
+--    GROUP BY hotelID, roomNo, bookingDate HAVING COUNT(*) > 1;
+-- and remove or move all but one of each before running Migrator again.
+
+ALTER TABLE Booking ADD CONSTRAINT booking_room_date_unique UNIQUE (hotelID, roomNo, bookingDate);
+
+DROP INDEX booking_room_idx;
+
+ANALYZE Booking;
@@ -0,0 +1,54 @@
+-- Integer keys and counts for the repair summaries of migration 002, to
+-- match the Integer keys of create.sql and of KeyMigrator.  They are small
+-- (one row per company and per room and year), so they are rewritten in
+-- place; repairs added meanwhile wait for the rewrite.
+
+ALTER TABLE CompanyRepairs
+   ALTER COLUMN cmpID TYPE Integer,
+   ALTER COLUMN repairs TYPE Integer;
+
+ALTER TABLE RoomRepairYear
+   ALTER COLUMN hotelID TYPE Integer,
+   ALTER COLUMN roomNo TYPE Integer,
+   ALTER COLUMN year TYPE Integer,
+   ALTER COLUMN repairs TYPE Integer;
+
+-- the trigger calls this one once Repair has Integer keys
+CREATE OR REPLACE FUNCTION repair_summary_add(h Integer, r Integer, c Integer, d Date, delta Integer)
+RETURNS void AS $$
+DECLARE
+   y Integer := CAST(DATE_PART('year', d) AS Integer);
+BEGIN
+   LOOP
+      UPDATE CompanyRepairs SET repairs = repairs + delta WHERE cmpID = c;
+      EXIT WHEN FOUND;
+      BEGIN
+         INSERT INTO CompanyRepairs VALUES (c, delta);
+         EXIT;
+      EXCEPTION WHEN unique_violation THEN
+         -- a concurrent transaction created the row first: update it
+      END;
+   END LOOP;
+   LOOP
+      UPDATE RoomRepairYear SET repairs = repairs + delta WHERE hotelID = h AND roomNo = r AND year = y;
+      EXIT WHEN FOUND;
+      BEGIN
+         INSERT INTO RoomRepairYear VALUES (h, r, y, delta);
+         EXIT;
+      EXCEPTION WHEN unique_violation THEN
+      END;
+   END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- and this one while it still has Numeric keys: the arguments are cast
+-- here, not the columns in the lookups, so the primary keys are used
+CREATE OR REPLACE FUNCTION repair_summary_add(h Numeric, r Numeric, c Numeric, d Date, delta Numeric)
+RETURNS void AS $$
+BEGIN
+   PERFORM repair_summary_add(CAST(h AS Integer), CAST(r AS Integer), CAST(c AS Integer), d, CAST(delta AS Integer));
+END;
+$$ LANGUAGE plpgsql;
+
+ANALYZE CompanyRepairs;
+ANALYZE RoomRepairYear;
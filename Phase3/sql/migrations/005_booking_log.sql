@@ -0,0 +1,30 @@
+-- The log BookingSnapshot.refresh reads to find the bookings committed
+-- since it last looked.  A bID does not tell: each process takes its ids
+-- from an IdAllocator block of its own, so a booking committed later may
+-- have a lower bID than one already read.  Transaction ids below the
+-- oldest one still running (txid_snapshot_xmin) all belong to finished
+-- transactions, which makes them a mark refresh can resume from.
+--
+-- Only the table and its function are made here.  The trigger filling the
+-- log, booking_log on Booking, is added by BookingSnapshot when it builds a
+-- snapshot, so a deployment that never turns the snapshot on
+-- (-Dsnapshot=on) pays no extra insert per booking and keeps no log.
+-- Refresh deletes the rows older than -Dsnapshot.keepDays; once the
+-- snapshot is no longer used,
+--    java BookingSnapshot <dbname> <port> <user> -drop
+-- removes the trigger, empties the log and deletes the snapshot files.
+
+CREATE TABLE BookingLog( bID BigInt NOT NULL,
+                         txid BigInt NOT NULL DEFAULT txid_current(),
+                         logged Timestamp NOT NULL DEFAULT now());
+
+CREATE INDEX booking_log_txid_idx ON BookingLog (txid);
+CREATE INDEX booking_log_logged_idx ON BookingLog (logged);
+
+CREATE OR REPLACE FUNCTION booking_log()
+RETURNS trigger AS $$
+BEGIN
+   INSERT INTO BookingLog (bID) VALUES (NEW.bID);
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,26 @@
+-- The repair summary trigger of migration 002 fires on every UPDATE of
+-- Repair, and took one repair off its counts and added it back even when
+-- none of the columns counted changed, locking the busiest CompanyRepairs
+-- and RoomRepairYear rows for nothing.  Every batch of a KeyMigrator
+-- backfill rewrites all of Repair that way.  The trigger now returns at
+-- once when hotelID, roomNo, mCompany and repairDate are all unchanged.
+--
+-- It stays a trigger on any UPDATE rather than UPDATE OF those columns:
+-- KeyMigrator drops and renames them, which a column list would forbid.
+
+CREATE OR REPLACE FUNCTION repair_summary_trigger()
+RETURNS trigger AS $$
+BEGIN
+   IF TG_OP = 'UPDATE' AND OLD.hotelID = NEW.hotelID AND OLD.roomNo = NEW.roomNo
+      AND OLD.mCompany = NEW.mCompany AND OLD.repairDate = NEW.repairDate THEN
+      RETURN NULL;
+   END IF;
+   IF TG_OP <> 'INSERT' THEN
+      PERFORM repair_summary_add(OLD.hotelID, OLD.roomNo, OLD.mCompany, OLD.repairDate, -1);
+   END IF;
+   IF TG_OP <> 'DELETE' THEN
+      PERFORM repair_summary_add(NEW.hotelID, NEW.roomNo, NEW.mCompany, NEW.repairDate, 1);
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;